@@ -21,6 +21,8 @@ import java.io.Serializable;
 
 import org.picketlink.authentication.AuthenticationException;
 import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.Role;
 
 /**
  * Represents the identity of the current user, and provides an API for authentication and authorization.
@@ -98,4 +100,35 @@ public interface Identity extends Serializable {
      * @return true if the current user has the permission.
      */
     boolean hasPermission(Class<?> resourceClass, Serializable identifier, String operation);
+
+    /**
+     * Tests if the specified role is granted to the currently authenticated user. The roles of the user are
+     * loaded once and reused until a relationship changes.
+     *
+     * @param role The role to check
+     *
+     * @return true if the current user has the role.
+     */
+    boolean hasRole(Role role);
+
+    /**
+     * Tests if the currently authenticated user is a member of the specified group, or of any of its child
+     * groups.
+     *
+     * @param group The group to check
+     *
+     * @return true if the current user is a member of the group.
+     */
+    boolean isMember(Group group);
+
+    /**
+     * Tests if the specified role is granted to the currently authenticated user for the specified group, or
+     * for any of its parent groups.
+     *
+     * @param role The role to check
+     * @param group The group in which the role is granted
+     *
+     * @return true if the current user has the role in the group.
+     */
+    boolean hasGroupRole(Role role, Group group);
 }
@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.internal;
+
+import org.picketlink.idm.event.IdentityTypeDeletedEvent;
+import org.picketlink.idm.event.IdentityTypeUpdatedEvent;
+import org.picketlink.idm.event.PermissionGrantedEvent;
+import org.picketlink.idm.event.PermissionRevokedEvent;
+import org.picketlink.idm.event.RelationshipCreatedEvent;
+import org.picketlink.idm.event.RelationshipDeletedEvent;
+import org.picketlink.idm.event.RelationshipUpdatedEvent;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Keeps a version number that changes whenever a relationship is created, updated or removed, an identity type
+ * is updated (e.g.: disabled) or removed, or a permission is granted or revoked, so that the
+ * {@link AuthorizationSnapshot} and the permission decisions kept by each session can be discarded once they may
+ * be outdated.</p>
+ *
+ * <p>Permission decisions are only cached when all the configured voters are
+ * {@link org.picketlink.idm.permission.spi.CacheablePermissionVoter}. Applications whose cacheable voters depend on
+ * state changed outside of the IDM managers can call {@link #invalidate()} after changing that state.</p>
+ *
+ * @author agent
+ */
+@ApplicationScoped
+public class AuthorizationChangeTracker {
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * <p>The current version of the authorization state.</p>
+     *
+     * @return
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * <p>Discards the authorization state loaded by all sessions. It is loaded again on the next check.</p>
+     */
+    public void invalidate() {
+        this.version.incrementAndGet();
+    }
+
+    public void onRelationshipCreated(@Observes RelationshipCreatedEvent event) {
+        invalidate();
+    }
+
+    public void onRelationshipUpdated(@Observes RelationshipUpdatedEvent event) {
+        invalidate();
+    }
+
+    public void onRelationshipDeleted(@Observes RelationshipDeletedEvent event) {
+        invalidate();
+    }
+
+    public void onIdentityTypeUpdated(@Observes IdentityTypeUpdatedEvent event) {
+        invalidate();
+    }
+
+    public void onIdentityTypeDeleted(@Observes IdentityTypeDeletedEvent event) {
+        invalidate();
+    }
+
+    public void onPermissionGranted(@Observes PermissionGrantedEvent event) {
+        invalidate();
+    }
+
+    public void onPermissionRevoked(@Observes PermissionRevokedEvent event) {
+        invalidate();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.internal;
+
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
+import org.picketlink.idm.model.basic.GroupRole;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.query.RelationshipQuery;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>An immutable view of the roles and groups of an {@link Account}, loaded once so that role and group checks do
+ * not need to query the identity stores.</p>
+ *
+ * <p>The snapshot holds the roles granted to the account, the path of every group the account is a member of
+ * together with the paths of their ancestors, and the group roles of the account. It answers the same questions as
+ * {@link org.picketlink.idm.model.basic.BasicModel#hasRole}, {@link org.picketlink.idm.model.basic.BasicModel#isMember}
+ * and {@link org.picketlink.idm.model.basic.BasicModel#hasGroupRole}, with the difference that group paths are
+ * compared by their segments instead of a plain prefix match.</p>
+ *
+ * <p>A snapshot records the {@link AuthorizationChangeTracker#getVersion() version} of the relationships it was
+ * loaded from, which tells when it must be loaded again.</p>
+ *
+ * @author agent
+ */
+public final class AuthorizationSnapshot implements Serializable {
+
+    private static final long serialVersionUID = -3205584720457411562L;
+
+    private static final String PATH_SEPARATOR = "/";
+
+    private final long version;
+    private final Set<String> roles;
+    private final Set<String> groups;
+    private final Map<String, Set<String>> groupRoles;
+
+    private AuthorizationSnapshot(long version, Set<String> roles, Set<String> groups, Map<String, Set<String>> groupRoles) {
+        this.version = version;
+        this.roles = roles;
+        this.groups = groups;
+        this.groupRoles = groupRoles;
+    }
+
+    /**
+     * <p>Loads the roles and groups of the given {@link Account}.</p>
+     *
+     * @param relationshipManager
+     * @param account
+     * @param version The version of the relationships, read before loading them.
+     *
+     * @return
+     */
+    public static AuthorizationSnapshot create(RelationshipManager relationshipManager, Account account, long version) {
+        Set<String> roles = new HashSet<String>();
+        RelationshipQuery<Grant> grantQuery = relationshipManager.createRelationshipQuery(Grant.class);
+
+        grantQuery.setParameter(Grant.ASSIGNEE, account);
+
+        for (Grant grant : grantQuery.getResultList()) {
+            roles.add(grant.getRole().getId());
+        }
+
+        Set<String> groups = new HashSet<String>();
+        RelationshipQuery<GroupMembership> membershipQuery = relationshipManager.createRelationshipQuery(GroupMembership.class);
+
+        membershipQuery.setParameter(GroupMembership.MEMBER, account);
+
+        for (GroupMembership membership : membershipQuery.getResultList()) {
+            // a member of a group is also a member of all its parent groups
+            String path = normalize(membership.getGroup().getPath());
+
+            while (path != null && groups.add(path)) {
+                path = getParentPath(path);
+            }
+        }
+
+        Map<String, Set<String>> groupRoles = new HashMap<String, Set<String>>();
+        RelationshipQuery<GroupRole> groupRoleQuery = relationshipManager.createRelationshipQuery(GroupRole.class);
+
+        groupRoleQuery.setParameter(GroupRole.ASSIGNEE, account);
+
+        for (GroupRole groupRole : groupRoleQuery.getResultList()) {
+            String roleId = groupRole.getRole().getId();
+            Set<String> paths = groupRoles.get(roleId);
+
+            if (paths == null) {
+                paths = new HashSet<String>();
+                groupRoles.put(roleId, paths);
+            }
+
+            paths.add(normalize(groupRole.getGroup().getPath()));
+        }
+
+        return new AuthorizationSnapshot(version, Collections.unmodifiableSet(roles), Collections.unmodifiableSet(groups),
+                Collections.unmodifiableMap(groupRoles));
+    }
+
+    /**
+     * <p>The version of the relationships this snapshot was loaded from.</p>
+     *
+     * @return
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * <p>Checks if the given {@link Role} is granted to the account.</p>
+     *
+     * @param role
+     *
+     * @return
+     */
+    public boolean hasRole(Role role) {
+        return role != null && this.roles.contains(role.getId());
+    }
+
+    /**
+     * <p>Checks if the account is a member of the given {@link Group}, or of any of its child groups.</p>
+     *
+     * @param group
+     *
+     * @return
+     */
+    public boolean isMember(Group group) {
+        return group != null && this.groups.contains(normalize(group.getPath()));
+    }
+
+    /**
+     * <p>Checks if the given {@link Role} is granted to the account for the given {@link Group}, or for any of its
+     * parent groups.</p>
+     *
+     * @param role
+     * @param group
+     *
+     * @return
+     */
+    public boolean hasGroupRole(Role role, Group group) {
+        if (role == null || group == null) {
+            return false;
+        }
+
+        Set<String> paths = this.groupRoles.get(role.getId());
+
+        if (paths == null) {
+            return false;
+        }
+
+        String path = normalize(group.getPath());
+
+        while (path != null) {
+            if (paths.contains(path)) {
+                return true;
+            }
+
+            path = getParentPath(path);
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>The identifiers of the roles granted to the account.</p>
+     *
+     * @return
+     */
+    public Set<String> getRoles() {
+        return this.roles;
+    }
+
+    /**
+     * <p>The paths of the groups the account is a member of, including their parent groups.</p>
+     *
+     * @return
+     */
+    public Set<String> getGroups() {
+        return this.groups;
+    }
+
+    private static String normalize(String path) {
+        if (path.length() > 1 && path.endsWith(PATH_SEPARATOR)) {
+            return path.substring(0, path.length() - 1);
+        }
+
+        return path;
+    }
+
+    private static String getParentPath(String path) {
+        int index = path.lastIndexOf(PATH_SEPARATOR);
+
+        if (index <= 0) {
+            return null;
+        }
+
+        return path.substring(0, index);
+    }
+}
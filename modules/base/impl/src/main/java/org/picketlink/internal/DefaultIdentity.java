@@ -36,8 +36,13 @@ import org.picketlink.authentication.event.PreAuthenticateEvent;
 import org.picketlink.authentication.event.PreLoggedOutEvent;
 import org.picketlink.authentication.internal.IdmAuthenticator;
 import org.picketlink.credential.DefaultLoginCredentials;
+import org.picketlink.idm.RelationshipManager;
 import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.permission.PermissionResolver;
+import org.picketlink.idm.permission.acl.internal.PermissionHandlerPolicy;
+import org.picketlink.idm.permission.acl.spi.PermissionHandler;
 
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.inject.Instance;
@@ -45,9 +50,16 @@ import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.Serializable;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Default Identity implementation
+ * <p/>
+ * The roles and groups of the authenticated account are loaded into an {@link AuthorizationSnapshot} when the user
+ * logs in, and the outcome of the latest permission checks is kept for the session when all the permission voters
+ * are cacheable. Both are discarded when the {@link AuthorizationChangeTracker} reports a change.
  */
 @SessionScoped
 @Named("identity")
@@ -55,6 +67,17 @@ public class DefaultIdentity implements Identity {
 
     private static final long serialVersionUID = 3696702275353144429L;
 
+    /**
+     * The maximum number of permission decisions kept for a session
+     */
+    public static final int PERMISSION_CACHE_SIZE = 256;
+
+    /**
+     * Provides the natural identifier of the resources, used to cache permission decisions
+     */
+    private static final PermissionHandlerPolicy PERMISSION_HANDLER_POLICY =
+            new PermissionHandlerPolicy(new HashSet<PermissionHandler>());
+
     @Inject
     private BeanManager beanManager;
 
@@ -71,6 +94,12 @@ public class DefaultIdentity implements Identity {
     @Inject
     private transient PermissionResolver permissionResolver;
 
+    @Inject
+    private Instance<RelationshipManager> relationshipManagerInstance;
+
+    @Inject
+    private AuthorizationChangeTracker authorizationChangeTracker;
+
     /**
      * Flag indicating whether we are currently authenticating
      */
@@ -78,6 +107,10 @@ public class DefaultIdentity implements Identity {
 
     private Account account;
 
+    private volatile AuthorizationSnapshot authorizationSnapshot;
+
+    private transient PermissionCache permissionCache;
+
     public boolean isLoggedIn() {
         // If there is an account set, then the account is logged in.
         return this.account != null;
@@ -120,6 +153,17 @@ public class DefaultIdentity implements Identity {
     }
 
     protected void handleSuccessfulLoginAttempt(Account validatedAccount) {
+        AuthorizationSnapshot snapshot = null;
+
+        try {
+            snapshot = AuthorizationSnapshot.create(this.relationshipManagerInstance.get(), validatedAccount,
+                    this.authorizationChangeTracker.getVersion());
+        } catch (RuntimeException e) {
+            // the roles and groups are loaded again when first checked, which reports the failure
+        }
+
+        this.authorizationSnapshot = snapshot;
+        this.permissionCache = null;
         this.account = validatedAccount;
         beanManager.fireEvent(new LoggedInEvent());
     }
@@ -212,6 +256,8 @@ public class DefaultIdentity implements Identity {
      */
     private void unAuthenticate(boolean invalidateLoginCredential) {
         this.account = null;
+        this.authorizationSnapshot = null;
+        this.permissionCache = null;
 
         if (invalidateLoginCredential) {
             loginCredential.invalidate();
@@ -219,10 +265,179 @@ public class DefaultIdentity implements Identity {
     }
 
     public boolean hasPermission(Object resource, String operation) {
-        return permissionResolver.resolvePermission(account, resource, operation);
+        Serializable identifier = null;
+
+        if (resource != null && permissionResolver.isCacheable()) {
+            identifier = PERMISSION_HANDLER_POLICY.getNaturalIdentifier(resource);
+        }
+
+        // decisions are only cached for resources with a natural identifier, as the resource may change
+        if (identifier == null) {
+            return permissionResolver.resolvePermission(account, resource, operation);
+        }
+
+        PermissionCache cache = getPermissionCache();
+        PermissionKey key = new PermissionKey(resource.getClass(), identifier, operation);
+        long version = this.authorizationChangeTracker.getVersion();
+        Boolean decision = cache.get(key, version);
+
+        if (decision == null) {
+            decision = permissionResolver.resolvePermission(account, resource, operation);
+            cache.put(key, decision, version);
+        }
+
+        return decision;
     }
 
     public boolean hasPermission(Class<?> resourceClass, Serializable identifier, String operation) {
-        return permissionResolver.resolvePermission(account, resourceClass, identifier, operation);
+        if (!permissionResolver.isCacheable()) {
+            return permissionResolver.resolvePermission(account, resourceClass, identifier, operation);
+        }
+
+        PermissionCache cache = getPermissionCache();
+        PermissionKey key = new PermissionKey(resourceClass, identifier, operation);
+        long version = this.authorizationChangeTracker.getVersion();
+        Boolean decision = cache.get(key, version);
+
+        if (decision == null) {
+            decision = permissionResolver.resolvePermission(account, resourceClass, identifier, operation);
+            cache.put(key, decision, version);
+        }
+
+        return decision;
+    }
+
+    @Override
+    public boolean hasRole(Role role) {
+        AuthorizationSnapshot snapshot = getAuthorizationSnapshot();
+        return snapshot != null && snapshot.hasRole(role);
+    }
+
+    @Override
+    public boolean isMember(Group group) {
+        AuthorizationSnapshot snapshot = getAuthorizationSnapshot();
+        return snapshot != null && snapshot.isMember(group);
+    }
+
+    @Override
+    public boolean hasGroupRole(Role role, Group group) {
+        AuthorizationSnapshot snapshot = getAuthorizationSnapshot();
+        return snapshot != null && snapshot.hasGroupRole(role, group);
+    }
+
+    /**
+     * Returns the roles and groups of the authenticated account, loading them again if any relationship changed
+     * since they were loaded.
+     *
+     * @return the snapshot, or null if the user is not logged in
+     */
+    public AuthorizationSnapshot getAuthorizationSnapshot() {
+        Account currentAccount = this.account;
+
+        if (currentAccount == null) {
+            return null;
+        }
+
+        long version = this.authorizationChangeTracker.getVersion();
+        AuthorizationSnapshot snapshot = this.authorizationSnapshot;
+
+        if (snapshot == null || snapshot.getVersion() != version) {
+            snapshot = AuthorizationSnapshot.create(this.relationshipManagerInstance.get(), currentAccount, version);
+            this.authorizationSnapshot = snapshot;
+        }
+
+        return snapshot;
+    }
+
+    private synchronized PermissionCache getPermissionCache() {
+        if (this.permissionCache == null) {
+            this.permissionCache = new PermissionCache();
+        }
+
+        return this.permissionCache;
+    }
+
+    /**
+     * Keeps the latest permission decisions, discarding all of them when the authorization state changes
+     */
+    static class PermissionCache {
+
+        private final Map<PermissionKey, Boolean> decisions = new LinkedHashMap<PermissionKey, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PermissionKey, Boolean> eldest) {
+                return size() > PERMISSION_CACHE_SIZE;
+            }
+        };
+
+        private long version;
+
+        synchronized Boolean get(PermissionKey key, long currentVersion) {
+            if (this.version != currentVersion) {
+                this.decisions.clear();
+                this.version = currentVersion;
+                return null;
+            }
+
+            return this.decisions.get(key);
+        }
+
+        synchronized void put(PermissionKey key, Boolean decision, long decisionVersion) {
+            // the decision may be outdated if the authorization state changed while it was resolved
+            if (this.version == decisionVersion) {
+                this.decisions.put(key, decision);
+            }
+        }
+    }
+
+    /**
+     * Identifies a permission check by the class and natural identifier of its resource
+     */
+    static class PermissionKey {
+
+        private final Class<?> resourceClass;
+        private final Serializable identifier;
+        private final String operation;
+
+        PermissionKey(Class<?> resourceClass, Serializable identifier, String operation) {
+            this.resourceClass = resourceClass;
+            this.identifier = identifier;
+            this.operation = operation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof PermissionKey)) {
+                return false;
+            }
+
+            PermissionKey other = (PermissionKey) obj;
+
+            return equals(this.resourceClass, other.resourceClass) && equals(this.identifier, other.identifier)
+                    && equals(this.operation, other.operation);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = hashCode(this.resourceClass);
+
+            result = 31 * result + hashCode(this.identifier);
+            result = 31 * result + hashCode(this.operation);
+
+            return result;
+        }
+
+        private static boolean equals(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        private static int hashCode(Object value) {
+            return value == null ? 0 : value.hashCode();
+        }
     }
 }
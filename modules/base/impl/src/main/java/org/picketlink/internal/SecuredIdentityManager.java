@@ -18,6 +18,7 @@
 
 package org.picketlink.internal;
 
+import org.picketlink.idm.BatchResult;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.credential.Credentials;
@@ -27,6 +28,7 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.query.IdentityQuery;
 
 import javax.enterprise.inject.Typed;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -51,6 +53,11 @@ public class SecuredIdentityManager implements IdentityManager {
         decorated.add(identityType);
     }
 
+    @Override
+    public <T extends IdentityType> BatchResult<T> addAll(Collection<T> identityTypes) throws IdentityManagementException {
+        return decorated.addAll(identityTypes);
+    }
+
     @Override
     public void update(IdentityType identityType) throws IdentityManagementException {
         decorated.update(identityType);
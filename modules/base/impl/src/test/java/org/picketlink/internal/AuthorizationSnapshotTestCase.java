@@ -0,0 +1,195 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.picketlink.idm.model.basic.BasicModel.addToGroup;
+import static org.picketlink.idm.model.basic.BasicModel.grantGroupRole;
+import static org.picketlink.idm.model.basic.BasicModel.grantRole;
+
+/**
+ * <p>Test case for the role, group and group role checks of {@link AuthorizationSnapshot}.</p>
+ *
+ * @author agent
+ */
+public class AuthorizationSnapshotTestCase {
+
+    private IdentityManager identityManager;
+    private RelationshipManager relationshipManager;
+    private User john;
+
+    @Before
+    public void onSetup() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        if (partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM) == null) {
+            partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        }
+
+        this.identityManager = partitionManager.createIdentityManager();
+        this.relationshipManager = partitionManager.createRelationshipManager();
+        this.john = new User("john");
+
+        this.identityManager.add(this.john);
+    }
+
+    @Test
+    public void testHasRole() {
+        Role admin = new Role("admin");
+        Role manager = new Role("manager");
+
+        this.identityManager.add(admin);
+        this.identityManager.add(manager);
+
+        grantRole(this.relationshipManager, this.john, admin);
+
+        AuthorizationSnapshot snapshot = AuthorizationSnapshot.create(this.relationshipManager, this.john, 7);
+
+        assertEquals(7, snapshot.getVersion());
+        assertTrue(snapshot.hasRole(admin));
+        assertFalse(snapshot.hasRole(manager));
+        assertFalse(snapshot.hasRole(null));
+    }
+
+    @Test
+    public void testIsMemberOfGroupAndAncestors() {
+        Group company = new Group("company");
+
+        this.identityManager.add(company);
+
+        Group admin = new Group("admin", company);
+
+        this.identityManager.add(admin);
+
+        Group staff = new Group("staff", admin);
+
+        this.identityManager.add(staff);
+
+        addToGroup(this.relationshipManager, this.john, staff);
+
+        AuthorizationSnapshot snapshot = AuthorizationSnapshot.create(this.relationshipManager, this.john, 0);
+
+        assertTrue(snapshot.isMember(staff));
+        assertTrue(snapshot.isMember(admin));
+        assertTrue(snapshot.isMember(company));
+        assertTrue(snapshot.getGroups().contains("/company/admin/staff"));
+        assertTrue(snapshot.getGroups().contains("/company/admin"));
+        assertTrue(snapshot.getGroups().contains("/company"));
+        assertFalse(snapshot.isMember(null));
+    }
+
+    @Test
+    public void testIsMemberDoesNotMatchSiblingWithSamePrefix() {
+        Group admin = new Group("admin");
+        Group admins = new Group("admins");
+
+        this.identityManager.add(admin);
+        this.identityManager.add(admins);
+
+        addToGroup(this.relationshipManager, this.john, admin);
+
+        AuthorizationSnapshot snapshot = AuthorizationSnapshot.create(this.relationshipManager, this.john, 0);
+
+        assertTrue(snapshot.isMember(admin));
+        assertFalse(snapshot.isMember(admins));
+        assertFalse(snapshot.isMember(createGroup("/admin/staff")));
+    }
+
+    @Test
+    public void testTrailingSeparatorIgnored() {
+        Group admin = new Group("admin");
+
+        this.identityManager.add(admin);
+
+        addToGroup(this.relationshipManager, this.john, admin);
+
+        Role manager = new Role("manager");
+
+        this.identityManager.add(manager);
+
+        grantGroupRole(this.relationshipManager, this.john, manager, admin);
+
+        AuthorizationSnapshot snapshot = AuthorizationSnapshot.create(this.relationshipManager, this.john, 0);
+
+        assertTrue(snapshot.isMember(createGroup("/admin/")));
+        assertTrue(snapshot.hasGroupRole(manager, createGroup("/admin/")));
+        assertFalse(snapshot.isMember(createGroup("/admins/")));
+    }
+
+    @Test
+    public void testGroupRoleAppliesToChildGroups() {
+        Group admin = new Group("admin");
+        Group admins = new Group("admins");
+
+        this.identityManager.add(admin);
+        this.identityManager.add(admins);
+
+        Group staff = new Group("staff", admin);
+
+        this.identityManager.add(staff);
+
+        Role manager = new Role("manager");
+        Role auditor = new Role("auditor");
+
+        this.identityManager.add(manager);
+        this.identityManager.add(auditor);
+
+        grantGroupRole(this.relationshipManager, this.john, manager, admin);
+
+        AuthorizationSnapshot snapshot = AuthorizationSnapshot.create(this.relationshipManager, this.john, 0);
+
+        assertTrue(snapshot.hasGroupRole(manager, admin));
+        assertTrue(snapshot.hasGroupRole(manager, staff));
+        assertFalse(snapshot.hasGroupRole(manager, admins));
+        assertFalse(snapshot.hasGroupRole(manager, createGroup("/")));
+        assertFalse(snapshot.hasGroupRole(auditor, admin));
+        assertFalse(snapshot.hasGroupRole(manager, null));
+    }
+
+    private Group createGroup(final String path) {
+        // the path of a group is built from its name and parent, so it is replaced to test other forms
+        return new Group() {
+            @Override
+            public String getPath() {
+                return path;
+            }
+        };
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.permission.PermissionResolver;
+import org.picketlink.idm.permission.spi.CacheablePermissionVoter;
+import org.picketlink.idm.permission.spi.PermissionVoter;
+import org.picketlink.internal.DefaultIdentity.PermissionCache;
+import org.picketlink.internal.DefaultIdentity.PermissionKey;
+
+import javax.enterprise.inject.Instance;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.util.TypeLiteral;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.picketlink.idm.model.basic.BasicModel.grantRole;
+
+/**
+ * <p>Test case for the authorization state kept by {@link DefaultIdentity}.</p>
+ *
+ * @author agent
+ */
+public class DefaultIdentityTestCase {
+
+    private IdentityManager identityManager;
+    private RelationshipManager relationshipManager;
+    private AuthorizationChangeTracker changeTracker;
+    private DefaultIdentity identity;
+    private User john;
+
+    @Before
+    public void onSetup() throws Exception {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        if (partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM) == null) {
+            partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        }
+
+        this.identityManager = partitionManager.createIdentityManager();
+        this.relationshipManager = partitionManager.createRelationshipManager();
+        this.changeTracker = new AuthorizationChangeTracker();
+        this.john = new User("john");
+
+        this.identityManager.add(this.john);
+
+        this.identity = new DefaultIdentity();
+
+        inject("account", this.john);
+        inject("authorizationChangeTracker", this.changeTracker);
+        inject("relationshipManagerInstance", new RelationshipManagerInstance(this.relationshipManager));
+    }
+
+    @Test
+    public void testSnapshotReloadedWhenVersionChanges() throws Exception {
+        AuthorizationSnapshot snapshot = this.identity.getAuthorizationSnapshot();
+        Role admin = new Role("admin");
+
+        assertSame(snapshot, this.identity.getAuthorizationSnapshot());
+
+        this.identityManager.add(admin);
+
+        grantRole(this.relationshipManager, this.john, admin);
+
+        assertFalse(this.identity.hasRole(admin));
+
+        this.changeTracker.invalidate();
+
+        AuthorizationSnapshot reloaded = this.identity.getAuthorizationSnapshot();
+
+        assertNotSame(snapshot, reloaded);
+        assertEquals(this.changeTracker.getVersion(), reloaded.getVersion());
+        assertTrue(this.identity.hasRole(admin));
+    }
+
+    @Test
+    public void testSnapshotLoadedOnLogin() throws Exception {
+        inject("account", null);
+        inject("beanManager", createBeanManager());
+
+        this.identity.handleSuccessfulLoginAttempt(this.john);
+
+        AuthorizationSnapshot snapshot = getField("authorizationSnapshot");
+
+        assertNotNull(snapshot);
+        assertSame(snapshot, this.identity.getAuthorizationSnapshot());
+    }
+
+    @Test
+    public void testLoginNotAbortedWhenSnapshotFails() throws Exception {
+        User jane = new User("jane");
+
+        inject("account", null);
+        inject("beanManager", createBeanManager());
+
+        // jane is not stored, so her relationships can not be queried
+        this.identity.handleSuccessfulLoginAttempt(jane);
+
+        assertTrue(this.identity.isLoggedIn());
+        assertSame(jane, this.identity.getAccount());
+        assertNull(getField("authorizationSnapshot"));
+    }
+
+    @Test
+    public void testNoSnapshotWhenNotLoggedIn() throws Exception {
+        inject("account", null);
+
+        assertNull(this.identity.getAuthorizationSnapshot());
+    }
+
+    @Test
+    public void testCacheableDecisionsKeptUntilVersionChanges() throws Exception {
+        CountingVoter voter = new CacheableCountingVoter();
+
+        inject("permissionResolver", new PermissionResolver(Collections.<PermissionVoter>singletonList(voter)));
+
+        assertTrue(this.identity.hasPermission(Integer.class, "read"));
+        assertTrue(this.identity.hasPermission(Integer.class, "read"));
+        assertTrue(this.identity.hasPermission(String.class, "resource", "read"));
+        assertTrue(this.identity.hasPermission(String.class, "resource", "read"));
+        assertEquals(2, voter.count);
+
+        this.changeTracker.invalidate();
+
+        assertTrue(this.identity.hasPermission(Integer.class, "read"));
+        assertEquals(3, voter.count);
+    }
+
+    @Test
+    public void testDecisionsNotCachedForResourcesWithoutIdentifier() throws Exception {
+        CountingVoter voter = new CacheableCountingVoter();
+
+        inject("permissionResolver", new PermissionResolver(Collections.<PermissionVoter>singletonList(voter)));
+
+        // no permission handler provides the identifier of a string
+        assertTrue(this.identity.hasPermission("resource", "read"));
+        assertTrue(this.identity.hasPermission("resource", "read"));
+        assertEquals(2, voter.count);
+    }
+
+    @Test
+    public void testDecisionsNotCachedWhenVoterNotCacheable() throws Exception {
+        CountingVoter cacheable = new CacheableCountingVoter();
+        CountingVoter voter = new CountingVoter();
+        List<PermissionVoter> voters = new ArrayList<PermissionVoter>();
+
+        voters.add(cacheable);
+        voters.add(voter);
+
+        inject("permissionResolver", new PermissionResolver(voters));
+
+        assertTrue(this.identity.hasPermission(Integer.class, "read"));
+        assertTrue(this.identity.hasPermission(Integer.class, "read"));
+        assertTrue(this.identity.hasPermission(String.class, "resource", "read"));
+        assertEquals(3, voter.count);
+        assertEquals(3, cacheable.count);
+    }
+
+    @Test
+    public void testPermissionCacheDiscardsDecisionsFromOtherVersions() {
+        PermissionCache cache = new PermissionCache();
+        PermissionKey key = new PermissionKey(String.class, "resource", "read");
+
+        assertNull(cache.get(key, 0));
+
+        cache.put(key, Boolean.TRUE, 0);
+
+        assertEquals(Boolean.TRUE, cache.get(key, 0));
+        assertNull(cache.get(key, 1));
+
+        // a decision resolved before the version changed is not kept
+        cache.put(key, Boolean.FALSE, 0);
+
+        assertNull(cache.get(key, 1));
+    }
+
+    @Test
+    public void testPermissionCacheEvictsLeastRecentlyUsed() {
+        PermissionCache cache = new PermissionCache();
+
+        for (int i = 0; i < DefaultIdentity.PERMISSION_CACHE_SIZE; i++) {
+            cache.put(new PermissionKey(String.class, i, "read"), Boolean.TRUE, 0);
+        }
+
+        // the first decision becomes the most recently used one
+        assertEquals(Boolean.TRUE, cache.get(new PermissionKey(String.class, 0, "read"), 0));
+
+        cache.put(new PermissionKey(String.class, DefaultIdentity.PERMISSION_CACHE_SIZE, "read"), Boolean.TRUE, 0);
+
+        assertEquals(Boolean.TRUE, cache.get(new PermissionKey(String.class, 0, "read"), 0));
+        assertNull(cache.get(new PermissionKey(String.class, 1, "read"), 0));
+        assertEquals(Boolean.TRUE, cache.get(new PermissionKey(String.class, DefaultIdentity.PERMISSION_CACHE_SIZE, "read"), 0));
+    }
+
+    private void inject(String fieldName, Object value) throws Exception {
+        Field field = DefaultIdentity.class.getDeclaredField(fieldName);
+
+        field.setAccessible(true);
+        field.set(this.identity, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getField(String fieldName) throws Exception {
+        Field field = DefaultIdentity.class.getDeclaredField(fieldName);
+
+        field.setAccessible(true);
+
+        return (T) field.get(this.identity);
+    }
+
+    private BeanManager createBeanManager() {
+        // events are ignored
+        return (BeanManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {BeanManager.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                });
+    }
+
+    private static class CountingVoter implements PermissionVoter {
+
+        int count;
+
+        @Override
+        public VotingResult hasPermission(IdentityType recipient, Object resource, String operation) {
+            this.count++;
+            return VotingResult.ALLOW;
+        }
+
+        @Override
+        public VotingResult hasPermission(IdentityType recipient, Class<?> resourceClass, Serializable identifier,
+                String operation) {
+            this.count++;
+            return VotingResult.ALLOW;
+        }
+    }
+
+    private static class CacheableCountingVoter extends CountingVoter implements CacheablePermissionVoter {
+
+    }
+
+    private static class RelationshipManagerInstance implements Instance<RelationshipManager> {
+
+        private final RelationshipManager relationshipManager;
+
+        RelationshipManagerInstance(RelationshipManager relationshipManager) {
+            this.relationshipManager = relationshipManager;
+        }
+
+        @Override
+        public RelationshipManager get() {
+            return this.relationshipManager;
+        }
+
+        @Override
+        public Instance<RelationshipManager> select(Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends RelationshipManager> Instance<U> select(Class<U> subtype, Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends RelationshipManager> Instance<U> select(TypeLiteral<U> subtype, Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isUnsatisfied() {
+            return false;
+        }
+
+        @Override
+        public boolean isAmbiguous() {
+            return false;
+        }
+
+        @Override
+        public Iterator<RelationshipManager> iterator() {
+            return Collections.singletonList(this.relationshipManager).iterator();
+        }
+    }
+}
@@ -50,6 +50,8 @@ public interface GeneralConstants {
 
     String AUDIT_SECURITY_DOMAIN = "picketlink.audit.securitydomain";
 
+    String BACK_CHANNEL_LOGOUT_PARTICIPANTS = "BACK_CHANNEL_LOGOUT_PARTICIPANTS";
+
     String CONFIGURATION = "CONFIGURATION";
 
     String CONFIG_FILE_LOCATION = "/WEB-INF/picketlink.xml";
@@ -58,6 +60,9 @@ public interface GeneralConstants {
 
     String CONTEXT_PATH = "CONTEXT_PATH";
 
+    // Maximum size, in bytes, of a DEFLATE encoded message once decoded
+    String DEFLATE_MAX_INFLATED_SIZE = "picketlink.deflate.maxinflatedsize";
+
     String DEPRECATED_CONFIG_FILE_LOCATION = "/WEB-INF/picketlink-idfed.xml";
 
     String LOCAL_LOGOUT = "LLO";
@@ -80,6 +85,8 @@ public interface GeneralConstants {
 
     String LOGOUT_PAGE_NAME = "/logout.jsp";
 
+    String METADATA_REGISTRY = "METADATA_REGISTRY";
+
     String NAMEID_FORMAT = "NAMEID_FORMAT";
 
     String PRINCIPAL_ID = "picketlink.principal";
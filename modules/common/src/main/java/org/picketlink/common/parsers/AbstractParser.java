@@ -19,10 +19,10 @@ package org.picketlink.common.parsers;
 
 import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
-import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.exceptions.ParsingException;
 import org.picketlink.common.util.StaxParserUtil;
-import org.picketlink.common.util.SystemPropertiesUtil;
+import org.picketlink.common.util.XMLFactoryPool;
+import org.w3c.dom.Node;
 
 import javax.xml.stream.EventFilter;
 import javax.xml.stream.XMLEventReader;
@@ -31,8 +31,6 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.XMLEvent;
 import java.io.InputStream;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
 
 /**
  * Base class for parsers
@@ -50,19 +48,7 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
      * @return
      */
     protected XMLInputFactory getXMLInputFactory() {
-        boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                .equalsIgnoreCase("true");
-        ClassLoader prevTCCL = getTCCL();
-        try {
-            if (tccl_jaxp) {
-                setTCCL(getClass().getClassLoader());
-            }
-            return XMLInputFactory.newInstance();
-        } finally {
-            if (tccl_jaxp) {
-                setTCCL(prevTCCL);
-            }
-        }
+        return XMLFactoryPool.getXMLInputFactory();
     }
 
     /**
@@ -79,9 +65,28 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
         if (configStream == null)
             throw logger.nullArgumentError("InputStream");
 
-        XMLInputFactory xmlInputFactory = getXMLInputFactory();
+        return parse(filterWhitespaces(StaxParserUtil.getXMLEventReader(configStream)));
+    }
+
+    /**
+     * Parse a DOM node, such as a document that was already parsed for signature validation or decryption. The node
+     * is read directly, without being serialized and parsed again.
+     *
+     * @param node
+     *
+     * @return
+     *
+     * @throws {@link IllegalArgumentException} when the node is null
+     */
+    public Object parse(Node node) throws ParsingException {
+        if (node == null)
+            throw logger.nullArgumentError("Node");
+
+        return parse(filterWhitespaces(StaxParserUtil.getXMLEventReader(node)));
+    }
 
-        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(configStream);
+    private XMLEventReader filterWhitespaces(XMLEventReader xmlEventReader) throws ParsingException {
+        XMLInputFactory xmlInputFactory = getXMLInputFactory();
 
         try {
             xmlEventReader = xmlInputFactory.createFilteredReader(xmlEventReader, new EventFilter() {
@@ -105,32 +110,7 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
             throw logger.parserException(e);
         }
 
-        return parse(xmlEventReader);
-    }
-
-    private ClassLoader getTCCL() {
-        if (System.getSecurityManager() != null) {
-            return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
-                public ClassLoader run() {
-                    return Thread.currentThread().getContextClassLoader();
-                }
-            });
-        } else {
-            return Thread.currentThread().getContextClassLoader();
-        }
-    }
-
-    private void setTCCL(final ClassLoader paramCl) {
-        if (System.getSecurityManager() != null) {
-            AccessController.doPrivileged(new PrivilegedAction<Void>() {
-                public Void run() {
-                    Thread.currentThread().setContextClassLoader(paramCl);
-                    return null;
-                }
-            });
-        } else {
-            Thread.currentThread().setContextClassLoader(paramCl);
-        }
+        return xmlEventReader;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,377 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.common.util;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>An {@link XMLEventReader} that reads the events directly from a DOM {@link Node}, so a document that was already
+ * parsed can be handed to the StAX parsers without being serialized and parsed again.</p>
+ *
+ * <p>When reading an {@link Element} that is not the document element, the namespaces declared by its ancestors are
+ * declared on the first start element, the same way they would be written when serializing the element.</p>
+ *
+ * @author agent
+ */
+class DOMEventReader implements XMLEventReader {
+
+    private static final String XMLNS_ATTRIBUTE_NS_URI = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
+    private final XMLEventFactory eventFactory;
+    private final Node start;
+    private final Node boundary;
+
+    private Node current;
+    private boolean exiting;
+    private boolean startDocumentRead;
+    private boolean endDocumentRead;
+    private XMLEvent peeked;
+
+    DOMEventReader(Node node, XMLEventFactory eventFactory) {
+        this.eventFactory = eventFactory;
+
+        if (node.getNodeType() == Node.DOCUMENT_NODE) {
+            this.start = null;
+            this.boundary = node;
+            this.current = node.getFirstChild();
+        } else {
+            this.start = node;
+            this.boundary = null;
+            this.current = node;
+        }
+    }
+
+    @Override
+    public XMLEvent nextEvent() throws XMLStreamException {
+        XMLEvent event = peek();
+
+        if (event == null) {
+            throw new NoSuchElementException();
+        }
+
+        this.peeked = null;
+
+        return event;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.peeked != null || !this.endDocumentRead;
+    }
+
+    @Override
+    public XMLEvent peek() throws XMLStreamException {
+        if (this.peeked == null) {
+            this.peeked = readEvent();
+        }
+
+        return this.peeked;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+
+        while (true) {
+            XMLEvent event = nextEvent();
+
+            if (event.isEndElement()) {
+                return text.toString();
+            }
+
+            if (event.isCharacters()) {
+                text.append(event.asCharacters().getData());
+            } else if (event.isStartElement()) {
+                throw new XMLStreamException("Element text expected, found a start element: " + event.asStartElement().getName());
+            }
+        }
+    }
+
+    @Override
+    public XMLEvent nextTag() throws XMLStreamException {
+        while (true) {
+            XMLEvent event = nextEvent();
+
+            if (event.isStartElement() || event.isEndElement()) {
+                return event;
+            }
+
+            if (event.isCharacters() && !event.asCharacters().isWhiteSpace()) {
+                throw new XMLStreamException("Tag expected, found text: " + event.asCharacters().getData());
+            }
+        }
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Property not supported: " + name);
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        this.current = null;
+        this.peeked = null;
+        this.startDocumentRead = true;
+        this.endDocumentRead = true;
+    }
+
+    @Override
+    public Object next() {
+        try {
+            return nextEvent();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private XMLEvent readEvent() {
+        if (!this.startDocumentRead) {
+            this.startDocumentRead = true;
+            return this.eventFactory.createStartDocument();
+        }
+
+        while (this.current != null) {
+            Node node = this.current;
+
+            if (this.exiting) {
+                advance();
+
+                if (node.getNodeType() == Node.ELEMENT_NODE) {
+                    return this.eventFactory.createEndElement(getName(node), null);
+                }
+
+                continue;
+            }
+
+            switch (node.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    XMLEvent startElement = createStartElement((Element) node);
+
+                    if (node.hasChildNodes()) {
+                        this.current = node.getFirstChild();
+                    } else {
+                        this.exiting = true;
+                    }
+
+                    return startElement;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    return readCharacters();
+                case Node.COMMENT_NODE:
+                    advance();
+                    return this.eventFactory.createComment(node.getNodeValue());
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    advance();
+                    ProcessingInstruction instruction = (ProcessingInstruction) node;
+                    return this.eventFactory.createProcessingInstruction(instruction.getTarget(), instruction.getData());
+                case Node.ENTITY_REFERENCE_NODE:
+                    if (node.hasChildNodes()) {
+                        this.current = node.getFirstChild();
+                    } else {
+                        advance();
+                    }
+                    break;
+                default:
+                    advance();
+            }
+        }
+
+        if (!this.endDocumentRead) {
+            this.endDocumentRead = true;
+            return this.eventFactory.createEndDocument();
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>Coalesces adjacent text and CDATA nodes into a single event, as the configured {@link
+     * javax.xml.stream.XMLInputFactory} does.</p>
+     */
+    private Characters readCharacters() {
+        StringBuilder text = new StringBuilder();
+
+        while (this.current != null && !this.exiting
+                && (this.current.getNodeType() == Node.TEXT_NODE || this.current.getNodeType() == Node.CDATA_SECTION_NODE)) {
+            text.append(this.current.getNodeValue());
+            advance();
+        }
+
+        return this.eventFactory.createCharacters(text.toString());
+    }
+
+    private void advance() {
+        Node node = this.current;
+
+        if (node == this.start) {
+            this.current = null;
+            return;
+        }
+
+        Node sibling = node.getNextSibling();
+
+        if (sibling != null) {
+            this.current = sibling;
+            this.exiting = false;
+        } else {
+            Node parent = node.getParentNode();
+
+            this.current = parent == this.boundary ? null : parent;
+            this.exiting = true;
+        }
+    }
+
+    private XMLEvent createStartElement(Element element) {
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        List<Namespace> namespaces = new ArrayList<Namespace>();
+        Set<String> declaredPrefixes = new HashSet<String>();
+        NamedNodeMap attributeNodes = element.getAttributes();
+
+        for (int i = 0; i < attributeNodes.getLength(); i++) {
+            Attr attribute = (Attr) attributeNodes.item(i);
+
+            if (XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                String prefix = getNamespacePrefix(attribute);
+
+                declaredPrefixes.add(prefix);
+                namespaces.add(createNamespace(prefix, attribute.getValue()));
+            } else {
+                attributes.add(this.eventFactory.createAttribute(getName(attribute), attribute.getValue()));
+            }
+        }
+
+        Node parent = null;
+
+        if (element == this.start) {
+            addInheritedNamespaces(element, declaredPrefixes, namespaces);
+        } else {
+            parent = element.getParentNode();
+        }
+
+        // documents built in memory may not declare the namespaces used by their elements and attributes
+        addNamespace(element.getPrefix(), element.getNamespaceURI(), parent, declaredPrefixes, namespaces);
+
+        for (int i = 0; i < attributeNodes.getLength(); i++) {
+            Attr attribute = (Attr) attributeNodes.item(i);
+
+            if (attribute.getPrefix() != null && !XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                addNamespace(attribute.getPrefix(), attribute.getNamespaceURI(), parent, declaredPrefixes, namespaces);
+            }
+        }
+
+        return this.eventFactory.createStartElement(getName(element), attributes.iterator(), namespaces.iterator());
+    }
+
+    private void addInheritedNamespaces(Element element, Set<String> declaredPrefixes, List<Namespace> namespaces) {
+        Node ancestor = element.getParentNode();
+
+        while (ancestor != null && ancestor.getNodeType() == Node.ELEMENT_NODE) {
+            NamedNodeMap attributeNodes = ancestor.getAttributes();
+
+            for (int i = 0; i < attributeNodes.getLength(); i++) {
+                Attr attribute = (Attr) attributeNodes.item(i);
+
+                if (XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                    String prefix = getNamespacePrefix(attribute);
+
+                    if (declaredPrefixes.add(prefix)) {
+                        namespaces.add(createNamespace(prefix, attribute.getValue()));
+                    }
+                }
+            }
+
+            ancestor = ancestor.getParentNode();
+        }
+    }
+
+    private void addNamespace(String prefix, String namespaceURI, Node parent, Set<String> declaredPrefixes,
+                              List<Namespace> namespaces) {
+        if (namespaceURI == null || XMLConstants.XML_NS_URI.equals(namespaceURI)) {
+            return;
+        }
+
+        if (prefix == null) {
+            prefix = XMLConstants.DEFAULT_NS_PREFIX;
+        }
+
+        if (declaredPrefixes.contains(prefix)) {
+            return;
+        }
+
+        if (parent != null && namespaceURI.equals(parent.lookupNamespaceURI(prefix.length() == 0 ? null : prefix))) {
+            return;
+        }
+
+        declaredPrefixes.add(prefix);
+        namespaces.add(createNamespace(prefix, namespaceURI));
+    }
+
+    private Namespace createNamespace(String prefix, String namespaceURI) {
+        if (XMLConstants.DEFAULT_NS_PREFIX.equals(prefix)) {
+            return this.eventFactory.createNamespace(namespaceURI);
+        }
+
+        return this.eventFactory.createNamespace(prefix, namespaceURI);
+    }
+
+    private String getNamespacePrefix(Attr attribute) {
+        if (XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getName())) {
+            return XMLConstants.DEFAULT_NS_PREFIX;
+        }
+
+        return attribute.getLocalName();
+    }
+
+    private QName getName(Node node) {
+        String localName = node.getLocalName();
+
+        if (localName == null) {
+            return new QName(node.getNodeName());
+        }
+
+        String namespaceURI = node.getNamespaceURI();
+        String prefix = node.getPrefix();
+
+        return new QName(namespaceURI != null ? namespaceURI : XMLConstants.NULL_NS_URI, localName,
+                prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+    }
+}
@@ -19,7 +19,6 @@ package org.picketlink.common.util;
 
 import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
-import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.exceptions.ConfigurationException;
 import org.picketlink.common.exceptions.ParsingException;
 import org.picketlink.common.exceptions.ProcessingException;
@@ -34,8 +33,7 @@ import org.xml.sax.SAXException;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -64,8 +62,6 @@ public class DocumentUtil {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
-    private static DocumentBuilderFactory documentBuilderFactory;
-
     /**
      * Check whether a node belongs to a document
      *
@@ -91,17 +87,15 @@ public class DocumentUtil {
      *
      * @return
      *
-     * @throws ParserConfigurationException
+     * @throws ConfigurationException
      */
     public static Document createDocument() throws ConfigurationException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
-        DocumentBuilder builder;
+        DocumentBuilder builder = XMLFactoryPool.borrowDocumentBuilder();
         try {
-            builder = factory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ConfigurationException(e);
+            return builder.newDocument();
+        } finally {
+            XMLFactoryPool.release(builder);
         }
-        return builder.newDocument();
     }
 
     /**
@@ -114,14 +108,18 @@ public class DocumentUtil {
      * @throws ProcessingException
      */
     public static Document createDocumentWithBaseNamespace(String baseNamespace, String localPart) throws ProcessingException {
+        DocumentBuilder builder;
+        try {
+            builder = XMLFactoryPool.borrowDocumentBuilder();
+        } catch (ConfigurationException e) {
+            throw logger.processingError(e);
+        }
         try {
-            DocumentBuilderFactory factory = getDocumentBuilderFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.getDOMImplementation().createDocument(baseNamespace, localPart, null);
         } catch (DOMException e) {
             throw logger.processingError(e);
-        } catch (ParserConfigurationException e) {
-            throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(builder);
         }
     }
 
@@ -134,7 +132,7 @@ public class DocumentUtil {
      *
      * @throws IOException
      * @throws SAXException
-     * @throws ParserConfigurationException
+     * @throws ConfigurationException
      */
     public static Document getDocument(String docString) throws ConfigurationException, ParsingException, ProcessingException {
         return getDocument(new StringReader(docString));
@@ -148,21 +146,20 @@ public class DocumentUtil {
      * @return
      *
      * @throws ParsingException
-     * @throws ParserConfigurationException
+     * @throws ConfigurationException
      * @throws IOException
      * @throws SAXException
      */
     public static Document getDocument(Reader reader) throws ConfigurationException, ProcessingException, ParsingException {
+        DocumentBuilder builder = XMLFactoryPool.borrowDocumentBuilder();
         try {
-            DocumentBuilderFactory factory = getDocumentBuilderFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(new InputSource(reader));
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(builder);
         }
     }
 
@@ -173,21 +170,20 @@ public class DocumentUtil {
      *
      * @return
      *
-     * @throws ParserConfigurationException
+     * @throws ConfigurationException
      * @throws IOException
      * @throws SAXException
      */
     public static Document getDocument(File file) throws ConfigurationException, ProcessingException, ParsingException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        DocumentBuilder builder = XMLFactoryPool.borrowDocumentBuilder();
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(file);
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(builder);
         }
     }
 
@@ -198,21 +194,20 @@ public class DocumentUtil {
      *
      * @return
      *
-     * @throws ParserConfigurationException
+     * @throws ConfigurationException
      * @throws IOException
      * @throws SAXException
      */
     public static Document getDocument(InputStream is) throws ConfigurationException, ProcessingException, ParsingException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        DocumentBuilder builder = XMLFactoryPool.borrowDocumentBuilder();
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(is);
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(builder);
         }
     }
 
@@ -232,11 +227,13 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(sw);
         // Write the DOM document to the stream
-        Transformer xformer = TransformerUtil.getTransformer();
+        Transformer xformer = XMLFactoryPool.borrowTransformer();
         try {
             xformer.transform(source, streamResult);
         } catch (TransformerException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(xformer);
         }
 
         return sw.toString();
@@ -258,11 +255,13 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(sw);
         // Write the DOM document to the file
-        Transformer xformer = TransformerUtil.getTransformer();
+        Transformer xformer = XMLFactoryPool.borrowTransformer();
         try {
             xformer.transform(source, streamResult);
         } catch (TransformerException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(xformer);
         }
 
         return sw.toString();
@@ -339,16 +338,43 @@ public class DocumentUtil {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Result streamResult = new StreamResult(baos);
         // Write the DOM document to the stream
-        Transformer transformer = TransformerUtil.getTransformer();
+        Transformer transformer = XMLFactoryPool.borrowTransformer();
         try {
             transformer.transform(source, streamResult);
         } catch (TransformerException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(transformer);
         }
 
         return new ByteArrayInputStream(baos.toByteArray());
     }
 
+    /**
+     * Serialize a DOM Node to its UTF-8 encoded bytes, without building an intermediate String
+     *
+     * @param node
+     *
+     * @return
+     *
+     * @throws ConfigurationException
+     * @throws ProcessingException
+     */
+    public static byte[] getNodeAsBytes(Node node) throws ConfigurationException, ProcessingException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Transformer transformer = XMLFactoryPool.borrowTransformer();
+        try {
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(node), new StreamResult(baos));
+        } catch (TransformerException e) {
+            throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(transformer);
+        }
+
+        return baos.toByteArray();
+    }
+
     /**
      * Stream a DOM Node as a String
      *
@@ -366,11 +392,13 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(baos);
         // Write the DOM document to the stream
-        Transformer transformer = TransformerUtil.getTransformer();
+        Transformer transformer = XMLFactoryPool.borrowTransformer();
         try {
             transformer.transform(source, streamResult);
         } catch (TransformerException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLFactoryPool.release(transformer);
         }
 
         return new String(baos.toByteArray());
@@ -464,24 +492,28 @@ public class DocumentUtil {
     }
 
     public static Node getNodeFromSource(Source source) throws ProcessingException, ConfigurationException {
+        Transformer transformer = XMLFactoryPool.borrowTransformer();
         try {
-            Transformer transformer = TransformerUtil.getTransformer();
             DOMResult result = new DOMResult();
             TransformerUtil.transform(transformer, source, result);
             return result.getNode();
         } catch (ParsingException te) {
             throw logger.processingError(te);
+        } finally {
+            XMLFactoryPool.release(transformer);
         }
     }
 
     public static Document getDocumentFromSource(Source source) throws ProcessingException, ConfigurationException {
+        Transformer transformer = XMLFactoryPool.borrowTransformer();
         try {
-            Transformer transformer = TransformerUtil.getTransformer();
             DOMResult result = new DOMResult();
             TransformerUtil.transform(transformer, source, result);
             return (Document) result.getNode();
         } catch (ParsingException te) {
             throw logger.processingError(te);
+        } finally {
+            XMLFactoryPool.release(transformer);
         }
     }
 
@@ -498,32 +530,4 @@ public class DocumentUtil {
             visit(childNode, level + 1);
         }
     }
-
-    /**
-     * <p> Creates a namespace aware {@link DocumentBuilderFactory}. The returned instance is cached and shared between
-     * different threads. </p>
-     *
-     * @return
-     */
-    private static DocumentBuilderFactory getDocumentBuilderFactory() {
-        boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                .equalsIgnoreCase("true");
-        ClassLoader prevTCCL = SecurityActions.getTCCL();
-        if (documentBuilderFactory == null) {
-            try {
-                if (tccl_jaxp) {
-                    SecurityActions.setTCCL(DocumentUtil.class.getClassLoader());
-                }
-                documentBuilderFactory = DocumentBuilderFactory.newInstance();
-                documentBuilderFactory.setNamespaceAware(true);
-                documentBuilderFactory.setXIncludeAware(true);
-            } finally {
-                if (tccl_jaxp) {
-                    SecurityActions.setTCCL(prevTCCL);
-                }
-            }
-        }
-
-        return documentBuilderFactory;
-    }
 }
\ No newline at end of file
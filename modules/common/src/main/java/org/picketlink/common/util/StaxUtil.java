@@ -19,7 +19,6 @@ package org.picketlink.common.util;
 
 import org.picketlink.common.PicketLinkLogger;
 import org.picketlink.common.PicketLinkLoggerFactory;
-import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.exceptions.ProcessingException;
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
@@ -74,7 +73,7 @@ public class StaxUtil {
      * @throws ProcessingException
      */
     public static XMLEventWriter getXMLEventWriter(final OutputStream outStream) throws ProcessingException {
-        XMLOutputFactory xmlOutputFactory = getXMLOutputFactory();
+        XMLOutputFactory xmlOutputFactory = XMLFactoryPool.getXMLOutputFactory();
         try {
             return xmlOutputFactory.createXMLEventWriter(outStream, "UTF-8");
         } catch (XMLStreamException e) {
@@ -92,7 +91,7 @@ public class StaxUtil {
      * @throws ProcessingException
      */
     public static XMLStreamWriter getXMLStreamWriter(final OutputStream outStream) throws ProcessingException {
-        XMLOutputFactory xmlOutputFactory = getXMLOutputFactory();
+        XMLOutputFactory xmlOutputFactory = XMLFactoryPool.getXMLOutputFactory();
         try {
             return xmlOutputFactory.createXMLStreamWriter(outStream, "UTF-8");
         } catch (XMLStreamException e) {
@@ -110,7 +109,7 @@ public class StaxUtil {
      * @throws ProcessingException
      */
     public static XMLStreamWriter getXMLStreamWriter(final Writer writer) throws ProcessingException {
-        XMLOutputFactory xmlOutputFactory = getXMLOutputFactory();
+        XMLOutputFactory xmlOutputFactory = XMLFactoryPool.getXMLOutputFactory();
         try {
             return xmlOutputFactory.createXMLStreamWriter(writer);
         } catch (XMLStreamException e) {
@@ -119,7 +118,7 @@ public class StaxUtil {
     }
 
     public static XMLStreamWriter getXMLStreamWriter(final Result result) throws ProcessingException {
-        XMLOutputFactory factory = getXMLOutputFactory();
+        XMLOutputFactory factory = XMLFactoryPool.getXMLOutputFactory();
         try {
             return factory.createXMLStreamWriter(result);
         } catch (XMLStreamException xe) {
@@ -428,20 +427,4 @@ public class StaxUtil {
             throw logger.processingError(e);
         }
     }
-
-    private static XMLOutputFactory getXMLOutputFactory() {
-        boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                .equalsIgnoreCase("true");
-        ClassLoader prevTCCL = SecurityActions.getTCCL();
-        try {
-            if (tccl_jaxp) {
-                SecurityActions.setTCCL(StaxUtil.class.getClassLoader());
-            }
-            return XMLOutputFactory.newInstance();
-        } finally {
-            if (tccl_jaxp) {
-                SecurityActions.setTCCL(prevTCCL);
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -41,11 +41,9 @@ import javax.xml.stream.events.Namespace;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.transform.ErrorListener;
-import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
@@ -66,8 +64,6 @@ public class TransformerUtil {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
-    private static TransformerFactory transformerFactory;
-
     /**
      * Get the Default Transformer
      *
@@ -76,47 +72,18 @@ public class TransformerUtil {
      * @throws ConfigurationException
      */
     public static Transformer getTransformer() throws ConfigurationException {
-        Transformer transformer;
-        try {
-            transformer = getTransformerFactory().newTransformer();
-        } catch (TransformerConfigurationException e) {
-            throw logger.configurationError(e);
-        } catch (TransformerFactoryConfigurationError e) {
-            throw logger.configurationError(e);
-        }
-
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        transformer.setOutputProperty(OutputKeys.INDENT, "no");
-
-        return transformer;
+        return XMLFactoryPool.newTransformer();
     }
 
     /**
-     * <p>Creates a {@link TransformerFactory}. The returned instance is cached and shared between different
-     * threads.</p>
+     * <p>Returns the {@link TransformerFactory} of the calling thread, as kept by {@link XMLFactoryPool}.</p>
      *
      * @return
      *
      * @throws TransformerFactoryConfigurationError
      */
     public static TransformerFactory getTransformerFactory() throws TransformerFactoryConfigurationError {
-        if (transformerFactory == null) {
-            boolean tccl_jaxp = SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false")
-                    .equalsIgnoreCase("true");
-            ClassLoader prevTCCL = SecurityActions.getTCCL();
-            try {
-                if (tccl_jaxp) {
-                    SecurityActions.setTCCL(TransformerUtil.class.getClassLoader());
-                }
-                transformerFactory = TransformerFactory.newInstance();
-            } finally {
-                if (tccl_jaxp) {
-                    SecurityActions.setTCCL(prevTCCL);
-                }
-            }
-        }
-
-        return transformerFactory;
+        return XMLFactoryPool.getTransformerFactory();
     }
 
     /**
@@ -171,13 +138,20 @@ public class TransformerUtil {
     }
 
     public static void transform(JAXBContext context, JAXBElement<?> jaxb, Result result) throws ParsingException {
+        Transformer transformer;
+        try {
+            transformer = XMLFactoryPool.borrowTransformer();
+        } catch (ConfigurationException e) {
+            throw logger.parserError(e);
+        }
         try {
-            Transformer transformer = getTransformer();
             JAXBSource jaxbSource = new JAXBSource(context, jaxb);
 
             transformer.transform(jaxbSource, result);
         } catch (Exception e) {
             throw logger.parserError(e);
+        } finally {
+            XMLFactoryPool.release(transformer);
         }
     }
 
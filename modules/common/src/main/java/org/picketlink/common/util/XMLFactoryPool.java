@@ -0,0 +1,312 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.common.util;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.common.exceptions.ConfigurationException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerFactoryConfigurationError;
+
+/**
+ * <p>Central place where the JAXP factories used to parse and write XML are created and shared.</p>
+ *
+ * <p>Factories are created honoring the {@link GeneralConstants#TCCL_JAXP} system property. The StAX factories are
+ * created once and shared between threads. {@link DocumentBuilderFactory} and {@link TransformerFactory} are not
+ * thread-safe, so each thread gets its own instance. The instances they create that are not thread-safe, such as
+ * {@link DocumentBuilder} and {@link Transformer}, are borrowed and released by the calling thread, which keeps one idle
+ * instance for the next call.</p>
+ *
+ * @author agent
+ */
+public class XMLFactoryPool {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final ThreadLocal<DocumentBuilderFactory> documentBuilderFactories = new ThreadLocal<DocumentBuilderFactory>() {
+        @Override
+        protected DocumentBuilderFactory initialValue() {
+            boolean tccl_jaxp = isTCCLJaxp();
+            ClassLoader prevTCCL = SecurityActions.getTCCL();
+            try {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(XMLFactoryPool.class.getClassLoader());
+                }
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                factory.setXIncludeAware(true);
+                return factory;
+            } finally {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(prevTCCL);
+                }
+            }
+        }
+    };
+
+    private static final ThreadLocal<TransformerFactory> transformerFactories = new ThreadLocal<TransformerFactory>() {
+        @Override
+        protected TransformerFactory initialValue() {
+            boolean tccl_jaxp = isTCCLJaxp();
+            ClassLoader prevTCCL = SecurityActions.getTCCL();
+            try {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(XMLFactoryPool.class.getClassLoader());
+                }
+                return TransformerFactory.newInstance();
+            } finally {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(prevTCCL);
+                }
+            }
+        }
+    };
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>();
+
+    private static final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+
+    /**
+     * <p>Returns the shared {@link XMLInputFactory}. It is namespace aware, coalesces characters, replaces entity
+     * references and does not support external entities. The returned instance must not be reconfigured.</p>
+     *
+     * @return
+     */
+    public static XMLInputFactory getXMLInputFactory() {
+        return XMLInputFactoryHolder.INSTANCE;
+    }
+
+    /**
+     * <p>Returns the shared {@link XMLOutputFactory}. The returned instance must not be reconfigured.</p>
+     *
+     * @return
+     */
+    public static XMLOutputFactory getXMLOutputFactory() {
+        return XMLOutputFactoryHolder.INSTANCE;
+    }
+
+    /**
+     * <p>Returns the shared {@link XMLEventFactory}. The returned instance is only used to create events and must not
+     * be reconfigured.</p>
+     *
+     * @return
+     */
+    public static XMLEventFactory getXMLEventFactory() {
+        return XMLEventFactoryHolder.INSTANCE;
+    }
+
+    /**
+     * <p>Returns the namespace aware {@link DocumentBuilderFactory} of the calling thread. The returned instance must
+     * not be reconfigured, nor passed to other threads.</p>
+     *
+     * @return
+     */
+    public static DocumentBuilderFactory getDocumentBuilderFactory() {
+        return documentBuilderFactories.get();
+    }
+
+    /**
+     * <p>Returns the {@link TransformerFactory} of the calling thread. The returned instance must not be reconfigured,
+     * nor passed to other threads.</p>
+     *
+     * @return
+     *
+     * @throws TransformerFactoryConfigurationError
+     */
+    public static TransformerFactory getTransformerFactory() throws TransformerFactoryConfigurationError {
+        return transformerFactories.get();
+    }
+
+    /**
+     * <p>Borrows a {@link DocumentBuilder} for the calling thread. It must be returned with {@link
+     * #release(DocumentBuilder)} once the document is parsed or created.</p>
+     *
+     * @return
+     *
+     * @throws ConfigurationException
+     */
+    public static DocumentBuilder borrowDocumentBuilder() throws ConfigurationException {
+        DocumentBuilder builder = documentBuilders.get();
+
+        if (builder != null) {
+            documentBuilders.remove();
+            return builder;
+        }
+
+        try {
+            return getDocumentBuilderFactory().newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw logger.configurationError(e);
+        }
+    }
+
+    /**
+     * <p>Returns a {@link DocumentBuilder} borrowed with {@link #borrowDocumentBuilder()}.</p>
+     *
+     * @param builder
+     */
+    public static void release(DocumentBuilder builder) {
+        try {
+            builder.reset();
+            documentBuilders.set(builder);
+        } catch (UnsupportedOperationException ignore) {
+            // the builder can not be reused
+        }
+    }
+
+    /**
+     * <p>Borrows a {@link Transformer} for the calling thread. The transformer omits the XML declaration and does not
+     * indent its output. It must be returned with {@link #release(Transformer)} once the transformation is done.</p>
+     *
+     * @return
+     *
+     * @throws ConfigurationException
+     */
+    public static Transformer borrowTransformer() throws ConfigurationException {
+        Transformer transformer = transformers.get();
+
+        if (transformer != null) {
+            transformers.remove();
+            return transformer;
+        }
+
+        return newTransformer();
+    }
+
+    /**
+     * <p>Returns a {@link Transformer} borrowed with {@link #borrowTransformer()}.</p>
+     *
+     * @param transformer
+     */
+    public static void release(Transformer transformer) {
+        try {
+            transformer.reset();
+            configure(transformer);
+            transformers.set(transformer);
+        } catch (UnsupportedOperationException ignore) {
+            // the transformer can not be reused
+        }
+    }
+
+    /**
+     * <p>Creates a new {@link Transformer} that omits the XML declaration and does not indent its output.</p>
+     *
+     * @return
+     *
+     * @throws ConfigurationException
+     */
+    public static Transformer newTransformer() throws ConfigurationException {
+        Transformer transformer;
+
+        try {
+            transformer = getTransformerFactory().newTransformer();
+        } catch (TransformerConfigurationException e) {
+            throw logger.configurationError(e);
+        } catch (TransformerFactoryConfigurationError e) {
+            throw logger.configurationError(e);
+        }
+
+        configure(transformer);
+
+        return transformer;
+    }
+
+    private static void configure(Transformer transformer) {
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.INDENT, "no");
+    }
+
+    private static boolean isTCCLJaxp() {
+        return SystemPropertiesUtil.getSystemProperty(GeneralConstants.TCCL_JAXP, "false").equalsIgnoreCase("true");
+    }
+
+    private static class XMLInputFactoryHolder {
+
+        static final XMLInputFactory INSTANCE;
+
+        static {
+            boolean tccl_jaxp = isTCCLJaxp();
+            ClassLoader prevTCCL = SecurityActions.getTCCL();
+            try {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(XMLFactoryPool.class.getClassLoader());
+                }
+                INSTANCE = XMLInputFactory.newInstance();
+                INSTANCE.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+                INSTANCE.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+                INSTANCE.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+                INSTANCE.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            } finally {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(prevTCCL);
+                }
+            }
+        }
+    }
+
+    private static class XMLOutputFactoryHolder {
+
+        static final XMLOutputFactory INSTANCE;
+
+        static {
+            boolean tccl_jaxp = isTCCLJaxp();
+            ClassLoader prevTCCL = SecurityActions.getTCCL();
+            try {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(XMLFactoryPool.class.getClassLoader());
+                }
+                INSTANCE = XMLOutputFactory.newInstance();
+            } finally {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(prevTCCL);
+                }
+            }
+        }
+    }
+
+    private static class XMLEventFactoryHolder {
+
+        static final XMLEventFactory INSTANCE;
+
+        static {
+            boolean tccl_jaxp = isTCCLJaxp();
+            ClassLoader prevTCCL = SecurityActions.getTCCL();
+            try {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(XMLFactoryPool.class.getClassLoader());
+                }
+                INSTANCE = XMLEventFactory.newInstance();
+            } finally {
+                if (tccl_jaxp) {
+                    SecurityActions.setTCCL(prevTCCL);
+                }
+            }
+        }
+    }
+}
@@ -17,23 +17,46 @@
  */
 package org.picketlink.identity.federation.api.util;
 
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.common.util.SystemPropertiesUtil;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 /**
- * Encoder of saml messages based on DEFLATE compression
+ * <p>Encoder of saml messages based on DEFLATE compression.</p>
+ *
+ * <p>The {@link Deflater} and {@link Inflater} instances hold native memory. Each thread keeps one idle instance of each,
+ * which is reset and reused by the next call instead of waiting for the garbage collector to release it.</p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Dec 11, 2008
  */
 public class DeflateUtil {
 
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * <p>Default maximum size, in bytes, of a decoded message.</p>
+     */
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>();
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>();
+
     /**
      * Apply DEFLATE encoding
      *
@@ -45,11 +68,7 @@ public class DeflateUtil {
      */
     public static byte[] encode(byte[] message) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        Deflater deflater = new Deflater(Deflater.DEFLATED, true);
-        DeflaterOutputStream deflaterStream = new DeflaterOutputStream(baos, deflater);
-        deflaterStream.write(message);
-        deflaterStream.finish();
-
+        encode(message, baos);
         return baos.toByteArray();
     }
 
@@ -66,15 +85,153 @@ public class DeflateUtil {
         return encode(message.getBytes());
     }
 
+    /**
+     * Apply DEFLATE encoding, writing the compressed message to the given stream. The stream is not closed.
+     *
+     * @param message
+     * @param out
+     *
+     * @throws IOException
+     */
+    public static void encode(byte[] message, OutputStream out) throws IOException {
+        Deflater deflater = borrowDeflater();
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            deflater.setInput(message);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            release(deflater);
+        }
+    }
+
     /**
      * DEFLATE decoding
      *
      * @param msgToDecode the message that needs decoding
      *
      * @return
+     *
+     * @throws RuntimeException if the message is not valid or exceeds the maximum decoded size
      */
     public static InputStream decode(byte[] msgToDecode) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(msgToDecode);
-        return new InflaterInputStream(bais, new Inflater(true));
+        try {
+            return new ByteArrayInputStream(inflate(msgToDecode));
+        } catch (IOException e) {
+            throw logger.runtimeException("Error decoding DEFLATE encoded message", e);
+        }
+    }
+
+    /**
+     * <p>DEFLATE decoding. Decoding stops as soon as the decoded message exceeds the size defined by the {@link
+     * GeneralConstants#DEFLATE_MAX_INFLATED_SIZE} system property, which defaults to {@link
+     * #DEFAULT_MAX_INFLATED_SIZE}.</p>
+     *
+     * @param msgToDecode the message that needs decoding
+     *
+     * @return
+     *
+     * @throws IOException if the message is not valid or exceeds the maximum decoded size
+     */
+    public static byte[] inflate(byte[] msgToDecode) throws IOException {
+        int maxSize = getMaxInflatedSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.min(maxSize, msgToDecode.length * 4));
+        Inflater inflater = borrowInflater();
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            inflater.setInput(msgToDecode);
+
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("DEFLATE encoded message requires a preset dictionary");
+                    }
+
+                    if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of DEFLATE encoded message");
+                    }
+                }
+
+                if (baos.size() + length > maxSize) {
+                    throw new IOException("Decoded message exceeds the maximum size of " + maxSize + " bytes");
+                }
+
+                baos.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            ZipException zipException = new ZipException(e.getMessage());
+            zipException.initCause(e);
+            throw zipException;
+        } finally {
+            release(inflater);
+        }
+
+        return baos.toByteArray();
+    }
+
+    private static int getMaxInflatedSize() {
+        String maxSize = SystemPropertiesUtil.getSystemProperty(GeneralConstants.DEFLATE_MAX_INFLATED_SIZE, null);
+
+        if (maxSize == null) {
+            return DEFAULT_MAX_INFLATED_SIZE;
+        }
+
+        try {
+            return Integer.parseInt(maxSize.trim());
+        } catch (NumberFormatException e) {
+            return DEFAULT_MAX_INFLATED_SIZE;
+        }
+    }
+
+    private static Deflater borrowDeflater() {
+        Deflater deflater = deflaters.get();
+
+        if (deflater != null) {
+            deflaters.remove();
+            return deflater;
+        }
+
+        return new Deflater(Deflater.DEFLATED, true);
+    }
+
+    private static void release(Deflater deflater) {
+        deflater.reset();
+
+        if (deflaters.get() == null) {
+            deflaters.set(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static Inflater borrowInflater() {
+        Inflater inflater = inflaters.get();
+
+        if (inflater != null) {
+            inflaters.remove();
+            return inflater;
+        }
+
+        return new Inflater(true);
+    }
+
+    private static void release(Inflater inflater) {
+        inflater.reset();
+
+        if (inflaters.get() == null) {
+            inflaters.set(inflater);
+        } else {
+            inflater.end();
+        }
     }
-}
\ No newline at end of file
+}
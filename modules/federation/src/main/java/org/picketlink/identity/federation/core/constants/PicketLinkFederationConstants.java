@@ -47,4 +47,9 @@ public interface PicketLinkFederationConstants {
     String PBE_ALGORITHM = "PBEwithMD5andDES";
     // Prefix to indicate a particular configuration property value is masked
     String PASS_MASK_PREFIX = "MASK-";
+
+    // Maximum number of idle STS clients kept for each STS endpoint
+    String STS_CLIENT_POOL_MAX_SIZE = "picketlink.sts.client.pool.maxsize";
+    // Time, in seconds, an idle STS client is kept before being discarded
+    String STS_CLIENT_POOL_MAX_IDLE = "picketlink.sts.client.pool.maxidle";
 }
\ No newline at end of file
@@ -46,9 +46,16 @@ import java.security.cert.Certificate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * KeyStore based Trust Key Manager
+ * <p>KeyStore based Trust Key Manager</p>
+ *
+ * <p>Keys and certificates are cached once read from the keystore, so signing and validating a message does not decrypt
+ * the same private key again. If the {@link #KEYSTORE_RELOAD_INTERVAL} auth property is set, the keystore is checked
+ * for changes at most once per interval and, if it was modified, the new keystore and an empty cache replace the
+ * current ones at once. Keys can be rotated this way without a redeploy.</p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 22, 2009
@@ -71,7 +78,9 @@ public class KeyStoreKeyManager implements TrustKeyManager {
 
     private final HashMap<String, String> authPropsMap = new HashMap<String, String>();
 
-    private KeyStore ks = null;
+    private volatile KeyMaterial keyMaterial;
+
+    private long reloadInterval;
 
     private String keyStoreURL;
 
@@ -89,13 +98,25 @@ public class KeyStoreKeyManager implements TrustKeyManager {
 
     public static final String SIGNING_KEY_ALIAS = "SigningKeyAlias";
 
+    /**
+     * Interval, in seconds, between checks for changes to the keystore. Changes are not checked if not set.
+     */
+    public static final String KEYSTORE_RELOAD_INTERVAL = "KeyStoreReloadInterval";
+
     /**
      * @see TrustKeyManager#getSigningKey()
      */
     public PrivateKey getSigningKey() throws TrustKeyConfigurationException, TrustKeyProcessingException {
         try {
-            initKeyStore();
-            return (PrivateKey) ks.getKey(this.signingAlias, this.signingKeyPass);
+            KeyMaterial keyMaterial = getKeyMaterial();
+            PrivateKey signingKey = keyMaterial.signingKey;
+
+            if (signingKey == null) {
+                signingKey = (PrivateKey) keyMaterial.keyStore.getKey(this.signingAlias, this.signingKeyPass);
+                keyMaterial.signingKey = signingKey;
+            }
+
+            return signingKey;
         } catch (KeyStoreException e) {
             throw logger.keyStoreConfigurationError(e);
         } catch (NoSuchAlgorithmException e) {
@@ -116,10 +137,17 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      */
     public KeyPair getSigningKeyPair() throws TrustKeyConfigurationException, TrustKeyProcessingException {
         try {
-            initKeyStore();
-            PrivateKey privateKey = this.getSigningKey();
-            PublicKey publicKey = KeyStoreUtil.getPublicKey(this.ks, this.signingAlias, this.signingKeyPass);
-            return new KeyPair(publicKey, privateKey);
+            KeyMaterial keyMaterial = getKeyMaterial();
+            KeyPair signingKeyPair = keyMaterial.signingKeyPair;
+
+            if (signingKeyPair == null) {
+                PrivateKey privateKey = this.getSigningKey();
+                PublicKey publicKey = KeyStoreUtil.getPublicKey(keyMaterial.keyStore, this.signingAlias, this.signingKeyPass);
+                signingKeyPair = new KeyPair(publicKey, privateKey);
+                keyMaterial.signingKeyPair = signingKeyPair;
+            }
+
+            return signingKeyPair;
         } catch (KeyStoreException e) {
             throw logger.keyStoreConfigurationError(e);
         } catch (GeneralSecurityException e) {
@@ -134,12 +162,12 @@ public class KeyStoreKeyManager implements TrustKeyManager {
      */
     public Certificate getCertificate(String alias) throws TrustKeyConfigurationException, TrustKeyProcessingException {
         try {
-            initKeyStore();
+            KeyMaterial keyMaterial = getKeyMaterial();
 
             if (alias == null || alias.length() == 0)
                 throw logger.keyStoreNullAlias();
 
-            return ks.getCertificate(alias);
+            return keyMaterial.getCertificate(alias);
         } catch (KeyStoreException e) {
             throw logger.keyStoreConfigurationError(e);
         } catch (GeneralSecurityException e) {
@@ -156,9 +184,9 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         PublicKey publicKey = null;
 
         try {
-            initKeyStore();
+            KeyMaterial keyMaterial = getKeyMaterial();
 
-            Certificate cert = ks.getCertificate(alias);
+            Certificate cert = alias != null ? keyMaterial.getCertificate(alias) : null;
             if (cert != null)
                 publicKey = cert.getPublicKey();
             else
@@ -184,19 +212,27 @@ public class KeyStoreKeyManager implements TrustKeyManager {
     public PublicKey getValidatingKey(String domain) throws TrustKeyConfigurationException, TrustKeyProcessingException {
         PublicKey publicKey = null;
         try {
-            initKeyStore();
+            KeyMaterial keyMaterial = getKeyMaterial();
 
             String domainAlias = this.domainAliasMap.get(domain);
 
             if (domainAlias == null)
                 throw logger.keyStoreMissingDomainAlias(domain);
 
+            publicKey = keyMaterial.validatingKeys.get(domainAlias);
+
+            if (publicKey != null)
+                return publicKey;
+
             try {
-                publicKey = KeyStoreUtil.getPublicKey(ks, domainAlias, this.keyStorePass.toCharArray());
+                publicKey = KeyStoreUtil.getPublicKey(keyMaterial.keyStore, domainAlias, this.keyStorePass.toCharArray());
             } catch (UnrecoverableKeyException urke) {
                 // Try with the signing key pass
-                publicKey = KeyStoreUtil.getPublicKey(ks, domainAlias, this.signingKeyPass);
+                publicKey = KeyStoreUtil.getPublicKey(keyMaterial.keyStore, domainAlias, this.signingKeyPass);
             }
+
+            if (publicKey != null)
+                keyMaterial.validatingKeys.put(domainAlias, publicKey);
         } catch (KeyStoreException e) {
             throw logger.keyStoreConfigurationError(e);
         } catch (NoSuchAlgorithmException e) {
@@ -209,14 +245,42 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         return publicKey;
     }
 
-    private void initKeyStore() throws GeneralSecurityException, IOException {
-        if (ks == null) {
-            logger.keyStoreSetup();
-            this.setUpKeyStore();
+    /**
+     * Returns the current keystore and cached keys, loading the keystore on first use and replacing it when the reload
+     * interval elapsed and the keystore changed.
+     */
+    private KeyMaterial getKeyMaterial() throws GeneralSecurityException, IOException {
+        KeyMaterial current = this.keyMaterial;
+
+        if (current != null && !current.isCheckRequired()) {
+            return current;
         }
 
-        if (ks == null)
-            throw logger.keyStoreNullStore();
+        synchronized (this) {
+            current = this.keyMaterial;
+
+            if (current == null) {
+                logger.keyStoreSetup();
+                current = this.setUpKeyStore();
+                this.keyMaterial = current;
+            } else if (current.isCheckRequired()) {
+                current.scheduleNextCheck(this.reloadInterval);
+
+                if (current.isModified()) {
+                    try {
+                        current = this.setUpKeyStore();
+                        this.keyMaterial = current;
+                        logger.debug("KeyStore reloaded: " + this.keyStoreURL);
+                    } catch (Exception e) {
+                        // keep using the keys already loaded until the keystore can be read again
+                        logger.error("Error reloading KeyStore: " + this.keyStoreURL);
+                        logger.error(e);
+                    }
+                }
+            }
+        }
+
+        return current;
     }
 
     /**
@@ -237,6 +301,17 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         if (keypass == null || keypass.length() == 0)
             throw logger.keyStoreNullSigningKeyPass();
         this.signingKeyPass = keypass.toCharArray();
+
+        String reloadInterval = this.authPropsMap.get(KEYSTORE_RELOAD_INTERVAL);
+        if (reloadInterval != null && reloadInterval.length() > 0) {
+            try {
+                this.reloadInterval = Long.parseLong(reloadInterval.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                throw logger.keyStoreProcessingError(e);
+            }
+        }
+
+        this.keyMaterial = null;
     }
 
     /**
@@ -247,6 +322,10 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         for (KeyValueType alias : aliases) {
             domainAliasMap.put(alias.getKey(), alias.getValue());
         }
+
+        KeyMaterial current = this.keyMaterial;
+        if (current != null)
+            current.validatingKeys.clear();
     }
 
     /**
@@ -282,7 +361,7 @@ public class KeyStoreKeyManager implements TrustKeyManager {
         return this.options.get(key);
     }
 
-    private void setUpKeyStore() throws GeneralSecurityException, IOException {
+    private KeyMaterial setUpKeyStore() throws GeneralSecurityException, IOException {
         // Keystore URL/Pass can be either by configuration or on the HTTPS connector
         if (this.keyStoreURL == null) {
             this.keyStoreURL = SecurityActions.getProperty("javax.net.ssl.keyStore", null);
@@ -291,8 +370,67 @@ public class KeyStoreKeyManager implements TrustKeyManager {
             this.keyStorePass = SecurityActions.getProperty("javax.net.ssl.keyStorePassword", null);
         }
 
+        File file = this.getKeyStoreFile(this.keyStoreURL);
+        long lastModified = file != null ? file.lastModified() : 0;
+
         InputStream is = this.getKeyStoreInputStream(this.keyStoreURL);
-        ks = KeyStoreUtil.getKeyStore(is, keyStorePass.toCharArray());
+        KeyStore ks;
+
+        try {
+            ks = KeyStoreUtil.getKeyStore(is, keyStorePass.toCharArray());
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        if (ks == null)
+            throw logger.keyStoreNullStore();
+
+        KeyMaterial keyMaterial = new KeyMaterial(ks, file, lastModified);
+
+        if (this.reloadInterval > 0)
+            keyMaterial.scheduleNextCheck(this.reloadInterval);
+
+        return keyMaterial;
+    }
+
+    /**
+     * Returns the keystore file, if the keystore is read from the local file system.
+     *
+     * @param keyStore
+     *
+     * @return
+     */
+    private File getKeyStoreFile(String keyStore) {
+        if (keyStore == null)
+            return null;
+
+        File file = new File(keyStore);
+
+        if (file.isFile())
+            return file;
+
+        URL url = null;
+        try {
+            url = new URL(keyStore);
+        } catch (Exception e) {
+            url = SecurityActions.loadResource(getClass(), keyStore);
+        }
+
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                file = new File(url.toURI());
+                if (file.isFile())
+                    return file;
+            } catch (Exception ignore) {
+            }
+        }
+
+        file = new File(SecurityActions.getSystemProperty("user.home", "") + "/jbid-keystore/" + keyStore);
+
+        return file.isFile() ? file : null;
     }
 
     /**
@@ -341,4 +479,54 @@ public class KeyStoreKeyManager implements TrustKeyManager {
             throw logger.keyStoreNotLocated(keyStore);
         return is;
     }
-}
\ No newline at end of file
+
+    /**
+     * A loaded keystore and the keys and certificates read from it so far.
+     */
+    private static class KeyMaterial {
+
+        private final KeyStore keyStore;
+        private final File file;
+        private final long lastModified;
+        private final ConcurrentMap<String, Certificate> certificates = new ConcurrentHashMap<String, Certificate>();
+        private final ConcurrentMap<String, PublicKey> validatingKeys = new ConcurrentHashMap<String, PublicKey>();
+
+        private volatile PrivateKey signingKey;
+        private volatile KeyPair signingKeyPair;
+        private volatile long nextCheck = Long.MAX_VALUE;
+
+        KeyMaterial(KeyStore keyStore, File file, long lastModified) {
+            this.keyStore = keyStore;
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+
+        Certificate getCertificate(String alias) throws KeyStoreException {
+            Certificate certificate = this.certificates.get(alias);
+
+            if (certificate == null) {
+                certificate = this.keyStore.getCertificate(alias);
+
+                if (certificate != null)
+                    this.certificates.put(alias, certificate);
+            }
+
+            return certificate;
+        }
+
+        boolean isCheckRequired() {
+            return System.currentTimeMillis() >= this.nextCheck;
+        }
+
+        void scheduleNextCheck(long reloadInterval) {
+            this.nextCheck = System.currentTimeMillis() + reloadInterval;
+        }
+
+        /**
+         * Keystores not read from a file can not be checked for changes and are always considered modified.
+         */
+        boolean isModified() {
+            return this.file == null || this.file.lastModified() != this.lastModified;
+        }
+    }
+}
@@ -63,7 +63,7 @@ public class SAMLAssertionParser implements ParserNamespaceSupport {
     private final String ASSERTION = JBossSAMLConstants.ASSERTION.get();
 
     public AssertionType fromElement(Element element) throws ConfigurationException, ProcessingException, ParsingException {
-        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(DocumentUtil.getNodeAsStream(element));
+        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(element);
         return (AssertionType) parse(xmlEventReader);
     }
 
@@ -21,6 +21,8 @@ import org.picketlink.common.util.StaxParserUtil;
 import org.picketlink.identity.federation.core.parsers.saml.metadata.SAMLEntitiesDescriptorParser;
 import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
 
+import java.io.InputStream;
+
 /**
  * File based provider that handles multiple entities
  *
@@ -29,21 +31,34 @@ import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorTyp
  */
 public class FileBasedEntitiesMetadataProvider extends AbstractFileBasedMetadataProvider<EntitiesDescriptorType> {
 
+    // the injected stream can only be read once, so the entities are parsed on the first call and kept
+    private EntitiesDescriptorType metadata;
+
     /**
      * @see org.picketlink.identity.federation.core.interfaces.IMetadataProvider#getMetaData()
      */
-    public EntitiesDescriptorType getMetaData() {
+    public synchronized EntitiesDescriptorType getMetaData() {
+        if (this.metadata != null)
+            return this.metadata;
+
         if (this.metadataFileStream == null)
             throw logger.injectedValueMissing("Metadata file");
 
         try {
             SAMLEntitiesDescriptorParser parser = new SAMLEntitiesDescriptorParser();
-            return (EntitiesDescriptorType) parser.parse(StaxParserUtil.getXMLEventReader(metadataFileStream));
+            this.metadata = (EntitiesDescriptorType) parser.parse(StaxParserUtil.getXMLEventReader(metadataFileStream));
+            return this.metadata;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    @Override
+    public synchronized void injectFileStream(InputStream fileStream) {
+        super.injectFileStream(fileStream);
+        this.metadata = null;
+    }
+
     public boolean isMultiple() {
         return true;
     }
@@ -45,6 +45,9 @@ public class FileBasedEntityMetadataProvider extends AbstractMetadataProvider im
 
     private InputStream metadataFileStream;
 
+    // the injected stream can only be read once, so the entity is parsed on the first call and kept
+    private EntityDescriptorType metadata;
+
     @SuppressWarnings("unused")
     private PublicKey encryptionKey;
 
@@ -62,13 +65,17 @@ public class FileBasedEntityMetadataProvider extends AbstractMetadataProvider im
     /**
      * @see IMetadataProvider#getMetaData()
      */
-    public EntityDescriptorType getMetaData() {
+    public synchronized EntityDescriptorType getMetaData() {
+        if (this.metadata != null)
+            return this.metadata;
+
         if (this.metadataFileStream == null)
             throw logger.injectedValueMissing("Metadata file");
 
         try {
             SAMLEntityDescriptorParser parser = new SAMLEntityDescriptorParser();
-            return (EntityDescriptorType) parser.parse(StaxParserUtil.getXMLEventReader(metadataFileStream));
+            this.metadata = (EntityDescriptorType) parser.parse(StaxParserUtil.getXMLEventReader(metadataFileStream));
+            return this.metadata;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -85,8 +92,9 @@ public class FileBasedEntityMetadataProvider extends AbstractMetadataProvider im
         this.encryptionKey = publicKey;
     }
 
-    public void injectFileStream(InputStream fileStream) {
+    public synchronized void injectFileStream(InputStream fileStream) {
         this.metadataFileStream = fileStream;
+        this.metadata = null;
     }
 
     public void injectSigningKey(PublicKey publicKey) {
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.md.providers;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.interfaces.IMetadataProvider;
+import org.picketlink.identity.federation.core.saml.v2.metadata.MetadataRegistry;
+import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.PublicKey;
+import java.util.Map;
+
+/**
+ * <p>Provider of the entities kept by a {@link MetadataRegistry}, so the metadata of a federation is parsed once,
+ * refreshed in the background and looked up through the indexes of the registry.</p>
+ *
+ * <p>Options:</p>
+ * <ul>
+ * <li>MetadataLocation: the URL or the file path of the metadata document. Required.</li>
+ * <li>RefreshInterval: the interval, in seconds, at which the document is refreshed. Defaults to zero, which only loads
+ * the document once.</li>
+ * </ul>
+ *
+ * <p>The returned descriptors are shared and must not be modified.</p>
+ *
+ * @author agent
+ */
+public class MetadataRegistryProvider extends AbstractMetadataProvider
+        implements IMetadataProvider<EntitiesDescriptorType> {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final String METADATA_LOCATION_KEY = "MetadataLocation";
+
+    public static final String REFRESH_INTERVAL_KEY = "RefreshInterval";
+
+    private MetadataRegistry registry;
+
+    @Override
+    public void init(Map<String, String> options) {
+        super.init(options);
+
+        String location = options.get(METADATA_LOCATION_KEY);
+        if (location == null)
+            throw logger.optionNotSet(METADATA_LOCATION_KEY);
+
+        long refreshInterval = 0;
+        String refreshIntervalOption = options.get(REFRESH_INTERVAL_KEY);
+        if (refreshIntervalOption != null) {
+            try {
+                refreshInterval = Long.parseLong(refreshIntervalOption.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        try {
+            this.registry = new MetadataRegistry(getURL(location), refreshInterval);
+            this.registry.start();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        } catch (ProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the registry that keeps the entities of this provider.
+     *
+     * @return
+     */
+    public MetadataRegistry getRegistry() {
+        return this.registry;
+    }
+
+    /**
+     * Stops refreshing the metadata document in the background.
+     */
+    public void stop() {
+        if (this.registry != null) {
+            this.registry.stop();
+        }
+    }
+
+    /**
+     * @see IMetadataProvider#getMetaData()
+     */
+    public EntitiesDescriptorType getMetaData() {
+        if (this.registry == null)
+            throw logger.optionNotSet(METADATA_LOCATION_KEY);
+
+        EntitiesDescriptorType entities = new EntitiesDescriptorType();
+
+        for (EntityDescriptorType entity : this.registry.getEntities()) {
+            entities.addEntityDescriptor(entity);
+        }
+
+        return entities;
+    }
+
+    public boolean isMultiple() {
+        return true;
+    }
+
+    public String requireFileInjection() {
+        return null;
+    }
+
+    public void injectFileStream(InputStream fileStream) {
+    }
+
+    public void injectSigningKey(PublicKey publicKey) {
+    }
+
+    public void injectEncryptionKey(PublicKey publicKey) {
+    }
+
+    private URL getURL(String location) throws MalformedURLException {
+        try {
+            return new URL(location);
+        } catch (MalformedURLException e) {
+            return new File(location).toURI().toURL();
+        }
+    }
+}
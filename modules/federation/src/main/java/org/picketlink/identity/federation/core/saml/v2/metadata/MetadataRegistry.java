@@ -0,0 +1,533 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.saml.v2.metadata;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
+import org.picketlink.identity.federation.core.saml.v2.util.SAMLMetadataUtil;
+import org.picketlink.identity.federation.saml.v2.metadata.EndpointType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType.EDTChoiceType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType.EDTDescriptorChoiceType;
+import org.picketlink.identity.federation.saml.v2.metadata.IDPSSODescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.KeyDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.KeyTypes;
+import org.picketlink.identity.federation.saml.v2.metadata.RoleDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.SPSSODescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.SSODescriptorType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Keeps the entities of a SAML metadata document, which can hold a single <code>EntityDescriptor</code> or nested
+ * <code>EntitiesDescriptor</code>, parsed once and indexed by entity ID, by the location of their endpoints and by the
+ * fingerprint of their signing certificates, so looking up an entity does not depend on the size of the federation.</p>
+ *
+ * <p>The document is read from a file or from any URL. Once {@link #start()}ed, it is refreshed in the background at the
+ * configured interval: a file is only read again if it was modified, an HTTP resource is fetched with
+ * <code>If-Modified-Since</code> and <code>If-None-Match</code>, and a document identical to the previous one is not parsed
+ * again. A new document is parsed and indexed aside and then replaces the previous index at once, so lookups never see a
+ * partially loaded document. If it can not be loaded, the previous entities are kept.</p>
+ *
+ * <p>The returned descriptors are shared and must not be modified, use {@link #copyEntity(String)} to get a descriptor
+ * that can be.</p>
+ *
+ * @author agent
+ */
+public class MetadataRegistry {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    private final URL location;
+
+    private final long refreshInterval;
+
+    private final Object refreshLock = new Object();
+
+    private volatile Index index = new Index();
+
+    // validators of the last document loaded, only used by the thread refreshing the registry
+    private long lastModified;
+
+    private String entityTag;
+
+    private byte[] digest;
+
+    private ScheduledExecutorService refreshExecutorService;
+
+    /**
+     * @param location the location of the metadata document
+     * @param refreshInterval the interval, in milliseconds, at which the document is refreshed, or zero to only load it
+     * when {@link #start()} or {@link #refresh()} is called
+     */
+    public MetadataRegistry(URL location, long refreshInterval) {
+        if (location == null)
+            throw logger.nullArgumentError("location");
+
+        this.location = location;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @param metadataFile the metadata document
+     * @param refreshInterval the interval, in milliseconds, at which the document is refreshed, or zero to only load it
+     * when {@link #start()} or {@link #refresh()} is called
+     */
+    public MetadataRegistry(File metadataFile, long refreshInterval) throws IOException {
+        this(metadataFile.toURI().toURL(), refreshInterval);
+    }
+
+    /**
+     * Loads the document and starts refreshing it in the background.
+     *
+     * @throws ProcessingException if the document can not be loaded
+     */
+    public synchronized void start() throws ProcessingException {
+        refresh();
+
+        if (this.refreshInterval > 0 && this.refreshExecutorService == null) {
+            this.refreshExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "picketlink-metadata-refresh");
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+
+            this.refreshExecutorService.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (Exception e) {
+                        logger.warn("Could not refresh the metadata from " + location + ", keeping the previous entities: "
+                                + e.getMessage());
+                        logger.trace(e);
+                    }
+                }
+            }, this.refreshInterval, this.refreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops refreshing the document in the background. The entities already loaded are kept.
+     */
+    public synchronized void stop() {
+        if (this.refreshExecutorService != null) {
+            this.refreshExecutorService.shutdownNow();
+            this.refreshExecutorService = null;
+        }
+    }
+
+    /**
+     * Loads the document again if it changed since it was last loaded.
+     *
+     * @return true if the entities were replaced
+     *
+     * @throws ProcessingException if the document can not be loaded, the previous entities are kept in this case
+     */
+    public boolean refresh() throws ProcessingException {
+        synchronized (this.refreshLock) {
+            long previousLastModified = this.lastModified;
+            String previousEntityTag = this.entityTag;
+            byte[] document;
+
+            try {
+                document = fetch();
+            } catch (IOException e) {
+                throw logger.processingError(e);
+            }
+
+            if (document == null)
+                return false;
+
+            byte[] documentDigest = digest(document);
+
+            if (Arrays.equals(documentDigest, this.digest))
+                return false;
+
+            try {
+                this.index = new Index(document);
+            } catch (Exception e) {
+                // the document is fetched again by the next refresh
+                this.lastModified = previousLastModified;
+                this.entityTag = previousEntityTag;
+
+                if (e instanceof ProcessingException)
+                    throw (ProcessingException) e;
+
+                throw logger.processingError(e);
+            }
+
+            this.digest = documentDigest;
+
+            logger.trace("Loaded " + this.index.entities.size() + " entities from " + this.location);
+
+            return true;
+        }
+    }
+
+    /**
+     * Returns the entity with the given ID, or null if there is none.
+     *
+     * @param entityID
+     *
+     * @return
+     */
+    public EntityDescriptorType getEntity(String entityID) {
+        return this.index.entities.get(entityID);
+    }
+
+    /**
+     * Returns a copy of the entity with the given ID, parsed again from the document it was loaded from, or null if there
+     * is none. Unlike the shared descriptors returned by the other methods, the copy can be modified.
+     *
+     * @param entityID
+     *
+     * @return
+     *
+     * @throws ProcessingException
+     */
+    public EntityDescriptorType copyEntity(String entityID) throws ProcessingException {
+        Index index = this.index;
+
+        if (!index.entities.containsKey(entityID))
+            return null;
+
+        try {
+            return new Index(index.document).entities.get(entityID);
+        } catch (ProcessingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw logger.processingError(e);
+        }
+    }
+
+    /**
+     * Returns the entity owning the endpoint, such as a single sign-on, single logout or assertion consumer service, with
+     * the given location or response location, or null if there is none.
+     *
+     * @param location
+     *
+     * @return
+     */
+    public EntityDescriptorType getEntityByEndpoint(String location) {
+        return this.index.endpoints.get(location);
+    }
+
+    /**
+     * Returns the entity with the given signing certificate, or null if there is none.
+     *
+     * @param certificate
+     *
+     * @return
+     */
+    public EntityDescriptorType getEntityBySigningCertificate(X509Certificate certificate) {
+        try {
+            return getEntityBySigningCertificateFingerprint(getFingerprint(certificate));
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the entity with a signing certificate with the given SHA-256 fingerprint, in lower case hexadecimal, or null
+     * if there is none.
+     *
+     * @param fingerprint
+     *
+     * @return
+     */
+    public EntityDescriptorType getEntityBySigningCertificateFingerprint(String fingerprint) {
+        return this.index.signingCertificates.get(fingerprint.toLowerCase());
+    }
+
+    /**
+     * Returns all the entities, in document order.
+     *
+     * @return
+     */
+    public Collection<EntityDescriptorType> getEntities() {
+        return Collections.unmodifiableCollection(this.index.entities.values());
+    }
+
+    /**
+     * Returns the SHA-256 fingerprint of the given certificate, in lower case hexadecimal.
+     *
+     * @param certificate
+     *
+     * @return
+     *
+     * @throws CertificateEncodingException
+     */
+    public static String getFingerprint(X509Certificate certificate) throws CertificateEncodingException {
+        byte[] fingerprint = digest(certificate.getEncoded());
+        StringBuilder hex = new StringBuilder(fingerprint.length * 2);
+
+        for (byte b : fingerprint) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Returns the document if it changed since it was last fetched, or null.
+     */
+    private byte[] fetch() throws IOException {
+        if ("file".equals(this.location.getProtocol())) {
+            File file;
+
+            try {
+                file = new File(this.location.toURI());
+            } catch (URISyntaxException e) {
+                file = new File(this.location.getPath());
+            }
+
+            long fileLastModified = file.lastModified();
+
+            if (fileLastModified != 0 && fileLastModified == this.lastModified)
+                return null;
+
+            byte[] document = read(this.location.openStream());
+
+            this.lastModified = fileLastModified;
+
+            return document;
+        }
+
+        URLConnection connection = this.location.openConnection();
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+
+            if (this.lastModified != 0)
+                httpConnection.setIfModifiedSince(this.lastModified);
+            if (this.entityTag != null)
+                httpConnection.setRequestProperty("If-None-Match", this.entityTag);
+
+            if (httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                httpConnection.disconnect();
+                return null;
+            }
+
+            if (httpConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                httpConnection.disconnect();
+                throw new IOException("Unexpected response " + httpConnection.getResponseCode() + " fetching " + this.location);
+            }
+        }
+
+        byte[] document = read(connection.getInputStream());
+
+        this.lastModified = connection.getLastModified();
+        this.entityTag = connection.getHeaderField("ETag");
+
+        return document;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance(FINGERPRINT_ALGORITHM).digest(content);
+        } catch (Exception e) {
+            throw logger.runtimeException(FINGERPRINT_ALGORITHM + " not available", e);
+        }
+    }
+
+    /**
+     * The entities of a document and their indexes, never modified once built.
+     */
+    private static class Index {
+
+        final Map<String, EntityDescriptorType> entities = new LinkedHashMap<String, EntityDescriptorType>();
+
+        final Map<String, EntityDescriptorType> endpoints = new HashMap<String, EntityDescriptorType>();
+
+        final Map<String, EntityDescriptorType> signingCertificates = new HashMap<String, EntityDescriptorType>();
+
+        final byte[] document;
+
+        Index() {
+            this.document = null;
+        }
+
+        Index(byte[] document) throws Exception {
+            this.document = document;
+
+            Object metadata = new SAMLParser().parse(new ByteArrayInputStream(document));
+
+            if (metadata instanceof EntityDescriptorType) {
+                add((EntityDescriptorType) metadata);
+            } else if (metadata instanceof EntitiesDescriptorType) {
+                add((EntitiesDescriptorType) metadata);
+            } else {
+                throw logger.processingError(new IllegalArgumentException("Not a SAML metadata document: " + metadata));
+            }
+        }
+
+        private void add(EntitiesDescriptorType entitiesDescriptor) {
+            for (Object entity : entitiesDescriptor.getEntityDescriptor()) {
+                if (entity instanceof EntitiesDescriptorType) {
+                    add((EntitiesDescriptorType) entity);
+                } else if (entity instanceof EntityDescriptorType) {
+                    add((EntityDescriptorType) entity);
+                }
+            }
+        }
+
+        private void add(EntityDescriptorType entity) {
+            if (this.entities.containsKey(entity.getEntityID())) {
+                logger.trace("Ignoring duplicated entity " + entity.getEntityID());
+                return;
+            }
+
+            this.entities.put(entity.getEntityID(), entity);
+
+            for (EDTChoiceType choice : entity.getChoiceType()) {
+                List<EDTDescriptorChoiceType> descriptors = choice.getDescriptors();
+
+                if (descriptors == null)
+                    continue;
+
+                for (EDTDescriptorChoiceType descriptor : descriptors) {
+                    add(entity, descriptor);
+                }
+            }
+        }
+
+        private void add(EntityDescriptorType entity, EDTDescriptorChoiceType descriptor) {
+            List<RoleDescriptorType> roles = new ArrayList<RoleDescriptorType>();
+            IDPSSODescriptorType idpDescriptor = descriptor.getIdpDescriptor();
+            SPSSODescriptorType spDescriptor = descriptor.getSpDescriptor();
+
+            if (idpDescriptor != null) {
+                addEndpoints(entity, idpDescriptor.getSingleSignOnService());
+                addEndpoints(entity, idpDescriptor.getSingleLogoutService());
+                roles.add(idpDescriptor);
+            }
+
+            if (spDescriptor != null) {
+                addEndpoints(entity, spDescriptor.getAssertionConsumerService());
+                addEndpoints(entity, spDescriptor.getSingleLogoutService());
+                roles.add(spDescriptor);
+            }
+
+            if (descriptor.getRoleDescriptor() != null) {
+                RoleDescriptorType role = descriptor.getRoleDescriptor();
+
+                if (role instanceof SSODescriptorType) {
+                    addEndpoints(entity, ((SSODescriptorType) role).getSingleLogoutService());
+                }
+
+                roles.add(role);
+            }
+
+            roles.add(descriptor.getAttribDescriptor());
+            roles.add(descriptor.getAuthnDescriptor());
+            roles.add(descriptor.getPdpDescriptor());
+
+            for (RoleDescriptorType role : roles) {
+                if (role != null) {
+                    addSigningCertificates(entity, role);
+                }
+            }
+        }
+
+        private void addEndpoints(EntityDescriptorType entity, List<? extends EndpointType> endpoints) {
+            for (EndpointType endpoint : endpoints) {
+                if (endpoint.getLocation() != null)
+                    addEndpoint(entity, endpoint.getLocation().toString());
+                if (endpoint.getResponseLocation() != null)
+                    addEndpoint(entity, endpoint.getResponseLocation().toString());
+            }
+        }
+
+        private void addEndpoint(EntityDescriptorType entity, String location) {
+            // an endpoint shared by several entities belongs to the first one
+            if (!this.endpoints.containsKey(location))
+                this.endpoints.put(location, entity);
+        }
+
+        private void addSigningCertificates(EntityDescriptorType entity, RoleDescriptorType role) {
+            for (KeyDescriptorType keyDescriptor : role.getKeyDescriptor()) {
+                // a key descriptor without use is used for both signing and encryption
+                if (keyDescriptor.getUse() == KeyTypes.ENCRYPTION)
+                    continue;
+
+                try {
+                    X509Certificate certificate = SAMLMetadataUtil.getCertificate(keyDescriptor);
+
+                    if (certificate != null) {
+                        String fingerprint = getFingerprint(certificate);
+
+                        if (!this.signingCertificates.containsKey(fingerprint))
+                            this.signingCertificates.put(fingerprint, entity);
+                    }
+                } catch (Exception e) {
+                    logger.trace("Ignoring invalid certificate of entity " + entity.getEntityID(), e);
+                }
+            }
+        }
+    }
+}
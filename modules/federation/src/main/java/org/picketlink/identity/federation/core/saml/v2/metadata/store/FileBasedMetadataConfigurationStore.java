@@ -48,6 +48,8 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * File based metadata store that uses the ${user.home}/jbid-store location to persist the data
@@ -59,6 +61,9 @@ public class FileBasedMetadataConfigurationStore implements IMetadataConfigurati
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
+    // the entity descriptors already parsed, by file
+    private final ConcurrentMap<String, LoadedFile> loadedFiles = new ConcurrentHashMap<String, LoadedFile>();
+
     private String userHome = null;
 
     private String baseDirectory = null;
@@ -143,17 +148,24 @@ public class FileBasedMetadataConfigurationStore implements IMetadataConfigurati
     }
 
     /**
+     * <p>The file is only parsed again once it is modified. Until then, every call returns the same descriptor, which is
+     * shared with the other callers and must not be modified. Use {@link #persist(EntityDescriptorType, String)} to
+     * change it.</p>
+     *
      * @see IMetadataConfigurationStore#load(String)
      */
     public EntityDescriptorType load(String id) throws IOException {
         File persistedFile = validateIdAndReturnMDFile(id);
+        long lastModified = persistedFile.lastModified();
+        long length = persistedFile.length();
+        LoadedFile loaded = loadedFiles.get(persistedFile.getPath());
 
-        SAMLEntityDescriptorParser parser = new SAMLEntityDescriptorParser();
-        try {
-            return (EntityDescriptorType) parser.parse(StaxParserUtil.getXMLEventReader(new FileInputStream(persistedFile)));
-        } catch (ParsingException e) {
-            throw new RuntimeException(e);
+        if (loaded == null || lastModified == 0 || loaded.lastModified != lastModified || loaded.length != length) {
+            loaded = new LoadedFile(parse(persistedFile), lastModified, length);
+            loadedFiles.put(persistedFile.getPath(), loaded);
         }
+
+        return loaded.descriptor;
     }
 
     /**
@@ -162,6 +174,8 @@ public class FileBasedMetadataConfigurationStore implements IMetadataConfigurati
     public void persist(EntityDescriptorType entity, String id) throws IOException {
         File persistedFile = validateIdAndReturnMDFile(id);
 
+        loadedFiles.remove(persistedFile.getPath());
+
         try {
             XMLStreamWriter streamWriter = StaxUtil.getXMLStreamWriter(new FileOutputStream(persistedFile));
             SAMLMetadataWriter writer = new SAMLMetadataWriter(streamWriter);
@@ -196,6 +210,8 @@ public class FileBasedMetadataConfigurationStore implements IMetadataConfigurati
     public void delete(String id) {
         File persistedFile = validateIdAndReturnMDFile(id);
 
+        loadedFiles.remove(persistedFile.getPath());
+
         if (persistedFile.exists())
             persistedFile.delete();
     }
@@ -333,4 +349,31 @@ public class FileBasedMetadataConfigurationStore implements IMetadataConfigurati
      */
     public void cleanup() {
     }
-}
\ No newline at end of file
+
+    private EntityDescriptorType parse(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            return (EntityDescriptorType) new SAMLEntityDescriptorParser().parse(StaxParserUtil.getXMLEventReader(in));
+        } catch (ParsingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class LoadedFile {
+
+        final EntityDescriptorType descriptor;
+
+        final long lastModified;
+
+        final long length;
+
+        LoadedFile(EntityDescriptorType descriptor, long lastModified, long length) {
+            this.descriptor = descriptor;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -22,6 +22,8 @@ import org.picketlink.common.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.interfaces.SecurityTokenProvider;
 import org.picketlink.identity.federation.core.sts.registry.DefaultRevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.DefaultTokenRegistry;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringTokenRegistry;
 import org.picketlink.identity.federation.core.sts.registry.FileBasedRevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.FileBasedTokenRegistry;
 import org.picketlink.identity.federation.core.sts.registry.JDBCRevocationRegistry;
@@ -85,6 +87,9 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
                     this.tokenRegistry = new FileBasedTokenRegistry(tokenRegistryFile);
                 else
                     this.tokenRegistry = new FileBasedTokenRegistry();
+            } else if ("EXPIRING".equalsIgnoreCase(tokenRegistryOption)) {
+                // the registry file, if any, is used as an append-only log
+                this.tokenRegistry = new ExpiringTokenRegistry(this.properties.get(TOKEN_REGISTRY_FILE));
             } else if ("JPA".equalsIgnoreCase(tokenRegistryOption)) {
                 String tokenRegistryjpa = this.properties.get(TOKEN_REGISTRY_JPA);
                 if (tokenRegistryjpa != null)
@@ -136,6 +141,10 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
                 else
                     this.revocationRegistry = new FileBasedRevocationRegistry();
             }
+            else if ("EXPIRING".equalsIgnoreCase(registryOption)) {
+                // the registry file, if any, is used as an append-only log
+                this.revocationRegistry = new ExpiringRevocationRegistry(this.properties.get(REVOCATION_REGISTRY_FILE));
+            }
             // another option is to use the default JPA registry to store the revoked ids.
             else if ("JPA".equalsIgnoreCase(registryOption)) {
                 String configuration = this.properties.get(REVOCATION_REGISTRY_JPA_CONFIG);
@@ -0,0 +1,433 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Entries kept in memory until they expire, used by the expiring registries.</p>
+ *
+ * <p>Entries are spread over a fixed number of segments, each one guarded by its own lock. Each segment keeps its
+ * entries in a timing wheel of one second ticks: adding or removing an entry is O(1) and expired entries are swept, a
+ * tick at a time, by the writes to the segment. Reads never return an expired entry, even if it was not swept yet.</p>
+ *
+ * <p>If a log file is given, every write is appended to it and the entries are read back from it on startup. The log is
+ * compacted, by rewriting only the entries still alive, once it holds more than twice the number of live entries. Values
+ * must be {@link Serializable} in this case. Writes are serialized by the log, reads are not.</p>
+ *
+ * @author agent
+ */
+class ExpiringEntries {
+
+    private static final int SEGMENTS = 16;
+
+    private static final long TICK = 1000;
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static final int MIN_COMPACTION_RECORDS = 1000;
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final File logFile;
+
+    private DataOutputStream log;
+
+    private int logRecords;
+
+    ExpiringEntries(File logFile) throws IOException {
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(now);
+        }
+
+        this.logFile = logFile;
+
+        if (logFile != null) {
+            synchronized (this) {
+                replay(now);
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Returns the value for the given key, or null if there is none or it expired.
+     *
+     * @param key
+     *
+     * @return
+     */
+    Object get(String key) {
+        return getSegment(key).get(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds or replaces the value for the given key, until the given expiration time. Values that already expired are not
+     * added.
+     *
+     * @param key
+     * @param value
+     * @param expiration the time, in milliseconds, from which the value is no longer returned
+     *
+     * @throws IOException if the entry could not be written to the log, it is still kept in memory
+     */
+    void put(String key, Object value, long expiration) throws IOException {
+        long now = System.currentTimeMillis();
+
+        if (expiration <= now) {
+            remove(key);
+            return;
+        }
+
+        if (this.logFile == null) {
+            getSegment(key).put(key, value, expiration, now);
+            return;
+        }
+
+        if (!(value instanceof Serializable))
+            throw new IOException("Value is not serializable: " + value);
+
+        byte[] serializedValue = serialize(value);
+
+        synchronized (this) {
+            getSegment(key).put(key, value, expiration, now);
+
+            this.log.writeByte(PUT);
+            this.log.writeUTF(key);
+            this.log.writeLong(expiration);
+            this.log.writeInt(serializedValue.length);
+            this.log.write(serializedValue);
+            this.log.flush();
+
+            written();
+        }
+    }
+
+    /**
+     * Removes the value for the given key.
+     *
+     * @param key
+     *
+     * @throws IOException if the removal could not be written to the log
+     */
+    void remove(String key) throws IOException {
+        long now = System.currentTimeMillis();
+
+        if (this.logFile == null) {
+            getSegment(key).remove(key, now);
+            return;
+        }
+
+        synchronized (this) {
+            if (getSegment(key).remove(key, now)) {
+                this.log.writeByte(REMOVE);
+                this.log.writeUTF(key);
+                this.log.flush();
+
+                written();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries, including the expired entries not swept yet.
+     *
+     * @return
+     */
+    int size() {
+        int size = 0;
+
+        for (Segment segment : this.segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    private Segment getSegment(String key) {
+        int hash = key.hashCode();
+
+        // spread the bits so keys sharing a suffix do not land on the same segment
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+        return this.segments[hash & (SEGMENTS - 1)];
+    }
+
+    private void written() throws IOException {
+        this.logRecords++;
+
+        if (this.logRecords > MIN_COMPACTION_RECORDS && this.logRecords > 2 * size()) {
+            compact();
+        }
+    }
+
+    private void replay(long now) throws IOException {
+        if (!this.logFile.exists() || this.logFile.length() == 0) {
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.logFile)));
+
+        try {
+            while (true) {
+                byte operation;
+
+                try {
+                    operation = in.readByte();
+                } catch (EOFException eof) {
+                    break;
+                }
+
+                String key = in.readUTF();
+
+                if (operation == PUT) {
+                    long expiration = in.readLong();
+                    byte[] serializedValue = new byte[in.readInt()];
+
+                    in.readFully(serializedValue);
+
+                    if (expiration > now) {
+                        getSegment(key).put(key, deserialize(serializedValue), expiration, now);
+                    }
+                } else if (operation == REMOVE) {
+                    getSegment(key).remove(key, now);
+                } else {
+                    throw new IOException("Corrupted registry log: " + this.logFile);
+                }
+            }
+        } catch (EOFException truncated) {
+            // the last record was not completely written, it is dropped when the log is compacted
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rewrites the log with the entries still alive.
+     */
+    private void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        File compactedFile = new File(this.logFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)));
+        int records = 0;
+
+        try {
+            for (Segment segment : this.segments) {
+                for (Entry entry : segment.getEntries(now)) {
+                    byte[] serializedValue = serialize(entry.value);
+
+                    out.writeByte(PUT);
+                    out.writeUTF(entry.key);
+                    out.writeLong(entry.expiration);
+                    out.writeInt(serializedValue.length);
+                    out.write(serializedValue);
+
+                    records++;
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (this.log != null) {
+            this.log.close();
+        }
+
+        if (!compactedFile.renameTo(this.logFile)) {
+            // some platforms do not replace an existing file when renaming
+            if (!this.logFile.delete() || !compactedFile.renameTo(this.logFile)) {
+                throw new IOException("Could not replace registry log " + this.logFile + " with " + compactedFile);
+            }
+        }
+
+        this.log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.logFile, true)));
+        this.logRecords = records;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+
+        out.writeObject(value);
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] serializedValue) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedValue));
+
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Entry {
+
+        final String key;
+
+        final Object value;
+
+        final long expiration;
+
+        Entry(String key, Object value, long expiration) {
+            this.key = key;
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
+
+    private static class Segment {
+
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        @SuppressWarnings("unchecked")
+        private final Set<Entry>[] wheel = new Set[WHEEL_SIZE];
+
+        // the last tick whose expired entries were removed
+        private long sweptTick;
+
+        Segment(long now) {
+            this.sweptTick = now / TICK - 1;
+        }
+
+        synchronized Object get(String key, long now) {
+            Entry entry = this.entries.get(key);
+
+            if (entry == null || entry.expiration <= now) {
+                return null;
+            }
+
+            return entry.value;
+        }
+
+        synchronized void put(String key, Object value, long expiration, long now) {
+            Entry entry = new Entry(key, value, expiration);
+            Entry previous = this.entries.put(key, entry);
+
+            if (previous != null) {
+                getBucket(previous).remove(previous);
+            }
+
+            getBucket(entry).add(entry);
+
+            sweep(now);
+        }
+
+        synchronized boolean remove(String key, long now) {
+            Entry entry = this.entries.remove(key);
+
+            if (entry != null) {
+                getBucket(entry).remove(entry);
+            }
+
+            sweep(now);
+
+            return entry != null && entry.expiration > now;
+        }
+
+        synchronized int size() {
+            return this.entries.size();
+        }
+
+        synchronized List<Entry> getEntries(long now) {
+            List<Entry> alive = new ArrayList<Entry>(this.entries.size());
+
+            for (Entry entry : this.entries.values()) {
+                if (entry.expiration > now) {
+                    alive.add(entry);
+                }
+            }
+
+            return alive;
+        }
+
+        private Set<Entry> getBucket(Entry entry) {
+            int index = (int) ((entry.expiration / TICK) % WHEEL_SIZE);
+            Set<Entry> bucket = this.wheel[index];
+
+            if (bucket == null) {
+                bucket = new HashSet<Entry>();
+                this.wheel[index] = bucket;
+            }
+
+            return bucket;
+        }
+
+        /**
+         * Removes the entries expiring in the ticks that elapsed since the last sweep. Entries in the same bucket that
+         * expire in a later turn of the wheel are kept.
+         */
+        private void sweep(long now) {
+            long lastElapsedTick = now / TICK - 1;
+            long ticks = Math.min(lastElapsedTick - this.sweptTick, WHEEL_SIZE);
+
+            for (long tick = lastElapsedTick - ticks + 1; tick <= lastElapsedTick; tick++) {
+                Set<Entry> bucket = this.wheel[(int) (tick % WHEEL_SIZE)];
+
+                if (bucket == null || bucket.isEmpty()) {
+                    continue;
+                }
+
+                for (Iterator<Entry> iterator = bucket.iterator(); iterator.hasNext(); ) {
+                    Entry entry = iterator.next();
+
+                    if (entry.expiration / TICK <= lastElapsedTick) {
+                        iterator.remove();
+                        this.entries.remove(entry.key);
+                    }
+                }
+            }
+
+            if (lastElapsedTick > this.sweptTick) {
+                this.sweptTick = lastElapsedTick;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
+import org.picketlink.identity.federation.saml.common.CommonConditionsType;
+import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>A {@code RevocationRegistry} that keeps the revoked ids in memory for a limited time.</p>
+ *
+ * <p>When the revoked token is known, see {@link #revokeToken(String, String, Object)}, its id is kept until the
+ * <code>NotOnOrAfter</code> condition of the SAML assertion plus the renewal window. Token providers must not renew a
+ * token once that time has passed, see {@link #isRenewable(Object)}, as its revocation may have been forgotten. A
+ * revoked assertion without a <code>NotOnOrAfter</code> condition is kept for as long as the registry lives. When only
+ * the id is known, it is kept for the renewal window.</p>
+ *
+ * <p>Optionally, the revoked ids are also written to an append-only log file and read back on startup.</p>
+ *
+ * @author agent
+ */
+public class ExpiringRevocationRegistry implements RevocationRegistry {
+
+    protected static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * The default time, in milliseconds, an expired token can still be renewed.
+     */
+    public static final long DEFAULT_TIMEOUT = 24 * 60 * 60 * 1000;
+
+    private final ExpiringEntries revokedIds;
+
+    private final long timeout;
+
+    /**
+     * Creates a registry that keeps the revoked ids in memory only.
+     */
+    public ExpiringRevocationRegistry() {
+        this(null, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a registry that also writes the revoked ids to the given log file.
+     *
+     * @param fileName
+     */
+    public ExpiringRevocationRegistry(String fileName) {
+        this(fileName, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param fileName the log file, or null to keep the revoked ids in memory only
+     * @param timeout the time, in milliseconds, an expired token can still be renewed
+     */
+    public ExpiringRevocationRegistry(String fileName, long timeout) {
+        this.timeout = timeout;
+
+        try {
+            this.revokedIds = new ExpiringEntries(fileName != null ? new File(fileName) : null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketlink.identity.federation.core.sts.registry.RevocationRegistry#isRevoked(java.lang.String,
+     * java.lang.String)
+     */
+    public boolean isRevoked(String tokenType, String id) {
+        return this.revokedIds.get(getKey(tokenType, id)) != null;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.picketlink.identity.federation.core.sts.registry.RevocationRegistry#revokeToken(java.lang.String,
+     * java.lang.String)
+     */
+    public void revokeToken(String tokenType, String id) {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        try {
+            this.revokedIds.put(getKey(tokenType, id), Boolean.TRUE, System.currentTimeMillis() + this.timeout);
+        } catch (IOException ioe) {
+            // the id is revoked in memory even if it could not be written to the log
+            logger.debug("Error appending content to registry log: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Adds the id of the given token to the registry. The id is kept until the token expires plus the renewal window.
+     *
+     * @param tokenType a {@code String} representing the security token type.
+     * @param id the id to registered.
+     * @param token the revoked token, usually a SAML assertion.
+     */
+    public void revokeToken(String tokenType, String id, Object token) {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        long expiration = Long.MAX_VALUE;
+        XMLGregorianCalendar notOnOrAfter = getNotOnOrAfter(token);
+
+        if (notOnOrAfter != null) {
+            expiration = Math.max(System.currentTimeMillis(), notOnOrAfter.toGregorianCalendar().getTimeInMillis())
+                    + this.timeout;
+        }
+
+        try {
+            this.revokedIds.put(getKey(tokenType, id), Boolean.TRUE, expiration);
+        } catch (IOException ioe) {
+            // the id is revoked in memory even if it could not be written to the log
+            logger.debug("Error appending content to registry log: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Indicates whether the given token can still be renewed. A token whose renewal window has passed is not, as this
+     * registry no longer remembers whether it was revoked.
+     *
+     * @param token the token to be renewed, usually a SAML assertion.
+     *
+     * @return {@code true} if the token expired less than the renewal window ago, or does not expire.
+     */
+    public boolean isRenewable(Object token) {
+        XMLGregorianCalendar notOnOrAfter = getNotOnOrAfter(token);
+
+        return notOnOrAfter == null
+                || notOnOrAfter.toGregorianCalendar().getTimeInMillis() + this.timeout > System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the <code>NotOnOrAfter</code> condition of the given token, or null if it is not known.
+     *
+     * @param token
+     *
+     * @return
+     */
+    protected XMLGregorianCalendar getNotOnOrAfter(Object token) {
+        CommonConditionsType conditions = null;
+
+        if (token instanceof AssertionType) {
+            conditions = ((AssertionType) token).getConditions();
+        } else if (token instanceof SAML11AssertionType) {
+            conditions = ((SAML11AssertionType) token).getConditions();
+        }
+
+        return conditions != null ? conditions.getNotOnOrAfter() : null;
+    }
+
+    private String getKey(String tokenType, String id) {
+        return tokenType + " " + id;
+    }
+}
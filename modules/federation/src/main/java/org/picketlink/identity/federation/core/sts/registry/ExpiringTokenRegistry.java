@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.sts.registry;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
+import org.picketlink.identity.federation.saml.common.CommonConditionsType;
+import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>A {@code SecurityTokenRegistry} that keeps the tokens in memory only until they expire, so the memory used by the
+ * registry is bounded by the number of tokens alive instead of growing with every token issued.</p>
+ *
+ * <p>A token expires at the <code>NotOnOrAfter</code> condition of the SAML assertion, or after the default timeout for
+ * other tokens. Optionally, the tokens are also written to an append-only log file and read back on startup.</p>
+ *
+ * @author agent
+ */
+public class ExpiringTokenRegistry implements SecurityTokenRegistry {
+
+    protected static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * The default timeout, in milliseconds, of tokens whose lifetime is not known.
+     */
+    public static final long DEFAULT_TIMEOUT = 2 * 60 * 60 * 1000;
+
+    private final ExpiringEntries tokens;
+
+    private final long defaultTimeout;
+
+    /**
+     * Creates a registry that keeps the tokens in memory only.
+     */
+    public ExpiringTokenRegistry() {
+        this(null, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a registry that also writes the tokens to the given log file.
+     *
+     * @param fileName
+     */
+    public ExpiringTokenRegistry(String fileName) {
+        this(fileName, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param fileName the log file, or null to keep the tokens in memory only
+     * @param defaultTimeout the timeout, in milliseconds, of tokens whose lifetime is not known
+     */
+    public ExpiringTokenRegistry(String fileName, long defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+
+        try {
+            this.tokens = new ExpiringEntries(fileName != null ? new File(fileName) : null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#addToken(java.lang.String,
+     *      java.lang.Object)
+     */
+    public void addToken(String tokenID, Object token) throws IOException {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        tokens.put(tokenID, token, getExpiration(token));
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#removeToken(java.lang.String)
+     */
+    public void removeToken(String tokenID) throws IOException {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        tokens.remove(tokenID);
+    }
+
+    /**
+     * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#getToken(java.lang.String)
+     */
+    public Object getToken(String tokenID) {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        return tokens.get(tokenID);
+    }
+
+    /**
+     * Returns the time, in milliseconds, at which the given token expires and can be removed from the registry.
+     *
+     * @param token
+     *
+     * @return
+     */
+    protected long getExpiration(Object token) {
+        CommonConditionsType conditions = null;
+
+        if (token instanceof AssertionType) {
+            conditions = ((AssertionType) token).getConditions();
+        } else if (token instanceof SAML11AssertionType) {
+            conditions = ((SAML11AssertionType) token).getConditions();
+        }
+
+        if (conditions != null) {
+            XMLGregorianCalendar notOnOrAfter = conditions.getNotOnOrAfter();
+
+            if (notOnOrAfter != null)
+                return notOnOrAfter.toGregorianCalendar().getTimeInMillis();
+        }
+
+        return System.currentTimeMillis() + this.defaultTimeout;
+    }
+}
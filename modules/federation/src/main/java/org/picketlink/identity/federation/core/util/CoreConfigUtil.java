@@ -36,6 +36,7 @@ import org.picketlink.config.federation.TokenProviderType;
 import org.picketlink.identity.federation.core.constants.PicketLinkFederationConstants;
 import org.picketlink.identity.federation.core.interfaces.IMetadataProvider;
 import org.picketlink.identity.federation.core.interfaces.TrustKeyManager;
+import org.picketlink.identity.federation.core.saml.md.providers.MetadataRegistryProvider;
 import org.picketlink.identity.federation.saml.v2.metadata.EndpointType;
 import org.picketlink.identity.federation.saml.v2.metadata.EntitiesDescriptorType;
 import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
@@ -502,6 +503,28 @@ public class CoreConfigUtil {
         return logoutURL;
     }
 
+    /**
+     * Given a binding uri, get the SP logout url
+     *
+     * @param sp
+     * @param bindingURI
+     *
+     * @return
+     */
+    public static String getLogoutURL(SPSSODescriptorType sp, String bindingURI) {
+        String logoutURL = null;
+
+        List<EndpointType> endpoints = sp.getSingleLogoutService();
+        for (EndpointType endpoint : endpoints) {
+            if (endpoint.getBinding().toString().equals(bindingURI)) {
+                logoutURL = endpoint.getLocation().toString();
+                break;
+            }
+
+        }
+        return logoutURL;
+    }
+
     /**
      * Given a binding uri, get the IDP logout response url (used for global logouts)
      */
@@ -583,6 +606,38 @@ public class CoreConfigUtil {
      */
     @SuppressWarnings({"rawtypes", "unchecked"})
     public static List<EntityDescriptorType> getMetadataConfiguration(ProviderType providerType, ServletContext servletContext) {
+        IMetadataProvider metadataProvider = getMetadataProvider(providerType, servletContext);
+
+        if (metadataProvider == null) {
+            return null;
+        }
+
+        if (metadataProvider instanceof MetadataRegistryProvider) {
+            // the entities are only read once, so the registry does not need to be refreshed
+            ((MetadataRegistryProvider) metadataProvider).stop();
+        }
+
+        List<EntityDescriptorType> resultList = new ArrayList<EntityDescriptorType>();
+        if (metadataProvider.isMultiple()) {
+            EntitiesDescriptorType metadatas = (EntitiesDescriptorType) metadataProvider.getMetaData();
+            addAllEntityDescriptorsRecursively(resultList, metadatas);
+        } else {
+            EntityDescriptorType metadata = (EntityDescriptorType) metadataProvider.getMetaData();
+            resultList.add(metadata);
+        }
+        return resultList;
+    }
+
+    /**
+     * Create and initialize the metadata provider configured in the ProviderType
+     *
+     * @param providerType
+     * @param servletContext
+     *
+     * @return the metadata provider, or null if none is configured
+     */
+    @SuppressWarnings("rawtypes")
+    public static IMetadataProvider<?> getMetadataProvider(ProviderType providerType, ServletContext servletContext) {
         MetadataProviderType metadataProviderType = providerType.getMetaDataProvider();
 
         if (metadataProviderType == null) {
@@ -611,15 +666,33 @@ public class CoreConfigUtil {
             metadataProvider.injectFileStream(servletContext.getResourceAsStream(fileInjectionStr));
         }
 
-        List<EntityDescriptorType> resultList = new ArrayList<EntityDescriptorType>();
-        if (metadataProvider.isMultiple()) {
-            EntitiesDescriptorType metadatas = (EntitiesDescriptorType) metadataProvider.getMetaData();
-            addAllEntityDescriptorsRecursively(resultList, metadatas);
-        } else {
-            EntityDescriptorType metadata = (EntityDescriptorType) metadataProvider.getMetaData();
-            resultList.add(metadata);
+        return metadataProvider;
+    }
+
+    /**
+     * Create and initialize the metadata provider configured in the ProviderType, if it is a
+     * {@link MetadataRegistryProvider}. Other metadata providers are not created.
+     *
+     * @param providerType
+     * @param servletContext
+     *
+     * @return the metadata registry provider, or null if none is configured
+     */
+    public static MetadataRegistryProvider getMetadataRegistryProvider(ProviderType providerType,
+                                                                       ServletContext servletContext) {
+        MetadataProviderType metadataProviderType = providerType.getMetaDataProvider();
+
+        if (metadataProviderType == null) {
+            return null;
         }
-        return resultList;
+
+        Class<?> clazz = SecurityActions.loadClass(CoreConfigUtil.class, metadataProviderType.getClassName());
+
+        if (clazz == null || !MetadataRegistryProvider.class.isAssignableFrom(clazz)) {
+            return null;
+        }
+
+        return (MetadataRegistryProvider) getMetadataProvider(providerType, servletContext);
     }
 
     private static void addAllEntityDescriptorsRecursively(List<EntityDescriptorType> resultList,
@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.JBossSAMLConstants;
+import org.picketlink.common.constants.JBossSAMLURIConstants;
+import org.picketlink.common.util.Base64;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A bounded cache of the documents whose signature was successfully validated, so validating the same document with
+ * the same key again does not repeat the XML Signature processing.</p>
+ *
+ * <p>Documents are identified by a SHA-256 digest of their serialized content and of the encoded validating key. Any
+ * change to the document, including to its signature, produces a different digest and requires a full validation.
+ * Entries expire after the configured timeout or at the earliest <code>NotOnOrAfter</code> condition of the SAML
+ * assertions in the document, whichever comes first. The least recently used entries are evicted when the cache is
+ * full.</p>
+ *
+ * @author agent
+ */
+public class SignatureValidationCache {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final long timeout;
+
+    private final Map<String, Long> entries;
+
+    /**
+     * @param maxSize the maximum number of validated documents kept in the cache
+     * @param timeout the maximum time, in milliseconds, a validated document is kept in the cache
+     */
+    public SignatureValidationCache(final int maxSize, long timeout) {
+        if (maxSize <= 0)
+            throw logger.invalidArgumentError("maxSize must be greater than zero");
+
+        this.timeout = timeout;
+        this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the key identifying the given document validated with the given key, or null if it can not be computed.
+     *
+     * @param signedDocument
+     * @param key
+     *
+     * @return
+     */
+    public String getCacheKey(Document signedDocument, Key key) {
+        byte[] encodedKey = key.getEncoded();
+
+        if (encodedKey == null)
+            return null;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+            digest.update(encodedKey);
+            digest.update(DocumentUtil.getNodeAsBytes(signedDocument));
+
+            return Base64.encodeBytes(digest.digest(), Base64.DONT_BREAK_LINES);
+        } catch (Exception e) {
+            logger.trace("Could not compute the signature validation cache key", e);
+            return null;
+        }
+    }
+
+    /**
+     * Indicates if the document identified by the given key was validated and did not expire.
+     *
+     * @param cacheKey
+     *
+     * @return
+     */
+    public boolean isValidated(String cacheKey) {
+        synchronized (this.entries) {
+            Long expiration = this.entries.get(cacheKey);
+
+            if (expiration == null)
+                return false;
+
+            if (expiration <= System.currentTimeMillis()) {
+                this.entries.remove(cacheKey);
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Marks the given document, identified by the given key, as validated.
+     *
+     * @param cacheKey
+     * @param signedDocument
+     */
+    public void validated(String cacheKey, Document signedDocument) {
+        long expiration = System.currentTimeMillis() + this.timeout;
+        Long notOnOrAfter = getNotOnOrAfter(signedDocument);
+
+        if (notOnOrAfter != null)
+            expiration = Math.min(expiration, notOnOrAfter);
+
+        if (expiration <= System.currentTimeMillis())
+            return;
+
+        synchronized (this.entries) {
+            this.entries.put(cacheKey, expiration);
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache, including the expired entries not yet removed.
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    private Long getNotOnOrAfter(Document signedDocument) {
+        Long notOnOrAfter = getNotOnOrAfter(signedDocument, JBossSAMLURIConstants.ASSERTION_NSURI.get(), null);
+        return getNotOnOrAfter(signedDocument, JBossSAMLURIConstants.SAML_11_NS.get(), notOnOrAfter);
+    }
+
+    private Long getNotOnOrAfter(Document signedDocument, String namespaceURI, Long notOnOrAfter) {
+        NodeList conditions = signedDocument.getElementsByTagNameNS(namespaceURI, JBossSAMLConstants.CONDITIONS.get());
+
+        for (int i = 0; i < conditions.getLength(); i++) {
+            String value = ((Element) conditions.item(i)).getAttribute(JBossSAMLConstants.NOT_ON_OR_AFTER.get());
+
+            if (value.length() == 0)
+                continue;
+
+            long time;
+
+            try {
+                time = XMLTimeUtil.parse(value).toGregorianCalendar().getTimeInMillis();
+            } catch (Exception e) {
+                // the document can not be cached if its validity can not be determined
+                return Long.MIN_VALUE;
+            }
+
+            if (notOnOrAfter == null || time < notOnOrAfter)
+                notOnOrAfter = time;
+        }
+
+        return notOnOrAfter;
+    }
+}
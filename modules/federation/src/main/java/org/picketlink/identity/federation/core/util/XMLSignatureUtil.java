@@ -86,6 +86,11 @@ import java.util.List;
  * Utility for XML Signature <b>Note:</b> You can change the canonicalization method type by using the system property
  * "picketlink.xmlsig.canonicalization"
  *
+ * <p>Successful validations can be cached by setting the system property "picketlink.xmlsig.validationCacheSize" to the
+ * maximum number of documents to keep, see {@link SignatureValidationCache}. The system property
+ * "picketlink.xmlsig.validationCacheTimeout" defines, in seconds, how long a document is kept. It defaults to 300.
+ * Invalid values are logged and ignored.</p>
+ *
  * @author Anil.Saldhana@redhat.com
  * @author alessio.soldano@jboss.com
  * @since Dec 15, 2008
@@ -94,6 +99,12 @@ public class XMLSignatureUtil {
 
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
 
+    private static final String VALIDATION_CACHE_SIZE_PROPERTY = "picketlink.xmlsig.validationCacheSize";
+
+    private static final String VALIDATION_CACHE_TIMEOUT_PROPERTY = "picketlink.xmlsig.validationCacheTimeout";
+
+    private static final long DEFAULT_VALIDATION_CACHE_TIMEOUT = 300;
+
     // Set some system properties and Santuario providers. Run this block before any other class initialization.
     static {
         ProvidersUtil.ensure();
@@ -102,6 +113,18 @@ public class XMLSignatureUtil {
         if (StringUtil.isNotNull(keyInfoProp)) {
             includeKeyInfoInSignature = Boolean.parseBoolean(keyInfoProp);
         }
+        long validationCacheSize = getLongProperty(VALIDATION_CACHE_SIZE_PROPERTY, 0);
+        if (validationCacheSize > 0) {
+            long validationCacheTimeout = getLongProperty(VALIDATION_CACHE_TIMEOUT_PROPERTY,
+                    DEFAULT_VALIDATION_CACHE_TIMEOUT);
+            if (validationCacheTimeout <= 0) {
+                logger.warn("Ignoring invalid value of system property " + VALIDATION_CACHE_TIMEOUT_PROPERTY + ": "
+                        + validationCacheTimeout + ". Using default " + DEFAULT_VALIDATION_CACHE_TIMEOUT + ".");
+                validationCacheTimeout = DEFAULT_VALIDATION_CACHE_TIMEOUT;
+            }
+            validationCache = new SignatureValidationCache((int) Math.min(validationCacheSize, Integer.MAX_VALUE),
+                    validationCacheTimeout * 1000);
+        }
     }
 
     ;
@@ -115,6 +138,36 @@ public class XMLSignatureUtil {
      */
     private static boolean includeKeyInfoInSignature = true;
 
+    /**
+     * Successful validations are not cached by default
+     */
+    private static volatile SignatureValidationCache validationCache;
+
+    /**
+     * Read a numeric system property. A value that is not a number is logged and the default value is returned, so a
+     * misconfiguration does not prevent this class from being initialized.
+     *
+     * @param name
+     * @param defaultValue
+     *
+     * @return
+     */
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = SecurityActions.getSystemProperty(name, null);
+
+        if (StringUtil.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid value of system property " + name + ": " + value + ". Using default "
+                    + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
     private static XMLSignatureFactory getXMLSignatureFactory() {
         XMLSignatureFactory xsf = null;
 
@@ -151,6 +204,16 @@ public class XMLSignatureUtil {
         XMLSignatureUtil.includeKeyInfoInSignature = includeKeyInfoInSignature;
     }
 
+    /**
+     * Set the cache of successful validations used by {@link #validate(Document, Key)}. A null value disables the
+     * cache.
+     *
+     * @param validationCache
+     */
+    public static void setValidationCache(SignatureValidationCache validationCache) {
+        XMLSignatureUtil.validationCache = validationCache;
+    }
+
     /**
      * Precheck whether the document that will be validated has the right signedinfo
      *
@@ -501,6 +564,16 @@ public class XMLSignatureUtil {
         if (publicKey == null)
             throw logger.nullValueError("Public Key");
 
+        SignatureValidationCache cache = validationCache;
+        String cacheKey = null;
+
+        if (cache != null) {
+            cacheKey = cache.getCacheKey(signedDoc, publicKey);
+
+            if (cacheKey != null && cache.isValidated(cacheKey))
+                return true;
+        }
+
         for (int i = 0; i < nl.getLength(); i++) {
             DOMValidateContext valContext = new DOMValidateContext(publicKey, nl.item(i));
             XMLSignature signature = fac.unmarshalXMLSignature(valContext);
@@ -522,6 +595,9 @@ public class XMLSignatureUtil {
             }
         }
 
+        if (cacheKey != null)
+            cache.validated(cacheKey, signedDoc);
+
         return true;
     }
 
@@ -0,0 +1,309 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.JBossSAMLConstants;
+import org.picketlink.common.constants.JBossSAMLURIConstants;
+import org.picketlink.common.constants.WSTrustConstants;
+import org.picketlink.common.exceptions.fed.WSTrustException;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v1.SAML11Constants;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>A bounded cache of the tokens issued to {@link STSClient}s, so a token still valid is reused instead of requesting a
+ * new one from the STS for every call.</p>
+ *
+ * <p>A token is kept until the <code>Expires</code> time of the <code>Lifetime</code> of the response or the earliest
+ * <code>NotOnOrAfter</code> condition of the assertion, whichever comes first, and is not returned once it expires within
+ * the renewal skew of the client. Tokens whose expiration is unknown are not cached. When several threads miss the same
+ * token at once, only one of them requests it from the STS and the others wait for its result. The least recently used
+ * tokens are evicted when the cache is full.</p>
+ *
+ * <p>Each call returns its own copy of the token, which can be freely modified or moved to another document.</p>
+ *
+ * @author agent
+ */
+public class IssuedTokenCache {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final IssuedTokenCache DEFAULT = new IssuedTokenCache(DEFAULT_MAX_SIZE);
+
+    private final Map<List<String>, CachedToken> tokens;
+
+    private final ConcurrentMap<List<String>, FutureTask<CachedToken>> pendingTokens = new ConcurrentHashMap<List<String>, FutureTask<CachedToken>>();
+
+    /**
+     * @param maxSize the maximum number of tokens kept in the cache
+     */
+    public IssuedTokenCache(final int maxSize) {
+        if (maxSize <= 0)
+            throw logger.invalidArgumentError("maxSize must be greater than zero");
+
+        this.tokens = new LinkedHashMap<List<String>, CachedToken>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, CachedToken> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache shared by the clients configured to cache their tokens.
+     *
+     * @return
+     */
+    public static IssuedTokenCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns a copy of the token identified by the given key, requesting it with the given request if it is not cached or
+     * expires within the given renewal skew.
+     *
+     * @param key identifies the STS, the credentials and the parameters of the request
+     * @param renewalSkew the time, in milliseconds, before its expiration from which a token is requested again
+     * @param request
+     *
+     * @return
+     *
+     * @throws WSTrustException
+     */
+    Element getToken(final List<String> key, final long renewalSkew, final TokenRequest request) throws WSTrustException {
+        CachedToken cachedToken;
+
+        synchronized (this.tokens) {
+            cachedToken = this.tokens.get(key);
+        }
+
+        if (cachedToken != null && cachedToken.expiration > System.currentTimeMillis() + renewalSkew) {
+            return cachedToken.copy();
+        }
+
+        FutureTask<CachedToken> task = new FutureTask<CachedToken>(new Callable<CachedToken>() {
+            public CachedToken call() throws Exception {
+                Element token = request.issue();
+                CachedToken issuedToken = new CachedToken(token, getExpiration(token));
+
+                if (issuedToken.expiration > System.currentTimeMillis() + renewalSkew) {
+                    synchronized (tokens) {
+                        tokens.put(key, issuedToken);
+                    }
+                }
+
+                return issuedToken;
+            }
+        });
+
+        FutureTask<CachedToken> pendingTask = this.pendingTokens.putIfAbsent(key, task);
+
+        if (pendingTask == null) {
+            pendingTask = task;
+
+            try {
+                task.run();
+            } finally {
+                this.pendingTokens.remove(key, task);
+            }
+        }
+
+        try {
+            return pendingTask.get().copy();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WSTrustException(logger.processingError(e));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof WSTrustException)
+                throw (WSTrustException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw new WSTrustException(logger.processingError(cause));
+        }
+    }
+
+    /**
+     * Removes the given token, or a copy of it, from the cache.
+     *
+     * @param token
+     */
+    public void remove(Element token) {
+        String id = getId(token);
+
+        if (id == null)
+            return;
+
+        synchronized (this.tokens) {
+            Iterator<CachedToken> iterator = this.tokens.values().iterator();
+
+            while (iterator.hasNext()) {
+                if (id.equals(iterator.next().id)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all tokens from the cache.
+     */
+    public void clear() {
+        synchronized (this.tokens) {
+            this.tokens.clear();
+        }
+    }
+
+    /**
+     * Returns the number of tokens in the cache, including the expired tokens not yet removed.
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (this.tokens) {
+            return this.tokens.size();
+        }
+    }
+
+    private static String getId(Element token) {
+        if (token.hasAttribute(JBossSAMLConstants.ID.get()))
+            return token.getAttribute(JBossSAMLConstants.ID.get());
+        if (token.hasAttribute(SAML11Constants.ASSERTIONID))
+            return token.getAttribute(SAML11Constants.ASSERTIONID);
+
+        return null;
+    }
+
+    /**
+     * Returns the time, in milliseconds, from which the given token is no longer valid, or {@link Long#MIN_VALUE} if it
+     * can not be determined.
+     */
+    private static long getExpiration(Element token) {
+        Long expiration = null;
+
+        try {
+            // the token is the child of the RequestedSecurityToken element of the response
+            Node response = token.getParentNode() != null ? token.getParentNode().getParentNode() : null;
+
+            if (response != null && response.getNodeType() == Node.ELEMENT_NODE) {
+                expiration = getExpires((Element) response);
+            }
+
+            expiration = getNotOnOrAfter(token, JBossSAMLURIConstants.ASSERTION_NSURI.get(), expiration);
+            expiration = getNotOnOrAfter(token, JBossSAMLURIConstants.SAML_11_NS.get(), expiration);
+        } catch (Exception e) {
+            logger.trace("Could not determine the expiration of the issued token", e);
+            return Long.MIN_VALUE;
+        }
+
+        return expiration != null ? expiration : Long.MIN_VALUE;
+    }
+
+    private static Long getExpires(Element response) throws Exception {
+        for (Node child = response.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && WSTrustConstants.LIFETIME.equals(child.getLocalName())) {
+                NodeList expires = ((Element) child).getElementsByTagNameNS(WSTrustConstants.WSU_NS, WSTrustConstants.EXPIRES);
+
+                if (expires.getLength() > 0) {
+                    return XMLTimeUtil.parse(expires.item(0).getTextContent().trim()).toGregorianCalendar().getTimeInMillis();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static Long getNotOnOrAfter(Element token, String namespaceURI, Long notOnOrAfter) throws Exception {
+        NodeList conditions = token.getElementsByTagNameNS(namespaceURI, JBossSAMLConstants.CONDITIONS.get());
+
+        for (int i = 0; i < conditions.getLength(); i++) {
+            String value = ((Element) conditions.item(i)).getAttribute(JBossSAMLConstants.NOT_ON_OR_AFTER.get());
+
+            if (value.length() == 0)
+                continue;
+
+            long time = XMLTimeUtil.parse(value).toGregorianCalendar().getTimeInMillis();
+
+            if (notOnOrAfter == null || time < notOnOrAfter)
+                notOnOrAfter = time;
+        }
+
+        return notOnOrAfter;
+    }
+
+    /**
+     * Requests a token from the STS.
+     */
+    interface TokenRequest {
+
+        Element issue() throws WSTrustException;
+    }
+
+    private static class CachedToken {
+
+        // the token is kept in its own document, copied under its lock as DOM implementations are not thread-safe
+        private final Document document;
+
+        final String id;
+
+        final long expiration;
+
+        CachedToken(Element token, long expiration) throws Exception {
+            this.document = DocumentUtil.createDocument();
+            this.document.appendChild(this.document.importNode(token, true));
+            this.id = getId(token);
+            this.expiration = expiration;
+        }
+
+        synchronized Element copy() throws WSTrustException {
+            try {
+                Document copy = DocumentUtil.createDocument();
+
+                copy.appendChild(copy.importNode(this.document.getDocumentElement(), true));
+
+                return copy.getDocumentElement();
+            } catch (Exception e) {
+                throw new WSTrustException(logger.processingError(e));
+            }
+        }
+    }
+}
@@ -128,7 +128,7 @@ public class PicketLinkSTS implements Provider<SOAPMessage> { // SecurityTokenSe
 
             WSTrustParser parser = new WSTrustParser();
 
-            baseRequest = (BaseRequestSecurityToken) parser.parse(DocumentUtil.getNodeAsStream(payLoad));
+            baseRequest = (BaseRequestSecurityToken) parser.parse(payLoad);
         } catch (Exception e) {
             throw logger.stsWSError(e);
         }
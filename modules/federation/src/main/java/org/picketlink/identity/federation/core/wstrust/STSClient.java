@@ -49,9 +49,10 @@ import javax.xml.ws.Dispatch;
 import javax.xml.ws.Service;
 import javax.xml.ws.Service.Mode;
 import javax.xml.ws.soap.SOAPBinding;
-import java.io.InputStream;
 import java.net.URI;
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -66,6 +67,11 @@ public class STSClient {
 
     private final ThreadLocal<Dispatch<Source>> dispatchLocal = new InheritableThreadLocal<Dispatch<Source>>();
 
+    /**
+     * The {@link Dispatch} created from the {@link STSClientConfig}, used by the threads that did not set their own.
+     */
+    private volatile Dispatch<Source> configuredDispatch;
+
     private final String targetNS = "http://org.picketlink.trust/sts/";
 
     private String wsaIssuerAddress;
@@ -79,6 +85,15 @@ public class STSClient {
      */
     private boolean isBatch = false;
 
+    private String endpointAddress;
+
+    /**
+     * The cache of the issued tokens, if they are cached - will be read from the {@link STSClientConfig}
+     */
+    private IssuedTokenCache issuedTokenCache;
+
+    private long tokenRenewalSkew = STSClientConfig.DEFAULT_TOKEN_RENEWAL_SKEW * 1000;
+
     /**
      * Constructor
      *
@@ -103,25 +118,41 @@ public class STSClient {
         QName service = new QName(targetNS, config.getServiceName());
         QName portName = new QName(targetNS, config.getPortName());
 
+        soapBinding = config.getSoapBinding();
+        endpointAddress = config.getEndPointAddress();
+
+        Service jaxwsService = Service.create(service);
+        jaxwsService.addPort(portName, soapBinding, config.getEndPointAddress());
+        configuredDispatch = jaxwsService.createDispatch(portName, Source.class, Mode.PAYLOAD);
+
+        configure(config);
+    }
+
+    /**
+     * Applies the settings of the given {@link STSClientConfig} that do not change the endpoint, so a client can be reused
+     * by {@link STSClientFactory} for another configuration of the same endpoint.
+     *
+     * @param config
+     */
+    void configure(STSClientConfig config) {
         isBatch = config.isBatch();
 
         wsaIssuerAddress = config.getWsaIssuer();
         wspAppliesTo = config.getWspAppliesTo();
 
-        soapBinding = config.getSoapBinding();
-
-        Service jaxwsService = Service.create(service);
-        jaxwsService.addPort(portName, soapBinding, config.getEndPointAddress());
-        Dispatch<Source> dispatch = jaxwsService.createDispatch(portName, Source.class, Mode.PAYLOAD);
+        issuedTokenCache = config.isCacheIssuedTokens() ? IssuedTokenCache.getDefault() : null;
+        tokenRenewalSkew = config.getTokenRenewalSkew() * 1000;
 
-        Map<String, Object> reqContext = dispatch.getRequestContext();
+        Map<String, Object> reqContext = configuredDispatch.getRequestContext();
         String username = config.getUsername();
         if (username != null) {
             // add the username and password to the request context.
             reqContext.put(BindingProvider.USERNAME_PROPERTY, config.getUsername());
             reqContext.put(BindingProvider.PASSWORD_PROPERTY, config.getPassword());
+        } else {
+            reqContext.remove(BindingProvider.USERNAME_PROPERTY);
+            reqContext.remove(BindingProvider.PASSWORD_PROPERTY);
         }
-        setDispatch(dispatch);
     }
 
     /**
@@ -136,6 +167,24 @@ public class STSClient {
         dispatchLocal.set(dispatch);
     }
 
+    /**
+     * Sets the cache of the tokens issued by the convenience methods of this client, or null to not cache them.
+     *
+     * @param issuedTokenCache
+     */
+    public void setIssuedTokenCache(IssuedTokenCache issuedTokenCache) {
+        this.issuedTokenCache = issuedTokenCache;
+    }
+
+    /**
+     * Sets the time, in seconds, before their expiration from which cached tokens are requested again.
+     *
+     * @param tokenRenewalSkew
+     */
+    public void setTokenRenewalSkew(long tokenRenewalSkew) {
+        this.tokenRenewalSkew = tokenRenewalSkew * 1000;
+    }
+
     /**
      * Issue a token
      *
@@ -157,7 +206,7 @@ public class STSClient {
             request.setAppliesTo(WSTrustUtil.createAppliesTo(wspAppliesTo));
         }
         // send the token request to JBoss STS and get the response.
-        return issueToken(request);
+        return issueToken(request, wspAppliesTo, tokenType, null);
     }
 
     /**
@@ -178,7 +227,7 @@ public class STSClient {
             request.setIssuer(WSTrustUtil.createIssuer(wsaIssuerAddress));
         }
         setAppliesTo(endpointURI, request);
-        return issueToken(request);
+        return issueToken(request, getAppliesTo(endpointURI), null, null);
     }
 
     /**
@@ -206,7 +255,7 @@ public class STSClient {
         }
         setAppliesTo(endpointURI, request);
         setTokenType(tokenType, request);
-        return issueToken(request);
+        return issueToken(request, getAppliesTo(endpointURI), tokenType, null);
     }
 
     /**
@@ -236,7 +285,38 @@ public class STSClient {
         setAppliesTo(endpointURI, request);
         setTokenType(tokenType, request);
         setOnBehalfOf(principal, request);
-        return issueToken(request);
+        return issueToken(request, getAppliesTo(endpointURI), tokenType, principal);
+    }
+
+    /**
+     * Issues the given request, or returns the token previously issued for the same parameters if tokens are cached.
+     */
+    private Element issueToken(final RequestSecurityToken request, String appliesTo, String tokenType, Principal principal)
+            throws WSTrustException {
+        IssuedTokenCache cache = this.issuedTokenCache;
+
+        if (cache == null)
+            return issueToken(request);
+
+        validateDispatch();
+
+        // tokens are only shared by the requests sent to the same STS, with the same credentials and parameters
+        Map<String, Object> reqContext = getDispatch().getRequestContext();
+        Object address = reqContext.get(BindingProvider.ENDPOINT_ADDRESS_PROPERTY);
+        List<String> key = Arrays.asList(address != null ? address.toString() : endpointAddress,
+                (String) reqContext.get(BindingProvider.USERNAME_PROPERTY),
+                (String) reqContext.get(BindingProvider.PASSWORD_PROPERTY), wsaIssuerAddress, appliesTo, tokenType,
+                principal != null ? principal.getName() : null, String.valueOf(isBatch));
+
+        return cache.getToken(key, tokenRenewalSkew, new IssuedTokenCache.TokenRequest() {
+            public Element issue() throws WSTrustException {
+                return issueToken(request);
+            }
+        });
+    }
+
+    private String getAppliesTo(String endpointURI) {
+        return StringUtil.isNotNull(wspAppliesTo) ? wspAppliesTo : endpointURI;
     }
 
     private RequestSecurityToken setAppliesTo(String endpointURI, RequestSecurityToken rst) {
@@ -281,7 +361,7 @@ public class STSClient {
 
         validateDispatch();
         DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
+        Source response = getDispatch().invoke(requestSource);
 
         NodeList nodes;
         try {
@@ -340,7 +420,7 @@ public class STSClient {
 
         // send the token request to JBoss STS and get the response.
         DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
+        Source response = getDispatch().invoke(requestSource);
         NodeList nodes;
         try {
             Node documentNode = DocumentUtil.getNodeFromSource(response);
@@ -394,12 +474,12 @@ public class STSClient {
 
         DOMSource requestSource = this.createSourceFromRequest(request);
 
-        Source response = dispatchLocal.get().invoke(requestSource);
+        Source response = getDispatch().invoke(requestSource);
 
         try {
-            InputStream stream = DocumentUtil.getNodeAsStream(DocumentUtil.getNodeFromSource(response));
+            Node documentNode = DocumentUtil.getNodeFromSource(response);
             RequestSecurityTokenResponseCollection responseCollection = (RequestSecurityTokenResponseCollection) new WSTrustParser()
-                    .parse(stream);
+                    .parse(documentNode);
             RequestSecurityTokenResponse tokenResponse = responseCollection.getRequestSecurityTokenResponses().get(0);
 
             StatusType status = tokenResponse.getStatus();
@@ -435,15 +515,18 @@ public class STSClient {
         request.setContext("context");
 
         DOMSource requestSource = this.createSourceFromRequest(request);
-        Source response = dispatchLocal.get().invoke(requestSource);
+        Source response = getDispatch().invoke(requestSource);
         // get the WS-Trust response and check for presence of the RequestTokenCanceled element.
         try {
-            InputStream stream = DocumentUtil.getNodeAsStream(DocumentUtil.getNodeFromSource(response));
+            Node documentNode = DocumentUtil.getNodeFromSource(response);
             RequestSecurityTokenResponseCollection responseCollection = (RequestSecurityTokenResponseCollection) new WSTrustParser()
-                    .parse(stream);
+                    .parse(documentNode);
             RequestSecurityTokenResponse tokenResponse = responseCollection.getRequestSecurityTokenResponses().get(0);
-            if (tokenResponse.getRequestedTokenCancelled() != null)
+            if (tokenResponse.getRequestedTokenCancelled() != null) {
+                if (issuedTokenCache != null)
+                    issuedTokenCache.remove(securityToken);
                 return true;
+            }
             return false;
         } catch (Exception e) {
             throw new WSTrustException(logger.parserError(e));
@@ -456,7 +539,13 @@ public class STSClient {
      * @return
      */
     public Dispatch<Source> getDispatch() {
-        return dispatchLocal.get();
+        Dispatch<Source> dispatch = dispatchLocal.get();
+
+        if (dispatch == null) {
+            return configuredDispatch;
+        }
+
+        return dispatch;
     }
 
     private DOMSource createSourceFromRequest(RequestSecurityToken request) throws WSTrustException {
@@ -25,11 +25,15 @@ import org.picketlink.identity.federation.core.constants.PicketLinkFederationCon
 
 import javax.xml.ws.soap.SOAPBinding;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * STSClientConfig has the ability to either programatically construct the configuration needed for {@link STSClient}
@@ -52,6 +56,7 @@ import java.util.Properties;
  * </pre>
  *
  * <h3>Configure from file</h3>
+ * A file is only parsed again if it is modified.
  * Example:
  *
  * <pre>
@@ -92,6 +97,19 @@ public class STSClientConfig {
 
     public static final String SOAP_BINDING = "soapBinding";
 
+    public static final String CACHE_ISSUED_TOKENS = "cacheIssuedTokens";
+
+    public static final String TOKEN_RENEWAL_SKEW = "tokenRenewalSkew";
+
+    /**
+     * The default time, in seconds, before their expiration from which cached tokens are requested again.
+     */
+    public static final long DEFAULT_TOKEN_RENEWAL_SKEW = 30;
+
+    // the configuration files already parsed, by the context class loader of the deployment and their resolved URL
+    private static final Map<ClassLoader, ConcurrentMap<String, ConfigFile>> configFiles =
+            new WeakHashMap<ClassLoader, ConcurrentMap<String, ConfigFile>>();
+
     private final String serviceName;
 
     private final String portName;
@@ -112,6 +130,10 @@ public class STSClientConfig {
 
     private final String soapBinding;
 
+    private final boolean cacheIssuedTokens;
+
+    private final long tokenRenewalSkew;
+
     private STSClientConfig(final Builder builder) {
         serviceName = builder.serviceName;
         portName = builder.portName;
@@ -123,6 +145,8 @@ public class STSClientConfig {
         wspAppliesTo = builder.wspAppliesTo;
         requestType = builder.requestType;
         soapBinding = builder.soapBinding;
+        cacheIssuedTokens = builder.cacheIssuedTokens;
+        tokenRenewalSkew = builder.tokenRenewalSkew;
     }
 
     public String getServiceName() {
@@ -165,6 +189,24 @@ public class STSClientConfig {
         return soapBinding;
     }
 
+    /**
+     * Indicates if the tokens issued to the client are cached in the {@link IssuedTokenCache#getDefault() shared cache}.
+     *
+     * @return
+     */
+    public boolean isCacheIssuedTokens() {
+        return cacheIssuedTokens;
+    }
+
+    /**
+     * The time, in seconds, before their expiration from which cached tokens are requested again.
+     *
+     * @return
+     */
+    public long getTokenRenewalSkew() {
+        return tokenRenewalSkew;
+    }
+
     public String toString() {
         return getClass().getSimpleName() + "[serviceName=" + serviceName + ", portName=" + portName + ", endpointAddress="
                 + endpointAddress + "]";
@@ -193,6 +235,10 @@ public class STSClientConfig {
 
         private String soapBinding = SOAPBinding.SOAP11HTTP_BINDING;
 
+        private boolean cacheIssuedTokens;
+
+        private long tokenRenewalSkew = DEFAULT_TOKEN_RENEWAL_SKEW;
+
         public Builder() {
         }
 
@@ -240,6 +286,16 @@ public class STSClientConfig {
             return this;
         }
 
+        public Builder cacheIssuedTokens(final boolean cacheIssuedTokens) {
+            this.cacheIssuedTokens = cacheIssuedTokens;
+            return this;
+        }
+
+        public Builder tokenRenewalSkew(final long tokenRenewalSkew) {
+            this.tokenRenewalSkew = tokenRenewalSkew;
+            return this;
+        }
+
         public String getServiceName() {
             return serviceName;
         }
@@ -274,51 +330,26 @@ public class STSClientConfig {
         }
 
         private void populate(final String configFile) {
-            InputStream in = null;
-
-            try {
-                in = getResource(configFile);
-                if (in == null) {
-                    throw logger.nullValueError("properties file " + configFile);
+            final Properties properties = getProperties(configFile);
+            this.serviceName = properties.getProperty(SERVICE_NAME);
+            this.portName = properties.getProperty(PORT_NAME);
+            this.endpointAddress = properties.getProperty(ENDPOINT_ADDRESS);
+            this.username = properties.getProperty(USERNAME);
+            this.password = properties.getProperty(PASSWORD);
+            this.wsaIssuer = properties.getProperty(WSA_ISSUER);
+            this.wspAppliesTo = properties.getProperty(WSP_APPLIES_TO);
+            String batchStr = properties.getProperty(IS_BATCH);
+            this.isBatch = StringUtil.isNotNull(batchStr) ? Boolean.parseBoolean(batchStr) : false;
+            this.requestType = properties.getProperty(REQUEST_TYPE);
+
+            if (!StringUtil.isNullOrEmpty(properties.getProperty(SOAP_BINDING))) {
+                this.soapBinding = properties.getProperty(SOAP_BINDING);
+            }
 
-                }
-                final Properties properties = new Properties();
-                properties.load(in);
-                this.serviceName = properties.getProperty(SERVICE_NAME);
-                this.portName = properties.getProperty(PORT_NAME);
-                this.endpointAddress = properties.getProperty(ENDPOINT_ADDRESS);
-                this.username = properties.getProperty(USERNAME);
-                this.password = properties.getProperty(PASSWORD);
-                this.wsaIssuer = properties.getProperty(WSA_ISSUER);
-                this.wspAppliesTo = properties.getProperty(WSP_APPLIES_TO);
-                String batchStr = properties.getProperty(IS_BATCH);
-                this.isBatch = StringUtil.isNotNull(batchStr) ? Boolean.parseBoolean(batchStr) : false;
-                this.requestType = properties.getProperty(REQUEST_TYPE);
-
-                if (!StringUtil.isNullOrEmpty(properties.getProperty(SOAP_BINDING))) {
-                    this.soapBinding = properties.getProperty(SOAP_BINDING);
-                }
+            this.cacheIssuedTokens = Boolean.parseBoolean(properties.getProperty(CACHE_ISSUED_TOKENS));
 
-                if (this.password.startsWith(PicketLinkFederationConstants.PASS_MASK_PREFIX)) {
-                    // password is masked
-                    String salt = properties.getProperty(PicketLinkFederationConstants.SALT);
-                    int iterationCount = Integer
-                            .parseInt(properties.getProperty(PicketLinkFederationConstants.ITERATION_COUNT));
-                    try {
-                        this.password = StringUtil.decode(password, salt, iterationCount);
-                    } catch (Exception e) {
-                        throw logger.unableToDecodePasswordError(this.password);
-                    }
-                }
-            } catch (IOException e) {
-                throw logger.couldNotLoadProperties(configFile);
-            } finally {
-                try {
-                    if (in != null)
-                        in.close();
-                } catch (final IOException ignored) {
-                    ignored.printStackTrace();
-                }
+            if (!StringUtil.isNullOrEmpty(properties.getProperty(TOKEN_RENEWAL_SKEW))) {
+                this.tokenRenewalSkew = Long.parseLong(properties.getProperty(TOKEN_RENEWAL_SKEW).trim());
             }
         }
 
@@ -355,22 +386,130 @@ public class STSClientConfig {
         }
     }
 
-    private static InputStream getResource(String resource) throws IOException {
+    /**
+     * Returns the properties of the given configuration file, with the password unmasked. The properties are parsed once
+     * for each deployment and parsed again only if the file is modified.
+     *
+     * @param configFile
+     *
+     * @return
+     */
+    private static Properties getProperties(final String configFile) {
+        final URL url = getResource(configFile);
+        if (url == null) {
+            throw logger.nullValueError("properties file " + configFile);
+        }
+
+        final String key = url.toExternalForm();
+        final long lastModified = getLastModified(url);
+        final ConcurrentMap<String, ConfigFile> deploymentConfigFiles = getConfigFiles();
+        ConfigFile cached = deploymentConfigFiles.get(key);
+
+        if (cached == null || cached.lastModified != lastModified) {
+            cached = new ConfigFile(loadProperties(configFile, url), lastModified);
+            deploymentConfigFiles.put(key, cached);
+        }
+
+        return cached.properties;
+    }
+
+    /**
+     * Returns the configuration files parsed for the calling deployment, identified by its context class loader.
+     *
+     * @return
+     */
+    private static ConcurrentMap<String, ConfigFile> getConfigFiles() {
+        final ClassLoader classLoader = SecurityActions.getTCCL();
+
+        synchronized (configFiles) {
+            ConcurrentMap<String, ConfigFile> deploymentConfigFiles = configFiles.get(classLoader);
+
+            if (deploymentConfigFiles == null) {
+                deploymentConfigFiles = new ConcurrentHashMap<String, ConfigFile>();
+                configFiles.put(classLoader, deploymentConfigFiles);
+            }
+
+            return deploymentConfigFiles;
+        }
+    }
+
+    /**
+     * Returns the last modification time of the given resource if it is a file, or 0 otherwise.
+     *
+     * @param url
+     *
+     * @return
+     */
+    private static long getLastModified(final URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI()).lastModified();
+            } catch (URISyntaxException ignored) {
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+
+        return 0;
+    }
+
+    private static Properties loadProperties(final String configFile, final URL url) {
+        InputStream in = null;
+
+        try {
+            in = url.openStream();
+            final Properties properties = new Properties();
+            properties.load(in);
+
+            String password = properties.getProperty(PASSWORD);
+
+            if (password != null && password.startsWith(PicketLinkFederationConstants.PASS_MASK_PREFIX)) {
+                // password is masked
+                String salt = properties.getProperty(PicketLinkFederationConstants.SALT);
+                int iterationCount = Integer.parseInt(properties.getProperty(PicketLinkFederationConstants.ITERATION_COUNT));
+                try {
+                    properties.setProperty(PASSWORD, StringUtil.decode(password, salt, iterationCount));
+                } catch (Exception e) {
+                    throw logger.unableToDecodePasswordError(password);
+                }
+            }
+
+            return properties;
+        } catch (IOException e) {
+            throw logger.couldNotLoadProperties(configFile);
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (final IOException ignored) {
+                ignored.printStackTrace();
+            }
+        }
+    }
+
+    private static URL getResource(String resource) {
         // Try it as a File resource...
         final File file = new File(resource);
 
         if (file.exists() && !file.isDirectory()) {
-            return new FileInputStream(file);
-        }
-        // Try it as a classpath resource ...
-        URL url = SecurityActions.loadResource(STSClientConfig.class, resource);
-        if (url != null) {
-            final InputStream is = url.openStream();
-            if (is != null) {
-                return is;
+            try {
+                return file.toURI().toURL();
+            } catch (IOException e) {
+                throw logger.couldNotLoadProperties(resource);
             }
         }
+        // Try it as a classpath resource ...
+        return SecurityActions.loadResource(STSClientConfig.class, resource);
+    }
 
-        return null;
+    private static class ConfigFile {
+
+        final Properties properties;
+
+        final long lastModified;
+
+        ConfigFile(Properties properties, long lastModified) {
+            this.properties = properties;
+            this.lastModified = lastModified;
+        }
     }
-}
\ No newline at end of file
+}
@@ -17,25 +17,283 @@
  */
 package org.picketlink.identity.federation.core.wstrust;
 
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
 import org.picketlink.common.exceptions.ParsingException;
+import org.picketlink.common.util.StringUtil;
+import org.picketlink.common.util.SystemPropertiesUtil;
+import org.picketlink.identity.federation.core.constants.PicketLinkFederationConstants;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Simple factory for creating {@link STSClient}s.
  *
+ * <p>
+ * Creating a client builds a JAX-WS {@link javax.xml.ws.Dispatch}, which is expensive. Clients obtained with
+ * {@link #getClient(STSClientConfig)} and given back with {@link #releaseClient(STSClient)} are pooled and reused for
+ * any configuration of the same endpoint, that is the same service name, port name, endpoint address and SOAP binding.
+ * Up to {@link PicketLinkFederationConstants#STS_CLIENT_POOL_MAX_SIZE} idle clients, 10 by default, are kept for each
+ * endpoint and discarded once idle for {@link PicketLinkFederationConstants#STS_CLIENT_POOL_MAX_IDLE} seconds, 5 minutes
+ * by default.
+ * </p>
+ *
  * @author <a href="mailto:dbevenius@jboss.com">Daniel Bevenius</a>
  */
 public final class STSClientFactory {
 
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private static final int DEFAULT_MAX_POOL_SIZE = 10;
+
+    private static final long DEFAULT_MAX_IDLE_TIME = 300;
+
     private static final STSClientFactory INSTANCE = new STSClientFactory();
 
+    private final Map<ClientKey, LinkedList<IdleClient>> idleClients = new HashMap<ClientKey, LinkedList<IdleClient>>();
+
+    // clients handed out by getClient, weakly referenced as callers are not required to release them
+    private final Map<STSClient, ClientKey> borrowedClients = new WeakHashMap<STSClient, ClientKey>();
+
+    private final int maxPoolSize;
+
+    private final long maxIdleTime;
+
+    private long nextEviction;
+
     private STSClientFactory() {
+        this((int) getLongProperty(PicketLinkFederationConstants.STS_CLIENT_POOL_MAX_SIZE, DEFAULT_MAX_POOL_SIZE),
+                getLongProperty(PicketLinkFederationConstants.STS_CLIENT_POOL_MAX_IDLE, DEFAULT_MAX_IDLE_TIME) * 1000);
+    }
+
+    /**
+     * Creates a factory with its own pool, used by tests.
+     *
+     * @param maxPoolSize the max number of idle clients kept for each endpoint.
+     * @param maxIdleTime the time in milliseconds after which an idle client is discarded.
+     */
+    STSClientFactory(int maxPoolSize, long maxIdleTime) {
+        this.maxPoolSize = maxPoolSize;
+        this.maxIdleTime = maxIdleTime;
     }
 
     public static STSClientFactory getInstance() {
         return INSTANCE;
     }
 
+    /**
+     * Creates a new {@link STSClient}, which is not pooled.
+     *
+     * @param config
+     *
+     * @return
+     *
+     * @throws ParsingException
+     */
     public STSClient create(final STSClientConfig config) throws ParsingException {
         return new STSClient(config);
     }
+
+    /**
+     * Returns an idle {@link STSClient} for the endpoint of the given configuration, configured with its credentials and
+     * settings, or creates a new one. The client must not be shared with other threads and should be given back with
+     * {@link #releaseClient(STSClient)} once the request is done.
+     *
+     * @param config
+     *
+     * @return
+     *
+     * @throws ParsingException
+     */
+    public STSClient getClient(final STSClientConfig config) throws ParsingException {
+        ClientKey key = new ClientKey(config);
+        STSClient client = null;
+
+        synchronized (this) {
+            evictIdleClients();
+
+            LinkedList<IdleClient> clients = this.idleClients.get(key);
+
+            if (clients != null) {
+                client = clients.removeFirst().client;
+
+                if (clients.isEmpty()) {
+                    this.idleClients.remove(key);
+                }
+            }
+        }
+
+        if (client == null) {
+            client = create(config);
+        } else {
+            client.configure(config);
+        }
+
+        synchronized (this) {
+            this.borrowedClients.put(client, key);
+        }
+
+        return client;
+    }
+
+    /**
+     * Gives back a {@link STSClient} obtained with {@link #getClient(STSClientConfig)}, so it can be reused. Clients not
+     * obtained from this factory are ignored.
+     *
+     * @param client
+     */
+    public void releaseClient(final STSClient client) {
+        if (client == null) {
+            return;
+        }
+
+        synchronized (this) {
+            ClientKey key = this.borrowedClients.remove(client);
+
+            if (key == null) {
+                return;
+            }
+
+            LinkedList<IdleClient> clients = this.idleClients.get(key);
+
+            if (clients == null) {
+                clients = new LinkedList<IdleClient>();
+                this.idleClients.put(key, clients);
+            }
+
+            // the most recently used clients are reused first, so the others become idle and are evicted
+            if (clients.size() < this.maxPoolSize) {
+                clients.addFirst(new IdleClient(client, System.currentTimeMillis()));
+            }
+
+            evictIdleClients();
+        }
+    }
+
+    private void evictIdleClients() {
+        long now = System.currentTimeMillis();
+
+        if (now < this.nextEviction) {
+            return;
+        }
+
+        Iterator<LinkedList<IdleClient>> iterator = this.idleClients.values().iterator();
+
+        while (iterator.hasNext()) {
+            LinkedList<IdleClient> clients = iterator.next();
+
+            while (!clients.isEmpty() && now - clients.getLast().idleSince >= this.maxIdleTime) {
+                clients.removeLast();
+            }
+
+            if (clients.isEmpty()) {
+                iterator.remove();
+            }
+        }
+
+        this.nextEviction = now + Math.min(this.maxIdleTime, 60000);
+    }
+
+    /**
+     * Read a numeric system property. A value that is not a number from zero to {@link Integer#MAX_VALUE} is logged and
+     * the default value is returned, so a misconfiguration does not prevent the factory from being initialized.
+     *
+     * @param name
+     * @param defaultValue
+     *
+     * @return
+     */
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = SystemPropertiesUtil.getSystemProperty(name, null);
+
+        if (StringUtil.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+
+        try {
+            long longValue = Long.parseLong(value.trim());
+
+            if (longValue >= 0 && longValue <= Integer.MAX_VALUE) {
+                return longValue;
+            }
+        } catch (NumberFormatException ignore) {
+        }
+
+        logger.warn("Ignoring invalid value of system property " + name + ": " + value + ". Using default " + defaultValue
+                + ".");
+
+        return defaultValue;
+    }
+
+    private static class IdleClient {
+
+        final STSClient client;
+
+        final long idleSince;
+
+        IdleClient(STSClient client, long idleSince) {
+            this.client = client;
+            this.idleSince = idleSince;
+        }
+    }
+
+    /**
+     * The settings used to create the {@link javax.xml.ws.Dispatch} of a client.
+     */
+    private static class ClientKey {
+
+        private final String serviceName;
+
+        private final String portName;
+
+        private final String endpointAddress;
+
+        private final String soapBinding;
+
+        ClientKey(STSClientConfig config) {
+            this.serviceName = config.getServiceName();
+            this.portName = config.getPortName();
+            this.endpointAddress = config.getEndPointAddress();
+            this.soapBinding = config.getSoapBinding();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+
+            ClientKey other = (ClientKey) o;
+
+            return equals(this.serviceName, other.serviceName) && equals(this.portName, other.portName)
+                    && equals(this.endpointAddress, other.endpointAddress) && equals(this.soapBinding, other.soapBinding);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = hashCode(this.serviceName);
+
+            result = 31 * result + hashCode(this.portName);
+            result = 31 * result + hashCode(this.endpointAddress);
+            result = 31 * result + hashCode(this.soapBinding);
+
+            return result;
+        }
+
+        private static boolean equals(String value, String otherValue) {
+            return value == null ? otherValue == null : value.equals(otherValue);
+        }
+
+        private static int hashCode(String value) {
+            return value == null ? 0 : value.hashCode();
+        }
+    }
 }
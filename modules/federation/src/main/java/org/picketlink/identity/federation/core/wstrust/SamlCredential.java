@@ -33,7 +33,6 @@ import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.Serializable;
@@ -50,8 +49,6 @@ public final class SamlCredential implements Serializable {
 
     private static final long serialVersionUID = -8496414959425288835L;
 
-    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerUtil.getTransformerFactory();
-
     private final String assertion;
 
     public SamlCredential(final Element assertion) {
@@ -116,7 +113,7 @@ public final class SamlCredential implements Serializable {
             throw logger.nullArgumentError("assertion");
 
         try {
-            final Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            final Transformer transformer = TransformerUtil.getTransformerFactory().newTransformer();
             transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
 
             final Source source = new DOMSource(assertion);
@@ -379,8 +379,13 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
                 setPasswordStackingCredentials(builder);
 
             final STSClient stsClient = createWSTrustClient(builder.build());
+            final Element token;
 
-            final Element token = invokeSTS(stsClient);
+            try {
+                token = invokeSTS(stsClient);
+            } finally {
+                releaseWSTrustClient(stsClient);
+            }
 
             if (token == null) {
                 // Throw an exception as returing false only says that this login module should be ignored.
@@ -527,12 +532,22 @@ public abstract class AbstractSTSLoginModule implements LoginModule {
 
     protected STSClient createWSTrustClient(final STSClientConfig config) {
         try {
-            return STSClientFactory.getInstance().create(config);
+            return STSClientFactory.getInstance().getClient(config);
         } catch (final ParsingException e) {
             throw logger.authCouldNotCreateWSTrustClient(e);
         }
     }
 
+    /**
+     * Called once the STS was invoked with the client returned by {@link #createWSTrustClient(STSClientConfig)}, so it can
+     * be reused by the following logins.
+     *
+     * @param stsClient
+     */
+    protected void releaseWSTrustClient(final STSClient stsClient) {
+        STSClientFactory.getInstance().releaseClient(stsClient);
+    }
+
     protected String getRequiredOption(final Map<String, ?> options, final String optionName) {
         final String option = (String) options.get(optionName);
         if (option == null)
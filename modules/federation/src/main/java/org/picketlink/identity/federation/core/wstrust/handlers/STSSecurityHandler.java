@@ -197,8 +197,12 @@ public abstract class STSSecurityHandler implements SOAPHandler<SOAPMessageConte
             setPasswordFromMessageContext(messageContext, configBuilder);
             final STSClient stsClient = createSTSClient(configBuilder);
 
-            if (stsClient.validateToken(securityToken) == false) {
-                throwFailedAuthentication();
+            try {
+                if (stsClient.validateToken(securityToken) == false) {
+                    throwFailedAuthentication();
+                }
+            } finally {
+                STSClientFactory.getInstance().releaseClient(stsClient);
             }
         } catch (final WSTrustException e) {
             throwInvalidSecurity();
@@ -317,7 +321,7 @@ public abstract class STSSecurityHandler implements SOAPHandler<SOAPMessageConte
     }
 
     STSClient createSTSClient(final STSClientConfig.Builder builder) throws ParsingException {
-        return STSClientFactory.getInstance().create(builder.build());
+        return STSClientFactory.getInstance().getClient(builder.build());
     }
 
     private boolean isOutBound(final SOAPMessageContext messageContext) {
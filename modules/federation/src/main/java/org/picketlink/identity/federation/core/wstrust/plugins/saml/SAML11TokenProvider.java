@@ -27,6 +27,7 @@ import org.picketlink.identity.federation.core.saml.v1.SAML11Constants;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
 import org.picketlink.identity.federation.core.sts.AbstractSecurityTokenProvider;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringRevocationRegistry;
 import org.picketlink.identity.federation.core.wstrust.SecurityToken;
 import org.picketlink.identity.federation.core.wstrust.StandardSecurityToken;
 import org.picketlink.identity.federation.core.wstrust.WSTrustRequestContext;
@@ -81,7 +82,18 @@ public class SAML11TokenProvider extends AbstractSecurityTokenProvider {
 
         // get the assertion ID and add it to the canceled assertions set.
         String assertionId = assertionElement.getAttribute("AssertionID");
-        this.revocationRegistry.revokeToken(SAMLUtil.SAML11_TOKEN_TYPE, assertionId);
+        if (this.revocationRegistry instanceof ExpiringRevocationRegistry) {
+            // keep the id until the assertion can no longer be renewed.
+            SAML11AssertionType assertion = null;
+            try {
+                assertion = SAMLUtil.saml11FromElement(assertionElement);
+            } catch (Exception je) {
+                throw logger.samlAssertionUnmarshallError(je);
+            }
+            ((ExpiringRevocationRegistry) this.revocationRegistry).revokeToken(SAMLUtil.SAML11_TOKEN_TYPE, assertionId, assertion);
+        } else {
+            this.revocationRegistry.revokeToken(SAMLUtil.SAML11_TOKEN_TYPE, assertionId);
+        }
 
         String absoluteKI = this.properties.get(USE_ABSOLUTE_KEYIDENTIFIER);
         if (absoluteKI != null && "true".equalsIgnoreCase(absoluteKI)) {
@@ -218,6 +230,11 @@ public class SAML11TokenProvider extends AbstractSecurityTokenProvider {
         if (this.revocationRegistry.isRevoked(SAMLUtil.SAML11_TOKEN_TYPE, oldAssertion.getID()))
             throw logger.samlAssertionRevokedCouldNotRenew(oldAssertion.getID());
 
+        // the revocation of assertions that expired too long ago may no longer be known.
+        if (this.revocationRegistry instanceof ExpiringRevocationRegistry
+                && !((ExpiringRevocationRegistry) this.revocationRegistry).isRenewable(oldAssertion))
+            throw logger.samlAssertionExpiredError();
+
         // adjust the lifetime for the renewed assertion.
         SAML11ConditionsType conditions = oldAssertion.getConditions();
         conditions.setNotBefore(wstContext.getRequestSecurityToken().getLifetime().getCreated());
@@ -30,6 +30,7 @@ import org.picketlink.identity.federation.core.saml.v2.factories.SAMLAssertionFa
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.StatementUtil;
 import org.picketlink.identity.federation.core.sts.AbstractSecurityTokenProvider;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringRevocationRegistry;
 import org.picketlink.identity.federation.core.wstrust.SecurityToken;
 import org.picketlink.identity.federation.core.wstrust.StandardSecurityToken;
 import org.picketlink.identity.federation.core.wstrust.WSTrustRequestContext;
@@ -126,7 +127,18 @@ public class SAML20TokenProvider extends AbstractSecurityTokenProvider implement
 
         // get the assertion ID and add it to the canceled assertions set.
         String assertionId = assertionElement.getAttribute("ID");
-        this.revocationRegistry.revokeToken(SAMLUtil.SAML2_TOKEN_TYPE, assertionId);
+        if (this.revocationRegistry instanceof ExpiringRevocationRegistry) {
+            // keep the id until the assertion can no longer be renewed.
+            AssertionType assertion = null;
+            try {
+                assertion = SAMLUtil.fromElement(assertionElement);
+            } catch (Exception je) {
+                throw logger.samlAssertionUnmarshallError(je);
+            }
+            ((ExpiringRevocationRegistry) this.revocationRegistry).revokeToken(SAMLUtil.SAML2_TOKEN_TYPE, assertionId, assertion);
+        } else {
+            this.revocationRegistry.revokeToken(SAMLUtil.SAML2_TOKEN_TYPE, assertionId);
+        }
     }
 
     /*
@@ -257,6 +269,11 @@ public class SAML20TokenProvider extends AbstractSecurityTokenProvider implement
         if (this.revocationRegistry.isRevoked(SAMLUtil.SAML2_TOKEN_TYPE, oldAssertion.getID()))
             throw logger.samlAssertionRevokedCouldNotRenew(oldAssertion.getID());
 
+        // the revocation of assertions that expired too long ago may no longer be known.
+        if (this.revocationRegistry instanceof ExpiringRevocationRegistry
+                && !((ExpiringRevocationRegistry) this.revocationRegistry).isRenewable(oldAssertion))
+            throw logger.samlAssertionExpiredError();
+
         // adjust the lifetime for the renewed assertion.
         ConditionsType conditions = oldAssertion.getConditions();
         conditions.setNotBefore(context.getRequestSecurityToken().getLifetime().getCreated());
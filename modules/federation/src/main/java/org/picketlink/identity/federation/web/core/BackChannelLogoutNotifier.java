@@ -0,0 +1,371 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.web.core;
+
+import org.picketlink.common.PicketLinkLogger;
+import org.picketlink.common.PicketLinkLoggerFactory;
+import org.picketlink.common.constants.GeneralConstants;
+import org.picketlink.common.constants.JBossSAMLURIConstants;
+import org.picketlink.identity.federation.api.saml.v2.request.SAML2Request;
+import org.picketlink.identity.federation.api.saml.v2.sig.SAML2Signature;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.util.SOAPUtil;
+import org.picketlink.identity.federation.saml.v2.assertion.NameIDType;
+import org.picketlink.identity.federation.saml.v2.protocol.LogoutRequestType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.servlet.http.HttpSession;
+import javax.xml.soap.SOAPMessage;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Sends signed logout requests to the participants of a session using the SOAP binding, all of them at the same time,
+ * instead of redirecting the browser from one participant to the next.
+ * </p>
+ * <p>
+ * The IDP {@link #register(HttpSession, String, Participant)}s the SOAP single logout endpoint of a participant, taken
+ * from its metadata, together with the session index and the name ID of the assertion issued to it. Each request is
+ * sent to that endpoint and carries that name ID and session index. The timeout given to the notifier also bounds the
+ * time spent connecting to and reading from each endpoint.
+ * </p>
+ * <p>
+ * A participant is logged out when it answers with a success status. Participants that answer with another status,
+ * fail or do not answer in time are returned to the caller, which may report a partial logout.
+ * </p>
+ *
+ * @author agent
+ */
+public class BackChannelLogoutNotifier {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    private final ThreadPoolExecutor executor;
+
+    private final long timeout;
+
+    /**
+     * @param maxThreads the maximum number of participants notified at the same time
+     * @param timeout the maximum time, in milliseconds, to wait for all participants to answer
+     */
+    public BackChannelLogoutNotifier(int maxThreads, long timeout) {
+        if (maxThreads <= 0 || timeout <= 0)
+            throw logger.invalidArgumentError("maxThreads and timeout must be positive");
+
+        this.timeout = timeout;
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "picketlink-back-channel-logout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Remember how to log out the given participant of the session through the back channel.
+     *
+     * @param session the IDP session
+     * @param participant the participant, as registered in the {@link IdentityParticipantStack}
+     * @param details
+     */
+    @SuppressWarnings("unchecked")
+    public static void register(HttpSession session, String participant, Participant details) {
+        Map<String, Participant> participants = (Map<String, Participant>) session
+                .getAttribute(GeneralConstants.BACK_CHANNEL_LOGOUT_PARTICIPANTS);
+
+        if (participants == null) {
+            participants = new ConcurrentHashMap<String, Participant>();
+            session.setAttribute(GeneralConstants.BACK_CHANNEL_LOGOUT_PARTICIPANTS, participants);
+        }
+
+        participants.put(participant, details);
+    }
+
+    /**
+     * Return how to log out the given participant of the session through the back channel, or null if it was not
+     * registered.
+     *
+     * @param session the IDP session
+     * @param participant the participant, as registered in the {@link IdentityParticipantStack}
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static Participant getParticipant(HttpSession session, String participant) {
+        Map<String, Participant> participants = (Map<String, Participant>) session
+                .getAttribute(GeneralConstants.BACK_CHANNEL_LOGOUT_PARTICIPANTS);
+
+        return participants != null ? participants.get(participant) : null;
+    }
+
+    /**
+     * Send a signed logout request for the given principal to all participants and wait for their answers.
+     *
+     * @param issuer the issuer of the logout requests
+     * @param principal the name of the principal being logged out, used for the participants registered without a name ID
+     * @param participants the participants, keyed by the name they are registered with
+     * @param keyPair the key pair signing the requests
+     * @param certificate the certificate included in the signatures, may be null
+     *
+     * @return the participants that were not logged out
+     */
+    public Set<String> logout(String issuer, String principal, Map<String, Participant> participants, KeyPair keyPair,
+                              X509Certificate certificate) {
+        Set<String> failed = new LinkedHashSet<String>();
+
+        if (participants.isEmpty())
+            return failed;
+
+        List<String> names = new ArrayList<String>(participants.keySet());
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(names.size());
+
+        for (String name : names) {
+            tasks.add(new LogoutTask(issuer, principal, participants.get(name), keyPair, certificate));
+        }
+
+        List<Future<Boolean>> results;
+
+        try {
+            results = this.executor.invokeAll(tasks, this.timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.addAll(names);
+            return failed;
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            String name = names.get(i);
+            Future<Boolean> result = results.get(i);
+
+            try {
+                if (result.isCancelled() || !result.get()) {
+                    failed.add(name);
+                }
+            } catch (ExecutionException e) {
+                logger.trace("Back channel logout failed for " + name, e.getCause());
+                failed.add(name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.add(name);
+            }
+        }
+
+        return failed;
+    }
+
+    /**
+     * Stop the threads used to notify the participants.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Send the request to the SOAP endpoint of a participant, returning true if it answered with a success status.
+     *
+     * @param endpoint
+     * @param message
+     *
+     * @return
+     *
+     * @throws Exception
+     */
+    protected boolean send(String endpoint, SOAPMessage message) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(endpoint).openConnection();
+        int timeout = (int) Math.min(this.timeout, Integer.MAX_VALUE);
+
+        try {
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+            connection.setRequestProperty("SOAPAction", "\"\"");
+
+            OutputStream out = connection.getOutputStream();
+
+            try {
+                message.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                logger.trace("Back channel logout to " + endpoint + " answered with HTTP status "
+                        + connection.getResponseCode());
+                return false;
+            }
+
+            InputStream in = connection.getInputStream();
+
+            try {
+                return isSuccess(SOAPUtil.getSOAPMessage(in));
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static boolean isSuccess(SOAPMessage response) throws Exception {
+        NodeList children = response.getSOAPBody().getChildNodes();
+
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+
+            if (child instanceof Element && "LogoutResponse".equals(child.getLocalName())) {
+                NodeList statusCodes = ((Element) child).getElementsByTagNameNS(JBossSAMLURIConstants.PROTOCOL_NSURI.get(),
+                        "StatusCode");
+
+                return statusCodes.getLength() > 0
+                        && JBossSAMLURIConstants.STATUS_SUCCESS.get().equals(
+                        ((Element) statusCodes.item(0)).getAttribute("Value"));
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * How to log out a participant through the back channel.
+     */
+    public static class Participant implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String endpoint;
+
+        private final String sessionIndex;
+
+        private final String nameID;
+
+        private final String nameIDFormat;
+
+        /**
+         * @param endpoint the SOAP single logout endpoint of the participant
+         * @param sessionIndex the session index of the assertion issued to the participant, may be null
+         * @param nameID the name ID of the assertion issued to the participant, may be null to use the name of the
+         * principal being logged out
+         * @param nameIDFormat the format of the name ID of the assertion issued to the participant, may be null
+         */
+        public Participant(String endpoint, String sessionIndex, String nameID, String nameIDFormat) {
+            if (endpoint == null)
+                throw logger.nullArgumentError("endpoint");
+
+            this.endpoint = endpoint;
+            this.sessionIndex = sessionIndex;
+            this.nameID = nameID;
+            this.nameIDFormat = nameIDFormat;
+        }
+
+        public String getEndpoint() {
+            return this.endpoint;
+        }
+
+        public String getSessionIndex() {
+            return this.sessionIndex;
+        }
+
+        public String getNameID() {
+            return this.nameID;
+        }
+
+        public String getNameIDFormat() {
+            return this.nameIDFormat;
+        }
+    }
+
+    private class LogoutTask implements Callable<Boolean> {
+
+        private final String issuer;
+
+        private final String principal;
+
+        private final Participant participant;
+
+        private final KeyPair keyPair;
+
+        private final X509Certificate certificate;
+
+        LogoutTask(String issuer, String principal, Participant participant, KeyPair keyPair,
+                   X509Certificate certificate) {
+            this.issuer = issuer;
+            this.principal = principal;
+            this.participant = participant;
+            this.keyPair = keyPair;
+            this.certificate = certificate;
+        }
+
+        public Boolean call() throws Exception {
+            SAML2Request saml2Request = new SAML2Request();
+            LogoutRequestType logoutRequest = saml2Request.createLogoutRequest(this.issuer);
+
+            NameIDType nameID = new NameIDType();
+            nameID.setValue(this.participant.getNameID() != null ? this.participant.getNameID() : this.principal);
+            if (this.participant.getNameIDFormat() != null)
+                nameID.setFormat(URI.create(this.participant.getNameIDFormat()));
+            logoutRequest.setNameID(nameID);
+
+            if (this.participant.getSessionIndex() != null)
+                logoutRequest.addSessionIndex(this.participant.getSessionIndex());
+
+            logoutRequest.setNotOnOrAfter(XMLTimeUtil.add(logoutRequest.getIssueInstant(), timeout));
+            logoutRequest.setDestination(URI.create(this.participant.getEndpoint()));
+
+            Document document = saml2Request.convert(logoutRequest);
+
+            SAML2Signature signature = new SAML2Signature();
+            signature.setNextSibling(signature.getNextSiblingOfIssuer(document));
+            if (this.certificate != null)
+                signature.setX509Certificate(this.certificate);
+            signature.signSAMLDocument(document, this.keyPair);
+
+            SOAPMessage message = SOAPUtil.create();
+            message.getSOAPBody().addDocument(document);
+
+            return send(this.participant.getEndpoint(), message);
+        }
+    }
+}
@@ -27,10 +27,12 @@ import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.EmptyStackException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Represents an Identity Server
@@ -50,38 +52,42 @@ public class IdentityServer implements HttpSessionListener {
         }
     });
 
-    private static int activeSessionCount = 0;
+    private static final AtomicInteger activeSessionCount = new AtomicInteger();
 
     private IdentityParticipantStack stack = new STACK();
 
+    /**
+     * Participants are kept until the HTTP session is destroyed, which the {@link IdentityServer} is notified of as an
+     * {@link HttpSessionListener}.
+     */
     public static class STACK implements IdentityParticipantStack {
 
-        private final ConcurrentHashMap<String, Stack<String>> sessionParticipantsMap = new ConcurrentHashMap<String, Stack<String>>();
-
-        private final ConcurrentHashMap<String, Set<String>> inTransitMap = new ConcurrentHashMap<String, Set<String>>();
+        private final ConcurrentMap<String, SessionParticipants> sessionParticipantsMap = new ConcurrentHashMap<String, SessionParticipants>();
 
-        private final ConcurrentHashMap<String, Boolean> postBindingMap = new ConcurrentHashMap<String, Boolean>();
+        private final ConcurrentMap<String, Boolean> postBindingMap = new ConcurrentHashMap<String, Boolean>();
 
         /**
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#peek(java.lang.String)
          */
         public String peek(String sessionID) {
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack != null)
-                return stack.peek();
-            return "";
+            SessionParticipants participants = get(sessionID);
+            if (participants == null)
+                return "";
+
+            String participant = participants.peek();
+            if (participant == null)
+                throw new EmptyStackException();
+            return participant;
         }
 
         /**
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#pop(java.lang.String)
          */
         public String pop(String sessionID) {
-            String result = null;
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack != null && stack.isEmpty() == false) {
-                result = stack.pop();
-            }
-            return result;
+            SessionParticipants participants = get(sessionID);
+            if (participants != null)
+                return participants.pop();
+            return null;
         }
 
         /**
@@ -89,13 +95,7 @@ public class IdentityServer implements HttpSessionListener {
          *      java.lang.String, boolean)
          */
         public void register(String sessionID, String participant, boolean postBinding) {
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack == null) {
-                stack = new Stack<String>();
-                sessionParticipantsMap.put(sessionID, stack);
-            }
-            if (stack.contains(participant) == false) {
-                stack.push(participant);
+            if (getOrCreate(sessionID).push(participant)) {
                 postBindingMap.put(participant, Boolean.valueOf(postBinding));
             }
         }
@@ -104,9 +104,9 @@ public class IdentityServer implements HttpSessionListener {
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#getParticipants(java.lang.String)
          */
         public int getParticipants(String sessionID) {
-            Stack<String> stack = sessionParticipantsMap.get(sessionID);
-            if (stack != null)
-                return stack.size();
+            SessionParticipants participants = get(sessionID);
+            if (participants != null)
+                return participants.participants.length;
 
             return 0;
         }
@@ -116,12 +116,7 @@ public class IdentityServer implements HttpSessionListener {
          *      java.lang.String)
          */
         public boolean registerTransitParticipant(String sessionID, String participant) {
-            Set<String> transitSet = inTransitMap.get(sessionID);
-            if (transitSet == null) {
-                transitSet = new HashSet<String>();
-                inTransitMap.put(sessionID, transitSet);
-            }
-            return transitSet.add(participant);
+            return getOrCreate(sessionID).addInTransit(participant);
         }
 
         /**
@@ -129,10 +124,10 @@ public class IdentityServer implements HttpSessionListener {
          *      java.lang.String)
          */
         public boolean deRegisterTransitParticipant(String sessionID, String participant) {
-            Set<String> transitSet = inTransitMap.get(sessionID);
-            if (transitSet != null) {
+            SessionParticipants participants = get(sessionID);
+            if (participants != null) {
                 postBindingMap.remove(participant);
-                return transitSet.remove(participant);
+                return participants.removeInTransit(participant);
             }
             return false;
         }
@@ -141,9 +136,9 @@ public class IdentityServer implements HttpSessionListener {
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#getNumOfParticipantsInTransit(java.lang.String)
          */
         public int getNumOfParticipantsInTransit(String sessionID) {
-            Set<String> transitSet = inTransitMap.get(sessionID);
-            if (transitSet != null)
-                return transitSet.size();
+            SessionParticipants participants = get(sessionID);
+            if (participants != null)
+                return participants.inTransit.length;
             return 0;
         }
 
@@ -158,15 +153,14 @@ public class IdentityServer implements HttpSessionListener {
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#totalSessions()
          */
         public int totalSessions() {
-            return sessionParticipantsMap.keySet().size();
+            return sessionParticipantsMap.size();
         }
 
         /**
          * @see org.picketlink.identity.federation.web.core.IdentityParticipantStack#createSession(java.lang.String)
          */
         public void createSession(String id) {
-            sessionParticipantsMap.put(id, new Stack<String>());
-            inTransitMap.put(id, new HashSet<String>());
+            sessionParticipantsMap.put(id, new SessionParticipants());
         }
 
         /**
@@ -174,7 +168,101 @@ public class IdentityServer implements HttpSessionListener {
          */
         public void removeSession(String id) {
             sessionParticipantsMap.remove(id);
-            inTransitMap.remove(id);
+        }
+
+        private SessionParticipants get(String sessionID) {
+            return sessionParticipantsMap.get(sessionID);
+        }
+
+        private SessionParticipants getOrCreate(String sessionID) {
+            SessionParticipants participants = get(sessionID);
+            if (participants == null) {
+                SessionParticipants created = new SessionParticipants();
+                participants = sessionParticipantsMap.putIfAbsent(sessionID, created);
+                if (participants == null)
+                    participants = created;
+            }
+            return participants;
+        }
+    }
+
+    /**
+     * The participants of a session. Sessions usually have a handful of participants, which are kept in arrays replaced
+     * on every change, so concurrent requests of the same session never block each other.
+     */
+    private static class SessionParticipants {
+
+        private static final String[] NONE = new String[0];
+
+        private static final AtomicReferenceFieldUpdater<SessionParticipants, String[]> PARTICIPANTS = AtomicReferenceFieldUpdater
+                .newUpdater(SessionParticipants.class, String[].class, "participants");
+
+        private static final AtomicReferenceFieldUpdater<SessionParticipants, String[]> IN_TRANSIT = AtomicReferenceFieldUpdater
+                .newUpdater(SessionParticipants.class, String[].class, "inTransit");
+
+        volatile String[] participants = NONE;
+
+        volatile String[] inTransit = NONE;
+
+        String peek() {
+            String[] current = this.participants;
+            return current.length == 0 ? null : current[current.length - 1];
+        }
+
+        String pop() {
+            while (true) {
+                String[] current = this.participants;
+                if (current.length == 0)
+                    return null;
+                if (PARTICIPANTS.compareAndSet(this, current, Arrays.copyOf(current, current.length - 1)))
+                    return current[current.length - 1];
+            }
+        }
+
+        boolean push(String participant) {
+            return add(PARTICIPANTS, participant);
+        }
+
+        boolean addInTransit(String participant) {
+            return add(IN_TRANSIT, participant);
+        }
+
+        boolean removeInTransit(String participant) {
+            while (true) {
+                String[] current = this.inTransit;
+                int index = indexOf(current, participant);
+                if (index == -1)
+                    return false;
+
+                String[] updated = new String[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, updated.length - index);
+
+                if (IN_TRANSIT.compareAndSet(this, current, updated))
+                    return true;
+            }
+        }
+
+        private boolean add(AtomicReferenceFieldUpdater<SessionParticipants, String[]> updater, String participant) {
+            while (true) {
+                String[] current = updater.get(this);
+                if (indexOf(current, participant) != -1)
+                    return false;
+
+                String[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = participant;
+
+                if (updater.compareAndSet(this, current, updated))
+                    return true;
+            }
+        }
+
+        private static int indexOf(String[] values, String value) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].equals(value))
+                    return i;
+            }
+            return -1;
         }
     }
 
@@ -184,7 +272,7 @@ public class IdentityServer implements HttpSessionListener {
      * @return
      */
     public int getActiveSessionCount() {
-        return activeSessionCount;
+        return activeSessionCount.get();
     }
 
     /**
@@ -209,14 +297,14 @@ public class IdentityServer implements HttpSessionListener {
      * @see HttpSessionListener#sessionCreated(HttpSessionEvent)
      */
     public void sessionCreated(HttpSessionEvent sessionEvent) {
-        activeSessionCount++;
+        int activeSessions = activeSessionCount.incrementAndGet();
 
-        if (activeSessionCount % count == 0)
-            logger.samlIdentityServerActiveSessionCount(activeSessionCount);
+        if (activeSessions % count == 0)
+            logger.samlIdentityServerActiveSessionCount(activeSessions);
 
         HttpSession session = sessionEvent.getSession();
 
-        logger.samlIdentityServerSessionCreated(session.getId(), activeSessionCount);
+        logger.samlIdentityServerSessionCreated(session.getId(), activeSessions);
 
         // Ensure that the IdentityServer instance is set on the servlet context
         ServletContext servletContext = session.getServletContext();
@@ -231,20 +319,19 @@ public class IdentityServer implements HttpSessionListener {
         if (idserver != this)
             throw logger.notEqualError(idserver.toString(), this.toString());
 
-        String id = sessionEvent.getSession().getId();
-        stack.createSession(id);
+        stack.createSession(session.getId());
     }
 
     /**
      * @see HttpSessionListener#sessionDestroyed(HttpSessionEvent)
      */
     public void sessionDestroyed(HttpSessionEvent sessionEvent) {
-        --activeSessionCount;
+        int activeSessions = activeSessionCount.decrementAndGet();
 
         String id = sessionEvent.getSession().getId();
 
-        logger.samlIdentityServerSessionDestroyed(id, activeSessionCount);
+        logger.samlIdentityServerSessionDestroyed(id, activeSessions);
 
         stack.removeSession(id);
     }
-}
\ No newline at end of file
+}
@@ -559,7 +559,7 @@ public class SPFilter implements Filter {
             KeyPair keypair = keyManager.getSigningKeyPair();
             samlSignature.signSAMLDocument(samlDocument, keypair);
         }
-        String samlMessage = PostBindingUtil.base64Encode(DocumentUtil.getDocumentAsString(samlDocument));
+        String samlMessage = PostBindingUtil.base64Encode(DocumentUtil.getNodeAsBytes(samlDocument));
         PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlMessage, relayState), response, request);
     }
 
@@ -85,6 +85,12 @@ public abstract class BaseSAML2Handler implements SAML2Handler {
     public void reset() throws ProcessingException {
     }
 
+    /**
+     * Release the resources held by the handler, when the IDP or SP holding its chain is destroyed.
+     */
+    public void destroy() {
+    }
+
     /**
      * @see SAML2Handler#generateSAMLRequest(SAML2HandlerRequest, SAML2HandlerResponse)
      */
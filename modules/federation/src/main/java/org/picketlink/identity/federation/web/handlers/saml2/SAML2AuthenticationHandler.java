@@ -48,9 +48,11 @@ import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2Handler;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
+import org.picketlink.identity.federation.core.saml.v2.metadata.MetadataRegistry;
 import org.picketlink.identity.federation.core.saml.v2.util.AssertionUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.StatementUtil;
 import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.util.CoreConfigUtil;
 import org.picketlink.identity.federation.core.util.JAXPValidationUtil;
 import org.picketlink.identity.federation.core.util.XMLEncryptionUtil;
 import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
@@ -64,6 +66,7 @@ import org.picketlink.identity.federation.saml.v2.assertion.StatementAbstractTyp
 import org.picketlink.identity.federation.saml.v2.assertion.SubjectType;
 import org.picketlink.identity.federation.saml.v2.assertion.SubjectType.STSubType;
 import org.picketlink.identity.federation.saml.v2.metadata.EndpointType;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
 import org.picketlink.identity.federation.saml.v2.metadata.SPSSODescriptorType;
 import org.picketlink.identity.federation.saml.v2.protocol.AuthnContextComparisonType;
 import org.picketlink.identity.federation.saml.v2.protocol.AuthnRequestType;
@@ -71,6 +74,7 @@ import org.picketlink.identity.federation.saml.v2.protocol.RequestedAuthnContext
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType.RTChoiceType;
 import org.picketlink.identity.federation.saml.v2.protocol.StatusType;
+import org.picketlink.identity.federation.web.core.BackChannelLogoutNotifier;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 import org.picketlink.identity.federation.web.core.IdentityServer;
 import org.picketlink.identity.federation.web.interfaces.IRoleValidator;
@@ -209,6 +213,7 @@ public class SAML2AuthenticationHandler extends BaseSAML2Handler {
                 // If URL is null, participant doesn't support global logout
                 if (participantLogoutURL != null) {
                     identityServer.stack().register(session.getId(), participantLogoutURL, isPost);
+                    registerBackChannelParticipant(session, participantLogoutURL, destination, request);
                 }
 
                 // Check whether we use POST binding for response
@@ -336,6 +341,82 @@ public class SAML2AuthenticationHandler extends BaseSAML2Handler {
             return samlResponseDocument;
         }
 
+        /**
+         * Remember the SOAP single logout endpoint of the participant, if its metadata has one, with the session index and
+         * the name ID of the assertion issued to it, for the back channel logout.
+         */
+        private void registerBackChannelParticipant(HttpSession session, String participant, String destination,
+                                                    SAML2HandlerRequest request) {
+            SPSSODescriptorType spMetadata = getSPMetadata(destination, request);
+            if (spMetadata == null) {
+                return;
+            }
+
+            String endpoint = CoreConfigUtil.getLogoutURL(spMetadata, JBossSAMLURIConstants.SAML_SOAP_BINDING.get());
+            if (endpoint == null) {
+                return;
+            }
+
+            String sessionIndex = null;
+            String nameID = null;
+            String nameIDFormat = null;
+            AssertionType assertion = (AssertionType) session.getAttribute(GeneralConstants.ASSERTION);
+
+            if (assertion != null) {
+                for (StatementAbstractType statement : assertion.getStatements()) {
+                    if (statement instanceof AuthnStatementType) {
+                        sessionIndex = ((AuthnStatementType) statement).getSessionIndex();
+                        break;
+                    }
+                }
+
+                SubjectType subject = assertion.getSubject();
+                if (subject != null && subject.getSubType() != null
+                        && subject.getSubType().getBaseID() instanceof NameIDType) {
+                    nameID = ((NameIDType) subject.getSubType().getBaseID()).getValue();
+                    URI format = ((NameIDType) subject.getSubType().getBaseID()).getFormat();
+                    if (format != null) {
+                        nameIDFormat = format.toString();
+                    }
+                }
+            }
+
+            BackChannelLogoutNotifier.register(session, participant, new BackChannelLogoutNotifier.Participant(endpoint,
+                    sessionIndex, nameID, nameIDFormat));
+        }
+
+        /**
+         * Get the metadata of the SP sending the request, from the request options or else from the metadata registry.
+         */
+        private SPSSODescriptorType getSPMetadata(String destination, SAML2HandlerRequest request) {
+            SPSSODescriptorType spMetadata = (SPSSODescriptorType) request.getOptions().get(
+                    GeneralConstants.SP_SSO_METADATA_DESCRIPTOR);
+
+            if (spMetadata == null && handlerChainConfig != null) {
+                MetadataRegistry registry = (MetadataRegistry) handlerChainConfig
+                        .getParameter(GeneralConstants.METADATA_REGISTRY);
+
+                if (registry != null) {
+                    AuthnRequestType art = (AuthnRequestType) request.getSAML2Object();
+                    EntityDescriptorType entity = null;
+
+                    if (art.getIssuer() != null) {
+                        entity = registry.getEntity(art.getIssuer().getValue());
+                    }
+
+                    if (entity == null) {
+                        entity = registry.getEntityByEndpoint(destination);
+                    }
+
+                    if (entity != null) {
+                        spMetadata = CoreConfigUtil.getSPDescriptor(entity);
+                    }
+                }
+            }
+
+            return spMetadata;
+        }
+
         private String getParticipantURL(String destination, SAML2HandlerRequest request) {
             SPSSODescriptorType spMetadata = (SPSSODescriptorType) request.getOptions().get(
                     GeneralConstants.SP_SSO_METADATA_DESCRIPTOR);
@@ -480,8 +561,7 @@ public class SAML2AuthenticationHandler extends BaseSAML2Handler {
                 SAMLParser parser = new SAMLParser();
 
                 JAXPValidationUtil.checkSchemaValidation(decryptedDocumentElement);
-                AssertionType assertion = (AssertionType) parser.parse(StaxParserUtil.getXMLEventReader(DocumentUtil
-                        .getNodeAsStream(decryptedDocumentElement)));
+                AssertionType assertion = (AssertionType) parser.parse(StaxParserUtil.getXMLEventReader(decryptedDocumentElement));
 
                 responseType.replaceAssertion(oldID, new RTChoiceType(assertion));
                 return responseType;
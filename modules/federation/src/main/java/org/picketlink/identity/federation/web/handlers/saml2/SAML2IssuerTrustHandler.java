@@ -26,6 +26,7 @@ import org.picketlink.config.federation.TrustType;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditEvent;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditEventType;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
+import org.picketlink.identity.federation.core.saml.v2.metadata.MetadataRegistry;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
 import org.picketlink.identity.federation.saml.v2.protocol.RequestAbstractType;
@@ -95,6 +96,8 @@ public class SAML2IssuerTrustHandler extends BaseSAML2Handler {
         private void trustIssuer(IDPType idpConfiguration, String issuer) throws ProcessingException {
             if (idpConfiguration == null)
                 throw logger.nullArgumentError("IDP Configuration");
+            if (isTrustedByMetadata(issuer))
+                return;
             try {
                 String issuerDomain = getDomain(issuer);
                 TrustType idpTrust = idpConfiguration.getTrust();
@@ -143,6 +146,9 @@ public class SAML2IssuerTrustHandler extends BaseSAML2Handler {
                 throw logger.nullArgumentError("SP Configuration");
 
             String issuer = request.getIssuer().getValue();
+            if (isTrustedByMetadata(issuer))
+                return;
+
             Map<String, Object> requestOptions = request.getOptions();
             PicketLinkAuditHelper auditHelper = (PicketLinkAuditHelper) requestOptions.get(GeneralConstants.AUDIT_HELPER);
             String contextPath = (String) requestOptions.get(GeneralConstants.CONTEXT_PATH);
@@ -183,6 +189,26 @@ public class SAML2IssuerTrustHandler extends BaseSAML2Handler {
         }
     }
 
+    /**
+     * Indicates whether the issuer is an entity, or the endpoint of an entity, of the {@link MetadataRegistry} set on the
+     * handler chain configuration, if any.
+     *
+     * @param issuer
+     *
+     * @return
+     */
+    private boolean isTrustedByMetadata(String issuer) {
+        MetadataRegistry registry = (MetadataRegistry) this.handlerChainConfig
+                .getParameter(GeneralConstants.METADATA_REGISTRY);
+
+        if (registry != null && (registry.getEntity(issuer) != null || registry.getEntityByEndpoint(issuer) != null)) {
+            logger.trace("Issuer " + issuer + " trusted by the metadata registry");
+            return true;
+        }
+
+        return false;
+    }
+
     /**
      * Given a SP or IDP issuer from the assertion, return the host
      *
@@ -35,6 +35,7 @@ import org.picketlink.identity.federation.core.audit.PicketLinkAuditEventType;
 import org.picketlink.identity.federation.core.audit.PicketLinkAuditHelper;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.core.saml.v2.common.SAMLProtocolContext;
+import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerConfig;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerRequest.GENERATE_REQUEST_TYPE;
 import org.picketlink.identity.federation.core.saml.v2.interfaces.SAML2HandlerResponse;
@@ -51,6 +52,7 @@ import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
 import org.picketlink.identity.federation.saml.v2.protocol.StatusCodeType;
 import org.picketlink.identity.federation.saml.v2.protocol.StatusResponseType;
 import org.picketlink.identity.federation.saml.v2.protocol.StatusType;
+import org.picketlink.identity.federation.web.core.BackChannelLogoutNotifier;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 import org.picketlink.identity.federation.web.core.IdentityServer;
 import org.w3c.dom.Document;
@@ -60,7 +62,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import javax.xml.parsers.ParserConfigurationException;
 import java.net.URI;
+import java.security.KeyPair;
 import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -72,10 +78,60 @@ import java.util.Set;
  */
 public class SAML2LogOutHandler extends BaseSAML2Handler {
 
+    /**
+     * Handler option that makes the IDP log out all participants at once, sending them signed logout requests using the
+     * SOAP binding, instead of redirecting the browser to each one in turn. The requests are sent to the SOAP single
+     * logout endpoints found in the metadata of the participants and signed with the key pair of the handler chain.
+     */
+    public static final String BACK_CHANNEL_LOGOUT = "BACK_CHANNEL_LOGOUT";
+
+    /**
+     * Handler option with the maximum number of participants notified at the same time. Defaults to 10.
+     */
+    public static final String BACK_CHANNEL_LOGOUT_THREADS = "BACK_CHANNEL_LOGOUT_THREADS";
+
+    /**
+     * Handler option with the maximum time, in milliseconds, to wait for the participants to answer. Defaults to 5000.
+     */
+    public static final String BACK_CHANNEL_LOGOUT_TIMEOUT = "BACK_CHANNEL_LOGOUT_TIMEOUT";
+
     private final IDPLogOutHandler idp = new IDPLogOutHandler();
 
     private final SPLogOutHandler sp = new SPLogOutHandler();
 
+    private BackChannelLogoutNotifier backChannelLogoutNotifier;
+
+    @Override
+    public void initHandlerConfig(SAML2HandlerConfig handlerConfig) throws ConfigurationException {
+        super.initHandlerConfig(handlerConfig);
+
+        if (Boolean.parseBoolean(String.valueOf(handlerConfig.getParameter(BACK_CHANNEL_LOGOUT)))) {
+            try {
+                int threads = Integer.parseInt(getParameter(handlerConfig, BACK_CHANNEL_LOGOUT_THREADS, "10"));
+                long timeout = Long.parseLong(getParameter(handlerConfig, BACK_CHANNEL_LOGOUT_TIMEOUT, "5000"));
+
+                this.backChannelLogoutNotifier = new BackChannelLogoutNotifier(threads, timeout);
+            } catch (IllegalArgumentException e) {
+                throw logger.configurationError(e);
+            }
+        }
+    }
+
+    /**
+     * Stop the threads used by the back channel logout.
+     */
+    @Override
+    public void destroy() {
+        if (this.backChannelLogoutNotifier != null) {
+            this.backChannelLogoutNotifier.shutdown();
+        }
+    }
+
+    private static String getParameter(SAML2HandlerConfig handlerConfig, String name, String defaultValue) {
+        Object value = handlerConfig.getParameter(name);
+        return value != null ? value.toString() : defaultValue;
+    }
+
     /**
      * @see SAML2Handler#generateSAMLRequest(SAML2HandlerRequest, SAML2HandlerResponse)
      */
@@ -229,6 +285,21 @@ public class SAML2LogOutHandler extends BaseSAML2Handler {
 
                 String originalIssuer = (relayState == null) ? issuer : relayState;
 
+                if (backChannelLogoutNotifier != null) {
+                    boolean loggedOut = logoutParticipants(server, session, originalIssuer, request);
+
+                    session.invalidate();
+
+                    generateStatusResponseType(logOutRequest.getID(), request, response, originalIssuer, loggedOut);
+
+                    boolean isPost = isPostBindingForResponse(server, originalIssuer, request);
+                    response.setPostBindingForResponse(isPost);
+
+                    response.setSendRequest(false);
+
+                    return;
+                }
+
                 String participant = this.getParticipant(server, sessionID, originalIssuer);
 
                 if (participant == null || participant.equals(originalIssuer)) {
@@ -286,9 +357,67 @@ public class SAML2LogOutHandler extends BaseSAML2Handler {
             return;
         }
 
+        /**
+         * Send logout requests to all participants of the session, other than the original issuer, through the back
+         * channel.
+         *
+         * @return true if all participants were logged out
+         */
+        private boolean logoutParticipants(IdentityServer server, HttpSession session, String originalIssuer,
+                                           SAML2HandlerRequest request) throws ProcessingException {
+            Principal userPrincipal = getHttpRequest(request).getUserPrincipal();
+            if (userPrincipal == null) {
+                throw logger.samlHandlerPrincipalNotFoundError();
+            }
+
+            KeyPair keypair = (KeyPair) handlerChainConfig.getParameter(GeneralConstants.KEYPAIR);
+            X509Certificate certificate = (X509Certificate) handlerChainConfig.getParameter(GeneralConstants.X509CERTIFICATE);
+
+            if (keypair == null) {
+                logger.samlHandlerKeyPairNotFound();
+                throw logger.samlHandlerKeyPairNotFoundError();
+            }
+
+            String sessionID = session.getId();
+            Map<String, BackChannelLogoutNotifier.Participant> participants = new LinkedHashMap<String, BackChannelLogoutNotifier.Participant>();
+            Set<String> failed = new LinkedHashSet<String>();
+
+            for (int i = server.stack().getParticipants(sessionID); i > 0; i--) {
+                String participant = server.stack().pop(sessionID);
+
+                if (participant == null || participant.equals(originalIssuer)) {
+                    continue;
+                }
+
+                BackChannelLogoutNotifier.Participant details = BackChannelLogoutNotifier.getParticipant(session, participant);
+
+                if (details != null) {
+                    participants.put(participant, details);
+                } else {
+                    logger.warn("Participant " + participant + " has no SOAP single logout endpoint");
+                    failed.add(participant);
+                }
+            }
+
+            failed.addAll(backChannelLogoutNotifier.logout(request.getIssuer().getValue(), userPrincipal.getName(),
+                    participants, keypair, certificate));
+
+            for (String participant : failed) {
+                logger.warn("Participant " + participant + " was not logged out");
+            }
+
+            return failed.isEmpty();
+        }
+
         private void generateSuccessStatusResponseType(String logOutRequestID, SAML2HandlerRequest request,
                                                        SAML2HandlerResponse response, String originalIssuer) throws ConfigurationException,
                 ParserConfigurationException, ProcessingException {
+            generateStatusResponseType(logOutRequestID, request, response, originalIssuer, true);
+        }
+
+        private void generateStatusResponseType(String logOutRequestID, SAML2HandlerRequest request,
+                                                SAML2HandlerResponse response, String originalIssuer, boolean loggedOut)
+                throws ConfigurationException, ParserConfigurationException, ProcessingException {
 
             logger.trace("Generating Success Status Response for " + originalIssuer);
 
@@ -298,6 +427,11 @@ public class SAML2LogOutHandler extends BaseSAML2Handler {
             StatusType statusType = new StatusType();
             StatusCodeType statusCodeType = new StatusCodeType();
             statusCodeType.setValue(URI.create(JBossSAMLURIConstants.STATUS_SUCCESS.get()));
+            if (!loggedOut) {
+                StatusCodeType partialLogout = new StatusCodeType();
+                partialLogout.setValue(URI.create(JBossSAMLURIConstants.STATUS_PARTIAL_LOGOUT.get()));
+                statusCodeType.setStatusCode(partialLogout);
+            }
             statusType.setStatusCode(statusCodeType);
 
             statusResponse.setStatus(statusType);
@@ -159,8 +159,8 @@ public class SAML2SignatureGenerationHandler extends AbstractSignatureHandler {
                                 boolean willSendRequest)
             throws ProcessingException {
         try {
-            String samlMessage = DocumentUtil.getDocumentAsString(samlDocument);
-            String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlMessage.getBytes("UTF-8"));
+            byte[] samlMessage = DocumentUtil.getNodeAsBytes(samlDocument);
+            String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlMessage);
             PrivateKey signingKey = keypair.getPrivate();
 
             String url;
@@ -122,9 +122,9 @@ public class ServiceProviderSAMLRequestProcessor extends ServiceProviderBaseProc
                 // This is the case with signatures disabled
                 if (destinationQuery == null) {
                     boolean areWeSendingRequest = saml2HandlerResponse.getSendRequest();
-                    String samlMsg = DocumentUtil.getDocumentAsString(samlResponseDocument);
+                    byte[] samlMsg = DocumentUtil.getNodeAsBytes(samlResponseDocument);
 
-                    String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlMsg.getBytes("UTF-8"));
+                    String base64Request = RedirectBindingUtil.deflateBase64URLEncode(samlMsg);
                     destinationQuery = RedirectBindingUtil.getDestinationQueryString(base64Request, relayState,
                             areWeSendingRequest);
                 }
@@ -157,8 +157,7 @@ public class ServiceProviderSAMLRequestProcessor extends ServiceProviderBaseProc
      */
     protected void sendRequestToIDP(String destination, Document samlDocument, String relayState, HttpServletResponse response,
                                     boolean willSendRequest) throws ProcessingException, ConfigurationException, IOException {
-        String samlMessage = DocumentUtil.getDocumentAsString(samlDocument);
-        samlMessage = PostBindingUtil.base64Encode(samlMessage);
+        String samlMessage = PostBindingUtil.base64Encode(DocumentUtil.getNodeAsBytes(samlDocument));
         PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlMessage, relayState), response, willSendRequest);
     }
 }
\ No newline at end of file
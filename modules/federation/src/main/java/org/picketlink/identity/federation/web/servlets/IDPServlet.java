@@ -38,6 +38,7 @@ import org.picketlink.identity.federation.core.interfaces.AttributeManager;
 import org.picketlink.identity.federation.core.interfaces.ProtocolContext;
 import org.picketlink.identity.federation.core.interfaces.RoleGenerator;
 import org.picketlink.identity.federation.core.interfaces.TrustKeyManager;
+import org.picketlink.identity.federation.core.saml.md.providers.MetadataRegistryProvider;
 import org.picketlink.identity.federation.core.saml.v2.common.SAMLDocumentHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.IssuerInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.impl.DefaultSAML2HandlerChain;
@@ -60,6 +61,7 @@ import org.picketlink.identity.federation.saml.v2.protocol.StatusResponseType;
 import org.picketlink.identity.federation.web.core.HTTPContext;
 import org.picketlink.identity.federation.web.core.IdentityParticipantStack;
 import org.picketlink.identity.federation.web.core.IdentityServer;
+import org.picketlink.identity.federation.web.handlers.saml2.BaseSAML2Handler;
 import org.picketlink.identity.federation.web.roles.DefaultRoleGenerator;
 import org.picketlink.identity.federation.web.util.ConfigurationUtil;
 import org.picketlink.identity.federation.web.util.IDPWebRequestUtil;
@@ -128,6 +130,8 @@ public class IDPServlet extends HttpServlet {
 
     protected transient SAML2HandlerChain chain = null;
 
+    protected transient MetadataRegistryProvider metadataRegistryProvider = null;
+
     // Cater to SAML Web Browser SSO Profile demand that we do not reply in Redirect Binding
     private boolean strictPostBinding = false;
 
@@ -196,6 +200,7 @@ public class IDPServlet extends HttpServlet {
 
         // Get the chain from config
         chain = new DefaultSAML2HandlerChain();
+        SAML2HandlerChainConfig handlerChainConfig = null;
 
         try {
             this.identityURL = idpConfiguration.getIdentityURL();
@@ -227,7 +232,13 @@ public class IDPServlet extends HttpServlet {
             chainConfigOptions.put(GeneralConstants.ROLE_GENERATOR, roleGenerator);
             chainConfigOptions.put(GeneralConstants.CONFIGURATION, idpConfiguration);
 
-            SAML2HandlerChainConfig handlerChainConfig = new DefaultSAML2HandlerChainConfig(chainConfigOptions);
+            // issuers found in the metadata registry are trusted
+            this.metadataRegistryProvider = CoreConfigUtil.getMetadataRegistryProvider(idpConfiguration, context);
+            if (this.metadataRegistryProvider != null) {
+                chainConfigOptions.put(GeneralConstants.METADATA_REGISTRY, this.metadataRegistryProvider.getRegistry());
+            }
+
+            handlerChainConfig = new DefaultSAML2HandlerChainConfig(chainConfigOptions);
             Set<SAML2Handler> samlHandlers = chain.handlers();
 
             for (SAML2Handler handler : samlHandlers) {
@@ -260,6 +271,9 @@ public class IDPServlet extends HttpServlet {
 
                 keyManager.setAuthProperties(authProperties);
                 keyManager.setValidatingAlias(keyProvider.getValidatingAlias());
+
+                // handlers sending their own messages, such as the back channel logout, sign them with this key pair
+                handlerChainConfig.addParameter(GeneralConstants.KEYPAIR, keyManager.getSigningKeyPair());
             } catch (Exception e) {
                 log.error("Exception reading configuration:", e);
                 throw new RuntimeException(e.getLocalizedMessage());
@@ -309,6 +323,23 @@ public class IDPServlet extends HttpServlet {
             sts.installDefaultConfiguration(configPath);
     }
 
+    @Override
+    public void destroy() {
+        if (this.metadataRegistryProvider != null) {
+            this.metadataRegistryProvider.stop();
+        }
+
+        if (chain != null) {
+            for (SAML2Handler handler : chain.handlers()) {
+                if (handler instanceof BaseSAML2Handler) {
+                    ((BaseSAML2Handler) handler).destroy();
+                }
+            }
+        }
+
+        super.destroy();
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -333,6 +364,9 @@ public class IDPServlet extends HttpServlet {
 
         IDPWebRequestUtil webRequestUtil = new IDPWebRequestUtil(request, idpConfiguration, keyManager);
         webRequestUtil.setCanonicalizationMethod(canonicalizationMethod);
+        if (this.metadataRegistryProvider != null) {
+            webRequestUtil.setMetadataRegistry(this.metadataRegistryProvider.getRegistry());
+        }
 
         boolean willSendRequest = true;
 
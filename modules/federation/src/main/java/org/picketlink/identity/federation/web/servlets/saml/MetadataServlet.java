@@ -32,6 +32,7 @@ import org.picketlink.identity.federation.api.saml.v2.metadata.KeyDescriptorMeta
 import org.picketlink.identity.federation.api.util.KeyUtil;
 import org.picketlink.identity.federation.core.interfaces.IMetadataProvider;
 import org.picketlink.identity.federation.core.interfaces.TrustKeyManager;
+import org.picketlink.identity.federation.core.saml.md.providers.MetadataRegistryProvider;
 import org.picketlink.identity.federation.core.saml.v2.writers.SAMLMetadataWriter;
 import org.picketlink.identity.federation.core.util.CoreConfigUtil;
 import org.picketlink.identity.federation.core.util.XMLEncryptionUtil;
@@ -62,6 +63,9 @@ import static org.picketlink.common.util.StringUtil.isNotNull;
 /**
  * Metadata servlet for the IDP/SP
  *
+ * <p>When the metadata provider is a {@link MetadataRegistryProvider}, the servlet publishes the entity of the registry
+ * named by the "entityID" init parameter.</p>
+ *
  * @author Anil.Saldhana@redhat.com
  * @since Apr 22, 2009
  */
@@ -118,7 +122,7 @@ public class MetadataServlet extends HttpServlet {
                     options.put(kvt.getKey(), kvt.getValue());
             }
             metadataProvider.init(options);
-            if (metadataProvider.isMultiple())
+            if (metadataProvider.isMultiple() && !(metadataProvider instanceof MetadataRegistryProvider))
                 throw new RuntimeException(ErrorCodes.NOT_IMPLEMENTED_YET + "Multiple Entities not currently supported");
 
             /**
@@ -130,7 +134,19 @@ public class MetadataServlet extends HttpServlet {
                 metadataProvider.injectFileStream(context.getResourceAsStream(fileInjectionStr));
             }
 
-            metadata = (EntityDescriptorType) metadataProvider.getMetaData();
+            if (metadataProvider instanceof MetadataRegistryProvider) {
+                // publish one of the entities of the registry, copied as the key descriptors are added to it
+                String entityID = config.getInitParameter("entityID");
+                if (!isNotNull(entityID))
+                    throw new RuntimeException(ErrorCodes.NULL_VALUE + "entityID");
+
+                MetadataRegistryProvider registryProvider = (MetadataRegistryProvider) metadataProvider;
+                metadata = registryProvider.getRegistry().copyEntity(entityID);
+                if (metadata == null)
+                    throw new RuntimeException(ErrorCodes.RESOURCE_NOT_FOUND + entityID + " missing");
+            } else {
+                metadata = (EntityDescriptorType) metadataProvider.getMetaData();
+            }
 
             // Get the trust manager information
             KeyProviderType keyProvider = providerType.getKeyProvider();
@@ -170,6 +186,15 @@ public class MetadataServlet extends HttpServlet {
 
     }
 
+    @Override
+    public void destroy() {
+        if (metadataProvider instanceof MetadataRegistryProvider) {
+            ((MetadataRegistryProvider) metadataProvider).stop();
+        }
+
+        super.destroy();
+    }
+
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         resp.setContentType(JBossSAMLConstants.METADATA_MIME.get());
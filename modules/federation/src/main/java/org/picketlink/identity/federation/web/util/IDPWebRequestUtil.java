@@ -41,6 +41,7 @@ import org.picketlink.identity.federation.core.saml.v2.holders.DestinationInfoHo
 import org.picketlink.identity.federation.core.saml.v2.holders.IDPInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.IssuerInfoHolder;
 import org.picketlink.identity.federation.core.saml.v2.holders.SPInfoHolder;
+import org.picketlink.identity.federation.core.saml.v2.metadata.MetadataRegistry;
 import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.picketlink.identity.federation.saml.v2.protocol.RequestAbstractType;
 import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
@@ -78,6 +79,8 @@ public class IDPWebRequestUtil {
 
     private final TrustKeyManager keyManager;
 
+    private MetadataRegistry metadataRegistry;
+
     protected String canonicalizationMethod = CanonicalizationMethod.EXCLUSIVE_WITH_COMMENTS;
 
     public IDPWebRequestUtil(HttpServletRequest request, IDPType idp, TrustKeyManager keym) {
@@ -87,6 +90,16 @@ public class IDPWebRequestUtil {
         this.postProfile = "POST".equals(request.getMethod());
     }
 
+    /**
+     * Set the registry of the metadata of the federation. The issuers it knows, by entity ID or endpoint location, are
+     * trusted.
+     *
+     * @param metadataRegistry
+     */
+    public void setMetadataRegistry(MetadataRegistry metadataRegistry) {
+        this.metadataRegistry = metadataRegistry;
+    }
+
     public String getCanonicalizationMethod() {
         return canonicalizationMethod;
     }
@@ -113,7 +126,9 @@ public class IDPWebRequestUtil {
                 is = RedirectBindingUtil.base64DeflateDecode(samlMessage);
             } else {
                 byte[] samlBytes = PostBindingUtil.base64Decode(samlMessage);
-                logger.trace("SAML Request Document: " + new String(samlBytes));
+                if (logger.isTraceEnabled()) {
+                    logger.trace("SAML Request Document: " + new String(samlBytes));
+                }
                 is = new ByteArrayInputStream(samlBytes);
             }
         } catch (Exception rte) {
@@ -139,7 +154,9 @@ public class IDPWebRequestUtil {
             }
         } else {
             byte[] samlBytes = PostBindingUtil.base64Decode(samlMessage);
-            logger.trace("SAML Request Document: " + new String(samlBytes));
+            if (logger.isTraceEnabled()) {
+                logger.trace("SAML Request Document: " + new String(samlBytes));
+            }
             is = new ByteArrayInputStream(samlBytes);
         }
         return saml2Request.getRequestType(is);
@@ -155,6 +172,11 @@ public class IDPWebRequestUtil {
     public void isTrusted(String issuer) throws IssuerNotTrustedException {
         if (idpConfiguration == null)
             throw logger.nullValueError("IDP Configuration");
+        if (metadataRegistry != null
+                && (metadataRegistry.getEntity(issuer) != null || metadataRegistry.getEntityByEndpoint(issuer) != null)) {
+            logger.trace("Issuer " + issuer + " trusted by the metadata registry");
+            return;
+        }
         try {
             String issuerDomain = getDomain(issuer);
             TrustType idpTrust = idpConfiguration.getTrust();
@@ -210,7 +232,7 @@ public class IDPWebRequestUtil {
             }
             // This is the case without signature
             else {
-                byte[] responseBytes = DocumentUtil.getDocumentAsString(responseDoc).getBytes("UTF-8");
+                byte[] responseBytes = DocumentUtil.getNodeAsBytes(responseDoc);
 
                 String urlEncodedResponse = RedirectBindingUtil.deflateBase64URLEncode(responseBytes);
 
@@ -228,9 +250,9 @@ public class IDPWebRequestUtil {
                 logger.trace("SAML Response Document: " + DocumentUtil.asString(responseDoc));
             }
 
-            byte[] responseBytes = DocumentUtil.getDocumentAsString(responseDoc).getBytes("UTF-8");
+            byte[] responseBytes = DocumentUtil.getNodeAsBytes(responseDoc);
 
-            String samlResponse = PostBindingUtil.base64Encode(new String(responseBytes));
+            String samlResponse = PostBindingUtil.base64Encode(responseBytes);
 
             PostBindingUtil.sendPost(new DestinationInfoHolder(destination, samlResponse, relayState), response, sendRequest);
         }
@@ -56,6 +56,17 @@ public class PostBindingUtil {
         return Base64.encodeBytes(stringToEncode.getBytes("UTF-8"), Base64.DONT_BREAK_LINES);
     }
 
+    /**
+     * Apply base64 encoding on the message bytes
+     *
+     * @param bytesToEncode
+     *
+     * @return
+     */
+    public static String base64Encode(byte[] bytesToEncode) {
+        return Base64.encodeBytes(bytesToEncode, Base64.DONT_BREAK_LINES);
+    }
+
     /**
      * Apply base64 decoding on the message and return the byte array
      *
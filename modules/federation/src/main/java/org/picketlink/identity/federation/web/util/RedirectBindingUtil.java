@@ -20,8 +20,10 @@ package org.picketlink.identity.federation.web.util;
 import org.picketlink.common.util.Base64;
 import org.picketlink.identity.federation.api.util.DeflateUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 
@@ -112,8 +114,13 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static String deflateBase64URLEncode(byte[] stringToEncode) throws IOException {
-        byte[] deflatedMsg = DeflateUtil.encode(stringToEncode);
-        return base64URLEncode(deflatedMsg);
+        URLEncodingOutputStream urlEncoded = new URLEncodingOutputStream(stringToEncode.length);
+        Base64.OutputStream base64 = new Base64.OutputStream(urlEncoded, Base64.ENCODE | Base64.DONT_BREAK_LINES);
+
+        DeflateUtil.encode(stringToEncode, base64);
+        base64.close();
+
+        return urlEncoded.toString();
     }
 
     /**
@@ -126,8 +133,13 @@ public class RedirectBindingUtil {
      * @throws IOException
      */
     public static String deflateBase64Encode(byte[] stringToEncode) throws IOException {
-        byte[] deflatedMsg = DeflateUtil.encode(stringToEncode);
-        return Base64.encodeBytes(deflatedMsg);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(stringToEncode.length);
+        Base64.OutputStream base64 = new Base64.OutputStream(encoded, Base64.ENCODE);
+
+        DeflateUtil.encode(stringToEncode, base64);
+        base64.close();
+
+        return encoded.toString("UTF-8");
     }
 
     /**
@@ -217,4 +229,38 @@ public class RedirectBindingUtil {
             return this;
         }
     }
+
+    /**
+     * An {@link OutputStream} that URL encodes the bytes written to it, the same way {@link URLEncoder} does for UTF-8
+     * encoded text, so the base64 encoded message does not need to be buffered as a String before being URL encoded.
+     */
+    private static class URLEncodingOutputStream extends OutputStream {
+
+        private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+        private final StringBuilder encoded;
+
+        URLEncodingOutputStream(int initialCapacity) {
+            this.encoded = new StringBuilder(initialCapacity);
+        }
+
+        @Override
+        public void write(int b) {
+            char c = (char) (b & 0xFF);
+
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-'
+                    || c == '*' || c == '_') {
+                this.encoded.append(c);
+            } else if (c == ' ') {
+                this.encoded.append('+');
+            } else {
+                this.encoded.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.encoded.toString();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,282 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust;
+
+import junit.framework.TestCase;
+import org.picketlink.common.constants.JBossSAMLURIConstants;
+import org.picketlink.common.constants.WSTrustConstants;
+import org.picketlink.common.exceptions.fed.WSTrustException;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for {@link IssuedTokenCache}.
+ *
+ * @author agent
+ */
+public class IssuedTokenCacheTestCase extends TestCase {
+
+    private static final String SAML2_TOKEN_TYPE = "http://docs.oasis-open.org/wss/oasis-wss-saml-token-profile-1.1#SAMLV2.0";
+
+    private static final long RENEWAL_SKEW = 30000;
+
+    private final List<String> key = Arrays.asList("http://localhost:8080/picketlink-sts/PicketLinkSTS", "admin", "admin",
+            null, "http://services.testcorp.org/provider1", SAML2_TOKEN_TYPE, null, "false");
+
+    public void testTokenReused() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(10);
+        CountingRequest request = new CountingRequest(createAssertion("ID_1", 300000), null);
+
+        Element token = cache.getToken(key, RENEWAL_SKEW, request);
+        Element cachedToken = cache.getToken(key, RENEWAL_SKEW, request);
+
+        assertEquals(1, request.count.get());
+        assertNotSame(token, cachedToken);
+        assertEquals("ID_1", cachedToken.getAttribute("ID"));
+        assertEquals(1, cache.size());
+    }
+
+    public void testTokensNotSharedBetweenKeys() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(10);
+        CountingRequest request = new CountingRequest(createAssertion("ID_1", 300000), null);
+
+        cache.getToken(key, RENEWAL_SKEW, request);
+
+        List<String> otherKey = new ArrayList<String>(key);
+        otherKey.set(1, "john");
+
+        cache.getToken(otherKey, RENEWAL_SKEW, request);
+
+        assertEquals(2, request.count.get());
+    }
+
+    public void testTokenRenewedBeforeExpiration() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(10);
+        CountingRequest request = new CountingRequest(createAssertion("ID_1", RENEWAL_SKEW / 2), null);
+
+        cache.getToken(key, RENEWAL_SKEW, request);
+        cache.getToken(key, RENEWAL_SKEW, request);
+
+        assertEquals(2, request.count.get());
+    }
+
+    public void testExpirationFromResponseLifetime() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(10);
+        Element assertion = createAssertion("ID_1", 0);
+
+        assertion.removeChild(assertion.getFirstChild());
+
+        CountingRequest request = new CountingRequest(assertion, XMLTimeUtil.add(XMLTimeUtil.getIssueInstant(), 300000)
+                .toXMLFormat());
+
+        cache.getToken(key, RENEWAL_SKEW, request);
+        cache.getToken(key, RENEWAL_SKEW, request);
+
+        assertEquals(1, request.count.get());
+    }
+
+    public void testTokenWithoutExpirationNotCached() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(10);
+        Element assertion = createAssertion("ID_1", 0);
+
+        assertion.removeChild(assertion.getFirstChild());
+
+        CountingRequest request = new CountingRequest(assertion, null);
+
+        cache.getToken(key, RENEWAL_SKEW, request);
+        cache.getToken(key, RENEWAL_SKEW, request);
+
+        assertEquals(2, request.count.get());
+        assertEquals(0, cache.size());
+    }
+
+    public void testConcurrentMissesIssueOnce() throws Exception {
+        final IssuedTokenCache cache = new IssuedTokenCache(10);
+        final CountDownLatch issuing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final Element assertion = createAssertion("ID_1", 300000);
+        final IssuedTokenCache.TokenRequest request = new IssuedTokenCache.TokenRequest() {
+            public Element issue() throws WSTrustException {
+                count.incrementAndGet();
+                issuing.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new WSTrustException(e);
+                }
+
+                return assertion;
+            }
+        };
+        final List<Element> tokens = new ArrayList<Element>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Element token = cache.getToken(key, RENEWAL_SKEW, request);
+
+                        synchronized (tokens) {
+                            tokens.add(token);
+                        }
+                    } catch (WSTrustException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        issuing.await();
+        // give the other threads the time to wait for the token being issued
+        Thread.sleep(200);
+        release.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, count.get());
+        assertEquals(8, tokens.size());
+    }
+
+    public void testFailureNotCached() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(10);
+        final AtomicInteger count = new AtomicInteger();
+        final Element assertion = createAssertion("ID_1", 300000);
+        IssuedTokenCache.TokenRequest request = new IssuedTokenCache.TokenRequest() {
+            public Element issue() throws WSTrustException {
+                if (count.incrementAndGet() == 1)
+                    throw new WSTrustException("STS unavailable");
+
+                return assertion;
+            }
+        };
+
+        try {
+            cache.getToken(key, RENEWAL_SKEW, request);
+            fail("The failure should be propagated");
+        } catch (WSTrustException expected) {
+            assertEquals("STS unavailable", expected.getMessage());
+        }
+
+        assertNotNull(cache.getToken(key, RENEWAL_SKEW, request));
+        assertEquals(2, count.get());
+    }
+
+    public void testRemove() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(10);
+        CountingRequest request = new CountingRequest(createAssertion("ID_1", 300000), null);
+
+        Element token = cache.getToken(key, RENEWAL_SKEW, request);
+
+        cache.remove(token);
+
+        assertEquals(0, cache.size());
+
+        cache.getToken(key, RENEWAL_SKEW, request);
+
+        assertEquals(2, request.count.get());
+    }
+
+    public void testMaximumSize() throws Exception {
+        IssuedTokenCache cache = new IssuedTokenCache(2);
+        CountingRequest request = new CountingRequest(createAssertion("ID_1", 300000), null);
+
+        for (int i = 0; i < 5; i++) {
+            List<String> otherKey = new ArrayList<String>(key);
+            otherKey.set(4, "http://services.testcorp.org/provider" + i);
+            cache.getToken(otherKey, RENEWAL_SKEW, request);
+        }
+
+        assertEquals(2, cache.size());
+    }
+
+    private Element createAssertion(String id, long validity) throws Exception {
+        Document document = DocumentUtil.createDocument();
+        String namespaceURI = JBossSAMLURIConstants.ASSERTION_NSURI.get();
+        Element assertion = document.createElementNS(namespaceURI, "saml:Assertion");
+        Element conditions = document.createElementNS(namespaceURI, "saml:Conditions");
+
+        assertion.setAttribute("ID", id);
+        conditions.setAttribute("NotOnOrAfter", XMLTimeUtil.add(XMLTimeUtil.getIssueInstant(), validity).toXMLFormat());
+        assertion.appendChild(conditions);
+        document.appendChild(assertion);
+
+        return assertion;
+    }
+
+    /**
+     * Returns the given token inside a response, with the given Lifetime expiration, and counts the requests.
+     */
+    private static class CountingRequest implements IssuedTokenCache.TokenRequest {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        private final Element token;
+
+        private final String expires;
+
+        CountingRequest(Element token, String expires) {
+            this.token = token;
+            this.expires = expires;
+        }
+
+        public Element issue() throws WSTrustException {
+            count.incrementAndGet();
+
+            try {
+                Document response = DocumentUtil.createDocument();
+                Element rstr = response.createElementNS(WSTrustConstants.BASE_NAMESPACE, "wst:RequestSecurityTokenResponse");
+                Element requestedToken = response.createElementNS(WSTrustConstants.BASE_NAMESPACE,
+                        "wst:RequestedSecurityToken");
+
+                if (expires != null) {
+                    Element lifetime = response.createElementNS(WSTrustConstants.BASE_NAMESPACE, "wst:Lifetime");
+                    Element expiresElement = response.createElementNS(WSTrustConstants.WSU_NS, "wsu:Expires");
+
+                    expiresElement.setTextContent(expires);
+                    lifetime.appendChild(expiresElement);
+                    rstr.appendChild(lifetime);
+                }
+
+                requestedToken.appendChild(response.importNode(token, true));
+                rstr.appendChild(requestedToken);
+                response.appendChild(rstr);
+
+                return (Element) requestedToken.getFirstChild();
+            } catch (Exception e) {
+                throw new WSTrustException(e);
+            }
+        }
+    }
+}
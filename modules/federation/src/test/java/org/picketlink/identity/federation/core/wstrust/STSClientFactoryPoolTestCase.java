@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.identity.federation.core.wstrust;
+
+import junit.framework.TestCase;
+import org.picketlink.identity.federation.core.wstrust.STSClientConfig.Builder;
+
+/**
+ * Unit test for the size and idle time limits of the {@link STSClient} pool of {@link STSClientFactory}.
+ *
+ * @author agent
+ */
+public class STSClientFactoryPoolTestCase extends TestCase {
+
+    private final STSClientConfig config = new Builder().serviceName("PicketLinkSTS").portName("PicketLinkSTSPort")
+            .endpointAddress("http://localhost:8080/picketlink-sts/PicketLinkSTS").username("admin").password("admin")
+            .build();
+
+    public void testIdleClientEvicted() throws Exception {
+        STSClientFactory factory = new STSClientFactory(10, 100);
+
+        STSClient client = factory.getClient(config);
+        factory.releaseClient(client);
+
+        Thread.sleep(300);
+
+        STSClient other = factory.getClient(config);
+
+        assertNotSame(client, other);
+
+        factory.releaseClient(other);
+    }
+
+    public void testIdleClientReusedBeforeEviction() throws Exception {
+        STSClientFactory factory = new STSClientFactory(10, 60000);
+
+        STSClient client = factory.getClient(config);
+        factory.releaseClient(client);
+
+        STSClient reused = factory.getClient(config);
+
+        assertSame(client, reused);
+
+        factory.releaseClient(reused);
+    }
+
+    public void testIdleClientsLimitedToMaxPoolSize() throws Exception {
+        STSClientFactory factory = new STSClientFactory(1, 60000);
+
+        STSClient client = factory.getClient(config);
+        STSClient other = factory.getClient(config);
+
+        factory.releaseClient(client);
+        factory.releaseClient(other);
+
+        STSClient reused = factory.getClient(config);
+        STSClient created = factory.getClient(config);
+
+        assertSame(client, reused);
+        assertNotSame(client, created);
+        assertNotSame(other, created);
+
+        factory.releaseClient(reused);
+        factory.releaseClient(created);
+    }
+}
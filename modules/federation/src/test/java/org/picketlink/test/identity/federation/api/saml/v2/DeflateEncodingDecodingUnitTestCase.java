@@ -18,16 +18,20 @@
 package org.picketlink.test.identity.federation.api.saml.v2;
 
 import junit.framework.TestCase;
+import org.picketlink.common.constants.GeneralConstants;
 import org.picketlink.common.util.Base64;
 import org.picketlink.identity.federation.api.saml.v2.request.SAML2Request;
 import org.picketlink.identity.federation.api.util.DeflateUtil;
 import org.picketlink.identity.federation.core.saml.v2.common.IDGenerator;
 import org.picketlink.identity.federation.saml.v2.protocol.AuthnRequestType;
+import org.picketlink.identity.federation.web.util.RedirectBindingUtil;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Arrays;
 
 /**
  * Unit test the DEFLATE compression encoding/decoding cycles
@@ -58,4 +62,54 @@ public class DeflateEncodingDecodingUnitTestCase extends TestCase {
 
         assertNotNull(decodedRequestType);
     }
-}
\ No newline at end of file
+
+    public void testRedirectEncoding() throws Exception {
+        AuthnRequestType authnRequest = (new SAML2Request()).createAuthnRequestType(IDGenerator.create("ID_"), "http://sp",
+                "http://localhost:8080/idp", "http://sp");
+
+        StringWriter sw = new StringWriter();
+        SAML2Request request = new SAML2Request();
+        request.marshall(authnRequest, sw);
+        byte[] message = sw.toString().getBytes("UTF-8");
+
+        String expected = URLEncoder.encode(Base64.encodeBytes(DeflateUtil.encode(message), Base64.DONT_BREAK_LINES), "UTF-8");
+        String urlEncodedRequest = RedirectBindingUtil.deflateBase64URLEncode(message);
+
+        assertEquals(expected, urlEncodedRequest);
+        assertEquals(Base64.encodeBytes(DeflateUtil.encode(message)), RedirectBindingUtil.deflateBase64Encode(message));
+
+        AuthnRequestType decodedRequestType = request.getAuthnRequestType(RedirectBindingUtil
+                .urlBase64DeflateDecode(urlEncodedRequest));
+
+        assertEquals(authnRequest.getID(), decodedRequestType.getID());
+    }
+
+    public void testMaximumInflatedSize() throws Exception {
+        byte[] deflatedMsg = DeflateUtil.encode(new byte[4096]);
+
+        assertEquals(4096, DeflateUtil.inflate(deflatedMsg).length);
+
+        System.setProperty(GeneralConstants.DEFLATE_MAX_INFLATED_SIZE, "1024");
+
+        try {
+            DeflateUtil.inflate(deflatedMsg);
+            fail("Decoded message exceeds the maximum size.");
+        } catch (IOException expected) {
+        } finally {
+            System.clearProperty(GeneralConstants.DEFLATE_MAX_INFLATED_SIZE);
+        }
+    }
+
+    public void testInvalidMessage() throws Exception {
+        byte[] deflatedMsg = DeflateUtil.encode("<samlp:AuthnRequest/>");
+
+        try {
+            DeflateUtil.inflate(Arrays.copyOf(deflatedMsg, deflatedMsg.length / 2));
+            fail("Truncated message should not be decoded.");
+        } catch (IOException expected) {
+        }
+
+        // the pooled inflater is reset after the failure
+        assertEquals("<samlp:AuthnRequest/>", new String(DeflateUtil.inflate(deflatedMsg)));
+    }
+}
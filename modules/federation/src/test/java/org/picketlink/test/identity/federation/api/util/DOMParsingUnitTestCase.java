@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.api.util;
+
+import org.junit.Test;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.common.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.parsers.saml.SAMLAssertionParser;
+import org.picketlink.identity.federation.core.parsers.saml.SAMLParser;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+import org.picketlink.identity.federation.saml.v2.protocol.ResponseType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.XMLEvent;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit Test parsing SAML messages directly from the DOM, without serializing them
+ *
+ * @author agent
+ */
+public class DOMParsingUnitTestCase {
+
+    private static final String ASSERTION_ID = "ID_976d8310-658a-450d-be39-f33c73c8afa6";
+
+    @Test
+    public void testParseDocument() throws Exception {
+        Document responseDoc = getDocument("xml/dom/saml-response-2-assertions.xml");
+
+        ResponseType fromDOM = (ResponseType) new SAMLParser().parse(responseDoc);
+        ResponseType fromStream = (ResponseType) new SAMLParser().parse(DocumentUtil.getNodeAsStream(responseDoc));
+
+        assertEquals(fromStream.getID(), fromDOM.getID());
+        assertEquals(fromStream.getAssertions().size(), fromDOM.getAssertions().size());
+        assertEquals(ASSERTION_ID, fromDOM.getAssertions().get(1).getAssertion().getID());
+        assertEquals("testIssuer", fromDOM.getIssuer().getValue());
+    }
+
+    @Test
+    public void testParseElementInheritingNamespaces() throws Exception {
+        Document responseDoc = getDocument("xml/dom/saml-response-2-assertions.xml");
+        Node assertionNode = DocumentUtil.getNodeWithAttribute(responseDoc, "urn:oasis:names:tc:SAML:2.0:assertion",
+                "Assertion", "ID", ASSERTION_ID);
+
+        AssertionType assertion = new SAMLAssertionParser().fromElement((Element) assertionNode);
+
+        assertEquals(ASSERTION_ID, assertion.getID());
+        assertEquals("testIssuer", assertion.getIssuer().getValue());
+    }
+
+    @Test
+    public void testEventsMatchDocument() throws Exception {
+        Document document = DocumentUtil.getDocument("<a xmlns=\"urn:a\"><b>text<![CDATA[ and more]]></b><c/></a>");
+        XMLEventReader reader = StaxParserUtil.getXMLEventReader(document);
+
+        assertTrue(reader.nextEvent().isStartDocument());
+        assertEquals("a", reader.nextEvent().asStartElement().getName().getLocalPart());
+
+        XMLEvent b = reader.nextEvent();
+
+        assertEquals("urn:a", b.asStartElement().getName().getNamespaceURI());
+        assertEquals("text and more", reader.getElementText());
+        assertEquals("c", reader.nextTag().asStartElement().getName().getLocalPart());
+        assertTrue(reader.nextEvent().isEndElement());
+        assertTrue(reader.nextEvent().isEndElement());
+        assertTrue(reader.nextEvent().isEndDocument());
+        assertFalse(reader.hasNext());
+    }
+
+    private Document getDocument(String fileName) throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(fileName);
+        if (is == null)
+            throw new RuntimeException("InputStream is null");
+        return DocumentUtil.getDocument(is);
+    }
+}
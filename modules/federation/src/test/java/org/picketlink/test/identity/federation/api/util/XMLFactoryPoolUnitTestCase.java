@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.api.util;
+
+import org.junit.Test;
+import org.picketlink.common.util.DocumentUtil;
+import org.picketlink.common.util.XMLFactoryPool;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.Transformer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit Test the XMLFactoryPool
+ *
+ * @author agent
+ */
+public class XMLFactoryPoolUnitTestCase {
+
+    @Test
+    public void testFactoriesAreShared() {
+        assertSame(XMLFactoryPool.getXMLInputFactory(), XMLFactoryPool.getXMLInputFactory());
+        assertSame(XMLFactoryPool.getXMLOutputFactory(), XMLFactoryPool.getXMLOutputFactory());
+        assertSame(XMLFactoryPool.getDocumentBuilderFactory(), XMLFactoryPool.getDocumentBuilderFactory());
+        assertSame(XMLFactoryPool.getTransformerFactory(), XMLFactoryPool.getTransformerFactory());
+    }
+
+    @Test
+    public void testJAXPFactoriesAreNotSharedBetweenThreads() throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        try {
+            Object[] factories = executorService.submit(new Callable<Object[]>() {
+                @Override
+                public Object[] call() throws Exception {
+                    return new Object[] {XMLFactoryPool.getDocumentBuilderFactory(),
+                            XMLFactoryPool.getTransformerFactory()};
+                }
+            }).get();
+
+            assertNotSame(XMLFactoryPool.getDocumentBuilderFactory(), factories[0]);
+            assertNotSame(XMLFactoryPool.getTransformerFactory(), factories[1]);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReleasedInstancesAreReused() throws Exception {
+        DocumentBuilder builder = XMLFactoryPool.borrowDocumentBuilder();
+
+        XMLFactoryPool.release(builder);
+
+        assertSame(builder, XMLFactoryPool.borrowDocumentBuilder());
+
+        Transformer transformer = XMLFactoryPool.borrowTransformer();
+
+        XMLFactoryPool.release(transformer);
+
+        assertSame(transformer, XMLFactoryPool.borrowTransformer());
+    }
+
+    @Test
+    public void testNestedBorrowGetsDifferentInstance() throws Exception {
+        DocumentBuilder builder = XMLFactoryPool.borrowDocumentBuilder();
+        DocumentBuilder nested = XMLFactoryPool.borrowDocumentBuilder();
+
+        assertNotSame(builder, nested);
+
+        XMLFactoryPool.release(nested);
+        XMLFactoryPool.release(builder);
+    }
+
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                final String value = "value" + i;
+
+                results.add(executorService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        Document document = DocumentUtil.getDocument("<test xmlns=\"urn:test\">" + value + "</test>");
+
+                        return DocumentUtil.getDocument(DocumentUtil.getDocumentAsString(document)).getDocumentElement()
+                                .getTextContent();
+                    }
+                }));
+            }
+
+            for (int i = 0; i < 100; i++) {
+                assertEquals("value" + i, results.get(i).get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.impl;
+
+import junit.framework.TestCase;
+import org.picketlink.config.federation.AuthPropertyType;
+import org.picketlink.config.federation.KeyValueType;
+import org.picketlink.identity.federation.core.impl.KeyStoreKeyManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test the caching and reloading of keys by the {@link KeyStoreKeyManager}
+ *
+ * @author agent
+ */
+public class KeyStoreKeyManagerUnitTestCase extends TestCase {
+
+    private File keyStoreFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.keyStoreFile = File.createTempFile("keystore", ".jks");
+        copy("keystore/jbid_test_keystore.jks", this.keyStoreFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.keyStoreFile.delete();
+    }
+
+    public void testKeysAreCached() throws Exception {
+        KeyStoreKeyManager keyManager = createKeyManager(null);
+
+        assertNotNull(keyManager.getSigningKey());
+        assertSame(keyManager.getSigningKey(), keyManager.getSigningKey());
+        assertSame(keyManager.getSigningKeyPair(), keyManager.getSigningKeyPair());
+        assertSame(keyManager.getSigningKey(), keyManager.getSigningKeyPair().getPrivate());
+        assertSame(keyManager.getValidatingKey("localhost"), keyManager.getValidatingKey("localhost"));
+        assertEquals(keyManager.getSigningKeyPair().getPublic(), keyManager.getValidatingKey("localhost"));
+        assertSame(keyManager.getCertificate("servercert"), keyManager.getCertificate("servercert"));
+        assertNull(keyManager.getCertificate("sts"));
+    }
+
+    public void testKeyStoreReload() throws Exception {
+        KeyStoreKeyManager keyManager = createKeyManager("1");
+
+        assertNotNull(keyManager.getCertificate("servercert"));
+        assertNull(keyManager.getCertificate("rotated"));
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream is = new FileInputStream(this.keyStoreFile);
+
+        try {
+            keyStore.load(is, "store123".toCharArray());
+        } finally {
+            is.close();
+        }
+
+        keyStore.setCertificateEntry("rotated", keyStore.getCertificate("servercert"));
+
+        OutputStream os = new FileOutputStream(this.keyStoreFile);
+
+        try {
+            keyStore.store(os, "store123".toCharArray());
+        } finally {
+            os.close();
+        }
+
+        this.keyStoreFile.setLastModified(System.currentTimeMillis() + 5000);
+
+        // changes are not checked before the reload interval elapses
+        assertNull(keyManager.getCertificate("rotated"));
+
+        Thread.sleep(1100);
+
+        assertNotNull(keyManager.getCertificate("rotated"));
+        assertNotNull(keyManager.getSigningKey());
+    }
+
+    private KeyStoreKeyManager createKeyManager(String reloadInterval) throws Exception {
+        List<AuthPropertyType> authProperties = new ArrayList<AuthPropertyType>();
+
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.KEYSTORE_URL, this.keyStoreFile.getAbsolutePath()));
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.KEYSTORE_PASS, "store123"));
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.SIGNING_KEY_ALIAS, "servercert"));
+        authProperties.add(createAuthProperty(KeyStoreKeyManager.SIGNING_KEY_PASS, "test123"));
+
+        if (reloadInterval != null) {
+            authProperties.add(createAuthProperty(KeyStoreKeyManager.KEYSTORE_RELOAD_INTERVAL, reloadInterval));
+        }
+
+        List<KeyValueType> validatingAliases = new ArrayList<KeyValueType>();
+
+        validatingAliases.add(KeyValueType.create("localhost", "servercert"));
+
+        KeyStoreKeyManager keyManager = new KeyStoreKeyManager();
+
+        keyManager.setAuthProperties(authProperties);
+        keyManager.setValidatingAlias(validatingAliases);
+
+        return keyManager;
+    }
+
+    private AuthPropertyType createAuthProperty(String key, String value) {
+        AuthPropertyType authProperty = new AuthPropertyType();
+
+        authProperty.setKey(key);
+        authProperty.setValue(value);
+
+        return authProperty;
+    }
+
+    private void copy(String resource, File target) throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        OutputStream os = new FileOutputStream(target);
+
+        try {
+            byte[] buffer = new byte[1024];
+            int length;
+
+            while ((length = is.read(buffer)) != -1) {
+                os.write(buffer, 0, length);
+            }
+        } finally {
+            is.close();
+            os.close();
+        }
+    }
+}
@@ -28,7 +28,10 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -87,6 +90,31 @@ public class FileBasedMetadataConfigurationStoreUnitTestCase {
         }
     }
 
+    @Test
+    public void testLoadReusesDescriptorUntilPersisted() throws Exception {
+        SAMLParser parser = new SAMLParser();
+
+        ClassLoader tcl = Thread.currentThread().getContextClassLoader();
+        InputStream is = tcl.getResourceAsStream("saml2/metadata/idp-entitydescriptor.xml");
+
+        EntityDescriptorType edt = (EntityDescriptorType) parser.parse(is);
+        FileBasedMetadataConfigurationStore fbd = new FileBasedMetadataConfigurationStore();
+        fbd.persist(edt, id);
+
+        try {
+            EntityDescriptorType loaded = fbd.load(id);
+            assertSame(loaded, fbd.load(id));
+
+            fbd.persist(edt, id);
+
+            EntityDescriptorType loadedAgain = fbd.load(id);
+            assertNotSame(loaded, loadedAgain);
+            assertEquals(loaded.getChoiceType().size(), loadedAgain.getChoiceType().size());
+        } finally {
+            fbd.delete(id);
+        }
+    }
+
     @Test
     public void testTrustedProviders() throws Exception {
         FileBasedMetadataConfigurationStore fbd = new FileBasedMetadataConfigurationStore();
@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.saml.v2.metadata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.common.exceptions.ProcessingException;
+import org.picketlink.identity.federation.core.saml.md.providers.MetadataRegistryProvider;
+import org.picketlink.identity.federation.core.saml.v2.metadata.MetadataRegistry;
+import org.picketlink.identity.federation.core.saml.v2.util.SAMLMetadataUtil;
+import org.picketlink.identity.federation.saml.v2.metadata.EntityDescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.IDPSSODescriptorType;
+import org.picketlink.identity.federation.saml.v2.metadata.KeyDescriptorType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test the {@link MetadataRegistry}
+ *
+ * @author agent
+ */
+public class MetadataRegistryUnitTestCase {
+
+    private static final String IDP = "https://idp.testshib.org/idp/shibboleth";
+
+    private static final String SP = "https://sp.testshib.org/shibboleth-sp";
+
+    private File metadataFile;
+
+    private MetadataRegistry registry;
+
+    @Before
+    public void onBefore() throws Exception {
+        this.metadataFile = File.createTempFile("metadata", ".xml");
+    }
+
+    @After
+    public void onAfter() {
+        if (this.registry != null) {
+            this.registry.stop();
+        }
+
+        this.metadataFile.delete();
+    }
+
+    @Test
+    public void testIndexes() throws Exception {
+        write("saml2/metadata/testshib-two-metadata.xml");
+
+        this.registry = new MetadataRegistry(this.metadataFile, 0);
+        this.registry.start();
+
+        EntityDescriptorType idp = this.registry.getEntity(IDP);
+        EntityDescriptorType sp = this.registry.getEntity(SP);
+
+        assertNotNull(idp);
+        assertNotNull(sp);
+        assertNull(this.registry.getEntity("https://unknown.org/shibboleth"));
+        assertEquals(2822, this.registry.getEntities().size());
+
+        assertSame(idp, this.registry.getEntityByEndpoint("https://idp.testshib.org/idp/profile/SAML2/POST/SSO"));
+        assertSame(sp, this.registry.getEntityByEndpoint("https://sp.testshib.org/Shibboleth.sso/SAML2/POST"));
+        assertSame(sp, this.registry.getEntityByEndpoint("https://sp.testshib.org/Shibboleth.sso/SLO/Redirect"));
+        assertNull(this.registry.getEntityByEndpoint("https://unknown.org/SSO"));
+
+        KeyDescriptorType keyDescriptor = idp.getChoiceType().get(0).getDescriptors().get(0).getIdpDescriptor()
+                .getKeyDescriptor().get(0);
+        X509Certificate certificate = SAMLMetadataUtil.getCertificate(keyDescriptor);
+
+        assertSame(idp, this.registry.getEntityBySigningCertificate(certificate));
+        assertSame(idp, this.registry.getEntityBySigningCertificateFingerprint(MetadataRegistry.getFingerprint(certificate)
+                .toUpperCase()));
+    }
+
+    @Test
+    public void testRefreshWhenFileModified() throws Exception {
+        write("saml2/metadata/idp-entitydescriptor.xml");
+
+        this.registry = new MetadataRegistry(this.metadataFile, 0);
+        this.registry.start();
+
+        assertNotNull(this.registry.getEntity("https://IdentityProvider.com/SAML"));
+        assertFalse(this.registry.refresh());
+
+        write("saml2/metadata/testshib-two-metadata.xml");
+
+        assertTrue(this.registry.refresh());
+        assertNull(this.registry.getEntity("https://IdentityProvider.com/SAML"));
+        assertNotNull(this.registry.getEntity(IDP));
+    }
+
+    @Test
+    public void testInvalidDocumentKeepsEntities() throws Exception {
+        write("saml2/metadata/testshib-two-metadata.xml");
+
+        this.registry = new MetadataRegistry(this.metadataFile, 0);
+        this.registry.start();
+
+        writeContent("<html><body>Service Unavailable</body></html>".getBytes("UTF-8"));
+
+        try {
+            this.registry.refresh();
+            fail("The document is not valid");
+        } catch (ProcessingException expected) {
+        }
+
+        assertNotNull(this.registry.getEntity(IDP));
+        assertEquals(2822, this.registry.getEntities().size());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        write("saml2/metadata/idp-entitydescriptor.xml");
+
+        this.registry = new MetadataRegistry(this.metadataFile, 50);
+        this.registry.start();
+
+        write("saml2/metadata/testshib-two-metadata.xml");
+
+        long timeout = System.currentTimeMillis() + 10000;
+
+        while (this.registry.getEntity(IDP) == null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+
+        assertNotNull(this.registry.getEntity(IDP));
+    }
+
+    @Test
+    public void testConditionalFetch() throws Exception {
+        final byte[] document = read("saml2/metadata/testshib-two-metadata.xml");
+        final AtomicInteger fetched = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+
+        server.createContext("/metadata", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    fetched.incrementAndGet();
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    exchange.sendResponseHeaders(200, document.length);
+                    exchange.getResponseBody().write(document);
+                }
+
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/metadata");
+
+            this.registry = new MetadataRegistry(url, 0);
+            this.registry.start();
+
+            assertNotNull(this.registry.getEntity(IDP));
+            assertFalse(this.registry.refresh());
+            assertEquals(1, fetched.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testProvider() throws Exception {
+        write("saml2/metadata/testshib-two-metadata.xml");
+
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(MetadataRegistryProvider.METADATA_LOCATION_KEY, this.metadataFile.getPath());
+
+        MetadataRegistryProvider provider = new MetadataRegistryProvider();
+        provider.init(options);
+        this.registry = provider.getRegistry();
+
+        assertTrue(provider.isMultiple());
+        assertNull(provider.requireFileInjection());
+        assertEquals(2822, provider.getMetaData().getEntityDescriptor().size());
+        assertNotNull(this.registry.getEntity(IDP));
+    }
+
+    @Test
+    public void testCopiedEntityNotShared() throws Exception {
+        write("saml2/metadata/testshib-two-metadata.xml");
+
+        this.registry = new MetadataRegistry(this.metadataFile, 0);
+        this.registry.start();
+
+        EntityDescriptorType idp = this.registry.getEntity(IDP);
+        EntityDescriptorType copy = this.registry.copyEntity(IDP);
+
+        assertNotSame(idp, copy);
+        assertEquals(IDP, copy.getEntityID());
+
+        IDPSSODescriptorType idpDescriptor = copy.getChoiceType().get(0).getDescriptors().get(0).getIdpDescriptor();
+        int keyDescriptors = idpDescriptor.getKeyDescriptor().size();
+
+        idpDescriptor.addKeyDescriptor(new KeyDescriptorType());
+
+        assertEquals(keyDescriptors, idp.getChoiceType().get(0).getDescriptors().get(0).getIdpDescriptor()
+                .getKeyDescriptor().size());
+    }
+
+    private void write(String resource) throws IOException {
+        writeContent(read(resource));
+    }
+
+    private void writeContent(byte[] content) throws IOException {
+        long lastModified = this.metadataFile.lastModified();
+        OutputStream out = new FileOutputStream(this.metadataFile);
+
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+
+        // file systems may only keep the last modification time in seconds
+        this.metadataFile.setLastModified(Math.max(System.currentTimeMillis(), lastModified + 2000));
+    }
+
+    private byte[] read(String resource) throws IOException {
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+
+        try {
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
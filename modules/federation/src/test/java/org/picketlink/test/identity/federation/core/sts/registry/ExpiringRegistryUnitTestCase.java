@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.sts.registry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringRevocationRegistry;
+import org.picketlink.identity.federation.core.sts.registry.ExpiringTokenRegistry;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionsType;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test the {@link ExpiringTokenRegistry} and {@link ExpiringRevocationRegistry}
+ *
+ * @author agent
+ */
+public class ExpiringRegistryUnitTestCase {
+
+    private File logFile;
+
+    @Before
+    public void onBefore() throws Exception {
+        this.logFile = File.createTempFile("token", ".registry");
+    }
+
+    @After
+    public void onAfter() {
+        this.logFile.delete();
+        new File(this.logFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void testTokenExpiresWithAssertion() throws Exception {
+        ExpiringTokenRegistry registry = new ExpiringTokenRegistry();
+        XMLGregorianCalendar issueInstant = XMLTimeUtil.getIssueInstant();
+
+        AssertionType assertion = new AssertionType("ID_1", issueInstant);
+        ConditionsType conditions = new ConditionsType();
+        conditions.setNotOnOrAfter(XMLTimeUtil.add(issueInstant, 1000));
+        assertion.setConditions(conditions);
+
+        AssertionType expiredAssertion = new AssertionType("ID_2", issueInstant);
+        conditions = new ConditionsType();
+        conditions.setNotOnOrAfter(XMLTimeUtil.add(issueInstant, -1000));
+        expiredAssertion.setConditions(conditions);
+
+        registry.addToken(assertion.getID(), assertion);
+        registry.addToken(expiredAssertion.getID(), expiredAssertion);
+        registry.addToken("ID_3", "token");
+
+        assertNotNull(registry.getToken(assertion.getID()));
+        assertNull(registry.getToken(expiredAssertion.getID()));
+        assertEquals("token", registry.getToken("ID_3"));
+
+        Thread.sleep(1100);
+
+        assertNull(registry.getToken(assertion.getID()));
+        assertEquals("token", registry.getToken("ID_3"));
+
+        registry.removeToken("ID_3");
+
+        assertNull(registry.getToken("ID_3"));
+    }
+
+    @Test
+    public void testTokensReadFromLog() throws Exception {
+        ExpiringTokenRegistry registry = new ExpiringTokenRegistry(this.logFile.getPath());
+
+        for (int i = 0; i < 3000; i++) {
+            registry.addToken("ID_" + i, "token" + i);
+        }
+
+        for (int i = 0; i < 3000; i += 2) {
+            registry.removeToken("ID_" + i);
+        }
+
+        registry = new ExpiringTokenRegistry(this.logFile.getPath());
+
+        for (int i = 0; i < 3000; i++) {
+            if (i % 2 == 0) {
+                assertNull(registry.getToken("ID_" + i));
+            } else {
+                assertEquals("token" + i, registry.getToken("ID_" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testExpiredTokensNotReadFromLog() throws Exception {
+        ExpiringTokenRegistry registry = new ExpiringTokenRegistry(this.logFile.getPath(), 500);
+
+        registry.addToken("ID_1", "token");
+
+        Thread.sleep(600);
+
+        registry = new ExpiringTokenRegistry(this.logFile.getPath(), 500);
+
+        assertNull(registry.getToken("ID_1"));
+    }
+
+    @Test
+    public void testRevocation() throws Exception {
+        ExpiringRevocationRegistry registry = new ExpiringRevocationRegistry(this.logFile.getPath(), 1000);
+
+        registry.revokeToken("saml2", "ID_1");
+
+        assertTrue(registry.isRevoked("saml2", "ID_1"));
+        assertFalse(registry.isRevoked("saml11", "ID_1"));
+        assertFalse(registry.isRevoked("saml2", "ID_2"));
+
+        assertTrue(new ExpiringRevocationRegistry(this.logFile.getPath(), 1000).isRevoked("saml2", "ID_1"));
+
+        Thread.sleep(1100);
+
+        assertFalse(registry.isRevoked("saml2", "ID_1"));
+    }
+
+    @Test
+    public void testRevocationKeptUntilAssertionCannotBeRenewed() throws Exception {
+        ExpiringRevocationRegistry registry = new ExpiringRevocationRegistry(null, 1000);
+        XMLGregorianCalendar issueInstant = XMLTimeUtil.getIssueInstant();
+
+        AssertionType assertion = new AssertionType("ID_1", issueInstant);
+        ConditionsType conditions = new ConditionsType();
+        conditions.setNotOnOrAfter(XMLTimeUtil.add(issueInstant, 1000));
+        assertion.setConditions(conditions);
+
+        registry.revokeToken("saml2", assertion.getID(), assertion);
+
+        assertTrue(registry.isRenewable(assertion));
+
+        Thread.sleep(1500);
+
+        // expired, but still within the renewal window
+        assertTrue(registry.isRevoked("saml2", assertion.getID()));
+        assertTrue(registry.isRenewable(assertion));
+
+        Thread.sleep(1100);
+
+        assertFalse(registry.isRevoked("saml2", assertion.getID()));
+        assertFalse(registry.isRenewable(assertion));
+    }
+
+    @Test
+    public void testRevokedAssertionWithoutExpirationIsKept() throws Exception {
+        ExpiringRevocationRegistry registry = new ExpiringRevocationRegistry(null, 500);
+        AssertionType assertion = new AssertionType("ID_1", XMLTimeUtil.getIssueInstant());
+
+        registry.revokeToken("saml2", assertion.getID(), assertion);
+
+        Thread.sleep(600);
+
+        assertTrue(registry.isRevoked("saml2", assertion.getID()));
+        assertTrue(registry.isRenewable(assertion));
+    }
+}
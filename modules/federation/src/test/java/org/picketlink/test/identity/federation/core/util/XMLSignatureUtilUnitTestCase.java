@@ -28,6 +28,7 @@ import org.picketlink.common.constants.JBossSAMLURIConstants;
 import org.picketlink.common.constants.WSTrustConstants;
 import org.picketlink.common.util.DocumentUtil;
 import org.picketlink.identity.federation.core.util.KeyStoreUtil;
+import org.picketlink.identity.federation.core.util.SignatureValidationCache;
 import org.picketlink.identity.federation.core.util.XMLSignatureUtil;
 import org.picketlink.identity.xmlsec.w3.xmldsig.DSAKeyValueType;
 import org.picketlink.identity.xmlsec.w3.xmldsig.RSAKeyValueType;
@@ -43,6 +44,8 @@ import java.security.KeyPair;
 import java.security.interfaces.DSAPublicKey;
 import java.security.interfaces.RSAPublicKey;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -186,6 +189,65 @@ public class XMLSignatureUtilUnitTestCase {
         assertTrue(XMLSignatureUtil.validate(rstrDocument, keyPair.getPublic()));
     }
 
+    @Test
+    public void testValidationCache() throws Exception {
+        SignatureValidationCache cache = new SignatureValidationCache(10, 60000);
+        KeyPair keyPair = KeyStoreUtil.generateKeyPair("RSA");
+
+        Document expiredDocument = getSignedSAML2Assertion(keyPair, null);
+        Document signedDocument = getSignedSAML2Assertion(keyPair, "2100-01-01T00:00:00.000Z");
+
+        XMLSignatureUtil.setValidationCache(cache);
+
+        try {
+            // the assertion already expired, the validation is not cached
+            assertTrue(XMLSignatureUtil.validate(expiredDocument, keyPair.getPublic()));
+            assertEquals(0, cache.size());
+
+            assertTrue(XMLSignatureUtil.validate(signedDocument, keyPair.getPublic()));
+            assertEquals(1, cache.size());
+            assertTrue(XMLSignatureUtil.validate(signedDocument, keyPair.getPublic()));
+            assertEquals(1, cache.size());
+
+            // a different key is not validated from the cache
+            assertFalse(XMLSignatureUtil.validate(signedDocument, KeyStoreUtil.generateKeyPair("RSA").getPublic()));
+
+            // changes to the document are not validated from the cache
+            Element nameID = (Element) signedDocument.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                    JBossSAMLConstants.NAMEID.get()).item(0);
+            nameID.setTextContent("admin");
+
+            assertFalse(XMLSignatureUtil.validate(signedDocument, keyPair.getPublic()));
+            assertEquals(1, cache.size());
+        } finally {
+            XMLSignatureUtil.setValidationCache(null);
+        }
+    }
+
+    private Document getSignedSAML2Assertion(KeyPair keyPair, String notOnOrAfter) throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream("signatures/saml20assertion.xml");
+        if (is == null)
+            throw new RuntimeException("InputStream is null");
+
+        Document document = DocumentUtil.getDocument(is);
+
+        if (notOnOrAfter != null) {
+            Element conditions = (Element) document.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                    JBossSAMLConstants.CONDITIONS.get()).item(0);
+            conditions.setAttribute(JBossSAMLConstants.NOT_ON_OR_AFTER.get(), notOnOrAfter);
+        }
+
+        Element assertionElement = (Element) document.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ASSERTION.get()).item(0);
+        assertionElement.setIdAttribute("ID", true);
+        Node nextSibling = assertionElement.getElementsByTagNameNS(JBossSAMLURIConstants.ASSERTION_NSURI.get(),
+                JBossSAMLConstants.ISSUER.get()).item(0).getNextSibling();
+        XMLSignatureUtil.sign(assertionElement, nextSibling, keyPair, DigestMethod.SHA1, SignatureMethod.RSA_SHA1, "#"
+                + assertionElement.getAttribute("ID"));
+
+        return document;
+    }
+
     @Test
     public void testDSAKeyValueParsing() throws Exception {
         String fileName = "signatures/dsakeyvalue.xml";
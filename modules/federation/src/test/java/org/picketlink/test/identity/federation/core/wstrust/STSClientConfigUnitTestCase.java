@@ -21,6 +21,13 @@ import junit.framework.TestCase;
 import org.picketlink.identity.federation.core.wstrust.STSClientConfig;
 import org.picketlink.identity.federation.core.wstrust.STSClientConfig.Builder;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+
 /**
  * Unit test for {@link WSTrustClientConfig}.
  *
@@ -34,6 +41,9 @@ public class STSClientConfigUnitTestCase extends TestCase {
     final String username = "admin";
     final String password = "admin";
 
+    // a configuration file that is only available from the class loader of a deployment
+    static final String DEPLOYMENT_CONFIG_FILE = "sts-client-deployment.properties";
+
     public void testBuild() {
         final Builder builder = new STSClientConfig.Builder();
         final STSClientConfig config = builder.serviceName(serviceName).portName(portName).endpointAddress(endpointAddress)
@@ -56,6 +66,76 @@ public class STSClientConfigUnitTestCase extends TestCase {
         assertEquals(overriddenPassword, config.getPassword());
     }
 
+    public void testConfigFileParsedAgainWhenModified() throws Exception {
+        final File configFile = File.createTempFile("sts-client", ".properties");
+
+        try {
+            writeConfigFile(configFile, endpointAddress);
+            assertAllProperties(new STSClientConfig.Builder(configFile.getPath()).build());
+
+            final String otherEndpointAddress = "http://localhost:8080/other-sts/PicketLinkSTS";
+            writeConfigFile(configFile, otherEndpointAddress);
+            configFile.setLastModified(configFile.lastModified() + 10000);
+
+            assertEquals(otherEndpointAddress, new STSClientConfig.Builder(configFile.getPath()).build().getEndPointAddress());
+        } finally {
+            configFile.delete();
+        }
+    }
+
+    public void testSameNamedConfigFileInOtherDeployments() throws Exception {
+        final File firstDeployment = createDeployment(endpointAddress);
+        final String otherEndpointAddress = "http://localhost:8080/other-sts/PicketLinkSTS";
+        final File otherDeployment = createDeployment(otherEndpointAddress);
+        final ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+
+        try {
+            Thread.currentThread().setContextClassLoader(createClassLoader(firstDeployment));
+            assertAllProperties(new STSClientConfig.Builder(DEPLOYMENT_CONFIG_FILE).build());
+
+            Thread.currentThread().setContextClassLoader(createClassLoader(otherDeployment));
+            assertEquals(otherEndpointAddress, new STSClientConfig.Builder(DEPLOYMENT_CONFIG_FILE).build()
+                    .getEndPointAddress());
+        } finally {
+            Thread.currentThread().setContextClassLoader(originalClassLoader);
+            delete(firstDeployment);
+            delete(otherDeployment);
+        }
+    }
+
+    private File createDeployment(final String address) throws IOException {
+        final File deployment = File.createTempFile("sts-deployment", "");
+        deployment.delete();
+        deployment.mkdir();
+        writeConfigFile(new File(deployment, DEPLOYMENT_CONFIG_FILE), address);
+        return deployment;
+    }
+
+    private ClassLoader createClassLoader(final File deployment) throws IOException {
+        return new URLClassLoader(new URL[] {deployment.toURI().toURL()}, null);
+    }
+
+    private void delete(final File deployment) {
+        new File(deployment, DEPLOYMENT_CONFIG_FILE).delete();
+        deployment.delete();
+    }
+
+    private void writeConfigFile(final File configFile, final String address) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(STSClientConfig.SERVICE_NAME, serviceName);
+        properties.setProperty(STSClientConfig.PORT_NAME, portName);
+        properties.setProperty(STSClientConfig.ENDPOINT_ADDRESS, address);
+        properties.setProperty(STSClientConfig.USERNAME, username);
+        properties.setProperty(STSClientConfig.PASSWORD, password);
+
+        final FileOutputStream out = new FileOutputStream(configFile);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
     private void assertAllProperties(final STSClientConfig config) {
         assertEquals(serviceName, config.getServiceName());
         assertEquals(portName, config.getPortName());
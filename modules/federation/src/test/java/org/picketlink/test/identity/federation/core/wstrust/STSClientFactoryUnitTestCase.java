@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.identity.federation.core.wstrust;
+
+import junit.framework.TestCase;
+import org.picketlink.identity.federation.core.wstrust.STSClient;
+import org.picketlink.identity.federation.core.wstrust.STSClientConfig;
+import org.picketlink.identity.federation.core.wstrust.STSClientConfig.Builder;
+import org.picketlink.identity.federation.core.wstrust.STSClientFactory;
+
+import javax.xml.ws.BindingProvider;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * Unit test for the pooling of {@link STSClient} instances by {@link STSClientFactory}.
+ *
+ * @author agent
+ */
+public class STSClientFactoryUnitTestCase extends TestCase {
+
+    final String serviceName = "PicketLinkSTS";
+    final String portName = "PicketLinkSTSPort";
+    final String endpointAddress = "http://localhost:8080/picketlink-sts/PicketLinkSTS";
+
+    public void testClientReusedForSameEndpoint() throws Exception {
+        STSClientFactory factory = STSClientFactory.getInstance();
+
+        STSClient client = factory.getClient(createConfig(endpointAddress, "admin", "admin"));
+        factory.releaseClient(client);
+
+        STSClient reused = factory.getClient(createConfig(endpointAddress, "john", "secret"));
+
+        try {
+            assertSame(client, reused);
+            assertEquals("john", reused.getDispatch().getRequestContext().get(BindingProvider.USERNAME_PROPERTY));
+            assertEquals("secret", reused.getDispatch().getRequestContext().get(BindingProvider.PASSWORD_PROPERTY));
+        } finally {
+            factory.releaseClient(reused);
+        }
+    }
+
+    public void testBorrowedClientNotShared() throws Exception {
+        STSClientFactory factory = STSClientFactory.getInstance();
+        STSClientConfig config = createConfig(endpointAddress, "admin", "admin");
+
+        STSClient client = factory.getClient(config);
+        STSClient other = factory.getClient(config);
+
+        assertNotSame(client, other);
+
+        factory.releaseClient(client);
+        factory.releaseClient(other);
+    }
+
+    public void testClientNotReusedForOtherEndpoint() throws Exception {
+        STSClientFactory factory = STSClientFactory.getInstance();
+
+        STSClient client = factory.getClient(createConfig(endpointAddress, "admin", "admin"));
+        factory.releaseClient(client);
+
+        STSClient other = factory.getClient(createConfig("http://localhost:8080/other-sts/PicketLinkSTS", "admin", "admin"));
+
+        assertNotSame(client, other);
+
+        factory.releaseClient(other);
+    }
+
+    public void testCreatedClientNotPooled() throws Exception {
+        STSClientFactory factory = STSClientFactory.getInstance();
+        String address = "http://localhost:8080/created-sts/PicketLinkSTS";
+
+        STSClient client = factory.create(createConfig(address, "admin", "admin"));
+        factory.releaseClient(client);
+
+        STSClient pooled = factory.getClient(createConfig(address, "admin", "admin"));
+
+        assertNotSame(client, pooled);
+
+        factory.releaseClient(pooled);
+    }
+
+    public void testClientUsedFromOtherThread() throws Exception {
+        final STSClientFactory factory = STSClientFactory.getInstance();
+        final SynchronousQueue<STSClient> clients = new SynchronousQueue<STSClient>();
+        final Object[] dispatch = new Object[1];
+
+        // the thread is started before the client is created, so it does not inherit anything from this thread
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    dispatch[0] = clients.take().getDispatch();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        };
+
+        thread.start();
+
+        STSClient client = factory.getClient(createConfig(endpointAddress, "admin", "admin"));
+
+        clients.put(client);
+        thread.join();
+
+        assertNotNull(dispatch[0]);
+        assertSame(client.getDispatch(), dispatch[0]);
+
+        factory.releaseClient(client);
+    }
+
+    private STSClientConfig createConfig(String address, String username, String password) {
+        return new Builder().serviceName(serviceName).portName(portName).endpointAddress(address).username(username)
+                .password(password).build();
+    }
+}
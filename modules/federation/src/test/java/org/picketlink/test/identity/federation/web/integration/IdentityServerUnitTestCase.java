@@ -23,6 +23,7 @@ import org.picketlink.test.identity.federation.web.mock.MockHttpSession;
 import org.picketlink.test.identity.federation.web.mock.MockServletContext;
 
 import javax.servlet.http.HttpSessionEvent;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Unit test the Identity Server
@@ -55,4 +56,83 @@ public class IdentityServerUnitTestCase extends TestCase {
         server.sessionDestroyed(event);
         assertEquals(5, server.getActiveSessionCount());
     }
-}
\ No newline at end of file
+
+    public void testParticipants() {
+        IdentityServer.STACK stack = new IdentityServer.STACK();
+        stack.createSession("session");
+
+        stack.register("session", "http://sales", true);
+        stack.register("session", "http://employee", false);
+        stack.register("session", "http://sales", false);
+
+        assertEquals(2, stack.getParticipants("session"));
+        assertEquals("http://employee", stack.peek("session"));
+        assertEquals(Boolean.TRUE, stack.getBinding("http://sales"));
+        assertEquals(Boolean.FALSE, stack.getBinding("http://employee"));
+
+        assertTrue(stack.registerTransitParticipant("session", "http://employee"));
+        assertFalse(stack.registerTransitParticipant("session", "http://employee"));
+        assertEquals(1, stack.getNumOfParticipantsInTransit("session"));
+        assertTrue(stack.deRegisterTransitParticipant("session", "http://employee"));
+        assertEquals(0, stack.getNumOfParticipantsInTransit("session"));
+
+        assertEquals("http://employee", stack.pop("session"));
+        assertEquals("http://sales", stack.pop("session"));
+        assertNull(stack.pop("session"));
+        assertNull(stack.pop("unknown"));
+
+        stack.removeSession("session");
+        assertEquals(0, stack.totalSessions());
+    }
+
+    public void testConcurrentRegistration() throws Exception {
+        final IdentityServer.STACK stack = new IdentityServer.STACK();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 100; j++) {
+                        stack.register("session", "http://sp" + thread + "-" + j, true);
+                        stack.registerTransitParticipant("session", "http://sp" + thread + "-" + j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(800, stack.getParticipants("session"));
+        assertEquals(800, stack.getNumOfParticipantsInTransit("session"));
+    }
+
+    public void testSessionDestroyedRemovesParticipants() {
+        IdentityServer server = new IdentityServer();
+
+        MockHttpSession session = new MockHttpSession();
+        session.setServletContext(new MockServletContext());
+        HttpSessionEvent event = new HttpSessionEvent(session);
+        server.sessionCreated(event);
+
+        server.stack().register(session.getId(), "http://sales", true);
+        server.stack().register(session.getId(), "http://employee", true);
+        assertEquals(2, server.stack().getParticipants(session.getId()));
+        assertEquals(1, server.stack().totalSessions());
+
+        server.sessionDestroyed(event);
+        assertEquals(0, server.stack().getParticipants(session.getId()));
+        assertEquals(0, server.stack().totalSessions());
+    }
+}
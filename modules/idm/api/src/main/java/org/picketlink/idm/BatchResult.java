@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The outcome of a bulk operation, such as {@link IdentityManager#addAll(java.util.Collection)}.</p>
+ *
+ * <p>A failure of a single item does not abort the operation. The failed items are available, together with the
+ * exception describing the failure, from {@link #getFailures()}.</p>
+ *
+ * @author agent
+ */
+public class BatchResult<T> {
+
+    private final List<T> succeeded = new ArrayList<T>();
+    private final Map<T, IdentityManagementException> failures = new IdentityHashMap<T, IdentityManagementException>();
+
+    /**
+     * <p>Marks the given item as successfully processed.</p>
+     *
+     * @param item
+     */
+    public void addSuccess(T item) {
+        this.succeeded.add(item);
+    }
+
+    /**
+     * <p>Marks the given item as failed.</p>
+     *
+     * @param item
+     * @param failure
+     */
+    public void addFailure(T item, IdentityManagementException failure) {
+        this.failures.put(item, failure);
+    }
+
+    /**
+     * <p>The items successfully processed.</p>
+     *
+     * @return
+     */
+    public List<T> getSucceeded() {
+        return Collections.unmodifiableList(this.succeeded);
+    }
+
+    /**
+     * <p>The items that could not be processed, mapped to the cause of the failure. Items are compared by
+     * reference.</p>
+     *
+     * @return
+     */
+    public Map<T, IdentityManagementException> getFailures() {
+        return Collections.unmodifiableMap(this.failures);
+    }
+
+    /**
+     * <p>Indicates if all items were successfully processed.</p>
+     *
+     * @return
+     */
+    public boolean isSuccessful() {
+        return this.failures.isEmpty();
+    }
+}
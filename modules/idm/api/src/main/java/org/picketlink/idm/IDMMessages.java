@@ -34,6 +34,7 @@ import org.picketlink.idm.credential.handler.CredentialHandler;
 import org.picketlink.idm.credential.storage.CredentialStorage;
 import org.picketlink.idm.model.Account;
 import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.permission.Permission;
 import org.picketlink.idm.spi.IdentityStore;
 
@@ -174,7 +175,13 @@ public interface IDMMessages {
     SecurityConfigurationException configMultipleConfigurationsFoundWithSameName(String name);
 
     // Permission management messages 800-899
+    @Message(value = "No PermissionStore configured for Partition [%s].")
+    IdentityManagementException permissionStoreNotConfigured(Partition partition);
+
     @Message(value = "Could not grant Permission [%s].")
     IdentityManagementException permissionGrantFailed(Permission permission, @Cause Throwable t);
 
+    @Message(value = "Could not revoke Permission [%s].")
+    IdentityManagementException permissionRevokeFailed(Permission permission, @Cause Throwable t);
+
 }
\ No newline at end of file
@@ -108,8 +108,40 @@ public interface IdentityCache {
     void putAgent(Realm realm, Agent agent);
 
     /**
+     * Removes any cached entry for the given {@link IdentityType}, within the specified Partition. Implementations
+     * must also remove entries that are stale because a key property (eg.: the login name) has changed.
      *
+     * @param partition
      * @param identity
      */
     void invalidate(Partition partition, IdentityType identity);
+
+    /**
+     * Removes all cached entries for the specified Partition.
+     *
+     * @param partition
+     */
+    void invalidate(Partition partition);
+
+    /**
+     * Returns the number of lookups that were resolved from the cache.
+     *
+     * @return
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of lookups that could not be resolved from the cache.
+     *
+     * @return
+     */
+    long getMissCount();
+
+    /**
+     * Returns the number of entries that were evicted, either because they expired or because the cache reached its
+     * maximum size.
+     *
+     * @return
+     */
+    long getEvictionCount();
 }
@@ -23,6 +23,7 @@ import org.picketlink.idm.model.Account;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.query.IdentityQuery;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -50,6 +51,21 @@ public interface IdentityManager {
      */
     void add(IdentityType identityType) throws IdentityManagementException;
 
+    /**
+     * <p>
+     * Adds the given {@link IdentityType} instances to the configured identity stores. Uniqueness is checked for all
+     * instances before writing them, and each store writes its instances in batches.
+     * </p>
+     *
+     * <p>
+     * A failure to add a single instance does not abort the operation, it is reported by the returned {@link BatchResult}.
+     * </p>
+     *
+     * @param identityTypes
+     * @return The outcome of adding each instance.
+     */
+    <T extends IdentityType> BatchResult<T> addAll(Collection<T> identityTypes);
+
     /**
      * <p>
      * Updates the given {@link IdentityType} instance. The instance must have an identifier, otherwise a exception will be
@@ -2,7 +2,9 @@ package org.picketlink.idm;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Set;
 
+import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.permission.Permission;
 
 /**
@@ -47,6 +49,41 @@ public interface PermissionManager {
      */
     List<Permission> listPermissions(Class<?> resourceClass, Serializable identifier, String operation);
 
+    /**
+     * Returns a list of the Permissions for the specified resource, with the specified operation, that are
+     * assigned to any of the specified assignees
+     *
+     * @param resource
+     * @param operation
+     * @param assignees
+     * @return
+     */
+    List<Permission> listPermissions(Object resource, String operation, Set<IdentityType> assignees);
+
+    /**
+     * Returns a list of the Permissions for the specified resource identifier, with the specified operation, that
+     * are assigned to any of the specified assignees
+     *
+     * @param resourceClass
+     * @param identifier
+     * @param operation
+     * @param assignees
+     * @return
+     */
+    List<Permission> listPermissions(Class<?> resourceClass, Serializable identifier, String operation,
+                                     Set<IdentityType> assignees);
+
+    /**
+     * Returns a list of the Permissions for all the specified resources, with the specified operation, that are
+     * assigned to any of the specified assignees.  Useful to check the permissions of many resources at once.
+     *
+     * @param resources
+     * @param operation
+     * @param assignees
+     * @return
+     */
+    List<Permission> listPermissions(Set<Object> resources, String operation, Set<IdentityType> assignees);
+
     /**
      * Grant the specified permission
      * @param permission
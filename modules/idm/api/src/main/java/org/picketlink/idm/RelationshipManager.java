@@ -21,6 +21,8 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Relationship;
 import org.picketlink.idm.query.RelationshipQuery;
 
+import java.util.Collection;
+
 /**
  * Defines relationship management operations
  *
@@ -38,6 +40,20 @@ public interface RelationshipManager {
      */
     void add(Relationship relationship) throws IdentityManagementException;
 
+    /**
+     * <p>
+     * Adds the given {@link Relationship} instances to the configured identity stores, writing them in batches.
+     * </p>
+     *
+     * <p>
+     * A failure to add a single instance does not abort the operation, it is reported by the returned {@link BatchResult}.
+     * </p>
+     *
+     * @param relationships
+     * @return The outcome of adding each instance.
+     */
+    <T extends Relationship> BatchResult<T> addAll(Collection<T> relationships);
+
     /**
      * <p>
      * Updates the given {@link Relationship} instance. The instance must have an identifier that references a
@@ -38,12 +38,16 @@ public class FileIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
     private final boolean asyncWrite;
     private final boolean alwaysCreateFiles;
     private final String workingDir;
+    private final boolean journal;
+    private final long journalCompactionInterval;
 
     FileIdentityStoreConfiguration(
             String workingDir,
             boolean preserveState,
             boolean asyncWrite,
             int asyncWriteThreadPool,
+            boolean journal,
+            long journalCompactionInterval,
             Map<Class<? extends AttributedType>, Set<IdentityOperation>> supportedTypes,
             Map<Class<? extends AttributedType>, Set<IdentityOperation>> unsupportedTypes,
             List<ContextInitializer> contextInitializers,
@@ -57,6 +61,8 @@ public class FileIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
         this.alwaysCreateFiles = !preserveState;
         this.asyncWrite = asyncWrite;
         this.asyncThreadPool = asyncWriteThreadPool;
+        this.journal = journal;
+        this.journalCompactionInterval = journalCompactionInterval;
     }
 
     public String getWorkingDir() {
@@ -75,4 +81,23 @@ public class FileIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
         return this.asyncThreadPool;
     }
 
+    /**
+     * <p>Indicates if changes should be appended to a journal instead of rewriting the whole data files on each
+     * write operation.</p>
+     *
+     * @return
+     */
+    public boolean isJournal() {
+        return this.journal;
+    }
+
+    /**
+     * <p>The interval, in milliseconds, between two compactions of the journal into the data files.</p>
+     *
+     * @return
+     */
+    public long getJournalCompactionInterval() {
+        return this.journalCompactionInterval;
+    }
+
 }
\ No newline at end of file
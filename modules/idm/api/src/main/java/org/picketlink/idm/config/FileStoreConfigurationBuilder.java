@@ -37,6 +37,8 @@ public class FileStoreConfigurationBuilder extends
     private boolean preserveState = false;
     private boolean asyncWrite = false;
     private int asyncWriteThreadPool = 5;
+    private boolean journal = false;
+    private long journalCompactionInterval = 60000;
 
     public FileStoreConfigurationBuilder(IdentityStoresConfigurationBuilder builder) {
         super(builder);
@@ -90,6 +92,34 @@ public class FileStoreConfigurationBuilder extends
         return this;
     }
 
+    /**
+     * <p>Indicates that each write operation should only append the changed entry to a journal file, instead of
+     * rewriting the whole data file. The journal is periodically compacted into the data files and replayed when the
+     * store is initialized.</p>
+     *
+     * <p>Defaults to false.</p>
+     *
+     * @param journal
+     * @return
+     */
+    public FileStoreConfigurationBuilder journal(boolean journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * <p>If journal is enabled, defines the interval in milliseconds between compactions.</p>
+     *
+     * <p>Defaults to 60 seconds.</p>
+     *
+     * @param interval
+     * @return
+     */
+    public FileStoreConfigurationBuilder journalCompactionInterval(long interval) {
+        this.journalCompactionInterval = interval;
+        return this;
+    }
+
     @Override
     protected FileIdentityStoreConfiguration create() {
         return new FileIdentityStoreConfiguration(
@@ -97,6 +127,8 @@ public class FileStoreConfigurationBuilder extends
                 this.preserveState,
                 this.asyncWrite,
                 this.asyncWriteThreadPool,
+                this.journal,
+                this.journalCompactionInterval,
                 getSupportedTypes(),
                 getUnsupportedTypes(),
                 getContextInitializers(),
@@ -113,6 +145,10 @@ public class FileStoreConfigurationBuilder extends
         if (this.asyncWriteThreadPool <= 0) {
             throw new SecurityConfigurationException("The thread pool size must be greater than zero.");
         }
+
+        if (this.journalCompactionInterval <= 0) {
+            throw new SecurityConfigurationException("The journal compaction interval must be greater than zero.");
+        }
     }
 
     @Override
@@ -122,6 +158,8 @@ public class FileStoreConfigurationBuilder extends
         this.preserveState = !configuration.isAlwaysCreateFiles();
         this.asyncWrite = configuration.isAsyncWrite();
         this.asyncWriteThreadPool = configuration.getAsyncThreadPool();
+        this.journal = configuration.isJournal();
+        this.journalCompactionInterval = configuration.getJournalCompactionInterval();
 
         return this;
     }
@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.config;
+
+/**
+ * <p>Configures one of the connection pools used by the LDAP store.</p>
+ *
+ * @author agent
+ */
+public class LDAPConnectionPoolConfiguration {
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final long maxWait;
+    private final boolean validateOnBorrow;
+
+    LDAPConnectionPoolConfiguration(int minSize, int maxSize, long idleTimeout, long maxWait, boolean validateOnBorrow) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.maxWait = maxWait;
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /**
+     * <p>The number of connections kept open, even if idle.</p>
+     *
+     * @return
+     */
+    public int getMinSize() {
+        return this.minSize;
+    }
+
+    /**
+     * <p>The maximum number of connections in use at the same time.</p>
+     *
+     * @return
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * <p>The time, in milliseconds, after which an idle connection is closed.</p>
+     *
+     * @return
+     */
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * <p>The time, in milliseconds, to wait for a connection when all of them are in use.</p>
+     *
+     * @return
+     */
+    public long getMaxWait() {
+        return this.maxWait;
+    }
+
+    /**
+     * <p>Indicates if idle connections must be checked before they are used.</p>
+     *
+     * @return
+     */
+    public boolean isValidateOnBorrow() {
+        return this.validateOnBorrow;
+    }
+}
@@ -46,6 +46,10 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
     private final String bindCredential;
     private final boolean activeDirectory;
     private final Properties connectionProperties;
+    private final LDAPConnectionPoolConfiguration readConnectionPool;
+    private final LDAPConnectionPoolConfiguration writeConnectionPool;
+    private final LDAPConnectionPoolConfiguration bindConnectionPool;
+    private final int searchPageSize;
 
     private String baseDN;
     private final Map<Class<? extends AttributedType>, LDAPMappingConfiguration> mappingConfig;
@@ -56,6 +60,10 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
             String bindCredential,
             String baseDN,
             final boolean activeDirectory,
+            LDAPConnectionPoolConfiguration readConnectionPool,
+            LDAPConnectionPoolConfiguration writeConnectionPool,
+            LDAPConnectionPoolConfiguration bindConnectionPool,
+            int searchPageSize,
             Map<Class<? extends AttributedType>, LDAPMappingConfiguration> mappingConfig, Map<Class<? extends AttributedType>, Set<IdentityOperation>> supportedTypes,
             Map<Class<? extends AttributedType>, Set<IdentityOperation>> unsupportedTypes,
             List<ContextInitializer> contextInitializers,
@@ -69,10 +77,19 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
         this.bindDN = bindDN;
         this.bindCredential = bindCredential;
         this.activeDirectory = activeDirectory;
+        this.readConnectionPool = readConnectionPool;
+        this.writeConnectionPool = writeConnectionPool;
+        this.bindConnectionPool = bindConnectionPool;
+        this.searchPageSize = searchPageSize;
         this.baseDN = baseDN;
         this.mappingConfig = mappingConfig;
     }
 
+    /**
+     * <p>Returns the URL of the LDAP server. Multiple URLs, separated by spaces, can be provided for fail-over.</p>
+     *
+     * @return
+     */
     public String getLdapURL() {
         return this.ldapURL;
     }
@@ -109,6 +126,42 @@ public class LDAPIdentityStoreConfiguration extends AbstractIdentityStoreConfigu
         return this.connectionProperties;
     }
 
+    /**
+     * <p>Returns the configuration of the pool of connections used to search and read entries.</p>
+     *
+     * @return
+     */
+    public LDAPConnectionPoolConfiguration getReadConnectionPool() {
+        return this.readConnectionPool;
+    }
+
+    /**
+     * <p>Returns the configuration of the pool of connections used to create, modify and remove entries.</p>
+     *
+     * @return
+     */
+    public LDAPConnectionPoolConfiguration getWriteConnectionPool() {
+        return this.writeConnectionPool;
+    }
+
+    /**
+     * <p>Returns the configuration of the pool of connections used to authenticate users.</p>
+     *
+     * @return
+     */
+    public LDAPConnectionPoolConfiguration getBindConnectionPool() {
+        return this.bindConnectionPool;
+    }
+
+    /**
+     * <p>Returns the max number of entries returned by the server for each page of a search.</p>
+     *
+     * @return
+     */
+    public int getSearchPageSize() {
+        return this.searchPageSize;
+    }
+
     public Map<Class<? extends AttributedType>, LDAPMappingConfiguration> getMappingConfig() {
         return this.mappingConfig;
     }
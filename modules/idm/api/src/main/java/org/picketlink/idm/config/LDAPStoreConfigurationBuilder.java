@@ -50,6 +50,16 @@ public class LDAPStoreConfigurationBuilder extends
     private String bindCredential;
     private boolean activeDirectory;
     private Properties connectionProperties;
+    private int readPoolMinSize = 1;
+    private int readPoolMaxSize = 10;
+    private int writePoolMinSize = 1;
+    private int writePoolMaxSize = 5;
+    private int bindPoolMinSize = 0;
+    private int bindPoolMaxSize = 10;
+    private long connectionIdleTimeout = 300000;
+    private long connectionMaxWait = 30000;
+    private boolean validateConnectionOnBorrow = true;
+    private int searchPageSize = 500;
     private Set<LDAPMappingConfigurationBuilder> mappingBuilders = new HashSet<LDAPMappingConfigurationBuilder>();
 
     public LDAPStoreConfigurationBuilder(IdentityStoresConfigurationBuilder builder) {
@@ -131,6 +141,91 @@ public class LDAPStoreConfigurationBuilder extends
         return ldapMappingConfigurationBuilder;
     }
 
+    /**
+     * <p>Configures the size of the pool of connections used to search and read entries.</p>
+     *
+     * @param minSize
+     * @param maxSize
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder readConnectionPool(int minSize, int maxSize) {
+        this.readPoolMinSize = minSize;
+        this.readPoolMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * <p>Configures the size of the pool of connections used to create, modify and remove entries.</p>
+     *
+     * @param minSize
+     * @param maxSize
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder writeConnectionPool(int minSize, int maxSize) {
+        this.writePoolMinSize = minSize;
+        this.writePoolMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * <p>Configures the size of the pool of connections used to authenticate users. Each authentication uses its own
+     * connection.</p>
+     *
+     * @param minSize
+     * @param maxSize
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder bindConnectionPool(int minSize, int maxSize) {
+        this.bindPoolMinSize = minSize;
+        this.bindPoolMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * <p>Sets the time, in milliseconds, after which idle pooled connections are closed.</p>
+     *
+     * @param connectionIdleTimeout
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder connectionIdleTimeout(long connectionIdleTimeout) {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+        return this;
+    }
+
+    /**
+     * <p>Sets the time, in milliseconds, to wait for a pooled connection when all of them are in use.</p>
+     *
+     * @param connectionMaxWait
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder connectionMaxWait(long connectionMaxWait) {
+        this.connectionMaxWait = connectionMaxWait;
+        return this;
+    }
+
+    /**
+     * <p>Indicates if idle pooled connections must be checked before they are used.</p>
+     *
+     * @param validateConnectionOnBorrow
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder validateConnectionOnBorrow(boolean validateConnectionOnBorrow) {
+        this.validateConnectionOnBorrow = validateConnectionOnBorrow;
+        return this;
+    }
+
+    /**
+     * <p>Sets the max number of entries returned by the server for each page of a search. Searches are performed using
+     * the Simple Paged Results control, if supported by the server.</p>
+     *
+     * @param searchPageSize
+     * @return
+     */
+    public LDAPStoreConfigurationBuilder searchPageSize(int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+        return this;
+    }
+
     /**
      * <p>Set additional connection properties.</p>
      *
@@ -159,6 +254,10 @@ public class LDAPStoreConfigurationBuilder extends
                 this.bindCredential,
                 this.baseDN,
                 this.activeDirectory,
+                createConnectionPool(this.readPoolMinSize, this.readPoolMaxSize),
+                createConnectionPool(this.writePoolMinSize, this.writePoolMaxSize),
+                createConnectionPool(this.bindPoolMinSize, this.bindPoolMaxSize),
+                this.searchPageSize,
                 mappingConfig,
                 getSupportedTypes(),
                 getUnsupportedTypes(),
@@ -168,6 +267,11 @@ public class LDAPStoreConfigurationBuilder extends
                 isSupportCredentials());
     }
 
+    private LDAPConnectionPoolConfiguration createConnectionPool(int minSize, int maxSize) {
+        return new LDAPConnectionPoolConfiguration(minSize, maxSize, this.connectionIdleTimeout, this.connectionMaxWait,
+                this.validateConnectionOnBorrow);
+    }
+
     @Override
     protected void validate() {
         super.validate();
@@ -184,6 +288,18 @@ public class LDAPStoreConfigurationBuilder extends
             throw new SecurityConfigurationException("You must provide the credentials for the Bind DN.");
         }
 
+        validateConnectionPool("read", this.readPoolMinSize, this.readPoolMaxSize);
+        validateConnectionPool("write", this.writePoolMinSize, this.writePoolMaxSize);
+        validateConnectionPool("bind", this.bindPoolMinSize, this.bindPoolMaxSize);
+
+        if (this.connectionIdleTimeout <= 0) {
+            throw new SecurityConfigurationException("The connection idle timeout must be greater than zero.");
+        }
+
+        if (this.searchPageSize <= 0) {
+            throw new SecurityConfigurationException("The search page size must be greater than zero.");
+        }
+
         if (this.mappingBuilders.isEmpty()) {
             throw new SecurityConfigurationException("No mappings provided.");
         }
@@ -195,6 +311,13 @@ public class LDAPStoreConfigurationBuilder extends
         unsupportType(Partition.class);
     }
 
+    private void validateConnectionPool(String name, int minSize, int maxSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new SecurityConfigurationException("Invalid size for the " + name + " connection pool. Min [" + minSize
+                    + "], max [" + maxSize + "].");
+        }
+    }
+
     @Override
     protected LDAPStoreConfigurationBuilder readFrom(LDAPIdentityStoreConfiguration configuration) {
         super.readFrom(configuration);
@@ -205,6 +328,16 @@ public class LDAPStoreConfigurationBuilder extends
         this.url = configuration.getLdapURL();
         this.activeDirectory = configuration.isActiveDirectory();
         this.connectionProperties = configuration.getConnectionProperties();
+        this.readPoolMinSize = configuration.getReadConnectionPool().getMinSize();
+        this.readPoolMaxSize = configuration.getReadConnectionPool().getMaxSize();
+        this.writePoolMinSize = configuration.getWriteConnectionPool().getMinSize();
+        this.writePoolMaxSize = configuration.getWriteConnectionPool().getMaxSize();
+        this.bindPoolMinSize = configuration.getBindConnectionPool().getMinSize();
+        this.bindPoolMaxSize = configuration.getBindConnectionPool().getMaxSize();
+        this.connectionIdleTimeout = configuration.getReadConnectionPool().getIdleTimeout();
+        this.connectionMaxWait = configuration.getReadConnectionPool().getMaxWait();
+        this.validateConnectionOnBorrow = configuration.getReadConnectionPool().isValidateOnBorrow();
+        this.searchPageSize = configuration.getSearchPageSize();
 
         for (Class<? extends AttributedType> attributedType: configuration.getMappingConfig().keySet()) {
             LDAPMappingConfiguration mappingConfiguration = configuration.getMappingConfig().get(attributedType);
@@ -19,6 +19,7 @@ package org.picketlink.idm.credential.handler;
 
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.config.SecurityConfigurationException;
 import org.picketlink.idm.credential.AbstractBaseCredentials;
 import org.picketlink.idm.credential.Credentials.Status;
 import org.picketlink.idm.credential.storage.CredentialStorage;
@@ -31,8 +32,10 @@ import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.IdentityStore;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.picketlink.idm.IDMLog.CREDENTIAL_LOGGER;
 import static org.picketlink.idm.IDMMessages.MESSAGES;
@@ -51,9 +54,12 @@ public abstract class AbstractCredentialHandler<S extends IdentityStore<?>, V ex
 
     private List<Class<? extends Account>> defaultAccountTypes;
 
+    private VerifiedCredentialCache verifiedCredentialCache;
+
     @Override
     public void setup(S store) {
         configureDefaultSupportedAccountTypes(store);
+        configureVerifiedCredentialCache(store);
     }
 
     /**
@@ -111,7 +117,32 @@ public abstract class AbstractCredentialHandler<S extends IdentityStore<?>, V ex
             CREDENTIAL_LOGGER.debugf("Starting validation for credentials [%s][%s] using identity store [%s] and credential handler [%s].", credentials.getClass(), credentials, store, this);
         }
 
+        ByteBuffer cacheKey = getVerifiedCredentialCacheKey(context, credentials);
+
+        if (cacheKey != null) {
+            VerifiedCredentialCache.Entry cached = this.verifiedCredentialCache.lookup(cacheKey);
+
+            if (cached != null) {
+                // only the identifier is cached, each validation gets its own instance of the account
+                Account cachedAccount = getIdentityManager(context).lookupIdentityById(cached.accountType, cached.accountId);
+
+                if (cachedAccount != null && cachedAccount.isEnabled()) {
+                    if (isDebugEnabled()) {
+                        CREDENTIAL_LOGGER.debugf("Credentials [%s][%s] for account [%s] found in the verified credential cache.", credentials.getClass(), credentials, cachedAccount);
+                    }
+
+                    credentials.setStatus(Status.VALID);
+                    credentials.setValidatedAccount(cachedAccount);
+
+                    return;
+                }
+
+                this.verifiedCredentialCache.remove(cacheKey);
+            }
+        }
+
         Account account = getAccount(context, credentials);
+        CredentialStorage credentialStorage = null;
 
         if (account != null) {
             if (isDebugEnabled()) {
@@ -123,7 +154,7 @@ public abstract class AbstractCredentialHandler<S extends IdentityStore<?>, V ex
                     CREDENTIAL_LOGGER.debugf("Account [%s] is ENABLED.", account, credentials);
                 }
 
-                CredentialStorage credentialStorage = getCredentialStorage(context, account, credentials, store);
+                credentialStorage = getCredentialStorage(context, account, credentials, store);
 
                 if (isDebugEnabled()) {
                     CREDENTIAL_LOGGER.debugf("Current credential storage for account [%s] is [%s].", account, credentialStorage);
@@ -152,6 +183,10 @@ public abstract class AbstractCredentialHandler<S extends IdentityStore<?>, V ex
 
         if (Status.VALID.equals(credentials.getStatus())) {
             credentials.setValidatedAccount(account);
+
+            if (cacheKey != null) {
+                this.verifiedCredentialCache.put(cacheKey, account, credentialStorage);
+            }
         } else if (Status.IN_PROGRESS.equals(credentials.getStatus())) {
             credentials.setStatus(Status.INVALID);
         }
@@ -162,6 +197,30 @@ public abstract class AbstractCredentialHandler<S extends IdentityStore<?>, V ex
         }
     }
 
+    /**
+     * <p>Discards the cached validations of the given {@link Account}. Called when the account or its credentials
+     * change.</p>
+     *
+     * @param account
+     */
+    public void invalidateVerifiedCredentials(Account account) {
+        if (this.verifiedCredentialCache != null) {
+            this.verifiedCredentialCache.invalidate(account);
+        }
+    }
+
+    /**
+     * <p>Handlers supporting the {@link #VERIFIED_CREDENTIAL_CACHE_TIMEOUT} option must override this method to
+     * return the values that identify the given credentials, which must include any secret. Returns null by default,
+     * meaning the credentials are always validated against the store.</p>
+     *
+     * @param credentials
+     * @return
+     */
+    protected String[] getVerifiedCredentialValues(final V credentials) {
+        return null;
+    }
+
     protected abstract boolean validateCredential(final CredentialStorage credentialStorage, final V credentials);
 
     protected abstract Account getAccount(final IdentityContext context, final V credentials);
@@ -212,6 +271,37 @@ public abstract class AbstractCredentialHandler<S extends IdentityStore<?>, V ex
         }
     }
 
+    private void configureVerifiedCredentialCache(final S store) {
+        Map<String, Object> options = store.getConfig().getCredentialHandlerProperties();
+        Object timeout = options.get(VERIFIED_CREDENTIAL_CACHE_TIMEOUT);
+
+        if (timeout != null) {
+            Object maxSize = options.get(VERIFIED_CREDENTIAL_CACHE_MAX_SIZE);
+
+            try {
+                this.verifiedCredentialCache = new VerifiedCredentialCache(Long.valueOf(timeout.toString()),
+                        maxSize != null ? Integer.valueOf(maxSize.toString()) : 1000);
+            } catch (NumberFormatException e) {
+                throw new SecurityConfigurationException("Invalid verified credential cache configuration: timeout ["
+                        + timeout + "], max size [" + maxSize + "].", e);
+            }
+        }
+    }
+
+    private ByteBuffer getVerifiedCredentialCacheKey(final IdentityContext context, final V credentials) {
+        if (this.verifiedCredentialCache == null) {
+            return null;
+        }
+
+        String[] values = getVerifiedCredentialValues(credentials);
+
+        if (values == null) {
+            return null;
+        }
+
+        return this.verifiedCredentialCache.createKey(context.getPartition(), values);
+    }
+
     private List<Class<? extends Account>> getDefaultAccountTypes() {
         if (this.defaultAccountTypes.isEmpty()) {
             throw new IdentityManagementException("No default Account types defined.");
@@ -44,6 +44,19 @@ public interface CredentialHandler<S extends IdentityStore<?>,V extends Credenti
      */
     String SUPPORTED_ACCOUNT_TYPES_PROPERTY = "SUPPORTED_ACCOUNT_TYPES";
 
+    /**
+     * <p>Time, in milliseconds, a successful validation is cached for. While cached, validating the same credentials
+     * does not query the store nor verify the credential again. Caching is disabled by default, and only some handlers
+     * support it.</p>
+     */
+    String VERIFIED_CREDENTIAL_CACHE_TIMEOUT = "VERIFIED_CREDENTIAL_CACHE_TIMEOUT";
+
+    /**
+     * <p>The maximum number of successful validations cached when {@link #VERIFIED_CREDENTIAL_CACHE_TIMEOUT} is set.
+     * Defaults to 1000.</p>
+     */
+    String VERIFIED_CREDENTIAL_CACHE_MAX_SIZE = "VERIFIED_CREDENTIAL_CACHE_MAX_SIZE";
+
     /**
      *
      * @param credentials
@@ -153,6 +153,17 @@ public class PasswordCredentialHandler<S extends CredentialStore<?>, V extends U
         return store.retrieveCurrentCredential(context, account, EncodedPasswordStorage.class);
     }
 
+    @Override
+    protected String[] getVerifiedCredentialValues(final V credentials) {
+        // subclasses, like TOTP credentials, carry values that are not part of the password
+        if (!UsernamePasswordCredentials.class.equals(credentials.getClass()) || credentials.getPassword() == null
+                || credentials.getPassword().getValue() == null) {
+            return null;
+        }
+
+        return new String[] {credentials.getUsername(), new String(credentials.getPassword().getValue())};
+    }
+
     @Override
     protected boolean validateCredential(final CredentialStorage storage, final V credentials) {
         EncodedPasswordStorage hash = (EncodedPasswordStorage) storage;
@@ -189,6 +200,8 @@ public class PasswordCredentialHandler<S extends CredentialStore<?>, V extends U
         hash.setExpiryDate(expiryDate);
 
         store.storeCredential(context, account, hash);
+
+        invalidateVerifiedCredentials(account);
     }
 
     protected SecureRandomProvider getSecureRandomProvider() {
@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.credential.handler;
+
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.credential.storage.CredentialStorage;
+import org.picketlink.idm.credential.util.CredentialUtils;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.Partition;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Caches successful credential validations for a short time.</p>
+ *
+ * <p>Entries are keyed by a HMAC of the partition and the credential values, computed with a random key generated for
+ * each cache, so secrets are never kept in memory. Entries only keep the type and the identifier of the validated
+ * account, never the instance, so callers always look up their own copy of the account. An entry is discarded when it
+ * times out, when the credential it was validated against expires or when the account it belongs to is updated or
+ * removed.</p>
+ *
+ * @author agent
+ */
+class VerifiedCredentialCache {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long timeout;
+    private final SecretKeySpec key;
+    private final Map<ByteBuffer, Entry> entries;
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+
+                mac.init(key);
+
+                return mac;
+            } catch (Exception e) {
+                throw new IdentityManagementException("Could not initialize " + HMAC_ALGORITHM + ".", e);
+            }
+        }
+    };
+
+    VerifiedCredentialCache(long timeout, final int maxSize) {
+        byte[] secret = new byte[32];
+
+        new SecureRandom().nextBytes(secret);
+
+        this.timeout = timeout;
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * <p>Computes the key of the given credential values within the given partition.</p>
+     *
+     * @param partition
+     * @param values
+     * @return
+     */
+    ByteBuffer createKey(Partition partition, String... values) {
+        Mac mac = this.macs.get();
+
+        update(mac, partition.getId());
+
+        for (String value : values) {
+            update(mac, value);
+        }
+
+        return ByteBuffer.wrap(mac.doFinal());
+    }
+
+    /**
+     * <p>Returns the validation cached for the credentials of the given key, or null if there is no valid entry.</p>
+     *
+     * @param key
+     * @return
+     */
+    Entry lookup(ByteBuffer key) {
+        synchronized (this.entries) {
+            Entry entry = this.entries.get(key);
+
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.isExpired()) {
+                this.entries.remove(key);
+                return null;
+            }
+
+            return entry;
+        }
+    }
+
+    /**
+     * <p>Discards the validation cached for the credentials of the given key.</p>
+     *
+     * @param key
+     */
+    void remove(ByteBuffer key) {
+        synchronized (this.entries) {
+            this.entries.remove(key);
+        }
+    }
+
+    /**
+     * <p>Caches a successful validation.</p>
+     *
+     * @param key
+     * @param account
+     * @param credentialStorage the credential the account was validated against, if any
+     */
+    void put(ByteBuffer key, Account account, CredentialStorage credentialStorage) {
+        Entry entry = new Entry(account, credentialStorage, System.currentTimeMillis() + this.timeout);
+
+        synchronized (this.entries) {
+            this.entries.put(key, entry);
+        }
+    }
+
+    /**
+     * <p>Discards all validations of the given account.</p>
+     *
+     * @param account
+     */
+    void invalidate(Account account) {
+        synchronized (this.entries) {
+            Iterator<Entry> iterator = this.entries.values().iterator();
+
+            while (iterator.hasNext()) {
+                String accountId = iterator.next().accountId;
+
+                if (accountId != null && accountId.equals(account.getId())) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void update(Mac mac, String value) {
+        byte[] bytes = value != null ? value.getBytes(UTF_8) : new byte[0];
+
+        // the length is included so that different values never produce the same input
+        mac.update(ByteBuffer.allocate(4).putInt(value != null ? bytes.length : -1).array());
+        mac.update(bytes);
+    }
+
+    static class Entry {
+
+        final Class<? extends Account> accountType;
+        final String accountId;
+        final CredentialStorage credentialStorage;
+        final long expiration;
+
+        Entry(Account account, CredentialStorage credentialStorage, long expiration) {
+            this.accountType = account.getClass();
+            this.accountId = account.getId();
+            this.credentialStorage = credentialStorage;
+            this.expiration = expiration;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= this.expiration
+                    || CredentialUtils.isCredentialExpired(this.credentialStorage);
+        }
+    }
+}
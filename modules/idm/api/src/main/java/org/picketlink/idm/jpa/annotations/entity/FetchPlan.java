@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.jpa.annotations.entity;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Defines how the state related with an entity bean is loaded when the entity is returned by a query. If this
+ * annotation is not present, the default values are used.
+ *
+ * @author agent
+ */
+@Documented
+@Target(TYPE)
+@Retention(RUNTIME)
+public @interface FetchPlan {
+
+    /**
+     * Indicates if the entities referenced by the annotated entity, such as its partition, must be loaded with the
+     * query results using a fetch join.
+     */
+    boolean joinReferences() default true;
+
+    /**
+     * The maximum number of results for which the entities referencing the annotated entity, such as entities holding
+     * additional state for a type, are loaded with a single query. A value of 1 loads them individually for each
+     * result.
+     */
+    int batchSize() default 100;
+}
@@ -22,6 +22,7 @@ import java.io.Serializable;
 import java.util.List;
 
 import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.permission.spi.CacheablePermissionVoter;
 import org.picketlink.idm.permission.spi.PermissionVoter;
 import org.picketlink.idm.permission.spi.PermissionVoter.VotingResult;
 
@@ -69,4 +70,20 @@ public class PermissionResolver {
 
         return permit;
     }
+
+    /**
+     * Indicates whether the results of this resolver may be cached, which is only the case when every voter
+     * is a {@link CacheablePermissionVoter}.
+     *
+     * @return
+     */
+    public boolean isCacheable() {
+        for (PermissionVoter voter : voters) {
+            if (!CacheablePermissionVoter.class.isInstance(voter)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
 }
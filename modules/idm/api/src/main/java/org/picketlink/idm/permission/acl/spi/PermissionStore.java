@@ -1,8 +1,10 @@
 package org.picketlink.idm.permission.acl.spi;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.Set;
 
+import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.permission.Permission;
 
 /**
@@ -18,6 +20,40 @@ public interface PermissionStore {
 
     List<Permission> listPermissions(Set<Object> resources, String permission);
 
+    /**
+     * Returns the permissions for the specified resource and operation that are assigned to any of the specified
+     * assignees. Implementations should look them up by resource, operation and assignee instead of loading all
+     * permissions of the resource.
+     *
+     * @param resource
+     * @param operation
+     * @param assignees
+     * @return
+     */
+    List<Permission> listPermissions(Object resource, String operation, Set<IdentityType> assignees);
+
+    /**
+     * As above, for the resource with the specified class and identifier.
+     *
+     * @param resourceClass
+     * @param identifier
+     * @param operation
+     * @param assignees
+     * @return
+     */
+    List<Permission> listPermissions(Class<?> resourceClass, Serializable identifier, String operation,
+                                     Set<IdentityType> assignees);
+
+    /**
+     * As above, for all the specified resources at once.
+     *
+     * @param resources
+     * @param operation
+     * @param assignees
+     * @return
+     */
+    List<Permission> listPermissions(Set<Object> resources, String operation, Set<IdentityType> assignees);
+
     boolean grantPermission(Permission permission);
 
     boolean grantPermissions(List<Permission> permissions);
@@ -0,0 +1,31 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.idm.permission.spi;
+
+/**
+ * A PermissionVoter whose results only depend on the relationships, identity types and permissions managed by
+ * PicketLink IDM. The results of such voters may be cached until one of them changes, which is signalled by the
+ * events raised by the identity, relationship and permission managers. Voters that depend on anything else, such
+ * as rules or the state of the resource itself, must not implement this interface.
+ *
+ * @author agent
+ */
+public interface CacheablePermissionVoter extends PermissionVoter {
+
+}
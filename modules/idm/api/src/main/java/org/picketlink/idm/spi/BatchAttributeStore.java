@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.spi;
+
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.model.AttributedType;
+
+import java.util.List;
+
+/**
+ * <p>A special type of {@link AttributeStore} that is capable of handling the attributes of many {@link AttributedType}
+ * instances at once.</p>
+ *
+ * <p>Implementing this interface is optional. Stores that only implement {@link AttributeStore} have the attributes of
+ * each instance loaded with {@link AttributeStore#loadAttributes(IdentityContext, AttributedType)} and stored with
+ * {@link AttributeStore#setAttribute(IdentityContext, AttributedType, org.picketlink.idm.model.Attribute)}.</p>
+ *
+ * @author agent
+ */
+public interface BatchAttributeStore<T extends IdentityStoreConfiguration> extends AttributeStore<T> {
+
+    /**
+     * Loads all attributes for the given {@link AttributedType} instances, usually the results of a query. Stores
+     * should load them using as few round trips as possible.
+     *
+     * @param context
+     * @param attributedTypes
+     */
+    void loadAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes);
+
+    /**
+     * Stores all attributes of the given {@link AttributedType} instances, which were just added and have no stored
+     * attributes yet. Stores should write them using as few round trips as possible.
+     *
+     * @param context
+     * @param attributedTypes
+     */
+    void addAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes);
+}
@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.spi;
+
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>A special type of IdentityStore that is capable of adding many {@link AttributedType} instances at once, such as
+ * when provisioning identities or relationships in bulk.</p>
+ *
+ * @author agent
+ */
+public interface BatchIdentityStore<T extends IdentityStoreConfiguration> extends IdentityStore<T> {
+
+    /**
+     * <p>Adds the given instances, writing them using as few round trips as possible. Each instance is handled as if
+     * it was added with {@link IdentityStore#add(IdentityContext, AttributedType)}.</p>
+     *
+     * <p>If this method fails, some of the instances may already have been written. Callers must check which instances
+     * were stored before retrying.</p>
+     *
+     * @param context
+     * @param attributedTypes
+     */
+    void addAll(IdentityContext context, List<? extends AttributedType> attributedTypes);
+
+    /**
+     * <p>Indicates if the instances of a failed {@link #addAll(IdentityContext, java.util.List)} can be added again one
+     * by one using the given context. Stores writing to a transaction that was marked for rollback by the failure, such
+     * as a JTA transaction, must return false.</p>
+     *
+     * @param context
+     * @return
+     */
+    boolean supportsRetry(IdentityContext context);
+
+    /**
+     * <p>Returns which of the given values of a unique property are already used by a stored instance of the given
+     * type in the partition of the context. Used to check the uniqueness of many instances at once.</p>
+     *
+     * @param context
+     * @param identityType
+     * @param propertyName
+     * @param values
+     * @return the values already in use, or null if the store can not check them at once. In this case, each instance
+     * is checked with an identity query.
+     */
+    Set<Object> getStoredValues(IdentityContext context, Class<? extends IdentityType> identityType,
+                                String propertyName, Collection<?> values);
+}
@@ -19,9 +19,10 @@
 package org.picketlink.idm.drools;
 
 import java.io.Serializable;
+import java.util.Collection;
 
 import org.kie.api.KieBase;
-import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.StatelessKieSession;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.permission.spi.PermissionVoter;
 
@@ -30,41 +31,72 @@ import org.picketlink.idm.permission.spi.PermissionVoter;
  * PermissionCheck object is created and inserted into the Drools session object, upon which all
  * rules are then fired.
  *
+ * A single stateless session is shared by all checks. It is safe for concurrent use and does not keep any
+ * working memory between executions, so there is nothing to dispose. The session is created once when the voter is
+ * created instead of once per check.
+ *
+ * Checks for a resource class and identifier are not applicable unless they are enabled when the voter is created,
+ * because the resource of those checks is null and rules written for resource instances may not expect it.
+ *
  * @author Shane Bryzak
  *
  */
 public class DroolsPermissionVoter implements PermissionVoter {
 
-    private KieBase securityRules;
+    private final StatelessKieSession session;
+
+    private final boolean identifierChecksEnabled;
 
     public DroolsPermissionVoter(KieBase securityRules) {
-        this.securityRules = securityRules;
+        this(securityRules, false);
+    }
+
+    /**
+     * @param securityRules
+     * @param identifierChecksEnabled whether checks for a resource class and identifier are evaluated by the rules
+     */
+    public DroolsPermissionVoter(KieBase securityRules, boolean identifierChecksEnabled) {
+        this.session = securityRules.newStatelessKieSession();
+        this.identifierChecksEnabled = identifierChecksEnabled;
     }
 
     @Override
     public VotingResult hasPermission(IdentityType recipient, Object resource, String operation) {
-        VotingResult result = VotingResult.NOT_APPLICABLE;
-
-        KieSession session = securityRules.newKieSession();
-
-        PermissionCheck check = new PermissionCheck(recipient, resource, operation);
-
-        session.insert(check);
-        session.fireAllRules();
+        return vote(new PermissionCheck(recipient, resource, operation));
+    }
 
-        if (check.isGranted()) {
-            result = VotingResult.ALLOW;
+    /**
+     * The check only provides the resource class and identifier to the rules, and the resource itself is null. It
+     * is not applicable unless identifier checks were enabled when the voter was created.
+     */
+    @Override
+    public VotingResult hasPermission(IdentityType recipient, Class<?> resourceClass, Serializable identifier, String operation) {
+        if (!this.identifierChecksEnabled) {
+            return VotingResult.NOT_APPLICABLE;
         }
 
-        return result;
+        return vote(new PermissionCheck(recipient, resourceClass, identifier, operation));
     }
 
     /**
-     * Rule-based permission checks only work with the actual resource instance, not with the identifier.
+     * Evaluates all the specified checks in a single execution of the rules. The outcome of each check is available
+     * from {@link PermissionCheck#isGranted()}.
+     *
+     * @param checks
      */
-    @Override
-    public VotingResult hasPermission(IdentityType recipient, Class<?> resourceClass, Serializable identifier, String operation) {
-        return VotingResult.NOT_APPLICABLE;
+    public void checkPermissions(Collection<PermissionCheck> checks) {
+        if (!checks.isEmpty()) {
+            session.execute(checks);
+        }
     }
 
-}
\ No newline at end of file
+    private VotingResult vote(PermissionCheck check) {
+        session.execute(check);
+
+        if (check.isGranted()) {
+            return VotingResult.ALLOW;
+        }
+
+        return VotingResult.NOT_APPLICABLE;
+    }
+}
@@ -1,9 +1,15 @@
 package org.picketlink.idm.drools;
 
+import java.io.Serializable;
+
 import org.picketlink.idm.model.IdentityType;
 
 /**
+ * A fact inserted into the Drools session for each permission check.  Rules grant the permission by calling
+ * {@link #grant()}.
  *
+ * A check either refers to a resource instance, or to a resource class and identifier when the instance is not
+ * available.  The resource class is set in both cases, so rules matching on it apply to both kinds of check.
  *
  * @author Shane Bryzak
  *
@@ -12,6 +18,8 @@ public class PermissionCheck {
 
     private final IdentityType assignee;
     private final Object resource;
+    private final Class<?> resourceClass;
+    private final Serializable identifier;
     private final String operation;
 
     private boolean granted = false;
@@ -19,6 +27,16 @@ public class PermissionCheck {
     public PermissionCheck(IdentityType assignee, Object resource, String operation) {
         this.assignee = assignee;
         this.resource = resource;
+        this.resourceClass = resource != null ? resource.getClass() : null;
+        this.identifier = null;
+        this.operation = operation;
+    }
+
+    public PermissionCheck(IdentityType assignee, Class<?> resourceClass, Serializable identifier, String operation) {
+        this.assignee = assignee;
+        this.resource = null;
+        this.resourceClass = resourceClass;
+        this.identifier = identifier;
         this.operation = operation;
     }
 
@@ -30,6 +48,17 @@ public class PermissionCheck {
         return resource;
     }
 
+    public Class<?> getResourceClass() {
+        return resourceClass;
+    }
+
+    /**
+     * Returns the identifier of the resource, or null if the check refers to a resource instance
+     */
+    public Serializable getIdentifier() {
+        return identifier;
+    }
+
     public String getOperation() {
         return operation;
     }
@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.drools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.runtime.StatelessKieSession;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.permission.spi.PermissionVoter.VotingResult;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for {@link DroolsPermissionVoter}.</p>
+ *
+ * @author agent
+ */
+public class DroolsPermissionVoterTestCase {
+
+    private static final String RULES =
+            "package org.picketlink.idm.drools.test\n"
+            + "import org.picketlink.idm.drools.PermissionCheck\n"
+            + "rule \"read strings\"\n"
+            + "when\n"
+            + "  check: PermissionCheck(resourceClass == String.class, operation == \"read\")\n"
+            + "then\n"
+            + "  check.grant();\n"
+            + "end\n"
+            + "rule \"write own documents\"\n"
+            + "when\n"
+            + "  check: PermissionCheck(resource != null, resource == \"john's document\", operation == \"write\")\n"
+            + "then\n"
+            + "  check.grant();\n"
+            + "end\n";
+
+    private KieBase securityRules;
+    private User john;
+
+    @Before
+    public void onSetup() {
+        KieServices services = KieServices.Factory.get();
+        KieFileSystem fileSystem = services.newKieFileSystem();
+
+        fileSystem.write("src/main/resources/org/picketlink/idm/drools/test/security-rules.drl", RULES);
+
+        KieBuilder builder = services.newKieBuilder(fileSystem).buildAll();
+
+        assertFalse(builder.getResults().hasMessages(Message.Level.ERROR));
+
+        this.securityRules = services.newKieContainer(builder.getKieModule().getReleaseId()).getKieBase();
+        this.john = new User("john");
+    }
+
+    @Test
+    public void testResourceChecks() {
+        DroolsPermissionVoter voter = new DroolsPermissionVoter(this.securityRules);
+
+        assertEquals(VotingResult.ALLOW, voter.hasPermission(this.john, "any document", "read"));
+        assertEquals(VotingResult.ALLOW, voter.hasPermission(this.john, "john's document", "write"));
+        assertEquals(VotingResult.NOT_APPLICABLE, voter.hasPermission(this.john, "mary's document", "write"));
+        assertEquals(VotingResult.NOT_APPLICABLE, voter.hasPermission(this.john, Integer.valueOf(1), "read"));
+    }
+
+    @Test
+    public void testIdentifierChecksDisabledByDefault() {
+        DroolsPermissionVoter voter = new DroolsPermissionVoter(this.securityRules);
+
+        assertEquals(VotingResult.NOT_APPLICABLE, voter.hasPermission(this.john, String.class, "document", "read"));
+    }
+
+    @Test
+    public void testIdentifierChecksEnabled() {
+        DroolsPermissionVoter voter = new DroolsPermissionVoter(this.securityRules, true);
+
+        assertEquals(VotingResult.ALLOW, voter.hasPermission(this.john, String.class, "document", "read"));
+        assertEquals(VotingResult.NOT_APPLICABLE, voter.hasPermission(this.john, String.class, "document", "write"));
+        assertEquals(VotingResult.NOT_APPLICABLE, voter.hasPermission(this.john, Integer.class, 1, "read"));
+    }
+
+    @Test
+    public void testCheckPermissions() {
+        DroolsPermissionVoter voter = new DroolsPermissionVoter(this.securityRules);
+        PermissionCheck read = new PermissionCheck(this.john, "any document", "read");
+        PermissionCheck writeOwn = new PermissionCheck(this.john, "john's document", "write");
+        PermissionCheck writeOther = new PermissionCheck(this.john, "mary's document", "write");
+        List<PermissionCheck> checks = new ArrayList<PermissionCheck>();
+
+        checks.add(read);
+        checks.add(writeOwn);
+        checks.add(writeOther);
+
+        voter.checkPermissions(checks);
+
+        assertTrue(read.isGranted());
+        assertTrue(writeOwn.isGranted());
+        assertFalse(writeOther.isGranted());
+
+        voter.checkPermissions(new ArrayList<PermissionCheck>());
+    }
+
+    @Test
+    public void testSessionSharedByChecks() {
+        final List<Object> executions = new ArrayList<Object>();
+        final List<StatelessKieSession> sessions = new ArrayList<StatelessKieSession>();
+        final StatelessKieSession session = this.securityRules.newStatelessKieSession();
+
+        final StatelessKieSession recordingSession = newProxy(StatelessKieSession.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("execute".equals(method.getName())) {
+                    executions.add(args[0]);
+                }
+
+                return invokeTarget(session, method, args);
+            }
+        });
+
+        KieBase recordingBase = newProxy(KieBase.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("newStatelessKieSession".equals(method.getName())) {
+                    sessions.add(recordingSession);
+                    return recordingSession;
+                }
+
+                return invokeTarget(securityRules, method, args);
+            }
+        });
+
+        DroolsPermissionVoter voter = new DroolsPermissionVoter(recordingBase);
+
+        assertEquals(1, sessions.size());
+        assertTrue(executions.isEmpty());
+
+        voter.hasPermission(this.john, "any document", "read");
+        voter.hasPermission(this.john, "john's document", "write");
+
+        assertEquals(1, sessions.size());
+        assertEquals(2, executions.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newProxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.picketlink.idm;
 
+import org.jboss.logging.Cause;
 import org.jboss.logging.LogMessage;
 import org.jboss.logging.Logger;
 import org.jboss.logging.Message;
@@ -47,6 +48,22 @@ public interface IDMInternalLog extends IDMLog {
     @Message(id=1102, value = "Async write enabled. Using thread pool of size %s")
     void fileAsyncWriteEnabled(int threadPoolSize);
 
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id=1103, value = "Journal enabled. Compacting every %s ms")
+    void fileJournalEnabled(long compactionInterval);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id=1104, value = "Replayed [%s] journal entries from [%s].")
+    void fileJournalReplayed(int entries, String path);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id=1105, value = "Error compacting journal. It will be compacted again on the next attempt.")
+    void fileJournalCompactionFailed(@Cause Throwable t);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id=1106, value = "Timed out waiting for pending writes while closing the store.")
+    void fileCloseTimedOut();
+
     // LDAP store logging messages. Ids 1200-1299
 
     @LogMessage(level = Logger.Level.INFO)
@@ -57,6 +74,10 @@ public interface IDMInternalLog extends IDMLog {
     @Message(id=1201, value = "LDAP Store does not support relationship updates [%s].")
     void ldapRelationshipUpdateNotSupported(AttributedType attributedType);
 
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id=1202, value = "Could not connect to LDAP server [%s]. Trying the next configured URL, if any.")
+    void ldapServerUnavailable(String url, @Cause Throwable t);
+
     // JPA store logging messages. Ids 1300-1399
 
     @LogMessage(level = Logger.Level.INFO)
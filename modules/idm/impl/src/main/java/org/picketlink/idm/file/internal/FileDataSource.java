@@ -21,13 +21,15 @@ package org.picketlink.idm.file.internal;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.config.FileIdentityStoreConfiguration;
 
+import org.picketlink.idm.file.internal.FileJournal.EntryType;
+import org.picketlink.idm.model.IdentityType;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -35,6 +37,9 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import static org.picketlink.common.util.StringUtil.isNullOrEmpty;
 import static org.picketlink.idm.file.internal.FileUtils.createFileIfNotExists;
@@ -65,6 +70,13 @@ public class FileDataSource {
     private static final String RELATIONSHIPS_FILE_NAME = "pl-idm-relationships.db";
     private static final String CREDENTIALS_FILE_NAME = "pl-idm-credentials.db";
 
+    /**
+     * <p>
+     * Maximum time, in milliseconds, to wait for pending writes when closing.
+     * </p>
+     */
+    private static final long CLOSE_TIMEOUT = 30000;
+
     private final FileIdentityStoreConfiguration configuration;
 
     /**
@@ -105,6 +117,15 @@ public class FileDataSource {
 
     private ExecutorService executorService;
 
+    /**
+     * <p>
+     * If journal is enabled, holds the journal to where changes are appended.
+     * </p>
+     */
+    private FileJournal journal;
+
+    private ScheduledExecutorService compactionExecutorService;
+
     FileDataSource(FileIdentityStoreConfiguration configuration) {
         this.configuration = configuration;
         init();
@@ -130,11 +151,6 @@ public class FileDataSource {
         flush(PARTITIONS_FILE_NAME, getPartitions());
     }
 
-    void flushPartitions(FilePartition partition) {
-        initPartition(partition.getId());
-        flush(PARTITIONS_FILE_NAME, getPartitions());
-    }
-
     void flushAttributedTypes(FilePartition partition) {
         flush(partition, IDENTITY_TYPES__FILE_NAME, partition.getIdentityTypes());
     }
@@ -156,6 +172,160 @@ public class FileDataSource {
         flush(filePartition, CREDENTIALS_FILE_NAME, filePartition.getCredentials());
     }
 
+    /**
+     * <p>
+     * Flushes the changes made to the partition with the given identifier. For new partitions, their data files are
+     * also initialized.
+     * </p>
+     *
+     * @param partitionId
+     * @param created
+     */
+    void flushPartition(String partitionId, boolean created) {
+        if (created) {
+            initPartition(partitionId);
+        }
+
+        if (this.journal == null) {
+            flushPartitions();
+        } else {
+            appendEntry(EntryType.PARTITION, null, null, partitionId, getPartitions().get(partitionId));
+        }
+    }
+
+    /**
+     * <p>
+     * Flushes the changes made to the identity type with the given type and identifier.
+     * </p>
+     *
+     * @param partition
+     * @param type
+     * @param id
+     */
+    void flushIdentityType(FilePartition partition, String type, String id) {
+        if (this.journal == null) {
+            flushAttributedTypes(partition);
+        } else {
+            Map<String, FileIdentityType> identityTypes = partition.getIdentityTypes().get(type);
+            FileIdentityType identityType = null;
+
+            if (identityTypes != null) {
+                identityType = identityTypes.get(id);
+            }
+
+            appendEntry(EntryType.IDENTITY_TYPE, partition.getId(), type, id, identityType);
+        }
+    }
+
+    /**
+     * <p>
+     * Flushes the changes made to the given identity types, all of them stored in the given partition.
+     * </p>
+     *
+     * @param partition
+     * @param identityTypes
+     */
+    void flushIdentityTypes(FilePartition partition, List<? extends IdentityType> identityTypes) {
+        if (this.journal == null) {
+            flushAttributedTypes(partition);
+        } else {
+            for (IdentityType identityType : identityTypes) {
+                flushIdentityType(partition, identityType.getClass().getName(), identityType.getId());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Flushes the changes made to the credentials of the account with the given identifier.
+     * </p>
+     *
+     * @param partition
+     * @param accountId
+     */
+    void flushCredentials(FilePartition partition, String accountId) {
+        if (this.journal == null) {
+            flushCredentials(partition);
+        } else {
+            FilePartition filePartition = getPartitions().get(partition.getId());
+
+            appendEntry(EntryType.CREDENTIALS, filePartition.getId(), null, accountId,
+                    (Serializable) filePartition.getCredentials().get(accountId));
+        }
+    }
+
+    /**
+     * <p>
+     * Flushes the changes made to the given relationships.
+     * </p>
+     *
+     * @param changedRelationships
+     */
+    void flushRelationships(FileRelationship... changedRelationships) {
+        if (this.journal == null) {
+            flushRelationships();
+        } else {
+            for (FileRelationship changedRelationship : changedRelationships) {
+                Map<String, FileRelationship> relationships = getRelationships().get(changedRelationship.getType());
+                FileRelationship relationship = null;
+
+                if (relationships != null) {
+                    relationship = relationships.get(changedRelationship.getId());
+                }
+
+                appendEntry(EntryType.RELATIONSHIP, null, changedRelationship.getType(), changedRelationship.getId(),
+                        relationship);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Flushes the changes made to the attributes of the attributed type with the given identifier.
+     * </p>
+     *
+     * @param id
+     */
+    void flushAttributes(String id) {
+        if (this.journal == null) {
+            flushAttributes();
+        } else {
+            appendEntry(EntryType.ATTRIBUTE, null, null, id, getAttributes().get(id));
+        }
+    }
+
+    /**
+     * <p>
+     * Flushes the changes made to the attributes of the attributed types with the given identifiers.
+     * </p>
+     *
+     * @param ids
+     */
+    void flushAttributes(List<String> ids) {
+        if (this.journal == null) {
+            flushAttributes();
+        } else {
+            for (String id : ids) {
+                flushAttributes(id);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Flushes the changes made to the attributed type with the given identifier.
+     * </p>
+     *
+     * @param id
+     */
+    void flushAttributedType(String id) {
+        if (this.journal == null) {
+            flushAttributedTypes();
+        } else {
+            appendEntry(EntryType.ATTRIBUTED_TYPE, null, null, id, getAttributedTypes().get(id));
+        }
+    }
+
     /**
      * <p>
      * Initializes the working directory.
@@ -215,12 +385,207 @@ public class FileDataSource {
 
         this.attributedTypes = attrubtedTypes;
 
+        if (this.configuration.isJournal()) {
+            initJournal();
+        }
+
         if (this.configuration.isAsyncWrite()) {
             FILE_STORE_LOGGER.fileAsyncWriteEnabled(this.configuration.getAsyncThreadPool());
-            this.executorService = Executors.newFixedThreadPool(this.configuration.getAsyncThreadPool());
+
+            if (this.journal == null) {
+                this.executorService = Executors.newFixedThreadPool(this.configuration.getAsyncThreadPool());
+            } else {
+                // entries must be appended in the same order the changes were made
+                this.executorService = Executors.newSingleThreadExecutor();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Stops the periodic compaction, waits for any pending asynchronous write and closes the journal. This instance
+     * should not be used after calling this method.
+     * </p>
+     */
+    void close() {
+        // delayed compactions are cancelled, a running one is allowed to complete
+        shutdown(this.compactionExecutorService);
+        shutdown(this.executorService);
+
+        if (this.journal != null) {
+            this.journal.close();
         }
     }
 
+    private void shutdown(ExecutorService executorService) {
+        if (executorService == null) {
+            return;
+        }
+
+        executorService.shutdown();
+
+        try {
+            if (!executorService.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                FILE_STORE_LOGGER.fileCloseTimedOut();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * <p>
+     * Replays the journal on top of the data files, compacts it if necessary and schedules the periodic compaction.
+     * </p>
+     */
+    private void initJournal() {
+        long compactionInterval = this.configuration.getJournalCompactionInterval();
+
+        FILE_STORE_LOGGER.fileJournalEnabled(compactionInterval);
+
+        this.journal = new FileJournal(getWorkingDir());
+
+        List<FileJournal.Entry> entries = this.journal.read();
+
+        for (FileJournal.Entry entry : entries) {
+            replay(entry);
+        }
+
+        if (!entries.isEmpty()) {
+            FILE_STORE_LOGGER.fileJournalReplayed(entries.size(), getWorkingDir());
+            compact();
+        }
+
+        this.compactionExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "picketlink-file-store-compaction");
+
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        this.compactionExecutorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    FILE_STORE_LOGGER.fileJournalCompactionFailed(e);
+                }
+            }
+        }, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replay(FileJournal.Entry entry) {
+        String id = entry.getId();
+        Serializable value = entry.getValue();
+
+        switch (entry.getEntryType()) {
+            case PARTITION:
+                if (value == null) {
+                    this.partitions.remove(id);
+                } else {
+                    FilePartition filePartition = (FilePartition) value;
+                    FilePartition storedPartition = this.partitions.put(id, filePartition);
+
+                    if (storedPartition != null) {
+                        filePartition.setIdentityTypes(storedPartition.getIdentityTypes());
+                        filePartition.setCredentials(storedPartition.getCredentials());
+                    } else {
+                        initPartition(id);
+                    }
+                }
+                break;
+            case IDENTITY_TYPE:
+                FilePartition identityTypePartition = this.partitions.get(entry.getPartitionId());
+
+                if (identityTypePartition != null) {
+                    Map<String, FileIdentityType> identityTypes = identityTypePartition.getIdentityTypes().get(entry.getType());
+
+                    if (identityTypes == null) {
+                        identityTypes = new ConcurrentHashMap<String, FileIdentityType>();
+                        identityTypePartition.getIdentityTypes().put(entry.getType(), identityTypes);
+                    }
+
+                    if (value == null) {
+                        identityTypes.remove(id);
+                    } else {
+                        identityTypes.put(id, (FileIdentityType) value);
+                    }
+                }
+                break;
+            case CREDENTIALS:
+                FilePartition credentialPartition = this.partitions.get(entry.getPartitionId());
+
+                if (credentialPartition != null) {
+                    if (value == null) {
+                        credentialPartition.getCredentials().remove(id);
+                    } else {
+                        credentialPartition.getCredentials().put(id, (Map<String, List<FileCredentialStorage>>) value);
+                    }
+                }
+                break;
+            case RELATIONSHIP:
+                Map<String, FileRelationship> relationships = this.relationships.get(entry.getType());
+
+                if (relationships == null) {
+                    relationships = new ConcurrentHashMap<String, FileRelationship>();
+                    this.relationships.put(entry.getType(), relationships);
+                }
+
+                if (value == null) {
+                    relationships.remove(id);
+                } else {
+                    relationships.put(id, (FileRelationship) value);
+                }
+                break;
+            case ATTRIBUTE:
+                if (value == null) {
+                    this.attributes.remove(id);
+                } else {
+                    this.attributes.put(id, (FileAttribute) value);
+                }
+                break;
+            case ATTRIBUTED_TYPE:
+                if (value == null) {
+                    this.attributedTypes.remove(id);
+                } else {
+                    this.attributedTypes.put(id, (FileAttributedType) value);
+                }
+                break;
+        }
+    }
+
+    /**
+     * <p>
+     * Writes all data files and discards the journal entries written before. Changes made while compacting are
+     * appended to a new journal, and may also be written to the data files. Replaying them is harmless given that each
+     * entry holds the whole state of the changed object.
+     * </p>
+     */
+    private synchronized void compact() {
+        if (!this.journal.rotate()) {
+            return;
+        }
+
+        performFlush(PARTITIONS_FILE_NAME, getPartitions());
+
+        for (FilePartition partition : getPartitions().values()) {
+            performFlush(partition.getId() + File.separator + IDENTITY_TYPES__FILE_NAME, partition.getIdentityTypes());
+            performFlush(partition.getId() + File.separator + CREDENTIALS_FILE_NAME, partition.getCredentials());
+        }
+
+        performFlush(RELATIONSHIPS_FILE_NAME, getRelationships());
+        performFlush(ATTRIBUTES_FILE_NAME, getAttributes());
+        performFlush(ATTRIBUTED_TYPES__FILE_NAME, getAttributedTypes());
+
+        this.journal.completeRotation();
+    }
+
     private void loadPartitions(File partitionsFile) {
         this.partitions = readObject(partitionsFile);
 
@@ -306,29 +671,67 @@ public class FileDataSource {
         }
     }
 
+    private void appendEntry(EntryType entryType, String partitionId, String type, String id, Serializable value) {
+        final FileJournal.Entry entry = new FileJournal.Entry(entryType, partitionId, type, id, value);
+
+        if (this.configuration.isAsyncWrite()) {
+            this.executorService.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    journal.append(entry);
+                }
+            });
+        } else {
+            this.journal.append(entry);
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the given object to a temporary file, which replaces the data file once it is completely written. This
+     * way a data file is never left partially written.
+     * </p>
+     *
+     * @param fileName
+     * @param object
+     */
     private synchronized void performFlush(final String fileName, final Object object) {
         ObjectOutputStream oos = null;
         ByteArrayOutputStream bos = null;
-        RandomAccessFile randomAccessFile = null;
+        FileOutputStream fos = null;
+        File file = getWorkingDirFile(fileName);
+        File tempFile = getWorkingDirFile(fileName + ".tmp");
 
         try {
-            randomAccessFile = new RandomAccessFile(getWorkingDir() + File.separator + fileName, "rw");
-
-            FileChannel channel = randomAccessFile.getChannel();
-
             bos = new ByteArrayOutputStream(FLUSH_BYTE_BUFFER);
 
             oos = new ObjectOutputStream(bos);
 
             oos.writeObject(object);
+            oos.flush();
+
+            fos = new FileOutputStream(tempFile);
 
-            channel.write(ByteBuffer.wrap(bos.toByteArray()));
+            bos.writeTo(fos);
+
+            fos.close();
+            fos = null;
+
+            if (!tempFile.renameTo(file)) {
+                // some platforms do not allow renaming to an existing file
+                file.delete();
+
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Could not rename [" + tempFile.getPath() + "] to [" + file.getPath() + "].");
+                }
+            }
         } catch (Exception e) {
             throw new IdentityManagementException("Error flushing changes to file system.", e);
         } finally {
             try {
-                if (randomAccessFile != null) {
-                    randomAccessFile.close();
+                if (fos != null) {
+                    fos.close();
                 }
             } catch (IOException e) {
 
@@ -46,11 +46,12 @@ import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.query.RelationshipQuery;
 import org.picketlink.idm.query.RelationshipQueryParameter;
-import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BatchAttributeStore;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.PartitionStore;
 
+import java.io.Closeable;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -58,8 +59,11 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Map.Entry;
@@ -78,15 +82,27 @@ import static org.picketlink.idm.credential.util.CredentialUtils.getCurrentCrede
 public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreConfiguration>
         implements PartitionStore<FileIdentityStoreConfiguration>,
         CredentialStore<FileIdentityStoreConfiguration>,
-        AttributeStore<FileIdentityStoreConfiguration> {
+        BatchAttributeStore<FileIdentityStoreConfiguration>, Closeable {
 
     private FileDataSource fileDataSource;
+    private FileIndex index;
 
     @Override
     public void setup(FileIdentityStoreConfiguration configuration) {
         super.setup(configuration);
 
         this.fileDataSource = new FileDataSource(configuration);
+        this.index = new FileIndex(this.fileDataSource);
+    }
+
+    /**
+     * <p>Stops the background tasks of this store and waits for pending writes.</p>
+     */
+    @Override
+    public void close() {
+        if (this.fileDataSource != null) {
+            this.fileDataSource.close();
+        }
     }
 
     @Override
@@ -99,6 +115,36 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
             storeRelationshipType((Relationship) clonedAttributedType);
         } else {
             this.fileDataSource.getAttributedTypes().put(attributedType.getId(), new FileAttributedType(attributedType));
+            this.fileDataSource.flushAttributedType(attributedType.getId());
+        }
+    }
+
+    @Override
+    protected void addAttributedTypes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        FilePartition filePartition = null;
+        List<IdentityType> identityTypes = new ArrayList<IdentityType>();
+        List<FileRelationship> relationships = new ArrayList<FileRelationship>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            AttributedType clonedAttributedType = cloneAttributedType(context, attributedType);
+
+            if (IdentityType.class.isInstance(clonedAttributedType)) {
+                filePartition = putIdentityType(context, (IdentityType) clonedAttributedType);
+                identityTypes.add((IdentityType) clonedAttributedType);
+            } else if (Relationship.class.isInstance(clonedAttributedType)) {
+                relationships.add(putRelationshipType((Relationship) clonedAttributedType));
+            } else {
+                addAttributedType(context, attributedType);
+            }
+        }
+
+        // all types are flushed at once, instead of writing the data files for each one of them
+        if (!identityTypes.isEmpty()) {
+            this.fileDataSource.flushIdentityTypes(filePartition, identityTypes);
+        }
+
+        if (!relationships.isEmpty()) {
+            this.fileDataSource.flushRelationships(relationships.toArray(new FileRelationship[relationships.size()]));
         }
     }
 
@@ -127,35 +173,44 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
                 identityTypes.remove(identityType.getId());
             }
 
-            this.fileDataSource.flushAttributedTypes(filePartition);
+            this.index.removeIdentityType(identityType.getId());
+
+            this.fileDataSource.flushIdentityType(filePartition, attributedType.getClass().getName(), identityType.getId());
         } else if (Relationship.class.isInstance(attributedType)) {
             Map<String, FileRelationship> fileRelationships = this.fileDataSource.getRelationships().get(attributedType.getClass().getName());
+            List<FileRelationship> removedRelationships = new ArrayList<FileRelationship>();
 
             for (FileRelationship fileRelationship : new HashMap<String, FileRelationship>(fileRelationships).values()) {
                 if (fileRelationship.getId().equals(attributedType.getId())) {
                     fileRelationships.remove(fileRelationship.getId());
+                    this.index.removeRelationship(fileRelationship.getId());
+                    removedRelationships.add(fileRelationship);
                 }
             }
 
-            this.fileDataSource.flushRelationships();
+            this.fileDataSource.flushRelationships(removedRelationships.toArray(new FileRelationship[removedRelationships.size()]));
         } else {
             this.fileDataSource.getAttributedTypes().remove(attributedType.getId());
-            this.fileDataSource.flushAttributedTypes();
+            this.fileDataSource.flushAttributedType(attributedType.getId());
         }
     }
 
     @Override
     protected void removeFromRelationships(IdentityContext context, IdentityType identityType) {
         Map<String, Map<String, FileRelationship>> relationships = this.fileDataSource.getRelationships();
+        List<FileRelationship> removedRelationships = new ArrayList<FileRelationship>();
+
         for (Map<String, FileRelationship> relationshipsType : relationships.values()) {
             for (FileRelationship fileRelationship : new HashMap<String, FileRelationship>(relationshipsType).values()) {
                 if (fileRelationship.hasIdentityType(identityType)) {
                     relationshipsType.remove(fileRelationship.getId());
+                    this.index.removeRelationship(fileRelationship.getId());
+                    removedRelationships.add(fileRelationship);
                 }
             }
         }
 
-        this.fileDataSource.flushRelationships();
+        this.fileDataSource.flushRelationships(removedRelationships.toArray(new FileRelationship[removedRelationships.size()]));
     }
 
     @Override
@@ -167,7 +222,7 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
 
         credentials.remove(account.getId());
 
-        this.fileDataSource.flushCredentials(filePartition);
+        this.fileDataSource.flushCredentials(filePartition, account.getId());
     }
 
     @Override
@@ -178,24 +233,30 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
 
         this.fileDataSource.getPartitions().put(filePartition.getId(), filePartition);
 
-        this.fileDataSource.flushPartitions(filePartition);
+        this.fileDataSource.flushPartition(filePartition.getId(), true);
     }
 
     @Override
     public void update(IdentityContext identityContext, Partition partition) {
         FilePartition filePartition = resolve(partition.getClass(), partition.getName());
 
-        this.fileDataSource.getPartitions().put(partition.getId(),
-                new FilePartition(cloneAttributedType(identityContext, partition), filePartition.getConfigurationName()));
-        this.fileDataSource.flushPartitions();
+        FilePartition updatedPartition = new FilePartition(cloneAttributedType(identityContext, partition),
+                filePartition.getConfigurationName());
+
+        updatedPartition.setIdentityTypes(filePartition.getIdentityTypes());
+        updatedPartition.setCredentials(filePartition.getCredentials());
+
+        this.fileDataSource.getPartitions().put(partition.getId(), updatedPartition);
+        this.fileDataSource.flushPartition(partition.getId(), false);
     }
 
     @Override
     public void remove(IdentityContext identityContext, Partition partition) {
         FilePartition filePartition = resolve(partition.getClass(), partition.getName());
 
+        this.index.removePartition(filePartition);
         this.fileDataSource.getPartitions().remove(filePartition.getId());
-        this.fileDataSource.flushPartitions();
+        this.fileDataSource.flushPartition(filePartition.getId(), false);
     }
 
     @Override
@@ -253,9 +314,9 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
 
         credentials.add(new FileCredentialStorage(storage));
 
-        Partition partition = context.getPartition();
+        Partition partition = account.getPartition();
 
-        this.fileDataSource.flushCredentials(resolve(partition.getClass(), partition.getName()));
+        this.fileDataSource.flushCredentials(resolve(partition.getClass(), partition.getName()), account.getId());
     }
 
     @Override
@@ -325,7 +386,16 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
                 }
             }
         } else {
-            for (FileIdentityType storedIdentityType : typedIdentityTypes.values()) {
+            List<V> matches = new ArrayList<V>();
+            QueryParameter[] sortParameters = identityQuery.getSortParameters();
+            int maxMatches = -1;
+
+            if (identityQuery.getLimit() > 0 && (sortParameters == null || sortParameters.length == 0)) {
+                // without sorting, any matches can be returned. We can stop as soon as the requested page is filled.
+                maxMatches = identityQuery.getOffset() + identityQuery.getLimit();
+            }
+
+            for (FileIdentityType storedIdentityType : getCandidates(filePartition, typedIdentityTypes, identityQuery)) {
                 IdentityType storedEntry = (IdentityType) storedIdentityType.getEntry();
 
                 boolean match = identityQuery.getParameters().isEmpty();
@@ -371,21 +441,198 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
                 }
 
                 if (match) {
-                    result.add((V) cloneAttributedType(context, storedEntry));
+                    matches.add((V) storedEntry);
+
+                    if (matches.size() == maxMatches) {
+                        break;
+                    }
                 }
             }
+
+            // only the entries in the requested page are cloned
+            for (V storedEntry : sortAndPaginate(identityQuery, matches)) {
+                result.add(cloneAttributedType(context, storedEntry));
+            }
         }
 
-        // Apply sorting
-        Collections.sort(result, new FileSortingComparator<V>(identityQuery));
+        return result;
+    }
 
-        // Apply pagination
-        if (identityQuery.getLimit() > 0) {
-            int numberOfItems = Math.min(identityQuery.getLimit(), result.size() - identityQuery.getOffset());
-            result = result.subList(identityQuery.getOffset(), identityQuery.getOffset() + numberOfItems);
+    /**
+     * <p>Returns the identifiers of the relationships that may match the given query, given the identity types it
+     * references. If the query does not reference any identity type, returns null.</p>
+     *
+     * @param query
+     *
+     * @return
+     */
+    private Set<String> getRelationshipCandidates(RelationshipQuery<?> query) {
+        Set<String> candidateIds = null;
+
+        for (Entry<QueryParameter, Object[]> entry : query.getParameters().entrySet()) {
+            QueryParameter queryParameter = entry.getKey();
+            Object[] values = entry.getValue();
+
+            if (values == null || values.length == 0 || !IdentityType.class.isInstance(values[values.length - 1])) {
+                continue;
+            }
+
+            if (Relationship.IDENTITY.equals(queryParameter) || queryParameter instanceof RelationshipQueryParameter) {
+                // relationship parameters are matched against their last value
+                IdentityType identityType = (IdentityType) values[values.length - 1];
+                Set<String> ids = this.index.getRelationships(RelationshipReference.formatId(identityType));
+
+                if (candidateIds == null || ids.size() < candidateIds.size()) {
+                    candidateIds = ids;
+                }
+            }
         }
 
-        return result;
+        return candidateIds;
+    }
+
+    /**
+     * <p>Returns the identity types that may match the given query. If any of the query parameters is indexed, only the
+     * identity types with the most selective indexed value are returned. Otherwise, all identity types are returned.</p>
+     *
+     * @param filePartition
+     * @param typedIdentityTypes
+     * @param identityQuery
+     *
+     * @return
+     */
+    private Collection<FileIdentityType> getCandidates(FilePartition filePartition,
+                                                       Map<String, FileIdentityType> typedIdentityTypes,
+                                                       IdentityQuery<?> identityQuery) {
+        Set<String> candidateIds = null;
+
+        for (Entry<QueryParameter, Object[]> entry : identityQuery.getParameters().entrySet()) {
+            QueryParameter queryParameter = entry.getKey();
+            Object[] values = entry.getValue();
+
+            if (!AttributeParameter.class.isInstance(queryParameter) || values == null || values.length == 0
+                    || queryParameter.equals(IdentityType.CREATED_BEFORE) || queryParameter.equals(IdentityType.CREATED_AFTER)
+                    || queryParameter.equals(IdentityType.EXPIRY_BEFORE) || queryParameter.equals(IdentityType.EXPIRY_AFTER)) {
+                continue;
+            }
+
+            String parameterName = ((AttributeParameter) queryParameter).getName();
+
+            Property<Serializable> property = PropertyQueries.<Serializable>createQuery(identityQuery.getIdentityType())
+                    .addCriteria(new NamedPropertyCriteria(parameterName))
+                    .getFirstResult();
+
+            Set<String> ids = null;
+
+            if (property == null) {
+                ids = this.index.getAttributedTypes(parameterName, values[0]);
+            } else if (FileIndex.isIndexed(property)) {
+                ids = this.index.getIdentityTypes(filePartition.getId(), parameterName, values[0]);
+            }
+
+            if (ids != null && (candidateIds == null || ids.size() < candidateIds.size())) {
+                candidateIds = ids;
+            }
+        }
+
+        if (candidateIds == null) {
+            return typedIdentityTypes.values();
+        }
+
+        List<FileIdentityType> candidates = new ArrayList<FileIdentityType>(candidateIds.size());
+
+        for (String id : candidateIds) {
+            FileIdentityType identityType = typedIdentityTypes.get(id);
+
+            if (identityType != null) {
+                candidates.add(identityType);
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * <p>Sorts the given entries and returns the page requested by the given query. When a page is requested, only the
+     * first <code>offset + limit</code> entries are kept in a bounded heap instead of sorting all of them.</p>
+     *
+     * @param identityQuery
+     * @param entries
+     *
+     * @return
+     */
+    private <V extends IdentityType> List<V> sortAndPaginate(IdentityQuery<V> identityQuery, List<V> entries) {
+        final Comparator<V> comparator = new FileSortingComparator<V>(identityQuery);
+        int offset = identityQuery.getOffset();
+        int limit = identityQuery.getLimit();
+
+        if (limit <= 0) {
+            Collections.sort(entries, comparator);
+            return entries;
+        }
+
+        int pageEnd = offset + limit;
+        List<V> sorted;
+
+        if (entries.size() <= pageEnd) {
+            sorted = entries;
+        } else {
+            // the head of the heap is the greatest of the kept entries
+            PriorityQueue<V> heap = new PriorityQueue<V>(pageEnd, Collections.reverseOrder(comparator));
+
+            for (V entry : entries) {
+                if (heap.size() < pageEnd) {
+                    heap.offer(entry);
+                } else if (comparator.compare(entry, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.offer(entry);
+                }
+            }
+
+            sorted = new ArrayList<V>(heap);
+        }
+
+        Collections.sort(sorted, comparator);
+
+        if (offset >= sorted.size()) {
+            return Collections.emptyList();
+        }
+
+        return sorted.subList(offset, Math.min(pageEnd, sorted.size()));
+    }
+
+    @Override
+    public Set<Object> getStoredValues(IdentityContext context, Class<? extends IdentityType> identityType,
+                                       String propertyName, Collection<?> values) {
+        Property<Serializable> property = PropertyQueries.<Serializable>createQuery(identityType)
+                .addCriteria(new NamedPropertyCriteria(propertyName))
+                .getFirstResult();
+
+        if (property == null || !FileIndex.isIndexed(property)) {
+            return null;
+        }
+
+        Partition partition = context.getPartition();
+        FilePartition filePartition = resolve(partition.getClass(), partition.getName());
+        Map<String, FileIdentityType> typedIdentityTypes = filePartition.getIdentityTypes().get(identityType.getName());
+        Set<Object> storedValues = new HashSet<Object>();
+
+        if (typedIdentityTypes != null) {
+            for (Object value : values) {
+                Set<String> ids = this.index.getIdentityTypes(filePartition.getId(), propertyName, value);
+
+                if (ids != null) {
+                    for (String id : ids) {
+                        if (typedIdentityTypes.containsKey(id)) {
+                            storedValues.add(value);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        return storedValues;
     }
 
     @Override
@@ -407,17 +654,32 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
             }
         } else {
             List<FileRelationship> relationships = new ArrayList<FileRelationship>();
+            List<Map<String, FileRelationship>> typedRelationships = new ArrayList<Map<String, FileRelationship>>();
 
             if (Relationship.class.equals(typeToSearch)) {
-                for (Map<String, FileRelationship> partitionRelationships : this.fileDataSource.getRelationships().values()) {
-                    relationships.addAll(partitionRelationships.values());
-                }
+                typedRelationships.addAll(this.fileDataSource.getRelationships().values());
             } else {
                 Map<String, FileRelationship> typedRelationship = this.fileDataSource.getRelationships().get(
                         typeToSearch.getName());
 
                 if (typedRelationship != null) {
+                    typedRelationships.add(typedRelationship);
+                }
+            }
+
+            Set<String> candidateIds = getRelationshipCandidates(query);
+
+            for (Map<String, FileRelationship> typedRelationship : typedRelationships) {
+                if (candidateIds == null) {
                     relationships.addAll(typedRelationship.values());
+                } else {
+                    for (String candidateId : candidateIds) {
+                        FileRelationship candidate = typedRelationship.get(candidateId);
+
+                        if (candidate != null) {
+                            relationships.add(candidate);
+                        }
+                    }
                 }
             }
 
@@ -511,7 +773,29 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
         fileAttribute.getEntry().add(attribute);
 
         this.fileDataSource.getAttributes().put(type.getId(), fileAttribute);
-        this.fileDataSource.flushAttributes();
+        this.index.indexAttributes(type.getId(), fileAttribute.getEntry());
+        this.fileDataSource.flushAttributes(type.getId());
+    }
+
+    @Override
+    public void addAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        List<String> ids = new ArrayList<String>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            if (attributedType.getAttributes().isEmpty()) {
+                continue;
+            }
+
+            FileAttribute fileAttribute = new FileAttribute(attributedType);
+
+            this.fileDataSource.getAttributes().put(attributedType.getId(), fileAttribute);
+            this.index.indexAttributes(attributedType.getId(), fileAttribute.getEntry());
+            ids.add(attributedType.getId());
+        }
+
+        if (!ids.isEmpty()) {
+            this.fileDataSource.flushAttributes(ids);
+        }
     }
 
     private FileAttribute getFileAttribute(final AttributedType type) {
@@ -544,6 +828,13 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
         }
     }
 
+    @Override
+    public void loadAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        for (AttributedType attributedType : attributedTypes) {
+            loadAttributes(context, attributedType);
+        }
+    }
+
     @Override
     public void removeAttribute(IdentityContext context, AttributedType type, String attributeName) {
         FileAttribute fileAttribute = getFileAttribute(type);
@@ -555,9 +846,11 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
                     fileAttribute.getEntry().remove(attribute);
                 }
             }
+
+            this.index.indexAttributes(type.getId(), fileAttribute.getEntry());
         }
 
-        this.fileDataSource.flushAttributes();
+        this.fileDataSource.flushAttributes(type.getId());
     }
 
     /**
@@ -649,6 +942,10 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
     }
 
     private void storeRelationshipType(Relationship relationship) {
+        this.fileDataSource.flushRelationships(putRelationshipType(relationship));
+    }
+
+    private FileRelationship putRelationshipType(Relationship relationship) {
         String type = relationship.getClass().getName();
 
         Map<String, FileRelationship> storedRelationships = this.fileDataSource.getRelationships().get(type);
@@ -658,12 +955,21 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
             this.fileDataSource.getRelationships().put(type, storedRelationships);
         }
 
-        storedRelationships.put(relationship.getId(), new FileRelationship(relationship));
+        FileRelationship fileRelationship = new FileRelationship(relationship);
 
-        this.fileDataSource.flushRelationships();
+        storedRelationships.put(relationship.getId(), fileRelationship);
+        this.index.indexRelationship(fileRelationship);
+
+        return fileRelationship;
     }
 
     private void storeIdentityType(IdentityContext context, IdentityType identityType) {
+        FilePartition filePartition = putIdentityType(context, identityType);
+
+        this.fileDataSource.flushIdentityType(filePartition, identityType.getClass().getName(), identityType.getId());
+    }
+
+    private FilePartition putIdentityType(IdentityContext context, IdentityType identityType) {
         FilePartition filePartition = resolve(context.getPartition().getClass(), context.getPartition().getName());
 
         Map<String, FileIdentityType> identityTypes = filePartition.getIdentityTypes().get(identityType.getClass().getName());
@@ -674,8 +980,9 @@ public class FileIdentityStore extends AbstractIdentityStore<FileIdentityStoreCo
         }
 
         identityTypes.put(identityType.getId(), new FileIdentityType(identityType));
+        this.index.indexIdentityType(filePartition.getId(), identityType);
 
-        this.fileDataSource.flushAttributedTypes(filePartition);
+        return filePartition;
     }
 
     private boolean matchAttribute(AttributedType attributedType, String parameterName, Object[] valuesToCompare) {
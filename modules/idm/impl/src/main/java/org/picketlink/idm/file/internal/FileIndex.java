@@ -0,0 +1,292 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.idm.file.internal;
+
+import org.picketlink.common.properties.Property;
+import org.picketlink.common.properties.query.AnnotatedPropertyCriteria;
+import org.picketlink.common.properties.query.PropertyQueries;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.annotation.AttributeProperty;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>In-memory hash indexes used by the {@link FileIdentityStore} to avoid scanning all stored objects when querying.</p>
+ *
+ * <p>The following indexes are maintained:</p>
+ *
+ * <ul>
+ *     <li>The values of the {@link String} properties annotated with {@link AttributeProperty}, such as the login name
+ *     or email, of each identity type.</li>
+ *     <li>The values of the ad-hoc attributes of each attributed type.</li>
+ *     <li>The identity types referenced by each relationship.</li>
+ * </ul>
+ *
+ * <p>Lookups return the identifiers of the candidates for a given value. The index may return stale candidates, callers
+ * must always check if the candidates still match the query.</p>
+ *
+ * @author agent
+ */
+public class FileIndex {
+
+    private static final Map<Class<?>, List<Property<Serializable>>> INDEXED_PROPERTIES =
+            new ConcurrentHashMap<Class<?>, List<Property<Serializable>>>();
+
+    private final Index<List<Object>> identityTypeProperties = new Index<List<Object>>();
+    private final Index<List<Object>> attributes = new Index<List<Object>>();
+    private final Index<String> relationships = new Index<String>();
+
+    FileIndex(FileDataSource dataSource) {
+        for (FilePartition partition : dataSource.getPartitions().values()) {
+            indexPartition(partition);
+        }
+
+        for (Map<String, FileRelationship> typedRelationships : dataSource.getRelationships().values()) {
+            for (FileRelationship relationship : typedRelationships.values()) {
+                indexRelationship(relationship);
+            }
+        }
+
+        for (Map.Entry<String, FileAttribute> entry : dataSource.getAttributes().entrySet()) {
+            indexAttributes(entry.getKey(), entry.getValue().getEntry());
+        }
+    }
+
+    void indexIdentityType(String partitionId, IdentityType identityType) {
+        List<List<Object>> keys = new ArrayList<List<Object>>();
+
+        for (Property<Serializable> property : getIndexedProperties(identityType.getClass())) {
+            Serializable value = property.getValue(identityType);
+
+            if (value != null) {
+                keys.add(Arrays.<Object>asList(partitionId, property.getName(), value));
+            }
+        }
+
+        this.identityTypeProperties.put(identityType.getId(), keys);
+    }
+
+    void removeIdentityType(String id) {
+        this.identityTypeProperties.remove(id);
+    }
+
+    /**
+     * <p>Indexes all identity types stored in the given partition.</p>
+     *
+     * @param partition
+     */
+    void indexPartition(FilePartition partition) {
+        for (Map<String, FileIdentityType> identityTypes : partition.getIdentityTypes().values()) {
+            for (FileIdentityType identityType : identityTypes.values()) {
+                indexIdentityType(partition.getId(), identityType.getEntry());
+            }
+        }
+    }
+
+    /**
+     * <p>Removes all identity types stored in the given partition.</p>
+     *
+     * @param partition
+     */
+    void removePartition(FilePartition partition) {
+        for (Map<String, FileIdentityType> identityTypes : partition.getIdentityTypes().values()) {
+            for (String id : identityTypes.keySet()) {
+                removeIdentityType(id);
+            }
+        }
+    }
+
+    void indexAttributes(String attributedTypeId, Collection<Attribute<? extends Serializable>> storedAttributes) {
+        List<List<Object>> keys = new ArrayList<List<Object>>();
+
+        synchronized (storedAttributes) {
+            for (Attribute<? extends Serializable> attribute : storedAttributes) {
+                Serializable value = attribute.getValue();
+
+                if (value == null) {
+                    continue;
+                }
+
+                if (value.getClass().isArray()) {
+                    // primitive arrays, such as byte[], are indexed by their boxed elements
+                    for (int i = 0; i < Array.getLength(value); i++) {
+                        keys.add(Arrays.<Object>asList(attribute.getName(), Array.get(value, i)));
+                    }
+                } else {
+                    keys.add(Arrays.<Object>asList(attribute.getName(), value));
+                }
+            }
+        }
+
+        this.attributes.put(attributedTypeId, keys);
+    }
+
+    void removeAttributes(String attributedTypeId) {
+        this.attributes.remove(attributedTypeId);
+    }
+
+    void indexRelationship(FileRelationship relationship) {
+        this.relationships.put(relationship.getId(), new ArrayList<String>(relationship.getIdentityTypeIds()));
+    }
+
+    void removeRelationship(String id) {
+        this.relationships.remove(id);
+    }
+
+    /**
+     * <p>Returns the identifiers of the identity types from the given partition with the given property value.</p>
+     *
+     * @param partitionId
+     * @param propertyName
+     * @param value
+     *
+     * @return
+     */
+    Set<String> getIdentityTypes(String partitionId, String propertyName, Object value) {
+        return this.identityTypeProperties.get(Arrays.<Object>asList(partitionId, propertyName, value));
+    }
+
+    /**
+     * <p>Returns the identifiers of the attributed types with the given attribute value, or null if the value is an
+     * array, which is not a key of the index.</p>
+     *
+     * @param attributeName
+     * @param value
+     *
+     * @return
+     */
+    Set<String> getAttributedTypes(String attributeName, Object value) {
+        if (value != null && value.getClass().isArray()) {
+            return null;
+        }
+
+        return this.attributes.get(Arrays.<Object>asList(attributeName, value));
+    }
+
+    /**
+     * <p>Returns the identifiers of the relationships referencing the identity type with the given identifier, as
+     * formatted by {@link org.picketlink.idm.internal.RelationshipReference#formatId(IdentityType)}.</p>
+     *
+     * @param identityTypeId
+     *
+     * @return
+     */
+    Set<String> getRelationships(String identityTypeId) {
+        return this.relationships.get(identityTypeId);
+    }
+
+    /**
+     * <p>Checks if the given property of an identity type is indexed.</p>
+     *
+     * @param property
+     *
+     * @return
+     */
+    static boolean isIndexed(Property<?> property) {
+        return String.class.equals(property.getJavaClass()) && property.isAnnotationPresent(AttributeProperty.class);
+    }
+
+    private static List<Property<Serializable>> getIndexedProperties(Class<?> type) {
+        List<Property<Serializable>> properties = INDEXED_PROPERTIES.get(type);
+
+        if (properties == null) {
+            properties = new ArrayList<Property<Serializable>>();
+
+            for (Property<Serializable> property : PropertyQueries.<Serializable>createQuery(type)
+                    .addCriteria(new AnnotatedPropertyCriteria(AttributeProperty.class))
+                    .getResultList()) {
+                if (isIndexed(property)) {
+                    properties.add(property);
+                }
+            }
+
+            INDEXED_PROPERTIES.put(type, properties);
+        }
+
+        return properties;
+    }
+
+    /**
+     * <p>Maps keys to the identifiers of the objects holding them, keeping track of the keys of each object so they
+     * can be replaced when the object changes.</p>
+     *
+     * @param <K>
+     */
+    private static class Index<K> {
+
+        private final ConcurrentMap<K, Set<String>> entries = new ConcurrentHashMap<K, Set<String>>();
+        private final Map<String, Collection<K>> keysById = new ConcurrentHashMap<String, Collection<K>>();
+
+        synchronized void put(String id, Collection<K> keys) {
+            remove(id);
+
+            for (K key : keys) {
+                Set<String> ids = this.entries.get(key);
+
+                if (ids == null) {
+                    ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                    this.entries.put(key, ids);
+                }
+
+                ids.add(id);
+            }
+
+            this.keysById.put(id, keys);
+        }
+
+        synchronized void remove(String id) {
+            Collection<K> keys = this.keysById.remove(id);
+
+            if (keys != null) {
+                for (K key : keys) {
+                    Set<String> ids = this.entries.get(key);
+
+                    if (ids != null) {
+                        ids.remove(id);
+
+                        if (ids.isEmpty()) {
+                            this.entries.remove(key);
+                        }
+                    }
+                }
+            }
+        }
+
+        Set<String> get(K key) {
+            Set<String> ids = this.entries.get(key);
+
+            if (ids == null) {
+                return Collections.emptySet();
+            }
+
+            return ids;
+        }
+    }
+}
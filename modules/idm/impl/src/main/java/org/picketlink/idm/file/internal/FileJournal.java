@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.idm.file.internal;
+
+import org.picketlink.idm.IdentityManagementException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Append-only log of the changes made to a {@link FileDataSource}.</p>
+ *
+ * <p>Each {@link Entry} holds the current state of a single stored object, or null if it was removed, so replaying
+ * the same entry more than once always leads to the same state. Entries are written as a length-prefixed serialized
+ * object, an incomplete entry at the end of the file is ignored when reading.</p>
+ *
+ * <p>Compaction works by rotating the journal before the data files are written. The rotated journal is only deleted
+ * after all data files were written, otherwise it is replayed, together with the current journal, on the next
+ * initialization.</p>
+ *
+ * @author agent
+ */
+public class FileJournal {
+
+    private static final String JOURNAL_FILE_NAME = "pl-idm-journal.log";
+    private static final String COMPACTING_JOURNAL_FILE_NAME = "pl-idm-journal.log.compacting";
+
+    private final File journalFile;
+    private final File compactingFile;
+
+    private DataOutputStream output;
+    private int pendingEntries;
+
+    FileJournal(String workingDir) {
+        this.journalFile = new File(workingDir + File.separator + JOURNAL_FILE_NAME);
+        this.compactingFile = new File(workingDir + File.separator + COMPACTING_JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * <p>Reads all entries from the rotated journal, if any, and from the current journal.</p>
+     *
+     * @return
+     */
+    List<Entry> read() {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        read(this.compactingFile, entries);
+        read(this.journalFile, entries);
+
+        return entries;
+    }
+
+    synchronized void append(Entry entry) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+            oos.writeObject(entry);
+            oos.close();
+
+            DataOutputStream output = getOutput();
+
+            output.writeInt(bos.size());
+            bos.writeTo(output);
+            output.flush();
+
+            this.pendingEntries++;
+        } catch (IOException e) {
+            throw new IdentityManagementException("Error appending entry to journal.", e);
+        }
+    }
+
+    /**
+     * <p>Rotates the current journal, so it can be discarded once all data files are written.</p>
+     *
+     * @return False if there is nothing to compact.
+     */
+    synchronized boolean rotate() {
+        if (this.compactingFile.exists()) {
+            // a previous compaction did not finish, the data files must be written again before rotating
+            return true;
+        }
+
+        if (this.pendingEntries == 0 && !this.journalFile.exists()) {
+            return false;
+        }
+
+        close();
+
+        if (this.journalFile.exists() && !this.journalFile.renameTo(this.compactingFile)) {
+            throw new IdentityManagementException("Could not rotate journal [" + this.journalFile.getPath() + "].");
+        }
+
+        this.pendingEntries = 0;
+
+        return true;
+    }
+
+    /**
+     * <p>Discards the rotated journal after all data files were written.</p>
+     */
+    synchronized void completeRotation() {
+        this.compactingFile.delete();
+    }
+
+    synchronized void close() {
+        if (this.output != null) {
+            try {
+                this.output.close();
+            } catch (IOException ignore) {
+            }
+
+            this.output = null;
+        }
+    }
+
+    private DataOutputStream getOutput() throws IOException {
+        if (this.output == null) {
+            this.output = new DataOutputStream(new FileOutputStream(this.journalFile, true));
+        }
+
+        return this.output;
+    }
+
+    private void read(File file, List<Entry> entries) {
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream input = null;
+
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+
+            while (true) {
+                int length;
+
+                try {
+                    length = input.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+
+                byte[] bytes = new byte[length];
+
+                try {
+                    input.readFully(bytes);
+                } catch (EOFException eof) {
+                    // incomplete entry, the store was not shutdown properly while appending it
+                    break;
+                }
+
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+
+                entries.add((Entry) ois.readObject());
+            }
+        } catch (Exception e) {
+            throw new IdentityManagementException("Error reading journal [" + file.getPath() + "].", e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>The different kinds of objects that can be stored in the journal.</p>
+     */
+    enum EntryType {
+        PARTITION, IDENTITY_TYPE, CREDENTIALS, RELATIONSHIP, ATTRIBUTE, ATTRIBUTED_TYPE
+    }
+
+    /**
+     * <p>A single change to the stored data.</p>
+     */
+    static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 2716453409237615128L;
+
+        private final EntryType entryType;
+        private final String partitionId;
+        private final String type;
+        private final String id;
+        private final Serializable value;
+
+        Entry(EntryType entryType, String partitionId, String type, String id, Serializable value) {
+            this.entryType = entryType;
+            this.partitionId = partitionId;
+            this.type = type;
+            this.id = id;
+            this.value = value;
+        }
+
+        EntryType getEntryType() {
+            return this.entryType;
+        }
+
+        String getPartitionId() {
+            return this.partitionId;
+        }
+
+        String getType() {
+            return this.type;
+        }
+
+        String getId() {
+            return this.id;
+        }
+
+        /**
+         * <p>The current state of the object, or null if it was removed.</p>
+         *
+         * @return
+         */
+        Serializable getValue() {
+            return this.value;
+        }
+    }
+}
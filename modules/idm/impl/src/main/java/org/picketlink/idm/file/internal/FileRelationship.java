@@ -29,6 +29,7 @@ import org.picketlink.idm.model.annotation.AttributeProperty;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +51,8 @@ public class FileRelationship extends AbstractFileAttributedType<Relationship> {
 
     protected FileRelationship(Relationship object) {
         super(FILE_RELATIONSHIP_VERSION, object);
+        // the referenced identity types are indexed before the relationship is written
+        populateIdentityTypeIds();
     }
 
     @Override
@@ -61,6 +64,10 @@ public class FileRelationship extends AbstractFileAttributedType<Relationship> {
     protected void doPopulateProperties(Map<String, Serializable> properties) throws Exception {
         super.doPopulateProperties(properties);
 
+        populateIdentityTypeIds();
+    }
+
+    private void populateIdentityTypeIds() {
         List<Property<IdentityType>> relationshipIdentityTypes = PropertyQueries
                 .<IdentityType> createQuery(getEntry().getClass())
                 .addCriteria(new TypedPropertyCriteria(IdentityType.class, MatchOption.SUB_TYPE)).getResultList();
@@ -112,6 +119,16 @@ public class FileRelationship extends AbstractFileAttributedType<Relationship> {
         return null;
     }
 
+    /**
+     * <p>Returns the identifiers, as formatted by {@link RelationshipReference#formatId(IdentityType)}, of all identity
+     * types referenced by this relationship.</p>
+     *
+     * @return
+     */
+    public Set<String> getIdentityTypeIds() {
+        return Collections.unmodifiableSet(this.identityTypeIds.keySet());
+    }
+
     public boolean hasIdentityType(IdentityType identityType) {
         return this.identityTypeIds.containsKey(RelationshipReference.formatId(identityType));
     }
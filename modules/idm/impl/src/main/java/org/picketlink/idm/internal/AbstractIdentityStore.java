@@ -19,6 +19,7 @@ package org.picketlink.idm.internal;
 
 import org.picketlink.idm.config.IdentityStoreConfiguration;
 import org.picketlink.idm.credential.Credentials;
+import org.picketlink.idm.credential.handler.AbstractCredentialHandler;
 import org.picketlink.idm.credential.handler.CredentialHandler;
 import org.picketlink.idm.credential.handler.annotations.SupportsCredentials;
 import org.picketlink.idm.model.Account;
@@ -27,12 +28,15 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Relationship;
 import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.RelationshipQuery;
+import org.picketlink.idm.spi.BatchIdentityStore;
 import org.picketlink.idm.spi.IdentityContext;
-import org.picketlink.idm.spi.IdentityStore;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.picketlink.idm.IDMLog.IDENTITY_STORE_LOGGER;
 import static org.picketlink.idm.IDMMessages.MESSAGES;
@@ -40,7 +44,7 @@ import static org.picketlink.idm.IDMMessages.MESSAGES;
 /**
  * @author pedroigor
  */
-public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration> implements IdentityStore<C> {
+public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration> implements BatchIdentityStore<C> {
 
     private C configuration;
     private Map<Class<? extends CredentialHandler>, CredentialHandler> credentialHandlers = new HashMap<Class<? extends CredentialHandler>, CredentialHandler>();
@@ -93,6 +97,34 @@ public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration
         }
     }
 
+    @Override
+    public void addAll(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        for (AttributedType attributedType : attributedTypes) {
+            attributedType.setId(context.getIdGenerator().generate());
+
+            if (IdentityType.class.isInstance(attributedType)) {
+                ((IdentityType) attributedType).setPartition(context.getPartition());
+            }
+        }
+
+        addAttributedTypes(context, attributedTypes);
+
+        if (isTraceEnabled()) {
+            IDENTITY_STORE_LOGGER.tracef("[%s] types successfully added to identity store [%s].", attributedTypes.size(), this);
+        }
+    }
+
+    @Override
+    public boolean supportsRetry(IdentityContext context) {
+        return true;
+    }
+
+    @Override
+    public Set<Object> getStoredValues(IdentityContext context, Class<? extends IdentityType> identityType,
+                                       String propertyName, Collection<?> values) {
+        return null;
+    }
+
     @Override
     public void update(IdentityContext context, AttributedType attributedType) {
         if (IdentityType.class.isInstance(attributedType)) {
@@ -102,6 +134,10 @@ public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration
 
         updateAttributedType(context, attributedType);
 
+        if (Account.class.isInstance(attributedType)) {
+            invalidateVerifiedCredentials((Account) attributedType);
+        }
+
         if (isTraceEnabled()) {
             IDENTITY_STORE_LOGGER.tracef("Type with identifier [%s] successfully updated to identity store [%s].", attributedType.getId(), this);
         }
@@ -117,6 +153,7 @@ public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration
 
             if (Account.class.isInstance(identityType)) {
                 removeCredentials(context, (Account) identityType);
+                invalidateVerifiedCredentials((Account) identityType);
             }
         }
 
@@ -178,6 +215,20 @@ public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration
 
     }
 
+    /**
+     * <p>Stores the given types, which already have an identifier and partition. Subclasses should override this
+     * method to write them in batches, by default each type is stored with {@link #addAttributedType(IdentityContext,
+     * AttributedType)}.</p>
+     *
+     * @param context
+     * @param attributedTypes
+     */
+    protected void addAttributedTypes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        for (AttributedType attributedType : attributedTypes) {
+            addAttributedType(context, attributedType);
+        }
+    }
+
     protected abstract void updateAttributedType(IdentityContext context, AttributedType attributedType);
     protected abstract void removeAttributedType(IdentityContext context, AttributedType attributedType);
 
@@ -223,6 +274,14 @@ public abstract class AbstractIdentityStore<C extends IdentityStoreConfiguration
         }
     }
 
+    private void invalidateVerifiedCredentials(Account account) {
+        for (CredentialHandler credentialHandler : this.credentialHandlers.values()) {
+            if (AbstractCredentialHandler.class.isInstance(credentialHandler)) {
+                ((AbstractCredentialHandler) credentialHandler).invalidateVerifiedCredentials(account);
+            }
+        }
+    }
+
     private boolean isTraceEnabled() {
         return IDENTITY_STORE_LOGGER.isTraceEnabled();
     }
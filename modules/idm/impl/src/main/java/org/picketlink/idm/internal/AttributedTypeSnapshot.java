@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.idm.internal;
+
+import org.picketlink.idm.model.AttributedType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * <p>Immutable, serialized copy of an {@link AttributedType}. Used by caches to make sure that changes to instances
+ * handed out to callers do not affect the cached state.</p>
+ *
+ * @author agent
+ */
+public class AttributedTypeSnapshot<T extends AttributedType> {
+
+    private final String id;
+    private final byte[] snapshot;
+    private final ClassLoader classLoader;
+
+    public AttributedTypeSnapshot(T attributedType) {
+        this.id = attributedType.getId();
+        this.snapshot = serialize(attributedType);
+        this.classLoader = attributedType.getClass().getClassLoader();
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * <p>Returns a new copy of the attributed type.</p>
+     */
+    @SuppressWarnings("unchecked")
+    public T copy() {
+        try {
+            ObjectInputStream ois = new SnapshotInputStream(new ByteArrayInputStream(this.snapshot), this.classLoader);
+
+            try {
+                return (T) ois.readObject();
+            } finally {
+                ois.close();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not copy attributed type [" + this.id + "].", e);
+        }
+    }
+
+    private static byte[] serialize(AttributedType attributedType) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+            oos.writeObject(attributedType);
+            oos.close();
+
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not copy attributed type [" + attributedType.getId() + "].", e);
+        }
+    }
+
+    /**
+     * <p>Resolves classes using the class loader of the copied type first, given that caches may be shared by code
+     * loaded by different class loaders.</p>
+     */
+    private static class SnapshotInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        SnapshotInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (this.classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, this.classLoader);
+                } catch (ClassNotFoundException ignore) {
+                    // try the default resolution
+                }
+            }
+
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal;
+
+import org.picketlink.idm.BatchResult;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BatchAttributeStore;
+import org.picketlink.idm.spi.BatchIdentityStore;
+import org.picketlink.idm.spi.IdentityContext;
+import org.picketlink.idm.spi.IdentityStore;
+import org.picketlink.idm.spi.StoreSelector;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
+import static org.picketlink.idm.IDMLog.IDENTITY_STORE_LOGGER;
+
+/**
+ * <p>Writes {@link AttributedType} instances in bulk on behalf of the identity and relationship managers.</p>
+ *
+ * <p>Instances are grouped by the store responsible for them and passed in chunks to stores implementing
+ * {@link BatchIdentityStore}. If a chunk fails, or the store does not support batches, its instances are added one by one
+ * so that a single failure does not prevent the others from being stored. Chunks are not retried when the store can not
+ * write anymore after the failure, such as when the failure marked a JTA transaction for rollback. In this case all the
+ * instances of the chunk are reported as failed.</p>
+ *
+ * <p>An instance is only reported as succeeded if both the instance and its attributes were stored. When its attributes
+ * can not be stored, the instance is removed again from its store and reported as failed, so that failed instances can
+ * just be added again.</p>
+ *
+ * @author agent
+ */
+abstract class BatchWriter<T extends AttributedType> {
+
+    /**
+     * <p>The maximum number of instances passed to a store at once.</p>
+     */
+    static final int BATCH_SIZE = 1000;
+
+    private final IdentityContext context;
+    private final StoreSelector storeSelector;
+    private final Map<IdentityStore<?>, List<T>> pending = new LinkedHashMap<IdentityStore<?>, List<T>>();
+    private final BatchResult<T> result = new BatchResult<T>();
+
+    BatchWriter(IdentityContext context, StoreSelector storeSelector) {
+        this.context = context;
+        this.storeSelector = storeSelector;
+    }
+
+    /**
+     * <p>Schedules the given instance to be added to the given store.</p>
+     *
+     * @param identityStore
+     * @param attributedType
+     */
+    void add(IdentityStore<?> identityStore, T attributedType) {
+        List<T> attributedTypes = this.pending.get(identityStore);
+
+        if (attributedTypes == null) {
+            attributedTypes = new ArrayList<T>();
+            this.pending.put(identityStore, attributedTypes);
+        }
+
+        attributedTypes.add(attributedType);
+    }
+
+    /**
+     * <p>Marks the given instance as failed, without trying to add it.</p>
+     *
+     * @param attributedType
+     * @param cause
+     */
+    void fail(T attributedType, Exception cause) {
+        IdentityManagementException failure;
+
+        if (IdentityManagementException.class.isInstance(cause)) {
+            failure = (IdentityManagementException) cause;
+        } else {
+            failure = MESSAGES.attributedTypeAddFailed(attributedType, cause);
+        }
+
+        this.result.addFailure(attributedType, failure);
+    }
+
+    /**
+     * <p>Adds all scheduled instances and their attributes.</p>
+     *
+     * @return
+     */
+    BatchResult<T> write() {
+        for (Map.Entry<IdentityStore<?>, List<T>> entry : this.pending.entrySet()) {
+            IdentityStore<?> identityStore = entry.getKey();
+            List<T> attributedTypes = entry.getValue();
+
+            for (int i = 0; i < attributedTypes.size(); i += BATCH_SIZE) {
+                List<T> chunk = attributedTypes.subList(i, Math.min(i + BATCH_SIZE, attributedTypes.size()));
+                List<T> stored = store(identityStore, chunk);
+
+                for (T attributedType : storeAttributes(identityStore, stored)) {
+                    this.result.addSuccess(attributedType);
+                }
+            }
+        }
+
+        this.pending.clear();
+
+        return this.result;
+    }
+
+    /**
+     * <p>Indicates if the given instance, which may have been written by a failed batch, exists in the underlying
+     * store.</p>
+     *
+     * @param attributedType
+     * @return
+     */
+    protected abstract boolean exists(T attributedType);
+
+    /**
+     * <p>Callback invoked for each instance once it is stored, before its attributes are added.</p>
+     *
+     * @param identityStore
+     * @param attributedType
+     */
+    protected void afterAdd(IdentityStore<?> identityStore, T attributedType) {
+    }
+
+    private List<T> store(IdentityStore<?> identityStore, List<T> chunk) {
+        boolean retry = false;
+
+        if (BatchIdentityStore.class.isInstance(identityStore)) {
+            try {
+                ((BatchIdentityStore<?>) identityStore).addAll(this.context, chunk);
+
+                return configure(identityStore, chunk);
+            } catch (Exception e) {
+                if (!((BatchIdentityStore<?>) identityStore).supportsRetry(this.context)) {
+                    for (T attributedType : chunk) {
+                        fail(attributedType, e);
+                    }
+
+                    return new ArrayList<T>();
+                }
+
+                // some instances may have been stored before the failure, the others are added one by one
+                retry = true;
+            }
+        }
+
+        List<T> stored = new ArrayList<T>();
+
+        for (T attributedType : chunk) {
+            try {
+                if (!retry || attributedType.getId() == null || !exists(attributedType)) {
+                    identityStore.add(this.context, attributedType);
+                }
+
+                stored.add(attributedType);
+            } catch (Exception e) {
+                fail(attributedType, e);
+            }
+        }
+
+        return configure(identityStore, stored);
+    }
+
+    private List<T> configure(IdentityStore<?> identityStore, List<T> stored) {
+        List<T> configured = new ArrayList<T>(stored.size());
+
+        for (T attributedType : stored) {
+            try {
+                afterAdd(identityStore, attributedType);
+                configured.add(attributedType);
+            } catch (Exception e) {
+                fail(attributedType, e);
+            }
+        }
+
+        return configured;
+    }
+
+    private List<T> storeAttributes(IdentityStore<?> identityStore, List<T> stored) {
+        AttributeStore<?> attributeStore = this.storeSelector.getStoreForAttributeOperation(this.context);
+
+        if (attributeStore == null || stored.isEmpty()) {
+            return stored;
+        }
+
+        List<T> withAttributes = new ArrayList<T>();
+
+        for (T attributedType : stored) {
+            if (!attributedType.getAttributes().isEmpty()) {
+                withAttributes.add(attributedType);
+            }
+        }
+
+        if (withAttributes.isEmpty()) {
+            return stored;
+        }
+
+        if (attributeStore instanceof BatchAttributeStore) {
+            try {
+                ((BatchAttributeStore<?>) attributeStore).addAttributes(this.context, withAttributes);
+
+                return stored;
+            } catch (Exception e) {
+                if (attributeStore instanceof BatchIdentityStore
+                        && !((BatchIdentityStore<?>) attributeStore).supportsRetry(this.context)) {
+                    // the store can not write anymore, the instances are discarded along with the failed transaction
+                    return remove(stored, failAll(withAttributes, e));
+                }
+
+                // setting an attribute replaces any previous value, so attributes already written are written again
+            }
+        }
+
+        Map<T, T> failed = new IdentityHashMap<T, T>();
+
+        for (T attributedType : withAttributes) {
+            try {
+                for (Attribute<? extends Serializable> attribute : attributedType.getAttributes()) {
+                    attributeStore.setAttribute(this.context, attributedType, attribute);
+                }
+            } catch (Exception e) {
+                rollback(identityStore, attributeStore, attributedType);
+                fail(attributedType, e);
+                failed.put(attributedType, attributedType);
+            }
+        }
+
+        return remove(stored, failed);
+    }
+
+    /**
+     * <p>Removes an instance whose attributes could not be stored, along with any attribute already written.</p>
+     *
+     * @param identityStore
+     * @param attributeStore
+     * @param attributedType
+     */
+    private void rollback(IdentityStore<?> identityStore, AttributeStore<?> attributeStore, T attributedType) {
+        try {
+            for (Attribute<? extends Serializable> attribute : attributedType.getAttributes()) {
+                attributeStore.removeAttribute(this.context, attributedType, attribute.getName());
+            }
+
+            identityStore.remove(this.context, attributedType);
+        } catch (Exception e) {
+            IDENTITY_STORE_LOGGER.debugf(e, "Could not remove [%s] after failing to store its attributes.", attributedType);
+        }
+    }
+
+    private Map<T, T> failAll(List<T> attributedTypes, Exception cause) {
+        Map<T, T> failed = new IdentityHashMap<T, T>();
+
+        for (T attributedType : attributedTypes) {
+            fail(attributedType, cause);
+            failed.put(attributedType, attributedType);
+        }
+
+        return failed;
+    }
+
+    private List<T> remove(List<T> stored, Map<T, T> failed) {
+        List<T> succeeded = new ArrayList<T>(stored.size());
+
+        for (T attributedType : stored) {
+            if (!failed.containsKey(attributedType)) {
+                succeeded.add(attributedType);
+            }
+        }
+
+        return succeeded;
+    }
+}
@@ -21,7 +21,9 @@ import org.picketlink.common.properties.Property;
 import org.picketlink.common.properties.query.AnnotatedPropertyCriteria;
 import org.picketlink.common.properties.query.PropertyQueries;
 import org.picketlink.common.properties.query.PropertyQuery;
+import org.picketlink.idm.BatchResult;
 import org.picketlink.idm.IdGenerator;
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.PartitionManager;
@@ -30,6 +32,8 @@ import org.picketlink.idm.config.IdentityStoreConfiguration.IdentityOperation;
 import org.picketlink.idm.credential.Credentials;
 import org.picketlink.idm.credential.storage.CredentialStorage;
 import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.IdentityTypeDeletedEvent;
+import org.picketlink.idm.event.IdentityTypeUpdatedEvent;
 import org.picketlink.idm.model.Account;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
@@ -41,14 +45,21 @@ import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.RelationshipQuery;
 import org.picketlink.idm.query.internal.DefaultIdentityQuery;
 import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BatchIdentityStore;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.StoreSelector;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
 import static org.picketlink.idm.util.IDMUtil.configureDefaultPartition;
@@ -66,13 +77,21 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
 
     private final StoreSelector storeSelector;
     private final RelationshipManager relationshipManager;
+    private final IdentityCache identityCache;
 
     public ContextualIdentityManager(Partition partition, EventBridge eventBridge, IdGenerator idGenerator,
                                      StoreSelector storeSelector, RelationshipManager relationshipManager) {
+        this(partition, eventBridge, idGenerator, storeSelector, relationshipManager, null);
+    }
+
+    public ContextualIdentityManager(Partition partition, EventBridge eventBridge, IdGenerator idGenerator,
+                                     StoreSelector storeSelector, RelationshipManager relationshipManager,
+                                     IdentityCache identityCache) {
         super(partition, eventBridge, idGenerator);
         this.storeSelector = storeSelector;
         setParameter(IDENTITY_MANAGER_CTX_PARAMETER, this);
         this.relationshipManager = relationshipManager;
+        this.identityCache = identityCache;
     }
 
     @Override
@@ -92,6 +111,144 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
         }
     }
 
+    @Override
+    public <T extends IdentityType> BatchResult<T> addAll(Collection<T> identityTypes) throws IdentityManagementException {
+        if (identityTypes == null) {
+            throw MESSAGES.nullArgument("IdentityType collection");
+        }
+
+        BatchWriter<T> writer = new BatchWriter<T>(this, this.storeSelector) {
+            @Override
+            protected boolean exists(T identityType) {
+                return lookupIdentityById(identityType.getClass(), identityType.getId()) != null;
+            }
+
+            @Override
+            protected void afterAdd(IdentityStore<?> identityStore, T identityType) {
+                configureDefaultPartition(identityType, identityStore, getPartitionManager());
+            }
+        };
+
+        Map<Class<?>, List<Property<Serializable>>> uniqueProperties = new HashMap<Class<?>, List<Property<Serializable>>>();
+        Set<List<Object>> uniqueValues = new HashSet<List<Object>>();
+        Map<IdentityStore<?>, Map<Class<?>, List<T>>> candidates =
+                new LinkedHashMap<IdentityStore<?>, Map<Class<?>, List<T>>>();
+
+        for (T identityType : identityTypes) {
+            try {
+                if (identityType == null) {
+                    throw MESSAGES.nullArgument("IdentityType");
+                }
+
+                List<Property<Serializable>> properties = uniqueProperties.get(identityType.getClass());
+
+                if (properties == null) {
+                    properties = getUniqueProperties(identityType.getClass());
+                    uniqueProperties.put(identityType.getClass(), properties);
+                }
+
+                // duplicates within the collection are not visible to the stores until the batch is written
+                if (!properties.isEmpty()) {
+                    List<Object> values = new ArrayList<Object>();
+
+                    values.add(identityType.getClass());
+
+                    for (Property<Serializable> property : properties) {
+                        values.add(property.getValue(identityType));
+                    }
+
+                    if (!uniqueValues.add(values)) {
+                        throw MESSAGES.identityTypeAlreadyExists(identityType.getClass(), identityType.getId(), getPartition());
+                    }
+                }
+
+                IdentityStore<?> identityStore = this.storeSelector.getStoreForIdentityOperation(this,
+                        IdentityStore.class, identityType.getClass(), IdentityOperation.create);
+                Map<Class<?>, List<T>> storeTypes = candidates.get(identityStore);
+
+                if (storeTypes == null) {
+                    storeTypes = new LinkedHashMap<Class<?>, List<T>>();
+                    candidates.put(identityStore, storeTypes);
+                }
+
+                List<T> typed = storeTypes.get(identityType.getClass());
+
+                if (typed == null) {
+                    typed = new ArrayList<T>();
+                    storeTypes.put(identityType.getClass(), typed);
+                }
+
+                typed.add(identityType);
+            } catch (Exception e) {
+                writer.fail(identityType, e);
+            }
+        }
+
+        for (Map.Entry<IdentityStore<?>, Map<Class<?>, List<T>>> entry : candidates.entrySet()) {
+            IdentityStore<?> identityStore = entry.getKey();
+
+            for (List<T> typed : entry.getValue().values()) {
+                List<Property<Serializable>> properties = uniqueProperties.get(typed.get(0).getClass());
+
+                if (!checkUniqueness(identityStore, typed, properties, writer)) {
+                    for (T identityType : typed) {
+                        try {
+                            checkUniqueness(identityType, properties);
+                            writer.add(identityStore, identityType);
+                        } catch (Exception e) {
+                            writer.fail(identityType, e);
+                        }
+                    }
+                }
+            }
+        }
+
+        return writer.write();
+    }
+
+    /**
+     * <p>Checks the uniqueness of many instances of the same type with a single call to the store, scheduling the
+     * unique ones to be written.</p>
+     *
+     * @return false if the store can not check the instances at once, in which case nothing was scheduled.
+     */
+    private <T extends IdentityType> boolean checkUniqueness(IdentityStore<?> identityStore, List<T> identityTypes,
+                                                             List<Property<Serializable>> uniqueProperties,
+                                                             BatchWriter<T> writer) {
+        if (!BatchIdentityStore.class.isInstance(identityStore) || uniqueProperties.size() != 1) {
+            return false;
+        }
+
+        Property<Serializable> property = uniqueProperties.get(0);
+        Set<Object> values = new HashSet<Object>();
+
+        for (T identityType : identityTypes) {
+            Serializable value = property.getValue(identityType);
+
+            if (value != null) {
+                values.add(value);
+            }
+        }
+
+        Set<Object> storedValues = ((BatchIdentityStore<?>) identityStore).getStoredValues(this,
+                identityTypes.get(0).getClass(), property.getName(), values);
+
+        if (storedValues == null) {
+            return false;
+        }
+
+        for (T identityType : identityTypes) {
+            if (storedValues.contains(property.getValue(identityType))) {
+                writer.fail(identityType, MESSAGES.identityTypeAlreadyExists(identityType.getClass(),
+                        identityType.getId(), getPartition()));
+            } else {
+                writer.add(identityStore, identityType);
+            }
+        }
+
+        return true;
+    }
+
     @Override
     public void update(IdentityType identityType) throws IdentityManagementException {
         checkIfIdentityTypeExists(identityType);
@@ -108,7 +265,11 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
             addAttributes(identityType);
         } catch (Exception e) {
             throw MESSAGES.attributedTypeUpdateFailed(identityType, e);
+        } finally {
+            invalidateCache(identityType);
         }
+
+        getEventBridge().raiseEvent(new IdentityTypeUpdatedEvent(identityType));
     }
 
     @Override
@@ -130,7 +291,11 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
                     .remove(this, identityType);
         } catch (Exception e) {
             throw MESSAGES.attributedTypeRemoveFailed(identityType, e);
+        } finally {
+            invalidateCache(identityType);
         }
+
+        getEventBridge().raiseEvent(new IdentityTypeDeletedEvent(identityType));
     }
 
     @SuppressWarnings("unchecked")
@@ -170,7 +335,7 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
             throw MESSAGES.nullArgument("IdentityType class");
         }
 
-        return new DefaultIdentityQuery(this, identityType, this.storeSelector);
+        return new DefaultIdentityQuery(this, identityType, this.storeSelector, this.identityCache);
     }
 
     @Override
@@ -255,13 +420,13 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
             throw MESSAGES.nullArgument("IdentityType");
         }
 
-        PropertyQuery<Serializable> propertyQuery = PropertyQueries.createQuery(identityType.getClass());
-
-        propertyQuery.addCriteria(new AnnotatedPropertyCriteria(Unique.class));
+        checkUniqueness(identityType, getUniqueProperties(identityType.getClass()));
+    }
 
+    private void checkUniqueness(IdentityType identityType, List<Property<Serializable>> uniqueProperties) {
         IdentityQuery<? extends IdentityType> identityQuery = createIdentityQuery(identityType.getClass());
 
-        for (Property<Serializable> property : propertyQuery.getResultList()) {
+        for (Property<Serializable> property : uniqueProperties) {
             identityQuery.setParameter(AttributedType.QUERY_ATTRIBUTE.byName(property.getName()), property.getValue(identityType));
         }
 
@@ -270,6 +435,14 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
         }
     }
 
+    private List<Property<Serializable>> getUniqueProperties(Class<? extends IdentityType> identityType) {
+        PropertyQuery<Serializable> propertyQuery = PropertyQueries.createQuery(identityType);
+
+        propertyQuery.addCriteria(new AnnotatedPropertyCriteria(Unique.class));
+
+        return propertyQuery.getResultList();
+    }
+
     private void checkIfIdentityTypeExists(IdentityType identityType) throws IdentityManagementException {
         if (identityType == null) {
             throw MESSAGES.nullArgument("IdentityType");
@@ -321,6 +494,12 @@ public class ContextualIdentityManager extends AbstractIdentityContext implement
         }
     }
 
+    private void invalidateCache(IdentityType identityType) {
+        if (this.identityCache != null) {
+            this.identityCache.invalidate(getPartition(), identityType);
+        }
+    }
+
     private PartitionManager getPartitionManager() {
         return (PartitionManager) this.storeSelector;
     }
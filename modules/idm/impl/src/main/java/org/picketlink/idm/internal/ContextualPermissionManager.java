@@ -4,12 +4,17 @@ import static org.picketlink.idm.IDMMessages.MESSAGES;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Set;
 
 import org.picketlink.idm.IdGenerator;
 import org.picketlink.idm.PermissionManager;
 import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.PermissionGrantedEvent;
+import org.picketlink.idm.event.PermissionRevokedEvent;
+import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.permission.Permission;
+import org.picketlink.idm.permission.acl.spi.PermissionStore;
 import org.picketlink.idm.spi.StoreSelector;
 
 /**
@@ -51,13 +56,31 @@ public class ContextualPermissionManager extends AbstractIdentityContext impleme
         return null;
     }
 
+    @Override
+    public List<Permission> listPermissions(Object resource, String operation, Set<IdentityType> assignees) {
+        return getPermissionStore().listPermissions(resource, operation, assignees);
+    }
+
+    @Override
+    public List<Permission> listPermissions(Class<?> resourceClass, Serializable identifier, String operation,
+                                            Set<IdentityType> assignees) {
+        return getPermissionStore().listPermissions(resourceClass, identifier, operation, assignees);
+    }
+
+    @Override
+    public List<Permission> listPermissions(Set<Object> resources, String operation, Set<IdentityType> assignees) {
+        return getPermissionStore().listPermissions(resources, operation, assignees);
+    }
+
     @Override
     public void grantPermission(Permission permission) {
         try {
-            storeSelector.getStoreForPermissionOperation(this).grantPermission(permission);
+            getPermissionStore().grantPermission(permission);
         } catch (Exception e) {
             throw MESSAGES.permissionGrantFailed(permission, e);
         }
+
+        getEventBridge().raiseEvent(new PermissionGrantedEvent(permission));
     }
 
     @Override
@@ -67,7 +90,13 @@ public class ContextualPermissionManager extends AbstractIdentityContext impleme
 
     @Override
     public void revokePermission(Permission permission) {
-        // TODO Auto-generated method stub
+        try {
+            getPermissionStore().revokePermission(permission);
+        } catch (Exception e) {
+            throw MESSAGES.permissionRevokeFailed(permission, e);
+        }
+
+        getEventBridge().raiseEvent(new PermissionRevokedEvent(permission));
     }
 
     @Override
@@ -87,4 +116,14 @@ public class ContextualPermissionManager extends AbstractIdentityContext impleme
         return null;
     }
 
+    private PermissionStore getPermissionStore() {
+        PermissionStore store = storeSelector.getStoreForPermissionOperation(this);
+
+        if (store == null) {
+            throw MESSAGES.permissionStoreNotConfigured(getPartition());
+        }
+
+        return store;
+    }
+
 }
@@ -17,19 +17,26 @@
  */
 package org.picketlink.idm.internal;
 
+import org.picketlink.idm.BatchResult;
 import org.picketlink.idm.IdGenerator;
 import org.picketlink.idm.RelationshipManager;
 import org.picketlink.idm.config.IdentityStoreConfiguration.IdentityOperation;
 import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.RelationshipCreatedEvent;
+import org.picketlink.idm.event.RelationshipDeletedEvent;
+import org.picketlink.idm.event.RelationshipUpdatedEvent;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Relationship;
+import org.picketlink.idm.permission.internal.InheritedPrivileges;
 import org.picketlink.idm.query.RelationshipQuery;
 import org.picketlink.idm.query.internal.DefaultRelationshipQuery;
 import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.StoreSelector;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
@@ -64,6 +71,45 @@ public class ContextualRelationshipManager extends AbstractIdentityContext imple
         } catch (Exception e) {
             throw MESSAGES.attributedTypeAddFailed(relationship, e);
         }
+
+        getEventBridge().raiseEvent(new RelationshipCreatedEvent(relationship));
+    }
+
+    @Override
+    public <T extends Relationship> BatchResult<T> addAll(Collection<T> relationships) {
+        if (relationships == null) {
+            throw MESSAGES.nullArgument("Relationship collection");
+        }
+
+        BatchWriter<T> writer = new BatchWriter<T>(this, this.storeSelector) {
+            @Override
+            protected boolean exists(T relationship) {
+                return lookupById(relationship.getClass(), relationship.getId()) != null;
+            }
+        };
+
+        for (T relationship : relationships) {
+            try {
+                if (relationship == null) {
+                    throw MESSAGES.nullArgument("Relationship");
+                }
+
+                IdentityStore<?> identityStore = this.storeSelector.getStoreForRelationshipOperation(this,
+                        relationship.getClass(), relationship, IdentityOperation.create);
+
+                writer.add(identityStore, relationship);
+            } catch (Exception e) {
+                writer.fail(relationship, e);
+            }
+        }
+
+        BatchResult<T> result = writer.write();
+
+        for (T relationship : result.getSucceeded()) {
+            getEventBridge().raiseEvent(new RelationshipCreatedEvent(relationship));
+        }
+
+        return result;
     }
 
     @Override
@@ -80,6 +126,8 @@ public class ContextualRelationshipManager extends AbstractIdentityContext imple
         } catch (Exception e) {
             throw MESSAGES.attributedTypeUpdateFailed(relationship, e);
         }
+
+        getEventBridge().raiseEvent(new RelationshipUpdatedEvent(relationship));
     }
 
     @Override
@@ -101,6 +149,8 @@ public class ContextualRelationshipManager extends AbstractIdentityContext imple
         } catch (Exception e) {
             throw MESSAGES.attributedTypeRemoveFailed(relationship, e);
         }
+
+        getEventBridge().raiseEvent(new RelationshipDeletedEvent(relationship));
     }
 
     @Override
@@ -166,7 +216,14 @@ public class ContextualRelationshipManager extends AbstractIdentityContext imple
 
     @Override
     public boolean inheritsPrivileges(IdentityType identity, IdentityType assignee) {
-        // TODO Auto-generated method stub
-        return false;
+        if (identity == null) {
+            throw MESSAGES.nullArgument("IdentityType");
+        }
+
+        if (assignee == null) {
+            throw MESSAGES.nullArgument("Assignee");
+        }
+
+        return InheritedPrivileges.getAssignees(this, identity).contains(assignee);
     }
 }
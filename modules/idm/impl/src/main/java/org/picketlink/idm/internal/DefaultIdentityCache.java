@@ -28,19 +28,58 @@ import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.model.basic.User;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Default {@link IdentityCache} implementation.</p>
  *
+ * <p>Entries are kept in a separate region for each partition. Each region is bounded by a maximum number of entries,
+ * evicting the least recently used entries when it is full, and entries expire after a configurable amount of time.</p>
+ *
+ * <p>Entries are stored as a serialized snapshot of the identity type. Each lookup returns a new copy, so callers
+ * can change the returned instances without affecting the cache.</p>
+ *
+ * <p>This class is thread safe and is intended to be shared by all {@link org.picketlink.idm.IdentityManager} instances
+ * created by the same {@link org.picketlink.idm.PartitionManager}.</p>
+ *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
  */
 public class DefaultIdentityCache implements IdentityCache {
 
-    private Map<Partition, Map<String, Agent>> agentsCache = new HashMap<Partition, Map<String, Agent>>();
-    private Map<Partition, Map<String, Role>> rolesCache = new HashMap<Partition, Map<String, Role>>();
-    private Map<Partition, Map<String, Group>> groupsCache = new HashMap<Partition, Map<String, Group>>();
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_EXPIRATION = TimeUnit.MINUTES.toMillis(5);
+
+    private final ConcurrentMap<String, PartitionRegion> regions = new ConcurrentHashMap<String, PartitionRegion>();
+    private final int maxEntries;
+    private final long expiration;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public DefaultIdentityCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_EXPIRATION);
+    }
+
+    /**
+     * @param maxEntries The maximum number of entries for each partition.
+     * @param expiration The time, in milliseconds, an entry is kept in the cache. If zero or negative entries never
+     * expire.
+     */
+    public DefaultIdentityCache(int maxEntries, long expiration) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be greater than zero.");
+        }
+
+        this.maxEntries = maxEntries;
+        this.expiration = expiration;
+    }
 
     @Override
     public User lookupUser(Realm realm, String loginName) {
@@ -55,12 +94,12 @@ public class DefaultIdentityCache implements IdentityCache {
 
     @Override
     public Group lookupGroup(Partition partition, String groupPath) {
-        return getGroups(partition).get(groupPath);
+        return lookup(partition, Group.class, groupPath);
     }
 
     @Override
     public Role lookupRole(Partition partition, String name) {
-        return getRoles(partition).get(name);
+        return lookup(partition, Role.class, name);
     }
 
     @Override
@@ -70,70 +109,229 @@ public class DefaultIdentityCache implements IdentityCache {
 
     @Override
     public void putGroup(Partition partition, Group group) {
-        getGroups(partition).get(group.getPath());
+        put(partition, Group.class, group.getPath(), group);
     }
 
     @Override
     public void putRole(Partition partition, Role role) {
-        getRoles(partition).put(role.getName(), role);
+        put(partition, Role.class, role.getName(), role);
     }
 
     @Override
     public Agent lookupAgent(Realm realm, String loginName) {
-        return getAgents(realm).get(loginName);
+        return lookup(realm, Agent.class, loginName);
     }
 
     @Override
     public void putAgent(Realm realm, Agent agent) {
-        getAgents(realm).get(agent.getLoginName());
+        put(realm, Agent.class, agent.getLoginName(), agent);
     }
 
     @Override
     public void invalidate(Partition partition, IdentityType identityType) {
-        if (Agent.class.isInstance(identityType)) {
-            Agent agent = (Agent) identityType;
-            getAgents((Realm) partition).remove(agent.getLoginName());
-        } else if (Role.class.isInstance(identityType)) {
-            Role role = (Role) identityType;
-            getRoles(partition).remove(role.getName());
-        } else if (Group.class.isInstance(identityType)) {
-            Group group = (Group) identityType;
-            getGroups(partition).remove(group.getPath());
+        if (partition == null || identityType == null) {
+            return;
+        }
+
+        PartitionRegion region = this.regions.get(partition.getId());
+
+        if (region != null) {
+            region.remove(identityType.getId());
+        }
+    }
+
+    @Override
+    public void invalidate(Partition partition) {
+        if (partition != null) {
+            this.regions.remove(partition.getId());
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    private <T extends IdentityType> T lookup(Partition partition, Class<T> type, String key) {
+        T identityType = null;
+
+        if (partition != null && key != null) {
+            PartitionRegion region = this.regions.get(partition.getId());
+
+            if (region != null) {
+                identityType = type.cast(region.get(new EntryKey(type, key)));
+            }
+        }
+
+        if (identityType != null) {
+            this.hitCount.incrementAndGet();
+        } else {
+            this.missCount.incrementAndGet();
+        }
+
+        return identityType;
+    }
+
+    private void put(Partition partition, Class<? extends IdentityType> type, String key, IdentityType identityType) {
+        if (partition == null || key == null || identityType == null) {
+            return;
         }
+
+        getRegion(partition).put(new EntryKey(type, key), identityType);
     }
 
-    private Map<String, Agent> getAgents(Realm realm) {
-        Map<String, Agent> agents = this.agentsCache.get(realm);
+    private PartitionRegion getRegion(Partition partition) {
+        PartitionRegion region = this.regions.get(partition.getId());
+
+        if (region == null) {
+            PartitionRegion newRegion = new PartitionRegion();
+
+            region = this.regions.putIfAbsent(partition.getId(), newRegion);
 
-        if (agents == null) {
-            agents = new HashMap<String, Agent>();
-            this.agentsCache.put(realm, agents);
+            if (region == null) {
+                region = newRegion;
+            }
         }
 
-        return agents;
+        return region;
     }
 
-    private Map<String, Role> getRoles(Partition partition) {
-        Map<String, Role> roles = this.rolesCache.get(partition);
+    /**
+     * <p>Holds the entries for a single partition. Access is guarded by the instance itself, what is fine given that
+     * operations are always bounded by the maximum number of entries.</p>
+     */
+    private class PartitionRegion {
+
+        private final LinkedHashMap<EntryKey, CacheEntry> entries = new LinkedHashMap<EntryKey, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EntryKey, CacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    evictionCount.incrementAndGet();
+                    removeId(eldest.getValue().id, eldest.getKey());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+
+        private final Map<String, EntryKey> keys = new HashMap<String, EntryKey>();
+
+        synchronized IdentityType get(EntryKey key) {
+            CacheEntry entry = this.entries.get(key);
+
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.isExpired()) {
+                this.entries.remove(key);
+                removeId(entry.id, key);
+                evictionCount.incrementAndGet();
+                return null;
+            }
+
+            return entry.copy();
+        }
+
+        synchronized void put(EntryKey key, IdentityType identityType) {
+            // an entry with the same identifier may exist under a different key (eg.: the login name has changed)
+            remove(identityType.getId());
+
+            CacheEntry previous = this.entries.put(key, new CacheEntry(identityType));
+
+            if (previous != null) {
+                removeId(previous.id, key);
+            }
+
+            if (identityType.getId() != null) {
+                this.keys.put(identityType.getId(), key);
+            }
+        }
+
+        synchronized void remove(String id) {
+            if (id == null) {
+                return;
+            }
+
+            EntryKey key = this.keys.remove(id);
 
-        if (roles == null) {
-            roles = new HashMap<String, Role>();
-            this.rolesCache.put(partition, roles);
+            if (key != null) {
+                this.entries.remove(key);
+            }
         }
 
-        return roles;
+        private void removeId(String id, EntryKey key) {
+            if (id != null && key.equals(this.keys.get(id))) {
+                this.keys.remove(id);
+            }
+        }
     }
 
-    private Map<String, Group> getGroups(Partition partition) {
-        Map<String, Group> groups = this.groupsCache.get(partition);
+    private class CacheEntry {
+
+        private final String id;
+        private final AttributedTypeSnapshot<IdentityType> snapshot;
+        private final long expirationTime;
+
+        CacheEntry(IdentityType identityType) {
+            this.id = identityType.getId();
+            this.snapshot = new AttributedTypeSnapshot<IdentityType>(identityType);
 
-        if (groups == null) {
-            groups = new HashMap<String, Group>();
-            this.groupsCache.put(partition, groups);
+            if (expiration > 0) {
+                this.expirationTime = System.currentTimeMillis() + expiration;
+            } else {
+                this.expirationTime = Long.MAX_VALUE;
+            }
         }
 
-        return groups;
+        boolean isExpired() {
+            return System.currentTimeMillis() > this.expirationTime;
+        }
+
+        IdentityType copy() {
+            return this.snapshot.copy();
+        }
     }
 
+    private static class EntryKey {
+
+        private final Class<? extends IdentityType> type;
+        private final String name;
 
-}
\ No newline at end of file
+        EntryKey(Class<? extends IdentityType> type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof EntryKey)) {
+                return false;
+            }
+
+            EntryKey other = (EntryKey) obj;
+
+            return this.type.equals(other.type) && this.name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.type.hashCode() + this.name.hashCode();
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.picketlink.idm.internal;
 
 import org.picketlink.idm.DefaultIdGenerator;
 import org.picketlink.idm.IdGenerator;
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.PartitionManager;
@@ -33,12 +34,11 @@ import org.picketlink.idm.config.JDBCIdentityStoreConfiguration;
 import org.picketlink.idm.config.JPAIdentityStoreConfiguration;
 import org.picketlink.idm.config.LDAPIdentityStoreConfiguration;
 import org.picketlink.idm.config.OperationNotSupportedException;
-import org.picketlink.idm.credential.handler.CredentialHandler;
-import org.picketlink.idm.credential.handler.annotations.SupportsCredentials;
 import org.picketlink.idm.credential.storage.CredentialStorage;
 import org.picketlink.idm.event.EventBridge;
 import org.picketlink.idm.file.internal.FileIdentityStore;
 import org.picketlink.idm.internal.util.RelationshipMetadata;
+import org.picketlink.idm.internal.util.StoreRoutingTable;
 import org.picketlink.idm.jdbc.internal.JDBCIdentityStore;
 import org.picketlink.idm.jpa.internal.JPAIdentityStore;
 import org.picketlink.idm.ldap.internal.LDAPIdentityStore;
@@ -47,7 +47,6 @@ import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.Relationship;
-import org.picketlink.idm.model.annotation.IdentityPartition;
 import org.picketlink.idm.model.basic.Realm;
 import org.picketlink.idm.permission.acl.spi.PermissionStore;
 import org.picketlink.idm.query.IdentityQuery;
@@ -58,6 +57,7 @@ import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.PartitionStore;
 import org.picketlink.idm.spi.StoreSelector;
 
+import java.io.Closeable;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -69,12 +69,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.picketlink.common.util.StringUtil.isNullOrEmpty;
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
 import static org.picketlink.idm.IDMLog.ROOT_LOGGER;
-import static org.picketlink.idm.util.IDMUtil.isTypeSupported;
-import static org.picketlink.idm.util.IDMUtil.toSet;
 
 /**
  * <p>Provides partition management functionality, and partition-specific {@link IdentityManager} instances.</p>
@@ -107,6 +107,11 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
      * The store instances for each IdentityConfiguration, mapped by their corresponding IdentityStoreConfiguration
      */
     private final Map<IdentityConfiguration, Map<IdentityStoreConfiguration, IdentityStore<?>>> stores;
+    /**
+     * Index used to route each operation to the store configuration responsible for it, built once the stores are
+     * created.
+     */
+    private final StoreRoutingTable routingTable;
     /**
      * The IdentityConfiguration that is responsible for managing partition CRUD operations.  It is possible for this
      * value to be null, in which case partition management will not be supported.
@@ -125,6 +130,28 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
      * The ID generator is responsible for generating unique identifier values
      */
     private IdGenerator idGenerator;
+    /**
+     * The identity cache shared by all identity managers created by this instance. It is possible for this value to be
+     * null, in which case caching is disabled.
+     */
+    private final IdentityCache identityCache;
+    /**
+     * Partitions already loaded from the partition store, mapped by the requested partition type and their name. Each
+     * lookup returns a copy of the cached partition.
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, AttributedTypeSnapshot<Partition>>> partitionsByName =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<String, AttributedTypeSnapshot<Partition>>>();
+    /**
+     * Partitions already loaded from the partition store, mapped by the requested partition type and their identifier.
+     * Each lookup returns a copy of the cached partition.
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, AttributedTypeSnapshot<Partition>>> partitionsById =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<String, AttributedTypeSnapshot<Partition>>>();
+    /**
+     * Incremented every time a partition is added, updated or removed. Lookups started before a change are not
+     * allowed to populate the partition caches.
+     */
+    private final AtomicLong partitionVersion = new AtomicLong();
     private RelationshipMetadata relationshipMetadata = new RelationshipMetadata();
 
     public DefaultPartitionManager(IdentityConfiguration configuration) {
@@ -140,12 +167,19 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
     }
 
     public DefaultPartitionManager(Collection<IdentityConfiguration> configurations, EventBridge eventBridge, IdGenerator idGenerator) {
+        this(configurations, eventBridge, idGenerator, null);
+    }
+
+    public DefaultPartitionManager(Collection<IdentityConfiguration> configurations, EventBridge eventBridge,
+                                   IdGenerator idGenerator, IdentityCache identityCache) {
         if (configurations == null || configurations.isEmpty()) {
             throw MESSAGES.configNoIdentityConfigurationProvided();
         }
 
         ROOT_LOGGER.partitionManagerBootstrap();
 
+        this.identityCache = identityCache;
+
         try {
             this.configurations = Collections.unmodifiableCollection(configurations);
 
@@ -199,6 +233,7 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             }
 
             stores = Collections.unmodifiableMap(configuredStores);
+            routingTable = new StoreRoutingTable(this.configurations, stores);
         } catch (Exception e) {
             throw MESSAGES.partitionManagerInitializationFailed(this.getClass(), e);
         }
@@ -218,7 +253,8 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
         Partition storedPartition = getStoredPartition(partition);
 
         try {
-            return new ContextualIdentityManager(storedPartition, eventBridge, idGenerator, this, createRelationshipManager());
+            return new ContextualIdentityManager(storedPartition, eventBridge, idGenerator, this, createRelationshipManager(),
+                    this.identityCache);
         } catch (Exception e) {
             throw MESSAGES.partitionCouldNotCreateIdentityManager(storedPartition);
         }
@@ -263,18 +299,19 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             return (T) createDefaultPartition();
         }
 
-        try {
-            IdentityContext context = createIdentityContext();
-            T partition = getStoreForPartitionOperation(context).<T>get(context, partitionClass, name);
+        T partition = getCachedPartition(this.partitionsByName, partitionClass, name);
+
+        if (partition == null) {
+            long version = this.partitionVersion.get();
+
+            partition = loadPartition(partitionClass, name);
 
             if (partition != null) {
-                loadAttributes(context, (T) partition);
+                cachePartition(version, partitionClass, partition);
             }
-
-            return partition;
-        } catch (Exception e) {
-            throw MESSAGES.partitionGetFailed(partitionClass, name, e);
         }
+
+        return partition;
     }
 
     @Override
@@ -318,18 +355,19 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             return (T) createDefaultPartition();
         }
 
-        try {
-            IdentityContext context = createIdentityContext();
-            T partition = getStoreForPartitionOperation(context).<T>lookupById(context, partitionClass, id);
+        T partition = getCachedPartition(this.partitionsById, partitionClass, id);
+
+        if (partition == null) {
+            long version = this.partitionVersion.get();
+
+            partition = loadPartitionById(partitionClass, id);
 
             if (partition != null) {
-                loadAttributes(context, (T) partition);
+                cachePartition(version, partitionClass, partition);
             }
-
-            return partition;
-        } catch (Exception e) {
-            throw MESSAGES.partitionGetFailed(partitionClass, id, e);
         }
+
+        return partition;
     }
 
     public void add(Partition partition) throws IdentityManagementException {
@@ -349,7 +387,7 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
         }
 
         if (getConfigurationByName(configurationName) != null) {
-            if (getPartition(partition.getClass(), partition.getName()) != null) {
+            if (loadPartition(partition.getClass(), partition.getName()) != null) {
                 throw MESSAGES.partitionAlreadyExistsWithName(partition.getClass(), partition.getName());
             }
 
@@ -367,6 +405,8 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
                 }
             } catch (Exception e) {
                 throw MESSAGES.partitionAddFailed(partition, configurationName, e);
+            } finally {
+                invalidatePartitions();
             }
         }
     }
@@ -383,7 +423,7 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             AttributeStore<?> attributeStore = getStoreForAttributeOperation(context);
 
             if (attributeStore != null) {
-                Partition storedType = lookupById(partition.getClass(), partition.getId());
+                Partition storedType = loadPartitionById(partition.getClass(), partition.getId());
 
                 for (Attribute<? extends Serializable> attribute : storedType.getAttributes()) {
                     if (partition.getAttribute(attribute.getName()) == null) {
@@ -397,6 +437,9 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             }
         } catch (Exception e) {
             throw MESSAGES.partitionUpdateFailed(partition, e);
+        } finally {
+            invalidatePartitions();
+            invalidateCache(partition);
         }
     }
 
@@ -411,7 +454,7 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             AttributeStore<?> attributeStore = getStoreForAttributeOperation(context);
 
             if (attributeStore != null) {
-                Partition storedType = lookupById(partition.getClass(), partition.getId());
+                Partition storedType = loadPartitionById(partition.getClass(), partition.getId());
 
                 IdentityManager identityManager = createIdentityManager(storedType);
                 IdentityQuery<IdentityType> query = identityManager.createIdentityQuery(IdentityType.class);
@@ -428,6 +471,27 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             getStoreForPartitionOperation(context).remove(context, partition);
         } catch (Exception e) {
             throw MESSAGES.partitionRemoveFailed(partition, e);
+        } finally {
+            invalidatePartitions();
+            invalidateCache(partition);
+        }
+    }
+
+    /**
+     * <p>Closes all the identity stores holding resources, such as background threads or open files. This instance
+     * should not be used after calling this method.</p>
+     */
+    public void close() {
+        for (Map<IdentityStoreConfiguration, IdentityStore<?>> configurationStores : this.stores.values()) {
+            for (IdentityStore<?> store : configurationStores.values()) {
+                if (Closeable.class.isInstance(store)) {
+                    try {
+                        ((Closeable) store).close();
+                    } catch (Exception e) {
+                        ROOT_LOGGER.warnf(e, "Error closing identity store [%s].", store);
+                    }
+                }
+            }
         }
     }
 
@@ -470,10 +534,16 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
         Set<IdentityStore<?>> identityStores = new HashSet<IdentityStore<?>>();
 
         for (IdentityConfiguration configuration : this.configurations) {
-            for (IdentityStoreConfiguration storeConfig : configuration.getStoreConfiguration()) {
-                if (storeConfig.supportsType(identityType, IdentityOperation.read) || IdentityType.class.equals(identityType)) {
-                    identityStores.add(getIdentityStoreAndInitializeContext(context, configuration, storeConfig));
-                }
+            List<? extends IdentityStoreConfiguration> storeConfigs;
+
+            if (IdentityType.class.equals(identityType)) {
+                storeConfigs = configuration.getStoreConfiguration();
+            } else {
+                storeConfigs = this.routingTable.getStoreConfigurations(configuration, identityType, IdentityOperation.read);
+            }
+
+            for (IdentityStoreConfiguration storeConfig : storeConfigs) {
+                identityStores.add(getIdentityStoreAndInitializeContext(context, configuration, storeConfig));
             }
         }
 
@@ -486,10 +556,10 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
 
     public <T extends IdentityStore<?>> T lookupStore(IdentityContext context, IdentityConfiguration configuration,
                                                       Class<? extends AttributedType> type, IdentityOperation operation) {
-        for (IdentityStoreConfiguration storeConfig : configuration.getStoreConfiguration()) {
-            if (storeConfig.supportsType(type, operation)) {
-                return getIdentityStoreAndInitializeContext(context, configuration, storeConfig);
-            }
+        List<IdentityStoreConfiguration> storeConfigs = this.routingTable.getStoreConfigurations(configuration, type, operation);
+
+        if (!storeConfigs.isEmpty()) {
+            return getIdentityStoreAndInitializeContext(context, configuration, storeConfigs.get(0));
         }
 
         return null;
@@ -504,38 +574,20 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
         if (this.partitionManagementConfig != null) {
             identityConfiguration = getConfigurationForPartition(context.getPartition());
         } else {
-            for (IdentityConfiguration configuration : this.configurations) {
-                for (IdentityStoreConfiguration storeConfig : configuration.getStoreConfiguration()) {
-                    if (storeConfig.supportsCredential()) {
-                        identityConfiguration = configuration;
-                    }
-                }
-            }
+            identityConfiguration = this.routingTable.getCredentialConfiguration();
         }
 
-        if (identityConfiguration != null && identityConfiguration.supportsCredential()) {
-            for (IdentityStoreConfiguration storeConfig : identityConfiguration.getStoreConfiguration()) {
-                if (storeConfig.supportsCredential()) {
-                    for (@SuppressWarnings("rawtypes") Class<? extends CredentialHandler> handlerClass : storeConfig.getCredentialHandlers()) {
-                        if (handlerClass.isAnnotationPresent(SupportsCredentials.class)) {
-                            for (Class<?> cls : handlerClass.getAnnotation(SupportsCredentials.class).credentialClass()) {
-                                if (cls.isAssignableFrom(credentialClass)) {
-                                    IdentityStore<?> identityStore = null;
-                                    try {
-                                        store = getIdentityStoreAndInitializeContext(context, identityConfiguration, storeConfig);
-                                    } catch (ClassCastException cce) {
-                                        throw MESSAGES.storeUnexpectedType(identityStore.getClass(), CredentialStore.class);
-                                    }
-
-                                    // if we found a specific handler for the credential, immediately return.
-                                    if (cls.equals(credentialClass)) {
-                                        return store;
-                                    }
-                                }
-                            }
-                        }
-                    }
+        if (identityConfiguration != null) {
+            IdentityStoreConfiguration storeConfig = this.routingTable.getStoreConfigurationForCredential(identityConfiguration, credentialClass);
+
+            if (storeConfig != null) {
+                IdentityStore<?> identityStore = this.stores.get(identityConfiguration).get(storeConfig);
+
+                if (!CredentialStore.class.isInstance(identityStore)) {
+                    throw MESSAGES.storeUnexpectedType(identityStore.getClass(), CredentialStore.class);
                 }
+
+                store = getIdentityStoreAndInitializeContext(context, identityConfiguration, storeConfig);
             }
         }
 
@@ -565,21 +617,17 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             }
 
             if (config.getRelationshipPolicy().isSelfRelationshipSupported(relationshipClass)) {
-                for (IdentityStoreConfiguration storeConfig : config.getStoreConfiguration()) {
-                    if (storeConfig.supportsType(relationshipClass, operation)) {
-                        store = getIdentityStoreAndInitializeContext(context, config, storeConfig);
-                    }
-                }
+                store = lookupLastStore(context, config, relationshipClass, operation);
             }
         } else {
             // This is a multi-partition relationship - use the configuration that supports the global relationship type
             for (Partition partition : partitions) {
                 IdentityConfiguration config = getConfigurationForPartition(partition);
                 if (config.getRelationshipPolicy().isGlobalRelationshipSupported(relationshipClass)) {
-                    for (IdentityStoreConfiguration storeConfig : config.getStoreConfiguration()) {
-                        if (storeConfig.supportsType(relationshipClass, operation)) {
-                            store = getIdentityStoreAndInitializeContext(context, config, storeConfig);
-                        }
+                    IdentityStore<?> globalStore = lookupLastStore(context, config, relationshipClass, operation);
+
+                    if (globalStore != null) {
+                        store = globalStore;
                     }
                 }
             }
@@ -591,10 +639,10 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             for (IdentityConfiguration cfg : configurations) {
                 if (cfg.getRelationshipPolicy().isGlobalRelationshipSupported(relationshipClass)) {
                     // found one
-                    for (IdentityStoreConfiguration storeConfig : cfg.getStoreConfiguration()) {
-                        if (storeConfig.supportsType(relationshipClass, operation)) {
-                            store = getIdentityStoreAndInitializeContext(context, cfg, storeConfig);
-                        }
+                    IdentityStore<?> globalStore = lookupLastStore(context, cfg, relationshipClass, operation);
+
+                    if (globalStore != null) {
+                        store = globalStore;
                     }
                 }
             }
@@ -618,10 +666,8 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             for (IdentityConfiguration config : configurations) {
                 if (config.getRelationshipPolicy().isGlobalRelationshipSupported(relationshipClass) ||
                         config.getRelationshipPolicy().isSelfRelationshipSupported(relationshipClass)) {
-                    for (IdentityStoreConfiguration storeConfig : config.getStoreConfiguration()) {
-                        if (storeConfig.supportsType(relationshipClass, IdentityOperation.create) || Relationship.class.equals(relationshipClass)) {
-                            identityStores.add(getIdentityStoreAndInitializeContext(context, config, storeConfig));
-                        }
+                    for (IdentityStoreConfiguration storeConfig : getStoreConfigurationsForRelationshipQuery(config, relationshipClass)) {
+                        identityStores.add(getIdentityStoreAndInitializeContext(context, config, storeConfig));
                     }
                 }
             }
@@ -629,10 +675,8 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             for (Partition partition : partitions) {
                 IdentityConfiguration config = getConfigurationForPartition(partition);
                 if (config.getRelationshipPolicy().isGlobalRelationshipSupported(relationshipClass)) {
-                    for (IdentityStoreConfiguration storeConfig : config.getStoreConfiguration()) {
-                        if (storeConfig.supportsType(relationshipClass, IdentityOperation.create) || Relationship.class.equals(relationshipClass)) {
-                            identityStores.add(getIdentityStoreAndInitializeContext(context, config, storeConfig));
-                        }
+                    for (IdentityStoreConfiguration storeConfig : getStoreConfigurationsForRelationshipQuery(config, relationshipClass)) {
+                        identityStores.add(getIdentityStoreAndInitializeContext(context, config, storeConfig));
                     }
                 }
             }
@@ -647,18 +691,17 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
 
     @Override
     public <T extends PartitionStore<?>> T getStoreForPartitionOperation(IdentityContext context) {
-        Map<IdentityStoreConfiguration, IdentityStore<?>> configStores = stores.get(this.partitionManagementConfig);
-
-        for (IdentityStoreConfiguration cfg : configStores.keySet()) {
-            if (cfg.supportsType(Partition.class, IdentityOperation.create)) {
-                T store = getIdentityStoreAndInitializeContext(context, this.partitionManagementConfig, cfg);
+        List<IdentityStoreConfiguration> storeConfigs = this.routingTable.getStoreConfigurations(this.partitionManagementConfig,
+                Partition.class, IdentityOperation.create);
 
-                if (!PartitionStore.class.isInstance(store)) {
-                    throw MESSAGES.storeUnexpectedType(store.getClass(), PartitionStore.class);
-                }
+        if (!storeConfigs.isEmpty()) {
+            T store = getIdentityStoreAndInitializeContext(context, this.partitionManagementConfig, storeConfigs.get(0));
 
-                return store;
+            if (!PartitionStore.class.isInstance(store)) {
+                throw MESSAGES.storeUnexpectedType(store.getClass(), PartitionStore.class);
             }
+
+            return store;
         }
 
         throw MESSAGES.storeNotFound(PartitionStore.class);
@@ -687,25 +730,14 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
 
     @Override
     public Set<CredentialStore<?>> getStoresForCredentialStorage(final IdentityContext context, Class<? extends CredentialStorage> storageClass) {
-        Map<IdentityStoreConfiguration, IdentityStore<?>> storesConfig = this.stores.get(getConfigurationForPartition(context.getPartition()));
+        IdentityConfiguration identityConfiguration = getConfigurationForPartition(context.getPartition());
+        Map<IdentityStoreConfiguration, IdentityStore<?>> storesConfig = this.stores.get(identityConfiguration);
 
         Set<CredentialStore<?>> credentialStores = new HashSet<CredentialStore<?>>();
 
         if (storesConfig != null) {
-            for (IdentityStore identityStore : storesConfig.values()) {
-                if (CredentialStore.class.isInstance(identityStore) && identityStore.getConfig().supportsCredential()) {
-                    CredentialStore<?> credentialStore = (CredentialStore<?>) identityStore;
-
-                    for (Class<? extends CredentialHandler> credentialHandler : credentialStore.getConfig().getCredentialHandlers()) {
-                        SupportsCredentials supportedCredentials = credentialHandler.getAnnotation(SupportsCredentials.class);
-
-                        if (supportedCredentials != null) {
-                            if (supportedCredentials.credentialStorage().equals(storageClass)) {
-                                credentialStores.add(credentialStore);
-                            }
-                        }
-                    }
-                }
+            for (IdentityStoreConfiguration storeConfig : this.routingTable.getStoreConfigurationsForCredentialStorage(identityConfiguration, storageClass)) {
+                credentialStores.add((CredentialStore<?>) storesConfig.get(storeConfig));
             }
         }
 
@@ -815,14 +847,9 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
 
     private void checkSupportedTypes(Partition partition, Class<? extends AttributedType> type) {
         if (partition != null) {
-            if (IdentityType.class.isAssignableFrom(type)) {
-                IdentityPartition identityPartition = partition.getClass().getAnnotation(IdentityPartition.class);
-
-                if (identityPartition != null
-                        && isTypeSupported((Class<? extends IdentityType>) type, toSet(identityPartition.supportedTypes()),
-                        toSet(identityPartition.unsupportedTypes())) == -1) {
-                    throw MESSAGES.partitionUnsupportedType(partition, type);
-                }
+            if (IdentityType.class.isAssignableFrom(type)
+                    && !this.routingTable.isSupportedByPartition(partition.getClass(), (Class<? extends IdentityType>) type)) {
+                throw MESSAGES.partitionUnsupportedType(partition, type);
             }
         }
     }
@@ -832,7 +859,7 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
             throw MESSAGES.nullArgument("Partition");
         }
 
-        if (lookupById(partition.getClass(), partition.getId()) == null) {
+        if (loadPartitionById(partition.getClass(), partition.getId()) == null) {
             throw MESSAGES.partitionNotFoundWithName(partition.getClass(), partition.getName());
         }
     }
@@ -914,6 +941,125 @@ public class DefaultPartitionManager implements PartitionManager, StoreSelector
         return (T) store;
     }
 
+    private <T extends Partition> T loadPartition(Class<T> partitionClass, String name) {
+        try {
+            IdentityContext context = createIdentityContext();
+            T partition = getStoreForPartitionOperation(context).<T>get(context, partitionClass, name);
+
+            if (partition != null) {
+                loadAttributes(context, partition);
+            }
+
+            return partition;
+        } catch (Exception e) {
+            throw MESSAGES.partitionGetFailed(partitionClass, name, e);
+        }
+    }
+
+    private <T extends Partition> T loadPartitionById(Class<T> partitionClass, String id) {
+        try {
+            IdentityContext context = createIdentityContext();
+            T partition = getStoreForPartitionOperation(context).<T>lookupById(context, partitionClass, id);
+
+            if (partition != null) {
+                loadAttributes(context, partition);
+            }
+
+            return partition;
+        } catch (Exception e) {
+            throw MESSAGES.partitionGetFailed(partitionClass, id, e);
+        }
+    }
+
+    private <T extends Partition> T getCachedPartition(Map<Class<?>, ConcurrentMap<String, AttributedTypeSnapshot<Partition>>> cache,
+                                                       Class<T> partitionClass, String key) {
+        Map<String, AttributedTypeSnapshot<Partition>> partitions = cache.get(partitionClass);
+
+        if (partitions != null) {
+            AttributedTypeSnapshot<Partition> snapshot = partitions.get(key);
+
+            if (snapshot != null) {
+                return partitionClass.cast(snapshot.copy());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>Caches a partition loaded from the store. If any partition was changed since <code>version</code> was read,
+     * the partition is discarded given that it may be stale.</p>
+     */
+    private void cachePartition(long version, Class<?> partitionClass, Partition partition) {
+        if (version != this.partitionVersion.get()) {
+            return;
+        }
+
+        AttributedTypeSnapshot<Partition> snapshot = new AttributedTypeSnapshot<Partition>(partition);
+
+        getPartitionCache(this.partitionsByName, partitionClass).put(partition.getName(), snapshot);
+        getPartitionCache(this.partitionsById, partitionClass).put(partition.getId(), snapshot);
+
+        // a concurrent change may have happened after the version check above
+        if (version != this.partitionVersion.get()) {
+            invalidatePartitions();
+        }
+    }
+
+    private ConcurrentMap<String, AttributedTypeSnapshot<Partition>> getPartitionCache(
+            ConcurrentMap<Class<?>, ConcurrentMap<String, AttributedTypeSnapshot<Partition>>> cache, Class<?> partitionClass) {
+        ConcurrentMap<String, AttributedTypeSnapshot<Partition>> partitions = cache.get(partitionClass);
+
+        if (partitions == null) {
+            ConcurrentMap<String, AttributedTypeSnapshot<Partition>> newPartitions =
+                    new ConcurrentHashMap<String, AttributedTypeSnapshot<Partition>>();
+
+            partitions = cache.putIfAbsent(partitionClass, newPartitions);
+
+            if (partitions == null) {
+                partitions = newPartitions;
+            }
+        }
+
+        return partitions;
+    }
+
+    private void invalidatePartitions() {
+        this.partitionVersion.incrementAndGet();
+        this.partitionsByName.clear();
+        this.partitionsById.clear();
+    }
+
+    private void invalidateCache(Partition partition) {
+        if (this.identityCache != null) {
+            this.identityCache.invalidate(partition);
+        }
+    }
+
+    /**
+     * <p>Returns the last {@link IdentityStore} from the given {@link IdentityConfiguration} that supports the given
+     * type and operation.</p>
+     */
+    private IdentityStore<?> lookupLastStore(IdentityContext context, IdentityConfiguration configuration,
+                                             Class<? extends AttributedType> type, IdentityOperation operation) {
+        List<IdentityStoreConfiguration> storeConfigs = this.routingTable.getStoreConfigurations(configuration, type, operation);
+
+        if (storeConfigs.isEmpty()) {
+            return null;
+        }
+
+        return getIdentityStoreAndInitializeContext(context, configuration, storeConfigs.get(storeConfigs.size() - 1));
+    }
+
+    private List<? extends IdentityStoreConfiguration> getStoreConfigurationsForRelationshipQuery(IdentityConfiguration configuration,
+                                                                                                 Class<? extends Relationship> relationshipClass) {
+        if (Relationship.class.equals(relationshipClass)) {
+            return configuration.getStoreConfiguration();
+        }
+
+        return this.routingTable.getStoreConfigurations(configuration, relationshipClass, IdentityOperation.create);
+    }
+
     private <T extends Partition> void loadAttributes(final IdentityContext context, final T partition) {
         AttributeStore<?> attributeStore = getStoreForAttributeOperation(context);
 
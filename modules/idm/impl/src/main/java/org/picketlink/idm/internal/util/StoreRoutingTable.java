@@ -0,0 +1,342 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.internal.util;
+
+import org.picketlink.idm.config.IdentityConfiguration;
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.config.IdentityStoreConfiguration.IdentityOperation;
+import org.picketlink.idm.credential.handler.CredentialHandler;
+import org.picketlink.idm.credential.handler.annotations.SupportsCredentials;
+import org.picketlink.idm.credential.storage.CredentialStorage;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.model.annotation.IdentityPartition;
+import org.picketlink.idm.spi.CredentialStore;
+import org.picketlink.idm.spi.IdentityStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.picketlink.idm.util.IDMUtil.isTypeSupported;
+import static org.picketlink.idm.util.IDMUtil.toSet;
+
+/**
+ * <p>Routing index used to select the {@link IdentityStoreConfiguration} responsible for a given operation, so that
+ * store selection does not need to evaluate the supported types or the credential handler annotations of every
+ * configured store on each invocation.</p>
+ *
+ * <p>Credential routes are built eagerly from the {@link SupportsCredentials} annotation of each configured
+ * {@link CredentialHandler}. Type routes are resolved once for each type and operation, given that the set of
+ * {@link AttributedType} types is not known upfront, and are never changed afterwards.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author agent
+ */
+public class StoreRoutingTable {
+
+    private final Map<IdentityConfiguration, List<CredentialRoute>> credentialRoutes;
+    private final Map<IdentityConfiguration, Map<Class<? extends CredentialStorage>, List<IdentityStoreConfiguration>>> credentialStorageRoutes;
+    private final IdentityConfiguration credentialConfiguration;
+
+    private final ConcurrentMap<TypeRouteKey, List<IdentityStoreConfiguration>> typeRoutes =
+            new ConcurrentHashMap<TypeRouteKey, List<IdentityStoreConfiguration>>();
+    private final ConcurrentMap<CredentialRouteKey, List<IdentityStoreConfiguration>> resolvedCredentialRoutes =
+            new ConcurrentHashMap<CredentialRouteKey, List<IdentityStoreConfiguration>>();
+    private final ConcurrentMap<TypeRouteKey, Boolean> partitionTypes = new ConcurrentHashMap<TypeRouteKey, Boolean>();
+
+    public StoreRoutingTable(Collection<IdentityConfiguration> configurations,
+                             Map<IdentityConfiguration, Map<IdentityStoreConfiguration, IdentityStore<?>>> stores) {
+        Map<IdentityConfiguration, List<CredentialRoute>> credentialRoutes =
+                new HashMap<IdentityConfiguration, List<CredentialRoute>>();
+        Map<IdentityConfiguration, Map<Class<? extends CredentialStorage>, List<IdentityStoreConfiguration>>> credentialStorageRoutes =
+                new HashMap<IdentityConfiguration, Map<Class<? extends CredentialStorage>, List<IdentityStoreConfiguration>>>();
+        IdentityConfiguration credentialConfiguration = null;
+
+        for (IdentityConfiguration configuration : configurations) {
+            List<CredentialRoute> routes = new ArrayList<CredentialRoute>();
+            Map<Class<? extends CredentialStorage>, List<IdentityStoreConfiguration>> storageRoutes =
+                    new HashMap<Class<? extends CredentialStorage>, List<IdentityStoreConfiguration>>();
+
+            for (IdentityStoreConfiguration storeConfig : configuration.getStoreConfiguration()) {
+                if (!storeConfig.supportsCredential()) {
+                    continue;
+                }
+
+                credentialConfiguration = configuration;
+
+                boolean isCredentialStore = CredentialStore.class.isInstance(stores.get(configuration).get(storeConfig));
+
+                for (@SuppressWarnings("rawtypes") Class<? extends CredentialHandler> handlerClass : storeConfig.getCredentialHandlers()) {
+                    SupportsCredentials supportsCredentials = handlerClass.getAnnotation(SupportsCredentials.class);
+
+                    if (supportsCredentials == null) {
+                        continue;
+                    }
+
+                    for (Class<?> credentialClass : supportsCredentials.credentialClass()) {
+                        routes.add(new CredentialRoute(credentialClass, storeConfig));
+                    }
+
+                    if (isCredentialStore) {
+                        List<IdentityStoreConfiguration> storageStores = storageRoutes.get(supportsCredentials.credentialStorage());
+
+                        if (storageStores == null) {
+                            storageStores = new ArrayList<IdentityStoreConfiguration>();
+                            storageRoutes.put(supportsCredentials.credentialStorage(), storageStores);
+                        }
+
+                        if (!storageStores.contains(storeConfig)) {
+                            storageStores.add(storeConfig);
+                        }
+                    }
+                }
+            }
+
+            credentialRoutes.put(configuration, Collections.unmodifiableList(routes));
+            credentialStorageRoutes.put(configuration, Collections.unmodifiableMap(storageRoutes));
+        }
+
+        this.credentialRoutes = Collections.unmodifiableMap(credentialRoutes);
+        this.credentialStorageRoutes = Collections.unmodifiableMap(credentialStorageRoutes);
+        this.credentialConfiguration = credentialConfiguration;
+    }
+
+    /**
+     * <p>Returns all store configurations from the given {@link IdentityConfiguration} that support the given type
+     * and operation, in the same order they were configured.</p>
+     *
+     * @param configuration
+     * @param type
+     * @param operation
+     *
+     * @return
+     */
+    public List<IdentityStoreConfiguration> getStoreConfigurations(IdentityConfiguration configuration,
+                                                                   Class<? extends AttributedType> type,
+                                                                   IdentityOperation operation) {
+        TypeRouteKey key = new TypeRouteKey(configuration, type, operation);
+        List<IdentityStoreConfiguration> storeConfigs = this.typeRoutes.get(key);
+
+        if (storeConfigs == null) {
+            List<IdentityStoreConfiguration> supportedConfigs = new ArrayList<IdentityStoreConfiguration>();
+
+            for (IdentityStoreConfiguration storeConfig : configuration.getStoreConfiguration()) {
+                if (storeConfig.supportsType(type, operation)) {
+                    supportedConfigs.add(storeConfig);
+                }
+            }
+
+            storeConfigs = Collections.unmodifiableList(supportedConfigs);
+
+            this.typeRoutes.putIfAbsent(key, storeConfigs);
+        }
+
+        return storeConfigs;
+    }
+
+    /**
+     * <p>Returns the store configuration from the given {@link IdentityConfiguration} that should be used to process
+     * the given credential class. A handler that supports exactly the given class takes precedence over handlers
+     * supporting one of its super types.</p>
+     *
+     * @param configuration
+     * @param credentialClass
+     *
+     * @return The store configuration or null if no configured handler supports the credential class.
+     */
+    public IdentityStoreConfiguration getStoreConfigurationForCredential(IdentityConfiguration configuration,
+                                                                         Class<?> credentialClass) {
+        CredentialRouteKey key = new CredentialRouteKey(configuration, credentialClass);
+        List<IdentityStoreConfiguration> storeConfig = this.resolvedCredentialRoutes.get(key);
+
+        if (storeConfig == null) {
+            IdentityStoreConfiguration selectedConfig = null;
+            List<CredentialRoute> routes = this.credentialRoutes.get(configuration);
+
+            if (routes != null) {
+                for (CredentialRoute route : routes) {
+                    if (route.credentialClass.isAssignableFrom(credentialClass)) {
+                        selectedConfig = route.storeConfiguration;
+
+                        if (route.credentialClass.equals(credentialClass)) {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (selectedConfig == null) {
+                storeConfig = Collections.emptyList();
+            } else {
+                storeConfig = Collections.singletonList(selectedConfig);
+            }
+
+            this.resolvedCredentialRoutes.putIfAbsent(key, storeConfig);
+        }
+
+        return storeConfig.isEmpty() ? null : storeConfig.get(0);
+    }
+
+    /**
+     * <p>Returns the store configurations from the given {@link IdentityConfiguration} whose stores are {@link
+     * CredentialStore} instances and are able to handle the given {@link CredentialStorage} type.</p>
+     *
+     * @param configuration
+     * @param storageClass
+     *
+     * @return
+     */
+    public List<IdentityStoreConfiguration> getStoreConfigurationsForCredentialStorage(IdentityConfiguration configuration,
+                                                                                       Class<? extends CredentialStorage> storageClass) {
+        Map<Class<? extends CredentialStorage>, List<IdentityStoreConfiguration>> storageRoutes =
+                this.credentialStorageRoutes.get(configuration);
+
+        if (storageRoutes != null) {
+            List<IdentityStoreConfiguration> storeConfigs = storageRoutes.get(storageClass);
+
+            if (storeConfigs != null) {
+                return storeConfigs;
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * <p>Returns the last configured {@link IdentityConfiguration} that supports credentials, or null if none of them
+     * do.</p>
+     *
+     * @return
+     */
+    public IdentityConfiguration getCredentialConfiguration() {
+        return this.credentialConfiguration;
+    }
+
+    /**
+     * <p>Checks if the given {@link IdentityType} type is supported by the {@link IdentityPartition} annotation of the
+     * given partition type.</p>
+     *
+     * @param partitionClass
+     * @param type
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public boolean isSupportedByPartition(Class<? extends Partition> partitionClass, Class<? extends IdentityType> type) {
+        TypeRouteKey key = new TypeRouteKey(partitionClass, type, null);
+        Boolean supported = this.partitionTypes.get(key);
+
+        if (supported == null) {
+            IdentityPartition identityPartition = partitionClass.getAnnotation(IdentityPartition.class);
+
+            supported = identityPartition == null
+                    || isTypeSupported((Class<IdentityType>) type, toSet(identityPartition.supportedTypes()),
+                        toSet(identityPartition.unsupportedTypes())) != -1;
+
+            this.partitionTypes.putIfAbsent(key, supported);
+        }
+
+        return supported;
+    }
+
+    private static class CredentialRoute {
+
+        private final Class<?> credentialClass;
+        private final IdentityStoreConfiguration storeConfiguration;
+
+        CredentialRoute(Class<?> credentialClass, IdentityStoreConfiguration storeConfiguration) {
+            this.credentialClass = credentialClass;
+            this.storeConfiguration = storeConfiguration;
+        }
+    }
+
+    private static class TypeRouteKey {
+
+        private final Object owner;
+        private final Class<?> type;
+        private final IdentityOperation operation;
+
+        TypeRouteKey(Object owner, Class<?> type, IdentityOperation operation) {
+            this.owner = owner;
+            this.type = type;
+            this.operation = operation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof TypeRouteKey)) {
+                return false;
+            }
+
+            TypeRouteKey other = (TypeRouteKey) obj;
+
+            return this.owner == other.owner && this.type.equals(other.type) && this.operation == other.operation;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(this.owner);
+            result = 31 * result + this.type.hashCode();
+            result = 31 * result + (this.operation != null ? this.operation.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static class CredentialRouteKey {
+
+        private final IdentityConfiguration configuration;
+        private final Class<?> credentialClass;
+
+        CredentialRouteKey(IdentityConfiguration configuration, Class<?> credentialClass) {
+            this.configuration = configuration;
+            this.credentialClass = credentialClass;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof CredentialRouteKey)) {
+                return false;
+            }
+
+            CredentialRouteKey other = (CredentialRouteKey) obj;
+
+            return this.configuration == other.configuration && this.credentialClass.equals(other.credentialClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(this.configuration) + this.credentialClass.hashCode();
+        }
+    }
+}
@@ -18,8 +18,10 @@
 package org.picketlink.idm.jdbc.internal;
 
 import java.io.Serializable;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,18 +36,29 @@ import org.picketlink.idm.jdbc.internal.mappers.JdbcMapper;
 import org.picketlink.idm.jdbc.internal.model.AbstractJdbcType;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
 import org.picketlink.idm.jdbc.internal.model.RelationshipJdbcType;
+import org.picketlink.idm.jdbc.internal.model.db.AttributeStorageUtil;
+import org.picketlink.idm.jdbc.internal.model.db.GroupStorageUtil;
+import org.picketlink.idm.jdbc.internal.model.db.RelationshipStorageUtil;
+import org.picketlink.idm.jdbc.internal.model.db.RoleStorageUtil;
+import org.picketlink.idm.jdbc.internal.model.db.StorageSession;
+import org.picketlink.idm.jdbc.internal.model.db.UserStorageUtil;
 import org.picketlink.idm.model.Account;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.Relationship;
+import org.picketlink.idm.model.basic.Agent;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
 import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.query.AttributeParameter;
 import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.query.RelationshipQuery;
-import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BatchAttributeStore;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.PartitionStore;
@@ -57,10 +70,11 @@ import org.picketlink.idm.spi.PartitionStore;
  */
 public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreConfiguration> implements
         CredentialStore<JDBCIdentityStoreConfiguration>, PartitionStore<JDBCIdentityStoreConfiguration>,
-        AttributeStore<JDBCIdentityStoreConfiguration> {
+        BatchAttributeStore<JDBCIdentityStoreConfiguration> {
 
     private DataSource dataSource = null;
     private JdbcMapper mapper = new JdbcMapper();
+    private final ThreadLocal<StorageSession> sessions = new ThreadLocal<StorageSession>();
 
     @Override
     public void setup(JDBCIdentityStoreConfiguration config) {
@@ -77,9 +91,12 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     @Override
     protected void removeFromRelationships(IdentityContext context, IdentityType identityType) {
-        AbstractJdbcType att = mapper.getInstance(identityType.getClass());
-        att.setDataSource(dataSource);
-        att.deleteRelationships(identityType);
+        StorageSession session = openSession();
+        try {
+            getJdbcType(identityType.getClass(), session).deleteRelationships(identityType);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
@@ -89,22 +106,87 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     protected void addAttributedType(IdentityContext context, AttributedType attributedType) {
         // Store attributedType in DB
-        AbstractJdbcType att = mapper.getInstance(attributedType.getClass());
-        att.setDataSource(dataSource).persist(attributedType);
+        StorageSession session = openSession();
+        try {
+            getJdbcType(attributedType.getClass(), session).persist(attributedType);
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    @Override
+    protected void addAttributedTypes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        List<Agent> agents = new ArrayList<Agent>();
+        List<Role> roles = new ArrayList<Role>();
+        List<Group> groups = new ArrayList<Group>();
+        List<Relationship> relationships = new ArrayList<Relationship>();
+
+        StorageSession session = openSession();
+        boolean transaction = false;
+        try {
+            // the whole batch is written using a single connection and transaction
+            transaction = session.beginTransaction();
+
+            for (AttributedType attributedType : attributedTypes) {
+                if (attributedType instanceof Agent) {
+                    agents.add((Agent) attributedType);
+                } else if (attributedType instanceof Role) {
+                    roles.add((Role) attributedType);
+                } else if (attributedType instanceof Group) {
+                    groups.add((Group) attributedType);
+                } else if (attributedType instanceof Grant || attributedType instanceof GroupMembership) {
+                    relationships.add((Relationship) attributedType);
+                } else {
+                    // custom types are stored one by one by their mapped type
+                    getJdbcType(attributedType.getClass(), session).persist(attributedType);
+                }
+            }
+
+            // Store each table using a single JDBC batch
+            if (!agents.isEmpty()) {
+                new UserStorageUtil().storeAgents(session, agents);
+            }
+            if (!roles.isEmpty()) {
+                new RoleStorageUtil().storeRoles(session, roles);
+            }
+            if (!groups.isEmpty()) {
+                new GroupStorageUtil().storeGroups(session, groups);
+            }
+            if (!relationships.isEmpty()) {
+                new RelationshipStorageUtil().storeRelationships(session, relationships);
+            }
+
+            if (transaction) {
+                session.commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (transaction) {
+                session.rollback();
+            }
+            closeSession(session);
+        }
     }
 
     @Override
     protected void updateAttributedType(IdentityContext context, AttributedType attributedType) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setDataSource(dataSource);
-        ajt.update(attributedType);
+        StorageSession session = openSession();
+        try {
+            getJdbcType(attributedType.getClass(), session).update(attributedType);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
     protected void removeAttributedType(IdentityContext context, AttributedType attributedType) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setDataSource(dataSource);
-        ajt.delete(attributedType);
+        StorageSession session = openSession();
+        try {
+            getJdbcType(attributedType.getClass(), session).delete(attributedType);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
@@ -126,100 +208,165 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     @Override
     public <V extends IdentityType> List<V> fetchQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
-        List<V> result = new ArrayList<V>();
-        AttributedType attributedType = null;
-
-        if (identityQuery.getParameter(IdentityType.ID) != null) {
-            Object[] parameter = identityQuery.getParameter(IdentityType.ID);
-
-            if (parameter.length > 0) {
-                Object id = parameter[0];
-                // ADD to result
-                AbstractJdbcType ajt = mapper.getInstance(identityQuery.getIdentityType());
-                ajt.setDataSource(dataSource);
-                attributedType = ajt.load((String) id, identityQuery.getIdentityType());
-                if (attributedType != null) {
-                    result.add((V) attributedType);
-                }
-            } else {
-                throw new RuntimeException();
-            }
-        } else {
-            AbstractJdbcType ajt = mapper.getInstance(identityQuery.getIdentityType());
-            ajt.setDataSource(dataSource);
-            List<? extends AttributedType> list = ajt.load(identityQuery.getParameters(), identityQuery.getIdentityType());
-            if (!list.isEmpty()) {
-                result.addAll((Collection<? extends V>) list);
-            }
+        StorageSession session = openSession();
+        try {
+            List<? extends AttributedType> list = getJdbcType(identityQuery.getIdentityType(), session).load(identityQuery);
+            return new ArrayList<V>((Collection<? extends V>) list);
+        } finally {
+            closeSession(session);
         }
-        return result;
     }
 
     @Override
     public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
-        throw new RuntimeException();
+        StorageSession session = openSession();
+        try {
+            return getJdbcType(identityQuery.getIdentityType(), session).count(identityQuery);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
     public <V extends Relationship> List<V> fetchQueryResults(IdentityContext context, RelationshipQuery<V> query) {
-        RelationshipJdbcType relationshipJdbcType = new RelationshipJdbcType();
-        relationshipJdbcType.setDataSource(dataSource);
-
-        List<V> result = new ArrayList<V>();
-        List<? extends AttributedType> list = relationshipJdbcType.load(query.getParameters(), query.getRelationshipClass());
-        if (list.isEmpty() == false) {
-            result.addAll((Collection<? extends V>) list);
+        StorageSession session = openSession();
+        try {
+            RelationshipJdbcType relationshipJdbcType = new RelationshipJdbcType();
+            relationshipJdbcType.setSession(session);
+            return new ArrayList<V>((Collection<? extends V>) relationshipJdbcType.load(query));
+        } finally {
+            closeSession(session);
         }
-        return result;
     }
 
     @Override
     public <V extends Relationship> int countQueryResults(IdentityContext context, RelationshipQuery<V> query) {
-        throw new RuntimeException();
+        StorageSession session = openSession();
+        try {
+            RelationshipJdbcType relationshipJdbcType = new RelationshipJdbcType();
+            relationshipJdbcType.setSession(session);
+            return relationshipJdbcType.count(query);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
     public void setAttribute(IdentityContext context, AttributedType attributedType, Attribute<? extends Serializable> attribute) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setId(attributedType.getId());
-        ajt.setDataSource(dataSource);
-        ajt.setType(attributedType);
-        ajt.setAttribute(attribute);
+        StorageSession session = openSession();
+        try {
+            getJdbcType(attributedType, session).setAttribute(attribute);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
     public <V extends Serializable> Attribute<V> getAttribute(IdentityContext context, AttributedType attributedType,
             String attributeName) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setId(attributedType.getId());
-        ajt.setDataSource(dataSource);
-        ajt.setType(attributedType);
-        return ajt.getAttribute(attributeName);
+        StorageSession session = openSession();
+        try {
+            return getJdbcType(attributedType, session).getAttribute(attributeName);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
     public void removeAttribute(IdentityContext context, AttributedType attributedType, String attributeName) {
-        AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-        ajt.setId(attributedType.getId());
-        ajt.setDataSource(dataSource);
-        ajt.setType(attributedType);
-        ajt.removeAttribute(attributeName);
+        StorageSession session = openSession();
+        try {
+            getJdbcType(attributedType, session).removeAttribute(attributeName);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
     public void loadAttributes(IdentityContext context, AttributedType attributedType) {
         if (attributedType != null) {
-            // We need to load the attributes from DB into attributedType
-            AbstractJdbcType ajt = mapper.getInstance(attributedType.getClass());
-            ajt.setDataSource(dataSource);
-            ajt.setId(attributedType.getId());
-
-            Collection<? extends Attribute> attributes = ajt.getAttributes();
-            if (attributes != null) {
-                for (Attribute attribute : attributes) {
+            loadAttributes(context, Collections.singletonList(attributedType));
+        }
+    }
+
+    @Override
+    public void loadAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        if (attributedTypes.isEmpty()) {
+            return;
+        }
+
+        Map<String, AttributedType> attributedTypesById = new HashMap<String, AttributedType>();
+        for (AttributedType attributedType : attributedTypes) {
+            attributedTypesById.put(attributedType.getId(), attributedType);
+        }
+
+        // We need to load the attributes from DB into the attributed types, using a single query for all of them
+        StorageSession session = openSession();
+        try {
+            Map<String, List<Attribute>> attributes = new AttributeStorageUtil().loadAttributes(session,
+                    attributedTypesById.keySet());
+            for (Map.Entry<String, List<Attribute>> entry : attributes.entrySet()) {
+                AttributedType attributedType = attributedTypesById.get(entry.getKey());
+                for (Attribute attribute : entry.getValue()) {
                     attributedType.setAttribute(attribute);
                 }
             }
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Open the {@link StorageSession} of the current thread. Operations invoked while another operation of this store
+     * is running on the same thread reuse its session, and so its connection and prepared statements.
+     * @return
+     */
+    private StorageSession openSession() {
+        StorageSession session = this.sessions.get();
+        if (session == null || !session.isOpen()) {
+            session = new StorageSession(this.dataSource);
+            this.sessions.set(session);
+        }
+        return session.open();
+    }
+
+    private void closeSession(StorageSession session) {
+        session.close();
+        if (!session.isOpen()) {
+            this.sessions.remove();
+        }
+    }
+
+    private AbstractJdbcType getJdbcType(Class<? extends AttributedType> type, StorageSession session) {
+        AbstractJdbcType ajt = mapper.getInstance(type);
+        ajt.setSession(session);
+        return ajt;
+    }
+
+    private AbstractJdbcType getJdbcType(AttributedType attributedType, StorageSession session) {
+        AbstractJdbcType ajt = getJdbcType(attributedType.getClass(), session);
+        ajt.setId(attributedType.getId());
+        ajt.setType(attributedType);
+        return ajt;
+    }
+
+    @Override
+    public void addAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        StorageSession session = openSession();
+        boolean transaction = false;
+        try {
+            transaction = session.beginTransaction();
+            new AttributeStorageUtil().addAttributes(session, attributedTypes);
+            if (transaction) {
+                session.commit();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (transaction) {
+                session.rollback();
+            }
+            closeSession(session);
         }
     }
 
@@ -231,11 +378,16 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     @Override
     public <P extends Partition> P get(IdentityContext identityContext, Class<P> partitionClass, String name) {
-        PartitionJdbcType pjt = new PartitionJdbcType(name);
-        pjt.setDataSource(dataSource);
-        Map<QueryParameter, Object[]> map = new HashMap<QueryParameter, Object[]>();
-        map.put(new AttributeParameter("name"), new Object[] { name });
-        return (P) pjt.load(map, Partition.class).get(0);
+        StorageSession session = openSession();
+        try {
+            PartitionJdbcType pjt = new PartitionJdbcType(name);
+            pjt.setSession(session);
+            Map<QueryParameter, Object[]> map = new HashMap<QueryParameter, Object[]>();
+            map.put(new AttributeParameter("name"), new Object[] { name });
+            return (P) pjt.load(map, Partition.class).get(0);
+        } finally {
+            closeSession(session);
+        }
     }
 
     @Override
@@ -250,17 +402,22 @@ public class JDBCIdentityStore extends AbstractIdentityStore<JDBCIdentityStoreCo
 
     @Override
     public void add(IdentityContext identityContext, Partition partition, String configurationName) {
-        PartitionJdbcType partitionJdbcType = new PartitionJdbcType(partition.getName());
-        partitionJdbcType.setDataSource(dataSource);
-        if (partition.getId() == null) {
-            if (partition instanceof Realm) {
-                partitionJdbcType.setId(Realm.DEFAULT_REALM);
-            } else {
-                partitionJdbcType.setId(identityContext.getIdGenerator().generate());
+        StorageSession session = openSession();
+        try {
+            PartitionJdbcType partitionJdbcType = new PartitionJdbcType(partition.getName());
+            partitionJdbcType.setSession(session);
+            if (partition.getId() == null) {
+                if (partition instanceof Realm) {
+                    partitionJdbcType.setId(Realm.DEFAULT_REALM);
+                } else {
+                    partitionJdbcType.setId(identityContext.getIdGenerator().generate());
+                }
             }
+            partitionJdbcType.setConfigurationName(configurationName).setTypeName(partition.getClass().getName());
+            partitionJdbcType.persist(partitionJdbcType);
+        } finally {
+            closeSession(session);
         }
-        partitionJdbcType.setConfigurationName(configurationName).setTypeName(partition.getClass().getName());
-        partitionJdbcType.persist(partitionJdbcType);
     }
 
     @Override
@@ -24,8 +24,10 @@ import java.util.Set;
 
 import javax.sql.DataSource;
 
+import org.picketlink.idm.jdbc.internal.model.db.StorageSession;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -37,6 +39,7 @@ public abstract class AbstractJdbcType implements AttributedType, Serializable {
     private static final long serialVersionUID = 1L;
     protected String id;
     protected DataSource dataSource;
+    protected transient StorageSession session;
     protected AttributedType type;
 
     /**
@@ -73,6 +76,26 @@ public abstract class AbstractJdbcType implements AttributedType, Serializable {
         return this.dataSource;
     }
 
+    /**
+     * Set the {@link StorageSession} used to access the database. All the types involved in the same operation
+     * share the session, and with it a single connection and its prepared statements.
+     * @param session
+     * @return
+     */
+    public AbstractJdbcType setSession(StorageSession session) {
+        this.session = session;
+        this.dataSource = session.getDataSource();
+        return this;
+    }
+
+    /**
+     * Get the {@link StorageSession}
+     * @return
+     */
+    public StorageSession getSession() {
+        return this.session;
+    }
+
     public AbstractJdbcType setType(AttributedType attributedType) {
         this.type = attributedType;
         return this;
@@ -120,6 +143,25 @@ public abstract class AbstractJdbcType implements AttributedType, Serializable {
     public abstract List<? extends AttributedType> load(Map<QueryParameter, Object[]> params,
             Class<? extends AttributedType> attributedType);
 
+    /**
+     * Load the {@link AttributedType} matching the {@link IdentityQuery}. Types that can push the paging and sorting
+     * of the query to the database should override this method, by default only the query parameters are considered.
+     * @param identityQuery
+     * @return
+     */
+    public List<? extends AttributedType> load(IdentityQuery<?> identityQuery) {
+        return load(identityQuery.getParameters(), identityQuery.getIdentityType());
+    }
+
+    /**
+     * Count the {@link AttributedType} matching the {@link IdentityQuery}
+     * @param identityQuery
+     * @return
+     */
+    public int count(IdentityQuery<?> identityQuery) {
+        return load(identityQuery.getParameters(), identityQuery.getIdentityType()).size();
+    }
+
     /**
      * Store the {@link AttributedType} in the database
      * @param attributedType
@@ -20,7 +20,6 @@ package org.picketlink.idm.jdbc.internal.model;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -34,11 +33,10 @@ import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.basic.Agent;
-import org.picketlink.idm.model.basic.Grant;
 import org.picketlink.idm.model.basic.Group;
-import org.picketlink.idm.model.basic.GroupMembership;
 import org.picketlink.idm.model.basic.Role;
 import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -78,7 +76,7 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
         removeAttribute(attribute.getName());
 
         AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-        attributeStorageUtil.setAttribute(dataSource, type.getId(), attribute);
+        attributeStorageUtil.setAttribute(session, type.getId(), attribute);
     }
 
     @Override
@@ -87,7 +85,7 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
             throw IDMMessages.MESSAGES.nullArgument("type");
         }
         AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-        attributeStorageUtil.deleteAttribute(dataSource, type.getId(), name);
+        attributeStorageUtil.deleteAttribute(session, type.getId(), name);
     }
 
     @Override
@@ -96,32 +94,33 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
             throw IDMMessages.MESSAGES.nullArgument("type");
         }
         AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-        return attributeStorageUtil.getAttribute(dataSource, type.getId(), name);
+        return attributeStorageUtil.getAttribute(session, type.getId(), name);
     }
 
     @Override
     public Collection<Attribute<? extends Serializable>> getAttributes() {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+        Collection<Attribute<? extends Serializable>> list = new ArrayList<Attribute<? extends Serializable>>();
+        AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
+        for (Attribute attribute : attributeStorageUtil.getAttributes(session, id)) {
+            list.add(attribute);
         }
-        return Collections.EMPTY_LIST;
+        return list;
     }
 
     @Override
     public void delete(AttributedType attributedType) {
-        String attributedTypeId = attributedType.getId();
         if (attributedType instanceof User) {
             UserStorageUtil userStorageUtil = new UserStorageUtil();
-            userStorageUtil.deleteUser(dataSource, (User) attributedType);
+            userStorageUtil.deleteUser(session, (User) attributedType);
         }else if (attributedType instanceof Role) {
             RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-            roleStorageUtil.deleteRole(dataSource, (Role) attributedType);
+            roleStorageUtil.deleteRole(session, (Role) attributedType);
         }else if (attributedType instanceof Group) {
             GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-            groupStorageUtil.deleteGroup(dataSource, (Group) attributedType);
+            groupStorageUtil.deleteGroup(session, (Group) attributedType);
         }else if (attributedType instanceof Agent) {
             UserStorageUtil userStorageUtil = new UserStorageUtil();
-            userStorageUtil.deleteAgent(dataSource, (Agent) attributedType);
+            userStorageUtil.deleteAgent(session, (Agent) attributedType);
         }else {
             throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
         }
@@ -129,51 +128,11 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
 
     @Override
     public void deleteRelationships(AttributedType attributedType) {
-        RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
-        if(attributedType instanceof User){
-            List<Grant> grants = relationshipStorageUtil.loadGrantsForUser(dataSource, (User) attributedType);
-            if(grants != null){
-                for(Grant grant: grants){
-                    relationshipStorageUtil.deleteGrant(dataSource,grant.getId());
-                }
-            }
-            List<GroupMembership> groupMemberships =
-                    relationshipStorageUtil.loadGroupMembershipsForUser(dataSource, (User) attributedType);
-            if(groupMemberships != null){
-                for(GroupMembership groupMembership: groupMemberships){
-                    relationshipStorageUtil.deleteGroupMembership(dataSource,groupMembership.getId());
-                }
-            }
-        } else if(attributedType instanceof Role){
-            List<Grant> grants = relationshipStorageUtil.loadGrantsForRole(dataSource, (Role) attributedType);
-            if(grants != null){
-                for(Grant grant: grants){
-                    relationshipStorageUtil.deleteGrant(dataSource,grant.getId());
-                }
-            }
-        } else if(attributedType instanceof Group){
-            List<GroupMembership> groupMemberships = relationshipStorageUtil.loadGroupMembershipForGroup(dataSource, (Group) attributedType);
-            if(groupMemberships != null){
-                for(GroupMembership groupMembership: groupMemberships){
-                    relationshipStorageUtil.deleteGroupMembership(dataSource,groupMembership.getId());
-                }
-            }
-        } else if(attributedType instanceof Agent){
-            List<Grant> grants = relationshipStorageUtil.loadGrantsForAgent(dataSource, (Agent) attributedType);
-            if(grants != null){
-                for(Grant grant: grants){
-                    relationshipStorageUtil.deleteGrant(dataSource,grant.getId());
-                }
-            }
-            List<GroupMembership> groupMemberships = relationshipStorageUtil.loadGroupMembershipsForAgent(dataSource, (Agent) attributedType);
-            if(groupMemberships != null){
-                for(GroupMembership groupMembership: groupMemberships){
-                    relationshipStorageUtil.deleteGroupMembership(dataSource,groupMembership.getId());
-                }
-            }
-        } else {
+        if (!(attributedType instanceof IdentityType)) {
             throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
         }
+        RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
+        relationshipStorageUtil.deleteRelationships(session, attributedType.getId());
     }
 
     @Override
@@ -187,19 +146,19 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
             if (attributedType instanceof User) {
                 // Fresh instance
                 UserStorageUtil userStorageUtil = new UserStorageUtil();
-                userStorageUtil.storeUser(dataSource, (User) attributedType);
+                userStorageUtil.storeUser(session, (User) attributedType);
             } else if (attributedType instanceof Role) {
                 // Fresh instance
                 RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-                roleStorageUtil.storeRole(dataSource, (Role) attributedType);
+                roleStorageUtil.storeRole(session, (Role) attributedType);
             } else if (attributedType instanceof Group) {
                 // Fresh instance
                 GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-                groupStorageUtil.storeGroup(dataSource, (Group) attributedType);
+                groupStorageUtil.storeGroup(session, (Group) attributedType);
             } else if (attributedType instanceof Agent) {
                 // Fresh instance
                 UserStorageUtil userStorageUtil = new UserStorageUtil();
-                userStorageUtil.storeAgent(dataSource, (Agent) attributedType);
+                userStorageUtil.storeAgent(session, (Agent) attributedType);
             } else {
                 throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
             }
@@ -210,13 +169,13 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
     public AttributedType load(String id, AttributedType attributedType) {
         if (attributedType instanceof User || attributedType instanceof Agent) {
             UserStorageUtil userStorageUtil = new UserStorageUtil();
-            return userStorageUtil.loadUser(dataSource, id);
+            return userStorageUtil.loadUser(session, id);
         } else if (attributedType instanceof Role) {
             RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-            return roleStorageUtil.loadRole(dataSource, id);
+            return roleStorageUtil.loadRole(session, id);
         } else if (attributedType instanceof Group) {
             GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-            return groupStorageUtil.loadGroup(dataSource, id);
+            return groupStorageUtil.loadGroup(session, id);
         }
         throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
     }
@@ -228,58 +187,61 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
         GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
 
         if (attributedType == User.class || attributedType == Agent.class) {
-            return userStorageUtil.loadUser(dataSource, id);
+            return userStorageUtil.loadUser(session, id);
         } else if (attributedType == Role.class) {
-            return roleStorageUtil.loadRole(dataSource, id);
+            return roleStorageUtil.loadRole(session, id);
         }  else if (attributedType == Group.class) {
-            return groupStorageUtil.loadGroup(dataSource, id);
+            return groupStorageUtil.loadGroup(session, id);
         } else if (attributedType == IdentityType.class) {
             // Try User first
-            AttributedType storedType = userStorageUtil.loadUser(dataSource, id);
+            AttributedType storedType = userStorageUtil.loadUser(session, id);
             if (storedType != null) {
                 return storedType;
             }
             // Role
-            storedType = roleStorageUtil.loadRole(dataSource, id);
+            storedType = roleStorageUtil.loadRole(session, id);
             if (storedType != null) {
                 return storedType;
             }
             // Group
-            storedType = groupStorageUtil.loadGroup(dataSource, id);
-            if (storedType != null) {
-                return storedType;
-            }
-            throw new RuntimeException("TODO: Cannot find identity type");
-
+            return groupStorageUtil.loadGroup(session, id);
         }
-        throw new RuntimeException();
+        throw IDMMessages.MESSAGES.unexpectedType(attributedType);
     }
 
     @Override
     public List<? extends AttributedType> load(Map<QueryParameter, Object[]> params,
             Class<? extends AttributedType> attributedType) {
-        List<AttributedType> result = new ArrayList<AttributedType>();
-        AttributedType attributedType1 = null;
+        return load(params, attributedType, null, true, 0, 0);
+    }
 
-        if (attributedType == User.class) {
-            UserStorageUtil userStorageUtil = new UserStorageUtil();
-            attributedType1 = userStorageUtil.loadUser(dataSource, params);
+    /**
+     * Load the {@link IdentityType} matching the query, pushing the sorting and paging to the database
+     * @param identityQuery
+     * @return
+     */
+    @Override
+    public List<? extends AttributedType> load(IdentityQuery<?> identityQuery) {
+        return load(identityQuery.getParameters(), identityQuery.getIdentityType(), identityQuery.getSortParameters(),
+                identityQuery.isSortAscending(), identityQuery.getOffset(), identityQuery.getLimit());
+    }
+
+    @Override
+    public int count(IdentityQuery<?> identityQuery) {
+        Map<QueryParameter, Object[]> params = identityQuery.getParameters();
+        Class<?> attributedType = identityQuery.getIdentityType();
+
+        if (attributedType == User.class || attributedType == Agent.class) {
+            return new UserStorageUtil().countUsers(session, params);
         } else if (attributedType == Role.class) {
-            RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-            attributedType1 = roleStorageUtil.loadRole(dataSource, params);
+            return new RoleStorageUtil().countRoles(session, params);
         } else if (attributedType == Group.class) {
-            GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-            attributedType1 = groupStorageUtil.loadGroup(dataSource, params);
-        } else if (attributedType == Agent.class) {
-            UserStorageUtil userStorageUtil = new UserStorageUtil();
-            attributedType1 = userStorageUtil.loadUser(dataSource, params);
-        }else
-            throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
-
-        if (attributedType1 != null) {
-            result.add(attributedType1);
+            return new GroupStorageUtil().countGroups(session, params);
+        } else if (attributedType == IdentityType.class) {
+            return new UserStorageUtil().countUsers(session, params) + new RoleStorageUtil().countRoles(session, params)
+                    + new GroupStorageUtil().countGroups(session, params);
         }
-        return result;
+        throw IDMMessages.MESSAGES.unexpectedType(attributedType);
     }
 
     @Override
@@ -288,15 +250,37 @@ public class IdentityManagedJdbcType extends AbstractJdbcType {
         RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
         GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
         if (attributedType instanceof User) {
-            userStorageUtil.updateUser(dataSource, (User) attributedType);
+            userStorageUtil.updateUser(session, (User) attributedType);
         }else if (attributedType instanceof Role) {
-            roleStorageUtil.updateRole(dataSource, (Role) attributedType);
+            roleStorageUtil.updateRole(session, (Role) attributedType);
         }else if (attributedType instanceof Group) {
-            groupStorageUtil.updateGroup(dataSource, (Group) attributedType);
+            groupStorageUtil.updateGroup(session, (Group) attributedType);
         }else if (attributedType instanceof Agent) {
-            userStorageUtil.updateAgent(dataSource, (Agent) attributedType);
+            userStorageUtil.updateAgent(session, (Agent) attributedType);
         }else {
             throw new RuntimeException(attributedType.getClass().getName());
         }
     }
-}
\ No newline at end of file
+
+    private List<? extends AttributedType> load(Map<QueryParameter, Object[]> params,
+            Class<? extends AttributedType> attributedType, QueryParameter[] sortParameters, boolean ascending,
+            int offset, int limit) {
+        if (attributedType == User.class || attributedType == Agent.class) {
+            return new UserStorageUtil().loadUsers(session, params, sortParameters, ascending, offset, limit);
+        } else if (attributedType == Role.class) {
+            return new RoleStorageUtil().loadRoles(session, params, sortParameters, ascending, offset, limit);
+        } else if (attributedType == Group.class) {
+            return new GroupStorageUtil().loadGroups(session, params, sortParameters, ascending, offset, limit);
+        } else if (attributedType == IdentityType.class) {
+            // the types are stored in different tables, paging is applied after merging the results
+            List<AttributedType> result = new ArrayList<AttributedType>();
+            result.addAll(new UserStorageUtil().loadUsers(session, params, sortParameters, ascending, 0, 0));
+            result.addAll(new RoleStorageUtil().loadRoles(session, params, sortParameters, ascending, 0, 0));
+            result.addAll(new GroupStorageUtil().loadGroups(session, params, sortParameters, ascending, 0, 0));
+            int fromIndex = Math.min(Math.max(offset, 0), result.size());
+            int toIndex = limit > 0 ? Math.min(fromIndex + limit, result.size()) : result.size();
+            return result.subList(fromIndex, toIndex);
+        }
+        throw IDMMessages.MESSAGES.unexpectedType(attributedType);
+    }
+}
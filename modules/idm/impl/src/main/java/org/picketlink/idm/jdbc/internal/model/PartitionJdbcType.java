@@ -92,8 +92,8 @@ public class PartitionJdbcType extends AbstractJdbcType implements Partition {
 
     @Override
     public Collection<Attribute<? extends Serializable>> getAttributes() {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+        if (session == null) {
+            throw IDMMessages.MESSAGES.nullArgument("session");
         }
         return Collections.EMPTY_LIST;
     }
@@ -113,20 +113,20 @@ public class PartitionJdbcType extends AbstractJdbcType implements Partition {
         PartitionJdbcType partition = (PartitionJdbcType) attributedType;
         if (load(partition.getId(), partition) == null) {
             PartitionStorageUtil partitionStorageUtil = new PartitionStorageUtil();
-            partitionStorageUtil.storePartition(dataSource, partition);
+            partitionStorageUtil.storePartition(session, partition);
         }
     }
 
     @Override
     public AttributedType load(String id, AttributedType attributedType) {
         PartitionStorageUtil partitionStorageUtil = new PartitionStorageUtil();
-        return partitionStorageUtil.loadPartitionById(dataSource, id);
+        return partitionStorageUtil.loadPartitionById(session, id);
     }
 
     @Override
     public AttributedType load(String id, Class<? extends AttributedType> attributedType) {
         PartitionStorageUtil partitionStorageUtil = new PartitionStorageUtil();
-        return partitionStorageUtil.loadPartitionById(dataSource, id);
+        return partitionStorageUtil.loadPartitionById(session, id);
     }
 
     @Override
@@ -135,7 +135,7 @@ public class PartitionJdbcType extends AbstractJdbcType implements Partition {
         List<AttributedType> result = new ArrayList<AttributedType>();
         Object[] name = getValuesFromParamMap(params,new AttributeParameter("name"));
         PartitionStorageUtil partitionStorageUtil = new PartitionStorageUtil();
-        result.add(partitionStorageUtil.loadPartitionByName(dataSource, (String) name[0]));
+        result.add(partitionStorageUtil.loadPartitionByName(session, (String) name[0]));
         return result;
     }
 
@@ -22,26 +22,19 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.picketlink.idm.IDMMessages;
 import org.picketlink.idm.jdbc.internal.model.db.AttributeStorageUtil;
 import org.picketlink.idm.jdbc.internal.model.db.RelationshipStorageUtil;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.AttributedType;
-import org.picketlink.idm.model.IdentityType;
-import org.picketlink.idm.model.Relationship;
-import org.picketlink.idm.model.basic.Agent;
 import org.picketlink.idm.model.basic.Grant;
-import org.picketlink.idm.model.basic.Group;
 import org.picketlink.idm.model.basic.GroupMembership;
-import org.picketlink.idm.model.basic.Role;
-import org.picketlink.idm.model.basic.User;
-import org.picketlink.idm.query.AttributeParameter;
 import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.query.RelationshipQuery;
 
 /**
- * JDBC Type for {@link Relationship}
+ * JDBC Type for {@link org.picketlink.idm.model.Relationship}
  * @author Anil Saldhana
  * @since October 25, 2013
  */
@@ -50,9 +43,9 @@ public class RelationshipJdbcType extends AbstractJdbcType {
     public void delete(AttributedType attributedType) {
         RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
         if (attributedType instanceof Grant) {
-            relationshipStorageUtil.deleteGrant(dataSource, attributedType.getId());
+            relationshipStorageUtil.deleteGrant(session, attributedType.getId());
         } else if (attributedType instanceof GroupMembership) {
-            relationshipStorageUtil.deleteGroupMembership(dataSource, attributedType.getId());
+            relationshipStorageUtil.deleteGroupMembership(session, attributedType.getId());
         } else {
             throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
         }
@@ -67,131 +60,55 @@ public class RelationshipJdbcType extends AbstractJdbcType {
     public void persist(AttributedType attributedType) {
         RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
         if (attributedType instanceof Grant) {
-            relationshipStorageUtil.storeGrant(dataSource, (Grant) attributedType);
+            relationshipStorageUtil.storeGrant(session, (Grant) attributedType);
         } else if (attributedType instanceof GroupMembership) {
-            relationshipStorageUtil.storeGroupMembership(dataSource, (GroupMembership) attributedType);
+            relationshipStorageUtil.storeGroupMembership(session, (GroupMembership) attributedType);
         } else
             throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
     }
 
     @Override
     public AttributedType load(String id, AttributedType attributedType) {
-        throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
+        return load(id, attributedType.getClass());
     }
 
     @Override
     public AttributedType load(String id, Class<? extends AttributedType> attributedType) {
-        throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
+        RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
+        if (attributedType == Grant.class) {
+            return relationshipStorageUtil.loadGrant(session, id);
+        } else if (attributedType == GroupMembership.class) {
+            return relationshipStorageUtil.loadGroupMembership(session, id);
+        }
+        throw IDMMessages.MESSAGES.unexpectedType(attributedType);
     }
 
     @Override
     public List<? extends AttributedType> load(Map<QueryParameter, Object[]> params,
             Class<? extends AttributedType> attributedType) {
-        List<AttributedType> result = new ArrayList<AttributedType>();
         RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
+        return relationshipStorageUtil.loadRelationships(session, attributedType, params, 0, 0);
+    }
 
-        if (attributedType == Relationship.class) {
-            Set<QueryParameter> queryParameterSet = params.keySet();
-            QueryParameter queryParameter = queryParameterSet.iterator().next(); // Consider the first
-            Object[] paramValues = params.get(queryParameter);
-            //Fallback on looking through the map
-            if(paramValues == null){
-                if(queryParameter instanceof AttributeParameter){
-                    paramValues = getValuesFromParamMap(params, (AttributeParameter) queryParameter);
-                }
-            }
-            Object paramValue = paramValues[0]; // Consider first
-            if (paramValue instanceof User) {
-                User user = (User) paramValue;
-
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGrantsForUser(dataSource, user));
-
-                // Let us get all the group memberships
-                result.addAll(relationshipStorageUtil.loadGroupMembershipsForUser(dataSource, user));
-            }else if (paramValue instanceof Role) {
-                Role role = (Role) paramValue;
-
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGrantsForRole(dataSource, role));
-            }else if (paramValue instanceof Group) {
-                Group group = (Group) paramValue;
-
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGroupMembershipForGroup(dataSource, group));
-            }else if (paramValue instanceof Agent) {
-                Agent agent = (Agent) paramValue;
-
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGrantsForAgent(dataSource, agent));
+    /**
+     * Load the {@link org.picketlink.idm.model.Relationship} matching the {@link RelationshipQuery}, pushing the paging to the database
+     * @param query
+     * @return
+     */
+    public List<? extends AttributedType> load(RelationshipQuery<?> query) {
+        RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
+        return relationshipStorageUtil.loadRelationships(session, query.getRelationshipClass(), query.getParameters(),
+                query.getOffset(), query.getLimit());
+    }
 
-                // Let us get all the group memberships
-                result.addAll(relationshipStorageUtil.loadGroupMembershipsForAgent(dataSource, agent));
-            } else{
-                throw IDMMessages.MESSAGES.unexpectedType(paramValue.getClass());
-            }
-        } else if (attributedType == Grant.class) {
-            Set<QueryParameter> queryParameterSet = params.keySet();
-            QueryParameter queryParameter = queryParameterSet.iterator().next(); // Consider the first
-            Object[] paramValues = params.get(queryParameter);
-            //Fallback on looking through the map
-            if(paramValues == null){
-                if(queryParameter instanceof AttributeParameter){
-                    paramValues = getValuesFromParamMap(params, (AttributeParameter) queryParameter);
-                }
-            }
-            Object paramValue = paramValues[0]; // Consider first
-            if (paramValue instanceof User) {
-                User user = (User) paramValue;
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGrantsForUser(dataSource, user));
-            }else if (paramValue instanceof Role) {
-                Role role = (Role) paramValue;
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGrantsForRole(dataSource, role));
-            } else if (queryParameter == IdentityType.ID) {
-                Object[] idObj = params.get(IdentityType.ID);
-                String idOfType = (String) idObj[0];
-                RelationshipStorageUtil relationshipStorageUtil1 = new RelationshipStorageUtil();
-                Grant grant = relationshipStorageUtil.loadGrant(dataSource, idOfType);
-                if (grant != null) {
-                    result.add(grant);
-                }
-            } else {
-                throw IDMMessages.MESSAGES.unexpectedType(paramValue.getClass());
-            }
-        } else if (attributedType == GroupMembership.class) {
-            Set<QueryParameter> queryParameterSet = params.keySet();
-            QueryParameter queryParameter = queryParameterSet.iterator().next(); // Consider the first
-            Object[] paramValues = params.get(queryParameter);
-            //Fallback on looking through the map
-            if(paramValues == null){
-                if(queryParameter instanceof AttributeParameter){
-                    paramValues = getValuesFromParamMap(params, (AttributeParameter) queryParameter);
-                }
-            }
-            Object paramValue = paramValues[0]; // Consider first
-            if (paramValue instanceof User) {
-                User user = (User) paramValue;
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGroupMembershipsForUser(dataSource, user));
-            } else if (paramValue instanceof Group) {
-                Group group = (Group) paramValue;
-                // Let us get all the grants
-                result.addAll(relationshipStorageUtil.loadGroupMembershipForGroup(dataSource, group));
-            }else if (queryParameter == IdentityType.ID) {
-                Object[] idObj = params.get(IdentityType.ID);
-                String idOfType = (String) idObj[0];
-                RelationshipStorageUtil relationshipStorageUtil1 = new RelationshipStorageUtil();
-                GroupMembership groupMembership = relationshipStorageUtil.loadGroupMembership(dataSource, idOfType);
-                if (groupMembership != null) {
-                    result.add(groupMembership);
-                }
-            } else
-                throw IDMMessages.MESSAGES.unexpectedType(paramValue.getClass());
-        } else
-            throw IDMMessages.MESSAGES.unexpectedType(attributedType.getClass());
-        return result;
+    /**
+     * Count the {@link org.picketlink.idm.model.Relationship} matching the {@link RelationshipQuery}
+     * @param query
+     * @return
+     */
+    public int count(RelationshipQuery<?> query) {
+        RelationshipStorageUtil relationshipStorageUtil = new RelationshipStorageUtil();
+        return relationshipStorageUtil.countRelationships(session, query.getRelationshipClass(), query.getParameters());
     }
 
     @Override
@@ -219,7 +136,7 @@ public class RelationshipJdbcType extends AbstractJdbcType {
         // Scan the attribute table
         Collection<Attribute<? extends Serializable>> list = new ArrayList<Attribute<? extends Serializable>>();
         AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-        List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, id);
+        List<Attribute> attributeList = attributeStorageUtil.getAttributes(session, id);
         if (attributeList.isEmpty() == false) {
             for (Attribute att : attributeList) {
                 list.add(att);
@@ -227,4 +144,4 @@ public class RelationshipJdbcType extends AbstractJdbcType {
         }
         return list;
     }
-}
\ No newline at end of file
+}
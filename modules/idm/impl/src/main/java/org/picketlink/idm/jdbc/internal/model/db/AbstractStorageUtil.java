@@ -17,17 +17,25 @@
  */
 package org.picketlink.idm.jdbc.internal.model.db;
 
-import java.sql.Connection;
+import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.sql.DataSource;
-
+import org.picketlink.common.util.Base64;
+import org.picketlink.idm.IDMMessages;
+import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.query.AttributeParameter;
 import org.picketlink.idm.query.QueryParameter;
@@ -37,6 +45,23 @@ import org.picketlink.idm.query.QueryParameter;
  * @since October 24, 2013
  */
 public abstract class AbstractStorageUtil {
+    /**
+     * Maximum number of values bound to a single IN clause
+     */
+    protected static final int MAX_IN_VALUES = 500;
+
+    /**
+     * Columns of the {@link Partition} joined with the identity tables
+     */
+    protected static final String PARTITION_COLUMNS = "p.id,p.name,p.typeName,p.configurationName";
+
+    /**
+     * Reads a row of a {@link ResultSet}
+     * @param <T>
+     */
+    protected interface RowReader<T> {
+        T read(ResultSet resultSet) throws SQLException;
+    }
 
     protected Object[] getValuesFromParamMap(Map<QueryParameter, Object[]> params,AttributeParameter attributeParameter){
         Set<QueryParameter> keys = params.keySet();
@@ -53,58 +78,321 @@ public abstract class AbstractStorageUtil {
         return null;
     }
 
-    protected Partition loadPartition(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw new RuntimeException("Null datasource");
-        }
+    /**
+     * Get the join with the {@link Partition} table for the given table alias
+     * @param alias
+     * @return
+     */
+    protected String partitionJoin(String alias) {
+        return " left join Partition p on p.id=" + alias + ".partitionID";
+    }
+
+    /**
+     * Read the {@link Partition} columns selected with {@link #PARTITION_COLUMNS}
+     * @param resultSet
+     * @param column the index of the first partition column
+     * @return
+     * @throws SQLException
+     */
+    protected Partition readPartition(ResultSet resultSet, int column) throws SQLException {
+        String id = resultSet.getString(column);
         if (id == null) {
-            throw new RuntimeException("Null id");
+            return null;
         }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
+        PartitionJdbcType partition = new PartitionJdbcType(resultSet.getString(column + 1));
+        partition.setId(id);
+        partition.setTypeName(resultSet.getString(column + 2));
+        partition.setConfigurationName(resultSet.getString(column + 3));
+        return partition;
+    }
+
+    /**
+     * Execute a query binding the given values
+     * @param session
+     * @param sql
+     * @param values
+     * @return
+     * @throws SQLException
+     */
+    protected ResultSet executeQuery(StorageSession session, String sql, List<Object> values) throws SQLException {
+        PreparedStatement preparedStatement = session.prepareStatement(sql);
+        setValues(preparedStatement, values);
+        return preparedStatement.executeQuery();
+    }
+
+    /**
+     * Execute a query binding the given values and read all rows
+     * @param session
+     * @param sql
+     * @param values
+     * @param offset the number of rows to skip
+     * @param limit the maximum number of rows to read, or zero to read all rows
+     * @param reader
+     * @return
+     */
+    protected <T> List<T> executeQuery(StorageSession session, String sql, List<Object> values, int offset, int limit,
+            RowReader<T> reader) {
+        List<T> result = new ArrayList<T>();
         ResultSet resultSet = null;
         try {
-            connection = dataSource.getConnection();
-            String sql = "select name from Partition where id =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
+            PreparedStatement preparedStatement = session.prepareStatement(sql);
+            setValues(preparedStatement, values);
+            // LIMIT/OFFSET is not supported by every database, paging uses the JDBC API instead
+            if (limit > 0) {
+                preparedStatement.setMaxRows(Math.max(offset, 0) + limit);
+            }
             resultSet = preparedStatement.executeQuery();
+            skip(resultSet, offset);
             while (resultSet.next()) {
-                Partition partition = new PartitionJdbcType(resultSet.getString(1));
-                return partition;
+                result.add(reader.read(resultSet));
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } finally {
             safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
-        return null;
+        return result;
     }
 
-    protected void safeClose(Connection conn) {
-        if (conn != null) {
-            try {
-                conn.close();
-            } catch (SQLException e) {
+    /**
+     * Ensure that the partitions of the given types are stored
+     * @param session
+     * @param identityTypes
+     */
+    protected void storePartitions(StorageSession session, Collection<? extends IdentityType> identityTypes) {
+        PartitionStorageUtil partitionStorageUtil = new PartitionStorageUtil();
+        Set<String> checked = new HashSet<String>();
+        for (IdentityType identityType : identityTypes) {
+            Partition partition = identityType.getPartition();
+            if (partition instanceof PartitionJdbcType && checked.add(partition.getId())
+                    && partitionStorageUtil.loadPartitionById(session, partition.getId()) == null) {
+                partitionStorageUtil.storePartition(session, (PartitionJdbcType) partition);
             }
         }
     }
 
-    protected void safeClose(ResultSet resultSet) {
-        if (resultSet != null) {
-            try {
-                resultSet.close();
-            } catch (SQLException e) {
+    /**
+     * Execute an update binding the given values
+     * @param session
+     * @param sql
+     * @param values
+     * @return the number of updated rows
+     */
+    protected int executeUpdate(StorageSession session, String sql, Object... values) {
+        try {
+            PreparedStatement preparedStatement = session.prepareStatement(sql);
+            List<Object> valueList = new ArrayList<Object>();
+            for (Object value : values) {
+                valueList.add(value);
+            }
+            setValues(preparedStatement, valueList);
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Execute a count query binding the given values
+     * @param session
+     * @param sql
+     * @param values
+     * @return
+     */
+    protected int executeCount(StorageSession session, String sql, List<Object> values) {
+        ResultSet resultSet = null;
+        try {
+            resultSet = executeQuery(session, sql, values);
+            if (resultSet.next()) {
+                return resultSet.getInt(1);
+            }
+            return 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            safeClose(resultSet);
+        }
+    }
+
+    protected void setValues(PreparedStatement preparedStatement, List<Object> values) throws SQLException {
+        int index = 1;
+        for (Object value : values) {
+            if (value instanceof Date) {
+                preparedStatement.setTimestamp(index++, toTimestamp((Date) value));
+            } else {
+                preparedStatement.setObject(index++, value);
+            }
+        }
+    }
+
+    /**
+     * Build the conditions of a query on an identity table from the query parameters
+     *
+     * @param alias the alias of the identity table
+     * @param params the query parameters
+     * @param columns the names of the columns of the identity table, other attribute parameters are
+     *                matched against the Attributes table
+     * @param values the values to bind to the conditions
+     * @return the conditions, or an empty string
+     */
+    protected String buildConditions(String alias, Map<QueryParameter, Object[]> params, Collection<String> columns,
+            List<Object> values) {
+        StringBuilder conditions = new StringBuilder();
+
+        for (Map.Entry<QueryParameter, Object[]> entry : params.entrySet()) {
+            QueryParameter queryParameter = entry.getKey();
+            Object[] paramValues = entry.getValue();
+
+            if (paramValues == null || paramValues.length == 0) {
+                continue;
+            }
+
+            String condition;
+
+            if (queryParameter == IdentityType.ID) {
+                condition = inCondition(alias + ".id", paramValues, values);
+            } else if (queryParameter == IdentityType.PARTITION) {
+                condition = inCondition(alias + ".partitionID", paramValues, values);
+            } else if (queryParameter == IdentityType.ENABLED) {
+                condition = alias + ".enabled=?";
+                values.add(toFlag(Boolean.valueOf(paramValues[0].toString())));
+            } else if (queryParameter == IdentityType.CREATED_AFTER || queryParameter == IdentityType.EXPIRY_AFTER) {
+                condition = alias + "." + ((AttributeParameter) queryParameter).getName() + ">=?";
+                values.add(paramValues[0]);
+            } else if (queryParameter == IdentityType.CREATED_BEFORE || queryParameter == IdentityType.EXPIRY_BEFORE) {
+                condition = alias + "." + ((AttributeParameter) queryParameter).getName() + "<=?";
+                values.add(paramValues[0]);
+            } else if (queryParameter instanceof AttributeParameter) {
+                String name = ((AttributeParameter) queryParameter).getName();
+                if (columns.contains(name)) {
+                    condition = inCondition(alias + "." + name, paramValues, values);
+                } else {
+                    // ad-hoc attributes are stored encoded, equal values have the same encoding
+                    Object[] encodedValues = new Object[paramValues.length];
+                    for (int i = 0; i < paramValues.length; i++) {
+                        encodedValues[i] = Base64.encodeObject((Serializable) paramValues[i]);
+                    }
+                    values.add(name);
+                    condition = "exists (select 1 from Attributes a where a.owner=" + alias + ".id and a.name=? and "
+                            + inCondition("a.value", encodedValues, values) + ")";
+                }
+            } else {
+                throw new IdentityManagementException("Unsupported query parameter [" + queryParameter + "].");
+            }
+
+            if (conditions.length() > 0) {
+                conditions.append(" and ");
+            }
+            conditions.append(condition);
+        }
+
+        return conditions.toString();
+    }
+
+    /**
+     * Build the order by clause from the sort parameters, always ordering by id last so paging is stable
+     * @param alias
+     * @param sortParameters
+     * @param ascending
+     * @param columns
+     * @return
+     */
+    protected String buildOrderBy(String alias, QueryParameter[] sortParameters, boolean ascending,
+            Collection<String> columns) {
+        StringBuilder orderBy = new StringBuilder(" order by ");
+        String direction = ascending ? " asc" : " desc";
+
+        if (sortParameters != null) {
+            for (QueryParameter sortParameter : sortParameters) {
+                if (sortParameter instanceof AttributeParameter) {
+                    String name = ((AttributeParameter) sortParameter).getName();
+                    if (columns.contains(name)) {
+                        orderBy.append(alias).append(".").append(name).append(direction).append(",");
+                    }
+                }
+            }
+        }
+
+        return orderBy.append(alias).append(".id").append(direction).toString();
+    }
+
+    /**
+     * Skip the rows before the offset
+     * @param resultSet
+     * @param offset
+     * @throws SQLException
+     */
+    protected void skip(ResultSet resultSet, int offset) throws SQLException {
+        for (int i = 0; i < offset; i++) {
+            if (!resultSet.next()) {
+                break;
+            }
+        }
+    }
+
+    protected String inCondition(String column, Object[] paramValues, List<Object> values) {
+        StringBuilder condition = new StringBuilder(column).append(" in (");
+        for (int i = 0; i < paramValues.length; i++) {
+            if (i > 0) {
+                condition.append(",");
+            }
+            Object value = paramValues[i];
+            if (value instanceof AttributedType) {
+                value = ((AttributedType) value).getId();
+            }
+            values.add(value);
+            condition.append("?");
+        }
+        return condition.append(")").toString();
+    }
+
+    /**
+     * Split the given values in chunks that can be bound to a single IN clause
+     * @param values
+     * @return
+     */
+    protected <T> List<List<T>> split(Collection<T> values) {
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        List<T> chunk = null;
+        for (T value : values) {
+            if (chunk == null || chunk.size() == MAX_IN_VALUES) {
+                chunk = new ArrayList<T>();
+                chunks.add(chunk);
             }
+            chunk.add(value);
+        }
+        return chunks;
+    }
+
+    protected Date getDate(ResultSet resultSet, int column) throws SQLException {
+        Timestamp timestamp = resultSet.getTimestamp(column);
+        if (timestamp != null) {
+            return new Date(timestamp.getTime());
+        }
+        return null;
+    }
+
+    protected Timestamp toTimestamp(Date date) {
+        if (date != null) {
+            return new Timestamp(date.getTime());
         }
+        return null;
     }
 
-    protected void safeClose(Statement statement) {
-        if (statement != null) {
+    protected String toFlag(boolean enabled) {
+        return enabled ? "y" : "n";
+    }
+
+    protected void checkSession(StorageSession session) {
+        if (session == null) {
+            throw IDMMessages.MESSAGES.nullArgument("session");
+        }
+    }
+
+    protected void safeClose(ResultSet resultSet) {
+        if (resultSet != null) {
             try {
-                statement.close();
+                resultSet.close();
             } catch (SQLException e) {
             }
         }
@@ -18,18 +18,20 @@
 package org.picketlink.idm.jdbc.internal.model.db;
 
 import java.io.Serializable;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import javax.sql.DataSource;
+import java.util.Map;
 
 import org.picketlink.common.util.Base64;
-import org.picketlink.idm.IDMMessages;
 import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.AttributedType;
 
 /**
  * Storage utility for attributes
@@ -38,115 +40,121 @@ import org.picketlink.idm.model.Attribute;
  * @since October 25, 2013
  */
 public class AttributeStorageUtil extends AbstractStorageUtil {
+    private static final String INSERT = "insert into Attributes (owner,name,value,attributeType) values (?,?,?,?)";
+
     /**
      * Get the {@link Attribute} given its name and an id
      *
-     * @param dataSource
+     * @param session
      * @param id
      * @param attributeName
      * @return
      */
-    public Attribute getAttribute(DataSource dataSource, String id, String attributeName) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Attribute attribute = null;
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
+    public Attribute getAttribute(StorageSession session, String id, String attributeName) {
+        checkSession(session);
         ResultSet resultSet = null;
         try {
-            connection = dataSource.getConnection();
-            String sql = "select attributeType from Attributes where owner =? and name=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            preparedStatement.setString(2, attributeName);
-            resultSet = preparedStatement.executeQuery();
-            String attributeType = null;
-            while (resultSet.next()) {
-                attributeType = resultSet.getString(1);
-                break;
-            }
-            List<? extends Serializable> valList = getAttributeValues(dataSource, id, attributeName);
-            if (valList.size() > 1) {
-                attribute = new Attribute(attributeName, "dummy");
-                if (isPrimitiveNativeType(attributeType)) {
-                    handlePrimitiveAttributeType(attribute, attributeType, valList);
-                } else {
-                    // Multi valued attribute
-                    Serializable[] serialArray = new Serializable[valList.size()];
-                    int i = 0;
-                    for (Serializable attributeValue : valList) {
-                        serialArray[i++] = attributeValue;
-                    }
-                    attribute.setValue(serialArray);
-                }
-            } else {
-                attribute = new Attribute(attributeName, valList.get(0));
+            List<Object> values = new ArrayList<Object>();
+            values.add(id);
+            values.add(attributeName);
+            resultSet = executeQuery(session, "select owner,name,value,attributeType from Attributes where owner=? and name=?",
+                    values);
+            List<Attribute> attributes = readAttributes(resultSet).get(id);
+            if (attributes == null) {
+                return null;
             }
-            return attribute;
-
+            return attributes.get(0);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } finally {
             safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
     }
 
     /**
      * Get a list of {@link Attribute} for an identity type
      *
-     * @param dataSource
+     * @param session
      * @param ownerId
      * @return
      */
-    public List<Attribute> getAttributes(DataSource dataSource, String ownerId) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public List<Attribute> getAttributes(StorageSession session, String ownerId) {
+        List<Attribute> attributes = loadAttributes(session, Collections.singletonList(ownerId)).get(ownerId);
+        if (attributes == null) {
+            return new ArrayList<Attribute>();
         }
-        List<Attribute> attributes = new ArrayList<Attribute>();
-
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-        GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
+        return attributes;
+    }
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select name,value from Attributes where owner =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, ownerId);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                String storedName = resultSet.getString(1);
+    /**
+     * Get the {@link Attribute} of all the given owners, using a single query for each {@link #MAX_IN_VALUES} owners
+     *
+     * @param session
+     * @param ownerIds
+     * @return the attributes of each owner, owners without attributes are not included
+     */
+    public Map<String, List<Attribute>> loadAttributes(StorageSession session, Collection<String> ownerIds) {
+        checkSession(session);
+        Map<String, List<Attribute>> attributes = new HashMap<String, List<Attribute>>();
 
-                Attribute attribute = getAttribute(dataSource, ownerId, storedName);
-                attributes.add(attribute);
+        for (List<String> chunk : split(ownerIds)) {
+            List<Object> values = new ArrayList<Object>();
+            String sql = "select owner,name,value,attributeType from Attributes where "
+                    + inCondition("owner", chunk.toArray(), values);
+            ResultSet resultSet = null;
+            try {
+                resultSet = executeQuery(session, sql, values);
+                attributes.putAll(readAttributes(resultSet));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            } finally {
+                safeClose(resultSet);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
+
         return attributes;
     }
 
     /**
      * Set the {@link Attribute} for an {@link org.picketlink.idm.model.IdentityType}
      *
-     * @param dataSource
+     * @param session
      * @param ownerId
      * @param attribute
      */
-    public void setAttribute(DataSource dataSource, String ownerId, Attribute attribute) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public void setAttribute(StorageSession session, String ownerId, Attribute attribute) {
+        checkSession(session);
+        try {
+            PreparedStatement preparedStatement = session.prepareStatement(INSERT);
+            addBatch(preparedStatement, ownerId, attribute);
+            preparedStatement.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
+    }
+
+    /**
+     * Store all the attributes of the given {@link AttributedType} instances using a single batch
+     *
+     * @param session
+     * @param attributedTypes
+     */
+    public void addAttributes(StorageSession session, List<? extends AttributedType> attributedTypes) {
+        checkSession(session);
+        try {
+            PreparedStatement preparedStatement = session.prepareStatement(INSERT);
+            for (AttributedType attributedType : attributedTypes) {
+                for (Attribute attribute : attributedType.getAttributes()) {
+                    addBatch(preparedStatement, attributedType.getId(), attribute);
+                }
+            }
+            preparedStatement.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void addBatch(PreparedStatement preparedStatement, String ownerId, Attribute attribute) throws SQLException {
         Object values = attribute.getValue();
 
         if (!values.getClass().isArray()) {
@@ -160,100 +168,92 @@ public class AttributeStorageUtil extends AbstractStorageUtil {
         }
 
         for (Serializable attributeValue : (Serializable[]) values) {
-            UserStorageUtil userStorageUtil = new UserStorageUtil();
-            RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-            GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-
-            Connection connection = null;
-            PreparedStatement preparedStatement = null;
-            ResultSet resultSet = null;
-            try {
-                connection = dataSource.getConnection();
-                String sql = "insert into Attributes set owner =?, name=?, value=?,attributeType=?";
-                preparedStatement = connection.prepareStatement(sql);
-                preparedStatement.setString(1, ownerId);
-                preparedStatement.setString(2, attribute.getName());
-                preparedStatement.setString(3, Base64.encodeObject(attributeValue));
-                preparedStatement.setString(4, attributeValue.getClass().getName());
-                int result = preparedStatement.executeUpdate();
-                if (result == 0) {
-                    throw new RuntimeException("Update failed");
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            } finally {
-                safeClose(resultSet);
-                safeClose(preparedStatement);
-                safeClose(connection);
-            }
+            preparedStatement.setString(1, ownerId);
+            preparedStatement.setString(2, attribute.getName());
+            preparedStatement.setString(3, Base64.encodeObject(attributeValue));
+            preparedStatement.setString(4, attributeValue.getClass().getName());
+            preparedStatement.addBatch();
         }
     }
 
     /**
      * Delete an {@link Attribute} given its name and owner
      *
-     * @param dataSource
+     * @param session
      * @param ownerId
      * @param attributeName
      */
-    public void deleteAttribute(DataSource dataSource, String ownerId, String attributeName) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public void deleteAttribute(StorageSession session, String ownerId, String attributeName) {
+        checkSession(session);
+        executeUpdate(session, "delete from Attributes where owner=? and name=?", ownerId, attributeName);
+    }
+
+    private Map<String, List<Attribute>> readAttributes(ResultSet resultSet) throws SQLException {
+        // values of each attribute, by owner and name
+        Map<String, Map<String, List<Serializable>>> storedValues = new LinkedHashMap<String, Map<String, List<Serializable>>>();
+        Map<String, String> attributeTypes = new HashMap<String, String>();
+
+        while (resultSet.next()) {
+            String owner = resultSet.getString(1);
+            String name = resultSet.getString(2);
+            Map<String, List<Serializable>> ownerValues = storedValues.get(owner);
+            if (ownerValues == null) {
+                ownerValues = new LinkedHashMap<String, List<Serializable>>();
+                storedValues.put(owner, ownerValues);
+            }
+            List<Serializable> valueList = ownerValues.get(name);
+            if (valueList == null) {
+                valueList = new ArrayList<Serializable>();
+                ownerValues.put(name, valueList);
+                attributeTypes.put(owner + "/" + name, resultSet.getString(4));
+            }
+            valueList.add((Serializable) Base64.decodeToObject(resultSet.getString(3)));
         }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "Delete from Attributes where owner =? and name=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, ownerId);
-            preparedStatement.setString(2, attributeName);
-            int result = preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
+
+        Map<String, List<Attribute>> attributes = new HashMap<String, List<Attribute>>();
+
+        for (Map.Entry<String, Map<String, List<Serializable>>> ownerEntry : storedValues.entrySet()) {
+            List<Attribute> ownerAttributes = new ArrayList<Attribute>();
+            for (Map.Entry<String, List<Serializable>> entry : ownerEntry.getValue().entrySet()) {
+                String attributeType = attributeTypes.get(ownerEntry.getKey() + "/" + entry.getKey());
+                ownerAttributes.add(createAttribute(entry.getKey(), attributeType, entry.getValue()));
+            }
+            attributes.put(ownerEntry.getKey(), ownerAttributes);
         }
+
+        return attributes;
     }
 
-    private List<? extends Serializable> getAttributeValues(DataSource dataSource, String ownerId, String attributeName) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        List<Serializable> list = new ArrayList<Serializable>();
+    private Attribute createAttribute(String attributeName, String attributeType, List<Serializable> values) {
+        List<? extends Serializable> valList = values;
         List<String> stringList = new ArrayList<String>();
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select value,attributeType from Attributes where owner =? and name=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, ownerId);
-            preparedStatement.setString(2, attributeName);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                String attributeType = resultSet.getString(2);
-                if (attributeType.equals(String.class.getName())) {
-                    stringList.add((String) Base64.decodeToObject(resultSet.getString(1)));
-                } else {
-                    list.add((Serializable) Base64.decodeToObject(resultSet.getString(1)));
-                }
+        for (Serializable value : values) {
+            if (value instanceof String) {
+                stringList.add((String) value);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
         if (stringList.isEmpty() == false) {
-            return stringList;
+            valList = stringList;
+        }
+
+        Attribute attribute;
+        if (valList.size() > 1) {
+            attribute = new Attribute(attributeName, "dummy");
+            if (isPrimitiveNativeType(attributeType)) {
+                handlePrimitiveAttributeType(attribute, attributeType, valList);
+            } else {
+                // Multi valued attribute
+                Serializable[] serialArray = new Serializable[valList.size()];
+                int i = 0;
+                for (Serializable attributeValue : valList) {
+                    serialArray[i++] = attributeValue;
+                }
+                attribute.setValue(serialArray);
+            }
+        } else {
+            attribute = new Attribute(attributeName, valList.get(0));
         }
-        return list;
+        return attribute;
     }
 
     private boolean isPrimitiveNativeType(String attributeType) {
@@ -17,23 +17,21 @@
  */
 package org.picketlink.idm.jdbc.internal.model.db;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.sql.DataSource;
-
-import org.picketlink.idm.IDMMessages;
-import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
-import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.basic.Group;
-import org.picketlink.idm.query.AttributeParameter;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -43,350 +41,250 @@ import org.picketlink.idm.query.QueryParameter;
  * @since October 24, 2013
  */
 public class GroupStorageUtil extends AbstractStorageUtil {
+    private static final List<String> COLUMNS = Arrays.asList("name", "path", "parentGroup", "enabled", "createdDate",
+            "expirationDate");
+
     /**
-     * Delete {@link Group}
+     * Count the number of {@link Group} matching the query parameters
      *
-     * @param dataSource
-     * @param user
+     * @param session
+     * @param params
+     * @return
      */
-    public void deleteGroup(DataSource dataSource, Group group) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public int countGroups(StorageSession session, Map<QueryParameter, Object[]> params) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String conditions = buildConditions("g", params, COLUMNS, values);
+        String sql = "select count(*) from Groups g";
+        if (conditions.length() > 0) {
+            sql = sql + " where " + conditions;
         }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "delete from Groups where id=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, group.getId());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Delete group failed for name=" + group.getName());
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
+        return executeCount(session, sql, values);
+    }
+
+    /**
+     * Delete {@link Group}
+     *
+     * @param session
+     * @param group
+     */
+    public void deleteGroup(StorageSession session, Group group) {
+        checkSession(session);
+        int result = executeUpdate(session, "delete from Groups where id=?", group.getId());
+        if (result == 0) {
+            throw new RuntimeException("Delete group failed for name=" + group.getName());
         }
     }
 
     /**
      * Load {@link Group} given its id
      *
-     * @param dataSource
+     * @param session
      * @param id
      * @return
      */
-    public Group loadGroup(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select name,partitionID,parentGroup,path,enabled,createdDate,expirationDate from Groups where id =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Group group = new Group();
-                group.setName(resultSet.getString(1));
-                group.setId(id);
-                group.setPartition(loadPartition(dataSource, resultSet.getString(2)));
-                group.setParentGroup(loadGroup(dataSource, resultSet.getString(3)));
-                group.setPath(resultSet.getString(4));
-                group.setEnabled("y".equalsIgnoreCase(resultSet.getString(5)));
-                Timestamp creationDate = resultSet.getTimestamp(6);
-                if (creationDate != null) {
-                    group.setCreatedDate(new Date(creationDate.getTime()));
-                }
-                Timestamp expirationDate = resultSet.getTimestamp(7);
-                if (expirationDate != null) {
-                    group.setExpirationDate(new Date(expirationDate.getTime()));
-                }
+    public Group loadGroup(StorageSession session, String id) {
+        return loadGroups(session, Collections.singletonList(id)).get(id);
+    }
 
-                // Get attributes also
-                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-                List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, id);
-                if (attributeList.isEmpty() == false) {
-                    for (Attribute attribute : attributeList) {
-                        group.setAttribute(attribute);
-                    }
-                }
-                return group;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+    /**
+     * Load all {@link Group} with the given ids, using a single query for each {@link #MAX_IN_VALUES} ids
+     *
+     * @param session
+     * @param ids
+     * @return the groups by id
+     */
+    public Map<String, Group> loadGroups(StorageSession session, Collection<String> ids) {
+        checkSession(session);
+        Map<String, Group> groups = new HashMap<String, Group>();
+        Map<Group, String> parentIds = new IdentityHashMap<Group, String>();
+        loadGroups(session, ids, groups, parentIds);
+        resolveParents(session, groups, parentIds);
+        return groups;
     }
 
     /**
-     * Load a {@link Group} given parameters
+     * Load {@link Group} matching the query parameters
      *
-     * @param dataSource
+     * @param session
      * @param params
+     * @param sortParameters
+     * @param ascending
+     * @param offset
+     * @param limit
      * @return
      */
-    public Group loadGroup(DataSource dataSource, Map<QueryParameter, Object[]> params) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public List<Group> loadGroups(StorageSession session, Map<QueryParameter, Object[]> params,
+            QueryParameter[] sortParameters, boolean ascending, int offset, int limit) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String conditions = buildConditions("g", params, COLUMNS, values);
+        String sql = getSelect();
+        if (conditions.length() > 0) {
+            sql = sql + " where " + conditions;
         }
-        Set<QueryParameter> queryParameters = params.keySet();
-        for (QueryParameter queryParameter : queryParameters) {
-            if (queryParameter instanceof AttributeParameter) {
-                AttributeParameter attributeParameter = (AttributeParameter) queryParameter;
-                Object[] paramValues = getValuesFromParamMap(params,attributeParameter);
-                String attributeName = attributeParameter.getName();
-                if ("name".equals(attributeName)) {
-                    String loginNameValue = (String) paramValues[0];
-                    return loadGroupByName(dataSource, loginNameValue);
-                } else if ("path".equals(attributeName)) {
-                    String loginNameValue = (String) paramValues[0];
-                    return loadGroupByPath(dataSource, loginNameValue);
-                } else
-                    throw new RuntimeException();
-            }
-        }
-        throw new RuntimeException();
+        sql = sql + buildOrderBy("g", sortParameters, ascending, COLUMNS);
+        return loadGroups(session, sql, values, offset, limit);
     }
 
     /**
-     * Load a {@link Group} given its name
+     * Load {@link Group} given its name
      *
-     * @param dataSource
+     * @param session
      * @param groupName
      * @return
      */
-    public Group loadGroupByName(DataSource dataSource, String groupName) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,partitionID,parentGroup,path,enabled,createdDate,expirationDate"
-                    + " from Groups where name =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, groupName);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Group group = new Group();
-                group.setId(resultSet.getString(1));
-                group.setName(groupName);
-                group.setPartition(loadPartition(dataSource, resultSet.getString(2)));
-                group.setParentGroup(loadGroup(dataSource, resultSet.getString(3)));
-                group.setPath(resultSet.getString(4));
-                group.setEnabled("y".equalsIgnoreCase(resultSet.getString(5)));
-                Timestamp creationDate = resultSet.getTimestamp(6);
-                if (creationDate != null) {
-                    group.setCreatedDate(new Date(creationDate.getTime()));
-                }
-                Timestamp expirationDate = resultSet.getTimestamp(7);
-                if (expirationDate != null) {
-                    group.setExpirationDate(new Date(expirationDate.getTime()));
-                }
-                // Get attributes also
-                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-                List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, group.getId());
-                if (attributeList.isEmpty() == false) {
-                    for (Attribute attribute : attributeList) {
-                        group.setAttribute(attribute);
-                    }
-                }
-                return group;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+    public Group loadGroupByName(StorageSession session, String groupName) {
+        return loadGroupBy(session, "name", groupName);
     }
 
     /**
-     * Load a {@link Group} given its path
+     * Load {@link Group} given its path
      *
-     * @param dataSource
+     * @param session
      * @param path
      * @return
      */
-    public Group loadGroupByPath(DataSource dataSource, String path) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,name,partitionID,parentGroup,enabled,createdDate,expirationDate"
-                    + " from Groups where path =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, path);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Group group = new Group();
-                group.setId(resultSet.getString(1));
-                group.setName(resultSet.getString(2));
-                group.setPartition(loadPartition(dataSource, resultSet.getString(3)));
-                group.setParentGroup(loadGroup(dataSource, resultSet.getString(4)));
-                group.setPath(path);
-                group.setEnabled("y".equalsIgnoreCase(resultSet.getString(5)));
-                Timestamp creationDate = resultSet.getTimestamp(6);
-                if (creationDate != null) {
-                    group.setCreatedDate(new Date(creationDate.getTime()));
-                }
-                Timestamp expirationDate = resultSet.getTimestamp(7);
-                if (expirationDate != null) {
-                    group.setExpirationDate(new Date(expirationDate.getTime()));
-                }
-
-                // Get attributes also
-                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-                List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, group.getId());
-                if (attributeList.isEmpty() == false) {
-                    for (Attribute attribute : attributeList) {
-                        group.setAttribute(attribute);
-                    }
-                }
-                return group;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+    public Group loadGroupByPath(StorageSession session, String path) {
+        return loadGroupBy(session, "path", path);
     }
 
     /**
      * Store a {@link Group}
      *
-     * @param dataSource
+     * @param session
      * @param group
      */
-    public void storeGroup(DataSource dataSource, Group group) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
+    public void storeGroup(StorageSession session, Group group) {
+        storeGroups(session, Collections.singletonList(group));
+    }
+
+    /**
+     * Store new {@link Group} instances using a single batch
+     *
+     * @param session
+     * @param groups
+     */
+    public void storeGroups(StorageSession session, List<Group> groups) {
+        checkSession(session);
         try {
-            connection = dataSource.getConnection();
-            String sql = "insert into Groups set name=?,id=?,"
-                    + "createdDate=?,expirationDate=?,partitionID=?,parentGroup=?,path=?,enabled=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, group.getName());
-            preparedStatement.setString(2, group.getId());
-            preparedStatement.setTimestamp(3, new Timestamp(group.getCreatedDate().getTime()));
-            if (group.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(4, new Timestamp(group.getExpirationDate().getTime()));
-            } else {
-                preparedStatement.setTimestamp(4, null);
-            }
-            preparedStatement.setString(5, group.getPartition().getId());
-            if (group.getParentGroup() == null) {
-                preparedStatement.setString(6, null);
-            } else {
-                preparedStatement.setString(6, group.getParentGroup().getId());
-            }
-            preparedStatement.setString(7, group.getPath());
-            if (group.isEnabled()) {
-                preparedStatement.setString(8, "y");
-            } else {
-                preparedStatement.setString(8, "n");
-            }
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Insert into Group failed");
+            PreparedStatement preparedStatement = session.prepareStatement("insert into Groups (name,id,createdDate,"
+                    + "expirationDate,partitionID,parentGroup,path,enabled) values (?,?,?,?,?,?,?,?)");
+            for (Group group : groups) {
+                preparedStatement.setString(1, group.getName());
+                preparedStatement.setString(2, group.getId());
+                preparedStatement.setTimestamp(3, toTimestamp(group.getCreatedDate()));
+                preparedStatement.setTimestamp(4, toTimestamp(group.getExpirationDate()));
+                preparedStatement.setString(5, group.getPartition().getId());
+                preparedStatement.setString(6, group.getParentGroup() != null ? group.getParentGroup().getId() : null);
+                preparedStatement.setString(7, group.getPath());
+                preparedStatement.setString(8, toFlag(group.isEnabled()));
+                preparedStatement.addBatch();
             }
-
-            // Ensure that the Partition is also stored
-            PartitionJdbcType pj = new PartitionJdbcType("dummy");
-            pj.setDataSource(dataSource);
-            pj.persist(group.getPartition());
+            preparedStatement.executeBatch();
         } catch (SQLException e) {
             throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
+
+        // Ensure that the Partition is also stored
+        storePartitions(session, groups);
     }
 
     /**
      * Update the stored {@link org.picketlink.idm.model.basic.Group}
      *
-     * @param dataSource
-     * @param user
+     * @param session
+     * @param group
      */
-    public void updateGroup(DataSource dataSource, Group group) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        String updateSql = "update Groups set name=?,parentGroup=?,partitionID=?,enabled=?,"
-                + "createdDate=?,expirationDate=? where id =?";
+    public void updateGroup(StorageSession session, Group group) {
+        checkSession(session);
+        executeUpdate(session, "update Groups set name=?,parentGroup=?,partitionID=?,enabled=?,createdDate=?,"
+                + "expirationDate=? where id=?", group.getName(),
+                group.getParentGroup() != null ? group.getParentGroup().getId() : null,
+                group.getPartition() != null ? group.getPartition().getId() : null, toFlag(group.isEnabled()),
+                group.getCreatedDate(), group.getExpirationDate(), group.getId());
+    }
 
-        if (group.getExpirationDate() == null) {
-            updateSql = "update Groups set name=?,parentGroup=?,partitionID=?,enabled=?,createdDate=? where id =?";
+    private Group loadGroupBy(StorageSession session, String column, String value) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        values.add(value);
+        List<Group> groups = loadGroups(session, getSelect() + " where g." + column + "=?", values, 0, 0);
+        if (groups.isEmpty()) {
+            return null;
         }
+        return groups.get(0);
+    }
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
+    private List<Group> loadGroups(StorageSession session, String sql, List<Object> values, int offset, int limit) {
+        Map<Group, String> parentIds = new IdentityHashMap<Group, String>();
+        List<Group> result = executeQuery(session, sql, values, offset, limit, createReader(parentIds));
+        Map<String, Group> groups = new HashMap<String, Group>();
+        for (Group group : result) {
+            groups.put(group.getId(), group);
+        }
+        resolveParents(session, groups, parentIds);
+        return result;
+    }
 
-            preparedStatement = connection.prepareStatement(updateSql);
-            preparedStatement.setString(1, group.getName());
-            if (group.getParentGroup() == null) {
-                preparedStatement.setString(2, null);
-            } else {
-                preparedStatement.setString(2, group.getParentGroup().getId());
-            }
-            if (group.getPartition() == null) {
-                preparedStatement.setString(3, null);
-            } else {
-                preparedStatement.setString(3, group.getPartition().getId());
+    private void loadGroups(StorageSession session, Collection<String> ids, Map<String, Group> groups,
+            Map<Group, String> parentIds) {
+        for (List<String> chunk : split(ids)) {
+            List<Object> values = new ArrayList<Object>();
+            String sql = getSelect() + " where " + inCondition("g.id", chunk.toArray(), values);
+            for (Group group : executeQuery(session, sql, values, 0, 0, createReader(parentIds))) {
+                groups.put(group.getId(), group);
             }
-            if (group.isEnabled()) {
-                preparedStatement.setString(4, "y");
-            } else {
-                preparedStatement.setString(4, "n");
-            }
-            preparedStatement.setTimestamp(5, new Timestamp(group.getCreatedDate().getTime()));
+        }
+    }
 
-            if (group.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(6, new Timestamp(group.getExpirationDate().getTime()));
-                preparedStatement.setString(7, group.getId());
-            } else {
-                preparedStatement.setString(6, group.getId());
+    /**
+     * Resolve the parent of the loaded groups one level of the hierarchy at a time, loading the missing parents of
+     * each level with a single query.
+     */
+    private void resolveParents(StorageSession session, Map<String, Group> groups, Map<Group, String> parentIds) {
+        while (!parentIds.isEmpty()) {
+            Set<String> missing = new HashSet<String>();
+            for (String parentId : parentIds.values()) {
+                if (!groups.containsKey(parentId)) {
+                    missing.add(parentId);
+                }
             }
 
-            int numberOfRows = preparedStatement.executeUpdate();
-            if (numberOfRows == 0) {
-                System.out.println("Update Group failed");
+            Map<Group, String> nextParentIds = new IdentityHashMap<Group, String>();
+            loadGroups(session, missing, groups, nextParentIds);
+
+            for (Map.Entry<Group, String> entry : parentIds.entrySet()) {
+                entry.getKey().setParentGroup(groups.get(entry.getValue()));
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
+
+            parentIds = nextParentIds;
         }
     }
-}
\ No newline at end of file
+
+    private RowReader<Group> createReader(final Map<Group, String> parentIds) {
+        return new RowReader<Group>() {
+            @Override
+            public Group read(ResultSet resultSet) throws SQLException {
+                Group group = new Group();
+                group.setId(resultSet.getString(1));
+                group.setName(resultSet.getString(2));
+                group.setPath(resultSet.getString(3));
+                String parentId = resultSet.getString(4);
+                if (parentId != null) {
+                    parentIds.put(group, parentId);
+                }
+                group.setEnabled("y".equalsIgnoreCase(resultSet.getString(5)));
+                group.setCreatedDate(getDate(resultSet, 6));
+                group.setExpirationDate(getDate(resultSet, 7));
+                group.setPartition(readPartition(resultSet, 8));
+                return group;
+            }
+        };
+    }
+
+    private String getSelect() {
+        return "select g.id,g.name,g.path,g.parentGroup,g.enabled,g.createdDate,g.expirationDate," + PARTITION_COLUMNS
+                + " from Groups g" + partitionJoin("g");
+    }
+}
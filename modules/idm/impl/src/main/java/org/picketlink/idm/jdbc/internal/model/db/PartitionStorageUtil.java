@@ -17,17 +17,11 @@
  */
 package org.picketlink.idm.jdbc.internal.model.db;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.ArrayList;
+import java.util.List;
 
-import javax.sql.DataSource;
-
-import org.picketlink.idm.IDMMessages;
 import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
 import org.picketlink.idm.model.Partition;
 
@@ -41,110 +35,56 @@ public class PartitionStorageUtil extends AbstractStorageUtil {
     /**
      * Load a {@link Partition} given its id
      *
-     * @param dataSource
+     * @param session
      * @param id
      * @return
      */
-    public Partition loadPartitionById(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select name,typeName,configurationName from Partition where id =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                PartitionJdbcType partition = new PartitionJdbcType(resultSet.getString(1));
-                partition.setId(id);
-                partition.setTypeName(resultSet.getString(2));
-                partition.setConfigurationName(resultSet.getString(3));
-                return partition;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+    public Partition loadPartitionById(StorageSession session, String id) {
+        return loadPartition(session, "id", id);
     }
 
     /**
      * Load a {@link Partition} given its name
      *
-     * @param dataSource
+     * @param session
      * @param name
      * @return
      */
-    public Partition loadPartitionByName(DataSource dataSource, String name) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,typeName,configurationName from Partition where name =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, name);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                PartitionJdbcType partitionJdbcType = new PartitionJdbcType(name);
-                partitionJdbcType.setId(resultSet.getString(1));
-                partitionJdbcType.setTypeName(resultSet.getString(2));
-                partitionJdbcType.setConfigurationName(resultSet.getString(3));
-                return partitionJdbcType;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+    public Partition loadPartitionByName(StorageSession session, String name) {
+        return loadPartition(session, "name", name);
     }
 
     /**
      * Store a {@link Partition}
      *
-     * @param dataSource
+     * @param session
      * @param partition
      */
-    public void storePartition(DataSource dataSource, PartitionJdbcType partition) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public void storePartition(StorageSession session, PartitionJdbcType partition) {
+        checkSession(session);
+        int result = executeUpdate(session, "insert into Partition (name,id,typeName,configurationName) values (?,?,?,?)",
+                partition.getName(), partition.getId(), partition.getTypeName(), partition.getConfigurationName());
+        if (result == 0) {
+            throw new RuntimeException("Insert into partition failed");
         }
-        Date now = new Date();
-        Calendar calendar = new GregorianCalendar(500 + 1900, 12, 12);
-        Date expiration = calendar.getTime();
+    }
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
+    private Partition loadPartition(StorageSession session, String column, String value) {
+        checkSession(session);
+        ResultSet resultSet = null;
         try {
-            connection = dataSource.getConnection();
-            String sql = "insert into Partition set name=?,id=?,typeName=?,configurationName=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, partition.getName());
-            preparedStatement.setString(2, partition.getId());
-            preparedStatement.setString(3, partition.getTypeName());
-            preparedStatement.setString(4, partition.getConfigurationName());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Insert into partition failed");
+            List<Object> values = new ArrayList<Object>();
+            values.add(value);
+            resultSet = executeQuery(session, "select " + PARTITION_COLUMNS + " from Partition p where p." + column + "=?",
+                    values);
+            if (resultSet.next()) {
+                return readPartition(resultSet, 1);
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
+            safeClose(resultSet);
         }
+        return null;
     }
-}
\ No newline at end of file
+}
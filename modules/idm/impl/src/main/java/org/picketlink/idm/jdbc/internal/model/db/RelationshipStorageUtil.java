@@ -17,531 +17,302 @@
  */
 package org.picketlink.idm.jdbc.internal.model.db;
 
-import java.sql.Connection;
+import java.io.Serializable;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
-import javax.sql.DataSource;
+import java.util.Map;
+import java.util.Set;
 
 import org.picketlink.idm.IDMMessages;
-import org.picketlink.idm.model.basic.Agent;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Relationship;
 import org.picketlink.idm.model.basic.Grant;
 import org.picketlink.idm.model.basic.Group;
 import org.picketlink.idm.model.basic.GroupMembership;
 import org.picketlink.idm.model.basic.Role;
-import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.AttributeParameter;
+import org.picketlink.idm.query.QueryParameter;
 
 /**
- * Storage utility for {@link Relationship}
+ * Storage utility for relationships
  *
  * @author Anil Saldhana
- * @since October 25, 2013
+ * @since October 24, 2013
  */
 public class RelationshipStorageUtil extends AbstractStorageUtil {
+    private static final String SELECT = "select r.id,r.relBegin,r.relEnd,r.type from Relationship r";
+
+    private final RowReader<String[]> rowReader = new RowReader<String[]>() {
+        @Override
+        public String[] read(ResultSet resultSet) throws SQLException {
+            return new String[] {resultSet.getString(1), resultSet.getString(2), resultSet.getString(3),
+                    resultSet.getString(4)};
+        }
+    };
+
     /**
-     * Delete a {@link Grant}
+     * Count the relationships of the given type matching the query parameters
      *
-     * @param dataSource
-     * @param id
+     * @param session
+     * @param relationshipType
+     * @param params
+     * @return
      */
-    public void deleteGrant(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        if (id == null) {
-            throw IDMMessages.MESSAGES.nullArgument("id");
-        }
-        Calendar calendar = new GregorianCalendar(500 + 1900, 12, 12);
-        Date expiration = calendar.getTime();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "delete from Relationship where id=? and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            preparedStatement.setString(2, Grant.class.getName());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Delete Grant failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
+    public int countRelationships(StorageSession session, Class<? extends AttributedType> relationshipType,
+            Map<QueryParameter, Object[]> params) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String sql = "select count(*) from Relationship r where " + buildConditions(relationshipType, params, values);
+        return executeCount(session, sql, values);
     }
 
     /**
-     * Delete a {@link GroupMembership}
+     * Delete {@link Grant}
      *
-     * @param dataSource
+     * @param session
      * @param id
      */
-    public void deleteGroupMembership(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        if (id == null) {
-            throw IDMMessages.MESSAGES.nullArgument("id");
-        }
-
-        Calendar calendar = new GregorianCalendar(500 + 1900, 12, 12);
-        Date expiration = calendar.getTime();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "delete from Relationship where id=? and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            preparedStatement.setString(2, GroupMembership.class.getName());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Delete Group Membership failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
+    public void deleteGrant(StorageSession session, String id) {
+        deleteRelationship(session, id, Grant.class);
     }
 
     /**
-     * Load {@link Grant} given its id
+     * Delete {@link GroupMembership}
      *
-     * @param dataSource
+     * @param session
      * @param id
-     * @return
      */
-    public Grant loadGrant(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        if (id == null) {
-            throw IDMMessages.MESSAGES.nullArgument("id");
-        }
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select relBegin,relEnd from Relationship where id =? " + "and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            preparedStatement.setString(2, Grant.class.getName());
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Grant grant = new Grant();
-                grant.setId(id);
-                grant.setAssignee(userStorageUtil.loadUser(dataSource, resultSet.getString(1)));
-                String roleId = resultSet.getString(2);
-                grant.setRole(roleStorageUtil.loadRole(dataSource, roleId));
-                return grant;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+    public void deleteGroupMembership(StorageSession session, String id) {
+        deleteRelationship(session, id, GroupMembership.class);
     }
 
     /**
-     * Load {@link GroupMembership} given its id
+     * Delete all the relationships the {@link IdentityType} with the given id is involved in
      *
-     * @param dataSource
-     * @param id
-     * @return
+     * @param session
+     * @param identityTypeId
      */
-    public GroupMembership loadGroupMembership(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        if (id == null) {
-            throw IDMMessages.MESSAGES.nullArgument("id");
-        }
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select relBegin,relEnd from Relationship where id =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                GroupMembership groupMembership = new GroupMembership();
-                groupMembership.setId(id);
-                groupMembership.setMember(userStorageUtil.loadUser(dataSource, resultSet.getString(1)));
-
-                String groupID = resultSet.getString(2);
-                groupMembership.setGroup(groupStorageUtil.loadGroup(dataSource, groupID));
-
-                return groupMembership;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+    public void deleteRelationships(StorageSession session, String identityTypeId) {
+        checkSession(session);
+        executeUpdate(session, "delete from Relationship where relBegin=? or relEnd=?", identityTypeId, identityTypeId);
     }
 
     /**
-     * Load {@link Grant} for an {@link Agent}
-     * @param dataSource
-     * @param user
+     * Load {@link Grant} given its id
+     *
+     * @param session
+     * @param id
      * @return
      */
-    public List<Grant> loadGrantsForAgent(DataSource dataSource, Agent agent) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        List<Grant> grants = new ArrayList<Grant>();
-
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,relEnd from Relationship where relBegin =? " + "and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, agent.getId());
-            preparedStatement.setString(2, Grant.class.getName());
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Grant grant = new Grant();
-                grant.setId(resultSet.getString(1));
-                grant.setAssignee(userStorageUtil.loadUser(dataSource, agent.getId()));
-                String roleId = resultSet.getString(2);
-                grant.setRole(roleStorageUtil.loadRole(dataSource, roleId));
-                grants.add(grant);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return grants;
+    public Grant loadGrant(StorageSession session, String id) {
+        return (Grant) loadRelationship(session, id, Grant.class);
     }
 
     /**
-     * Load {@link Grant} for an {@link User}
+     * Load {@link GroupMembership} given its id
      *
-     * @param dataSource
-     * @param user
+     * @param session
+     * @param id
      * @return
      */
-    public List<Grant> loadGrantsForUser(DataSource dataSource, User user) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        List<Grant> grants = new ArrayList<Grant>();
-
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,relEnd from Relationship where relBegin =? " + "and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, user.getId());
-            preparedStatement.setString(2, Grant.class.getName());
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Grant grant = new Grant();
-                grant.setId(resultSet.getString(1));
-                grant.setAssignee(userStorageUtil.loadUser(dataSource, user.getId()));
-                String roleId = resultSet.getString(2);
-                grant.setRole(roleStorageUtil.loadRole(dataSource, roleId));
-                grants.add(grant);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return grants;
+    public GroupMembership loadGroupMembership(StorageSession session, String id) {
+        return (GroupMembership) loadRelationship(session, id, GroupMembership.class);
     }
 
     /**
-     * Load {@link GroupMembership} for an {@link org.picketlink.idm.model.basic.Agent}
+     * <p>Load the relationships of the given type matching the query parameters.</p>
      *
-     * @param dataSource
-     * @param user
+     * <p>The identity types referenced by the relationships, and their attributes, are loaded with a single query for
+     * each table instead of a query per relationship.</p>
+     *
+     * @param session
+     * @param relationshipType {@link Relationship}, {@link Grant} or {@link GroupMembership}
+     * @param params
+     * @param offset
+     * @param limit
      * @return
      */
-    public List<GroupMembership> loadGroupMembershipsForAgent(DataSource dataSource, Agent agent) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public List<Relationship> loadRelationships(StorageSession session,
+            Class<? extends AttributedType> relationshipType, Map<QueryParameter, Object[]> params, int offset,
+            int limit) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String sql = SELECT + " where " + buildConditions(relationshipType, params, values) + " order by r.id";
+        List<String[]> rows = executeQuery(session, sql, values, offset, limit, this.rowReader);
+
+        Set<String> beginIds = new HashSet<String>();
+        Set<String> roleIds = new HashSet<String>();
+        Set<String> groupIds = new HashSet<String>();
+        for (String[] row : rows) {
+            beginIds.add(row[1]);
+            if (Grant.class.getName().equals(row[3])) {
+                roleIds.add(row[2]);
+            } else {
+                groupIds.add(row[2]);
+            }
         }
-        List<GroupMembership> groupMemberships = new ArrayList<GroupMembership>();
-
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-        GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,relEnd from Relationship where relBegin =? " + "and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, agent.getId());
-            preparedStatement.setString(2, GroupMembership.class.getName());
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
+        Map<String, IdentityType> identityTypes = new HashMap<String, IdentityType>();
+        identityTypes.putAll(new UserStorageUtil().loadUsers(session, beginIds));
+        identityTypes.putAll(new RoleStorageUtil().loadRoles(session, roleIds));
+        groupIds.addAll(beginIds);
+        groupIds.removeAll(identityTypes.keySet());
+        identityTypes.putAll(new GroupStorageUtil().loadGroups(session, groupIds));
+        loadAttributes(session, identityTypes);
+
+        List<Relationship> result = new ArrayList<Relationship>();
+        for (String[] row : rows) {
+            if (Grant.class.getName().equals(row[3])) {
+                Grant grant = new Grant();
+                grant.setId(row[0]);
+                grant.setAssignee(identityTypes.get(row[1]));
+                grant.setRole((Role) identityTypes.get(row[2]));
+                result.add(grant);
+            } else {
                 GroupMembership groupMembership = new GroupMembership();
-                groupMembership.setId(resultSet.getString(1));
-
-                groupMembership.setMember(userStorageUtil.loadUser(dataSource, agent.getId()));
-                groupMembership.setGroup(groupStorageUtil.loadGroup(dataSource, resultSet.getString(2)));
-
-                groupMemberships.add(groupMembership);
+                groupMembership.setId(row[0]);
+                groupMembership.setMember((Account) identityTypes.get(row[1]));
+                groupMembership.setGroup((Group) identityTypes.get(row[2]));
+                result.add(groupMembership);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
-        return groupMemberships;
+        return result;
     }
 
     /**
-     * Load {@link GroupMembership} for an {@link User}
+     * Store a {@link Grant}
      *
-     * @param dataSource
-     * @param user
-     * @return
+     * @param session
+     * @param grant
      */
-    public List<GroupMembership> loadGroupMembershipsForUser(DataSource dataSource, User user) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        List<GroupMembership> groupMemberships = new ArrayList<GroupMembership>();
-
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-        GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,relEnd from Relationship where relBegin =? " + "and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, user.getId());
-            preparedStatement.setString(2, GroupMembership.class.getName());
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                GroupMembership groupMembership = new GroupMembership();
-                groupMembership.setId(resultSet.getString(1));
-
-                groupMembership.setMember(userStorageUtil.loadUser(dataSource, user.getId()));
-                groupMembership.setGroup(groupStorageUtil.loadGroup(dataSource, resultSet.getString(2)));
-
-                groupMemberships.add(groupMembership);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return groupMemberships;
+    public void storeGrant(StorageSession session, Grant grant) {
+        storeRelationships(session, Collections.singletonList(grant));
     }
 
     /**
-     * Load {@link Grant} for an {@link Role}
+     * Store {@link GroupMembership}
      *
-     * @param dataSource
-     * @param user
-     * @return
+     * @param session
+     * @param groupMembership
      */
-    public List<Grant> loadGrantsForRole(DataSource dataSource, Role role) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        List<Grant> grants = new ArrayList<Grant>();
-
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,relBegin from Relationship where relEnd =? " + "and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, role.getId());
-            preparedStatement.setString(2, Grant.class.getName());
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Grant grant = new Grant();
-                grant.setId(resultSet.getString(1));
-                grant.setAssignee(userStorageUtil.loadUser(dataSource, resultSet.getString(2)));
-                grant.setRole(role);
-                grants.add(grant);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return grants;
+    public void storeGroupMembership(StorageSession session, GroupMembership groupMembership) {
+        storeRelationships(session, Collections.singletonList(groupMembership));
     }
 
     /**
-     * Load {@link Grant} for a {@link Group}
+     * Store new {@link Grant} and {@link GroupMembership} instances using a single batch
      *
-     * @param dataSource
-     * @param user
-     * @return
+     * @param session
+     * @param relationships
      */
-    public List<GroupMembership> loadGroupMembershipForGroup(DataSource dataSource, Group group) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        List<GroupMembership> groupMemberships = new ArrayList<GroupMembership>();
-
-        UserStorageUtil userStorageUtil = new UserStorageUtil();
-        RoleStorageUtil roleStorageUtil = new RoleStorageUtil();
-        GroupStorageUtil groupStorageUtil = new GroupStorageUtil();
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
+    public void storeRelationships(StorageSession session, List<? extends Relationship> relationships) {
+        checkSession(session);
         try {
-            connection = dataSource.getConnection();
-            String sql = "select id,relBegin from Relationship where relEnd =? " + "and type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, group.getId());
-            preparedStatement.setString(2, GroupMembership.class.getName());
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                GroupMembership groupMembership = new GroupMembership();
-                groupMembership.setId(resultSet.getString(1));
-
-                groupMembership.setMember(userStorageUtil.loadUser(dataSource, resultSet.getString(2)));
-                groupMembership.setGroup(group);
-
-                groupMemberships.add(groupMembership);
+            PreparedStatement preparedStatement = session.prepareStatement("insert into Relationship (id,relBegin,"
+                    + "relEnd,type) values (?,?,?,?)");
+            for (Relationship relationship : relationships) {
+                preparedStatement.setString(1, relationship.getId());
+                if (relationship instanceof Grant) {
+                    Grant grant = (Grant) relationship;
+                    preparedStatement.setString(2, grant.getAssignee().getId());
+                    preparedStatement.setString(3, grant.getRole().getId());
+                } else if (relationship instanceof GroupMembership) {
+                    GroupMembership groupMembership = (GroupMembership) relationship;
+                    preparedStatement.setString(2, groupMembership.getMember().getId());
+                    preparedStatement.setString(3, groupMembership.getGroup().getId());
+                } else {
+                    throw IDMMessages.MESSAGES.unexpectedType(relationship.getClass());
+                }
+                preparedStatement.setString(4, relationship.getClass().getName());
+                preparedStatement.addBatch();
             }
+            preparedStatement.executeBatch();
         } catch (SQLException e) {
             throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
-        return groupMemberships;
     }
 
-    /**
-     * Store a {@link Grant}
-     *
-     * @param dataSource
-     * @param grant
-     */
-    public void storeGrant(DataSource dataSource, Grant grant) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    private void deleteRelationship(StorageSession session, String id, Class<? extends Relationship> type) {
+        checkSession(session);
+        int result = executeUpdate(session, "delete from Relationship where id=? and type=?", id, type.getName());
+        if (result == 0) {
+            throw new RuntimeException("Delete " + type.getSimpleName() + " failed");
         }
-        Calendar calendar = new GregorianCalendar(500 + 1900, 12, 12);
-        Date expiration = calendar.getTime();
+    }
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "insert into Relationship set id=?,relBegin=?,relEnd=?,type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, grant.getId());
-            preparedStatement.setString(2, grant.getAssignee().getId());
-            preparedStatement.setString(3, grant.getRole().getId());
-            preparedStatement.setString(4, grant.getClass().getName());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Insert into Grant failed");
+    private Relationship loadRelationship(StorageSession session, String id, Class<? extends Relationship> type) {
+        if (id == null) {
+            throw IDMMessages.MESSAGES.nullArgument("id");
+        }
+        Map<QueryParameter, Object[]> params = new HashMap<QueryParameter, Object[]>();
+        params.put(IdentityType.ID, new Object[] {id});
+        List<Relationship> relationships = loadRelationships(session, type, params, 0, 0);
+        if (relationships.isEmpty()) {
+            return null;
+        }
+        return relationships.get(0);
+    }
+
+    private void loadAttributes(StorageSession session, Map<String, IdentityType> identityTypes) {
+        Map<String, List<Attribute>> attributes = new AttributeStorageUtil().loadAttributes(session,
+                identityTypes.keySet());
+        for (Map.Entry<String, List<Attribute>> entry : attributes.entrySet()) {
+            IdentityType identityType = identityTypes.get(entry.getKey());
+            for (Attribute<? extends Serializable> attribute : entry.getValue()) {
+                identityType.setAttribute(attribute);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
     }
 
-    /**
-     * Store {@link GroupMembership}
-     * @param dataSource
-     * @param groupMembership
-     */
-    public void storeGroupMembership(DataSource dataSource, GroupMembership groupMembership) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    private String buildConditions(Class<? extends AttributedType> relationshipType,
+            Map<QueryParameter, Object[]> params, List<Object> values) {
+        StringBuilder conditions = new StringBuilder();
+
+        if (Grant.class.equals(relationshipType) || GroupMembership.class.equals(relationshipType)) {
+            conditions.append("r.type=?");
+            values.add(relationshipType.getName());
+        } else if (Relationship.class.equals(relationshipType)) {
+            conditions.append(inCondition("r.type", new Object[] {Grant.class.getName(),
+                    GroupMembership.class.getName()}, values));
+        } else {
+            throw IDMMessages.MESSAGES.unexpectedType(relationshipType);
         }
-        Calendar calendar = new GregorianCalendar(500 + 1900, 12, 12);
-        Date expiration = calendar.getTime();
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "insert into Relationship set id=?,relBegin=?,relEnd=?,type=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, groupMembership.getId());
-            preparedStatement.setString(2, groupMembership.getMember().getId());
-            preparedStatement.setString(3, groupMembership.getGroup().getId());
-            preparedStatement.setString(4, groupMembership.getClass().getName());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Insert into GroupMembership failed");
+        for (Map.Entry<QueryParameter, Object[]> entry : params.entrySet()) {
+            QueryParameter queryParameter = entry.getKey();
+            Object[] paramValues = entry.getValue();
+
+            if (paramValues == null || paramValues.length == 0) {
+                continue;
+            }
+
+            conditions.append(" and ");
+
+            if (queryParameter == IdentityType.ID) {
+                conditions.append(inCondition("r.id", paramValues, values));
+            } else if (queryParameter == Grant.ASSIGNEE || queryParameter == GroupMembership.MEMBER) {
+                conditions.append(inCondition("r.relBegin", paramValues, values));
+            } else if (queryParameter == Grant.ROLE || queryParameter == GroupMembership.GROUP) {
+                conditions.append(inCondition("r.relEnd", paramValues, values));
+            } else if (queryParameter == Relationship.IDENTITY
+                    || (queryParameter instanceof AttributeParameter && paramValues[0] instanceof IdentityType)) {
+                conditions.append("(").append(inCondition("r.relBegin", paramValues, values)).append(" or ")
+                        .append(inCondition("r.relEnd", paramValues, values)).append(")");
+            } else {
+                throw new IdentityManagementException("Unsupported query parameter [" + queryParameter + "].");
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
+
+        return conditions.toString();
     }
-}
\ No newline at end of file
+}
@@ -17,23 +17,18 @@
  */
 package org.picketlink.idm.jdbc.internal.model.db;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import javax.sql.DataSource;
-
-import org.picketlink.idm.IDMMessages;
-import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
-import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.basic.Role;
-import org.picketlink.idm.query.AttributeParameter;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -42,258 +37,172 @@ import org.picketlink.idm.query.QueryParameter;
  * @since October 24, 2013
  */
 public class RoleStorageUtil extends AbstractStorageUtil {
+    private static final List<String> COLUMNS = Arrays.asList("name", "enabled", "createdDate", "expirationDate");
+
+    private final RowReader<Role> roleReader = new RowReader<Role>() {
+        @Override
+        public Role read(ResultSet resultSet) throws SQLException {
+            Role role = new Role();
+            role.setId(resultSet.getString(1));
+            role.setName(resultSet.getString(2));
+            role.setEnabled("y".equalsIgnoreCase(resultSet.getString(3)));
+            role.setCreatedDate(getDate(resultSet, 4));
+            role.setExpirationDate(getDate(resultSet, 5));
+            role.setPartition(readPartition(resultSet, 6));
+            return role;
+        }
+    };
+
+    /**
+     * Count the number of {@link Role} matching the query parameters
+     * @param session
+     * @param params
+     * @return
+     */
+    public int countRoles(StorageSession session, Map<QueryParameter, Object[]> params) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String conditions = buildConditions("r", params, COLUMNS, values);
+        String sql = "select count(*) from Role r";
+        if (conditions.length() > 0) {
+            sql = sql + " where " + conditions;
+        }
+        return executeCount(session, sql, values);
+    }
+
     /**
      * Delete {@link Role}
-     * @param dataSource
+     * @param session
      * @param role
      */
-    public void deleteRole(DataSource dataSource, Role role) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "delete from Role where id=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, role.getId());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Delete Role failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
+    public void deleteRole(StorageSession session, Role role) {
+        checkSession(session);
+        int result = executeUpdate(session, "delete from Role where id=?", role.getId());
+        if (result == 0) {
+            throw new RuntimeException("Delete Role failed");
         }
     }
 
     /**
      * Load {@link Role} given its id
-     * @param dataSource
+     * @param session
      * @param id
      * @return
      */
-    public Role loadRole(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select name,partitionID,enabled,createdDate,expirationDate from Role where id =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Role role = new Role();
-                role.setName(resultSet.getString(1));
-                role.setId(id);
-                role.setPartition(loadPartition(dataSource, resultSet.getString(2)));
-                role.setEnabled("y".equalsIgnoreCase(resultSet.getString(3)));
-                Timestamp creationDate = resultSet.getTimestamp(4);
-                if (creationDate != null) {
-                    role.setCreatedDate(new Date(creationDate.getTime()));
-                }
-                Timestamp expirationDate = resultSet.getTimestamp(5);
-                if (expirationDate != null) {
-                    role.setExpirationDate(new Date(expirationDate.getTime()));
-                }
-                // Get attributes also
-                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-                List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, role.getId());
-                if (attributeList.isEmpty() == false) {
-                    for (Attribute attribute : attributeList) {
-                        role.setAttribute(attribute);
-                    }
-                }
-                return role;
+    public Role loadRole(StorageSession session, String id) {
+        return loadRoles(session, Collections.singletonList(id)).get(id);
+    }
+
+    /**
+     * Load all {@link Role} with the given ids, using a single query for each {@link #MAX_IN_VALUES} ids
+     * @param session
+     * @param ids
+     * @return the roles by id
+     */
+    public Map<String, Role> loadRoles(StorageSession session, Collection<String> ids) {
+        checkSession(session);
+        Map<String, Role> roles = new HashMap<String, Role>();
+        for (List<String> chunk : split(ids)) {
+            List<Object> values = new ArrayList<Object>();
+            String sql = getSelect() + " where " + inCondition("r.id", chunk.toArray(), values);
+            for (Role role : executeQuery(session, sql, values, 0, 0, this.roleReader)) {
+                roles.put(role.getId(), role);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
-        return null;
+        return roles;
     }
 
     /**
-     * Load {@link Role} given parameters
-     * @param dataSource
+     * Load {@link Role} matching the query parameters
+     * @param session
      * @param params
+     * @param sortParameters
+     * @param ascending
+     * @param offset
+     * @param limit
      * @return
      */
-    public Role loadRole(DataSource dataSource, Map<QueryParameter, Object[]> params) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Set<QueryParameter> queryParameters = params.keySet();
-        for (QueryParameter queryParameter : queryParameters) {
-            if (queryParameter instanceof AttributeParameter) {
-                AttributeParameter attributeParameter = (AttributeParameter) queryParameter;
-                Object[] paramValues = getValuesFromParamMap(params,attributeParameter);
-                String attributeName = attributeParameter.getName();
-                if ("name".equals(attributeName)) {
-                    String loginNameValue = (String) paramValues[0];
-                    return loadRoleByName(dataSource, loginNameValue);
-                } else
-                    throw new RuntimeException();
-            }
+    public List<Role> loadRoles(StorageSession session, Map<QueryParameter, Object[]> params,
+            QueryParameter[] sortParameters, boolean ascending, int offset, int limit) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String conditions = buildConditions("r", params, COLUMNS, values);
+        String sql = getSelect();
+        if (conditions.length() > 0) {
+            sql = sql + " where " + conditions;
         }
-        throw new RuntimeException();
+        sql = sql + buildOrderBy("r", sortParameters, ascending, COLUMNS);
+        return executeQuery(session, sql, values, offset, limit, this.roleReader);
     }
 
     /**
      * Load {@link Role} given its name
-     * @param dataSource
+     * @param session
      * @param roleName
      * @return
      */
-    public Role loadRoleByName(DataSource dataSource, String roleName) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id,partitionID,enabled,createdDate,expirationDate from Role where name =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, roleName);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Role role = new Role();
-                role.setId(resultSet.getString(1));
-                role.setName(roleName);
-                role.setPartition(loadPartition(dataSource, resultSet.getString(2)));
-                role.setEnabled("y".equalsIgnoreCase(resultSet.getString(3)));
-                Timestamp creationDate = resultSet.getTimestamp(4);
-                if (creationDate != null) {
-                    role.setCreatedDate(new Date(creationDate.getTime()));
-                }
-                Timestamp expirationDate = resultSet.getTimestamp(5);
-                if (expirationDate != null) {
-                    role.setExpirationDate(new Date(expirationDate.getTime()));
-                }
-                // Get attributes also
-                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-                List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, role.getId());
-                if (attributeList.isEmpty() == false) {
-                    for (Attribute attribute : attributeList) {
-                        role.setAttribute(attribute);
-                    }
-                }
-                return role;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
+    public Role loadRoleByName(StorageSession session, String roleName) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        values.add(roleName);
+        List<Role> roles = executeQuery(session, getSelect() + " where r.name=?", values, 0, 0, this.roleReader);
+        if (roles.isEmpty()) {
+            return null;
         }
-        return null;
+        return roles.get(0);
     }
 
     /**
      * Store a {@link Role}
-     * @param dataSource
+     * @param session
      * @param role
      */
-    public void storeRole(DataSource dataSource, Role role) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "insert into Role set name=?,id=?," + "createdDate=?,expirationDate=?,partitionID=?," + "enabled=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, role.getName());
-            preparedStatement.setString(2, role.getId());
-            preparedStatement.setTimestamp(3, new Timestamp(role.getCreatedDate().getTime()));
-            if (role.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(4, new Timestamp(role.getExpirationDate().getTime()));
-            } else {
-                preparedStatement.setTimestamp(4, null);
-            }
-            preparedStatement.setString(5, role.getPartition().getId());
-            if (role.isEnabled()) {
-                preparedStatement.setString(6, "y");
-            }
+    public void storeRole(StorageSession session, Role role) {
+        storeRoles(session, Collections.singletonList(role));
+    }
 
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Insert into Role failed");
+    /**
+     * Store new {@link Role} instances using a single batch
+     * @param session
+     * @param roles
+     */
+    public void storeRoles(StorageSession session, List<Role> roles) {
+        checkSession(session);
+        try {
+            PreparedStatement preparedStatement = session.prepareStatement("insert into Role (name,id,createdDate,"
+                    + "expirationDate,partitionID,enabled) values (?,?,?,?,?,?)");
+            for (Role role : roles) {
+                preparedStatement.setString(1, role.getName());
+                preparedStatement.setString(2, role.getId());
+                preparedStatement.setTimestamp(3, toTimestamp(role.getCreatedDate()));
+                preparedStatement.setTimestamp(4, toTimestamp(role.getExpirationDate()));
+                preparedStatement.setString(5, role.getPartition().getId());
+                preparedStatement.setString(6, toFlag(role.isEnabled()));
+                preparedStatement.addBatch();
             }
-
-            // Ensure that the Partition is also stored
-            PartitionJdbcType pj = new PartitionJdbcType("dummy");
-            pj.setDataSource(dataSource);
-            pj.persist(role.getPartition());
+            preparedStatement.executeBatch();
         } catch (SQLException e) {
             throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
+
+        // Ensure that the Partition is also stored
+        storePartitions(session, roles);
     }
 
     /**
-     * Update the stored {@link User}
-     * @param dataSource
+     * Update the stored {@link Role}
+     * @param session
      * @param role
      */
-    public void updateRole(DataSource dataSource, Role role) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        String updateSql = "update Role set name=?,enabled=?," + "createdDate=?,expirationDate=? where id =?";
-
-        if (role.getExpirationDate() == null) {
-            updateSql = "update Role set name=?,enabled=?," + "createdDate=? where id =?";
-        }
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-
-            preparedStatement = connection.prepareStatement(updateSql);
-            preparedStatement.setString(1, role.getName());
-            if (role.isEnabled()) {
-                preparedStatement.setString(2, "y");
-            } else {
-                preparedStatement.setString(2, "n");
-            }
-            preparedStatement.setDate(3, new java.sql.Date(role.getCreatedDate().getTime()));
-
-            if (role.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(4, new Timestamp(role.getExpirationDate().getTime()));
-                preparedStatement.setString(5, role.getId());
-            } else {
-                preparedStatement.setString(4, role.getId());
-            }
+    public void updateRole(StorageSession session, Role role) {
+        checkSession(session);
+        executeUpdate(session, "update Role set name=?,enabled=?,createdDate=?,expirationDate=? where id=?",
+                role.getName(), toFlag(role.isEnabled()), role.getCreatedDate(), role.getExpirationDate(),
+                role.getId());
+    }
 
-            int numberOfRows = preparedStatement.executeUpdate();
-            if (numberOfRows == 0) {
-                System.out.println("Update Role failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
+    private String getSelect() {
+        return "select r.id,r.name,r.enabled,r.createdDate,r.expirationDate," + PARTITION_COLUMNS + " from Role r"
+                + partitionJoin("r");
     }
-}
\ No newline at end of file
+}
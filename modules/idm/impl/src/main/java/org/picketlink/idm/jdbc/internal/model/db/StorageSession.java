@@ -0,0 +1,195 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.jdbc.internal.model.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.picketlink.idm.IDMMessages;
+
+/**
+ * Holds the {@link Connection} used by a single operation of the
+ * {@link org.picketlink.idm.jdbc.internal.JDBCIdentityStore}, so all
+ * statements executed by the operation share the same connection.
+ * Prepared statements are cached by their SQL until the session is closed.
+ *
+ * <p>Sessions may be opened again while they are in use, so that nested
+ * operations share the connection. The connection is only released when the
+ * outermost user closes the session.</p>
+ *
+ * @author agent
+ */
+public class StorageSession {
+    private final DataSource dataSource;
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+    private Connection connection;
+    private int openCount;
+    private boolean transaction;
+
+    public StorageSession(DataSource dataSource) {
+        if (dataSource == null) {
+            throw IDMMessages.MESSAGES.nullArgument("datasource");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Mark the session as used by one more operation
+     * @return this session
+     */
+    public StorageSession open() {
+        this.openCount++;
+        return this;
+    }
+
+    /**
+     * Check if the session is used by any operation
+     * @return
+     */
+    public boolean isOpen() {
+        return this.openCount > 0;
+    }
+
+    /**
+     * Get the {@link DataSource}
+     * @return
+     */
+    public DataSource getDataSource() {
+        return this.dataSource;
+    }
+
+    /**
+     * Get the {@link Connection} for this session, opening it on first use
+     * @return
+     * @throws SQLException
+     */
+    public Connection getConnection() throws SQLException {
+        if (this.connection == null) {
+            this.connection = this.dataSource.getConnection();
+        }
+        return this.connection;
+    }
+
+    /**
+     * Get a {@link PreparedStatement} for the given SQL. Statements are reused
+     * within the session, callers must not close them.
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement preparedStatement = this.statements.get(sql);
+        if (preparedStatement == null) {
+            preparedStatement = getConnection().prepareStatement(sql);
+            this.statements.put(sql, preparedStatement);
+        } else {
+            preparedStatement.clearParameters();
+            preparedStatement.setMaxRows(0);
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Start a local transaction on the connection of this session. Nothing is
+     * done if the connection already takes part in a transaction, such as a
+     * JTA transaction, or if a local transaction was already started.
+     * @return true if a local transaction was started, in which case the
+     *         caller must commit or roll it back
+     * @throws SQLException
+     */
+    public boolean beginTransaction() throws SQLException {
+        Connection connection = getConnection();
+        if (!this.transaction && connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+            this.transaction = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if a local transaction was started with {@link #beginTransaction()}
+     * @return
+     */
+    public boolean isTransactionActive() {
+        return this.transaction;
+    }
+
+    /**
+     * Commit the local transaction, if any
+     * @throws SQLException
+     */
+    public void commit() throws SQLException {
+        if (this.transaction) {
+            this.connection.commit();
+            endTransaction();
+        }
+    }
+
+    /**
+     * Roll back the local transaction, if any
+     */
+    public void rollback() {
+        if (this.transaction) {
+            try {
+                this.connection.rollback();
+            } catch (SQLException e) {
+            }
+            endTransaction();
+        }
+    }
+
+    private void endTransaction() {
+        this.transaction = false;
+        try {
+            this.connection.setAutoCommit(true);
+        } catch (SQLException e) {
+        }
+    }
+
+    /**
+     * Release the session for one operation. Once no operation uses the
+     * session, any pending local transaction is rolled back and all cached
+     * statements and the connection are closed.
+     */
+    public void close() {
+        if (this.openCount > 0 && --this.openCount > 0) {
+            return;
+        }
+        rollback();
+        for (PreparedStatement preparedStatement : this.statements.values()) {
+            try {
+                preparedStatement.close();
+            } catch (SQLException e) {
+            }
+        }
+        this.statements.clear();
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+            }
+            this.connection = null;
+        }
+    }
+}
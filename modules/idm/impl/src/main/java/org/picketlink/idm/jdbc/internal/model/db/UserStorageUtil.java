@@ -17,24 +17,19 @@
  */
 package org.picketlink.idm.jdbc.internal.model.db;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import javax.sql.DataSource;
-
-import org.picketlink.idm.IDMMessages;
-import org.picketlink.idm.jdbc.internal.model.PartitionJdbcType;
-import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.basic.Agent;
 import org.picketlink.idm.model.basic.User;
-import org.picketlink.idm.query.AttributeParameter;
 import org.picketlink.idm.query.QueryParameter;
 
 /**
@@ -44,453 +39,233 @@ import org.picketlink.idm.query.QueryParameter;
  * @since October 24, 2013
  */
 public class UserStorageUtil extends AbstractStorageUtil {
+    private static final List<String> COLUMNS = Arrays.asList("firstName", "lastName", "email", "loginName", "enabled",
+            "createdDate", "expirationDate");
+
+    private final RowReader<User> userReader = new RowReader<User>() {
+        @Override
+        public User read(ResultSet resultSet) throws SQLException {
+            User user = new User();
+            user.setId(resultSet.getString(1));
+            user.setFirstName(resultSet.getString(2));
+            user.setLastName(resultSet.getString(3));
+            user.setEmail(resultSet.getString(4));
+            user.setLoginName(resultSet.getString(5));
+            user.setEnabled("y".equalsIgnoreCase(resultSet.getString(6)));
+            user.setCreatedDate(getDate(resultSet, 7));
+            user.setExpirationDate(getDate(resultSet, 8));
+            user.setPartition(readPartition(resultSet, 9));
+            return user;
+        }
+    };
+
     /**
-     * Count the number of {@link User} with an id
+     * Count the number of {@link User} matching the query parameters
      *
-     * @param dataSource
-     * @param id
+     * @param session
+     * @param params
      * @return
      */
-    public int countUsers(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public int countUsers(StorageSession session, Map<QueryParameter, Object[]> params) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String conditions = buildConditions("u", params, COLUMNS, values);
+        String sql = "select count(*) from User u";
+        if (conditions.length() > 0) {
+            sql = sql + " where " + conditions;
         }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select count(*) from User where id =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                return resultSet.getInt(1);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return 0;
+        return executeCount(session, sql, values);
     }
 
     /**
      * Delete {@link Agent}
      *
-     * @param dataSource
-     * @param user
+     * @param session
+     * @param agent
      */
-    public void deleteAgent(DataSource dataSource, Agent agent) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "delete from User where id=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, agent.getId());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Delete Agent failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
+    public void deleteAgent(StorageSession session, Agent agent) {
+        checkSession(session);
+        int result = executeUpdate(session, "delete from User where id=?", agent.getId());
+        if (result == 0) {
+            throw new RuntimeException("Delete Agent failed");
         }
     }
 
     /**
      * Delete {@link User}
      *
-     * @param dataSource
+     * @param session
      * @param user
      */
-    public void deleteUser(DataSource dataSource, User user) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "delete from User where id=?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, user.getId());
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Delete User failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
+    public void deleteUser(StorageSession session, User user) {
+        checkSession(session);
+        int result = executeUpdate(session, "delete from User where id=?", user.getId());
+        if (result == 0) {
+            throw new RuntimeException("Delete User failed");
         }
     }
 
     /**
-     * Load an {@link User} given various parameters
+     * Load {@link User} matching the query parameters
      *
-     * @param dataSource
+     * @param session
      * @param params
+     * @param sortParameters
+     * @param ascending
+     * @param offset
+     * @param limit
      * @return
      */
-    public User loadUser(DataSource dataSource, Map<QueryParameter, Object[]> params) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Set<QueryParameter> queryParameters = params.keySet();
-        for (QueryParameter queryParameter : queryParameters) {
-            if (queryParameter instanceof AttributeParameter) {
-                AttributeParameter attributeParameter = (AttributeParameter) queryParameter;
-                Object[] paramValues = getValuesFromParamMap(params,attributeParameter);
-                String attributeName = attributeParameter.getName();
-                if ("loginName".equals(attributeName)) {
-                    String loginNameValue = (String) paramValues[0];
-                    return loadUserByLoginName(dataSource, loginNameValue);
-                } else
-                    throw new RuntimeException();
-            }
+    public List<User> loadUsers(StorageSession session, Map<QueryParameter, Object[]> params,
+            QueryParameter[] sortParameters, boolean ascending, int offset, int limit) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        String conditions = buildConditions("u", params, COLUMNS, values);
+        String sql = getSelect();
+        if (conditions.length() > 0) {
+            sql = sql + " where " + conditions;
         }
-        throw new RuntimeException();
+        sql = sql + buildOrderBy("u", sortParameters, ascending, COLUMNS);
+        return executeQuery(session, sql, values, offset, limit, this.userReader);
     }
 
     /**
      * Load {@link User} given its id
      *
-     * @param dataSource
+     * @param session
      * @param id
      * @return
      */
-    public User loadUser(DataSource dataSource, String id) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select firstName,lastName,email,loginName,partitionID,enabled,"
-                    + "createdDate,expirationDate from User where id =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, id);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                User user = new User();
-                user.setFirstName(resultSet.getString(1));
-                user.setLastName(resultSet.getString(2));
-                user.setEmail(resultSet.getString(3));
-                user.setLoginName(resultSet.getString(4));
-                user.setPartition(loadPartition(dataSource, resultSet.getString(5)));
-                user.setEnabled("y".equalsIgnoreCase(resultSet.getString(6)));
-
-                Timestamp creationDate = resultSet.getTimestamp(7);
-                if (creationDate != null) {
-                    user.setCreatedDate(new Date(creationDate.getTime()));
-                }
-                Timestamp expirationDate = resultSet.getTimestamp(8);
-                if (expirationDate != null) {
-                    user.setExpirationDate(new Date(expirationDate.getTime()));
-                }
-                user.setId(id);
+    public User loadUser(StorageSession session, String id) {
+        return loadUsers(session, Collections.singletonList(id)).get(id);
+    }
 
-                // Get attributes also
-                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-                List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, id);
-                if (attributeList.isEmpty() == false) {
-                    for (Attribute attribute : attributeList) {
-                        user.setAttribute(attribute);
-                    }
-                }
-                return user;
+    /**
+     * Load all {@link User} with the given ids, using a single query for each {@link #MAX_IN_VALUES} ids
+     *
+     * @param session
+     * @param ids
+     * @return the users by id
+     */
+    public Map<String, User> loadUsers(StorageSession session, Collection<String> ids) {
+        checkSession(session);
+        Map<String, User> users = new HashMap<String, User>();
+        for (List<String> chunk : split(ids)) {
+            List<Object> values = new ArrayList<Object>();
+            String sql = getSelect() + " where " + inCondition("u.id", chunk.toArray(), values);
+            for (User user : executeQuery(session, sql, values, 0, 0, this.userReader)) {
+                users.put(user.getId(), user);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
-        return null;
+        return users;
     }
 
     /**
      * Load {@link User} given the login name
      *
-     * @param dataSource
+     * @param session
      * @param loginName
      * @return
      */
-    public User loadUserByLoginName(DataSource dataSource, String loginName) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
+    public User loadUserByLoginName(StorageSession session, String loginName) {
+        checkSession(session);
+        List<Object> values = new ArrayList<Object>();
+        values.add(loginName);
+        List<User> users = executeQuery(session, getSelect() + " where u.loginName=?", values, 0, 0, this.userReader);
+        if (users.isEmpty()) {
+            return null;
         }
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-            String sql = "select id, firstName,lastName,email,partitionID,enabled,createdDate,expirationDate"
-                    + " from User where loginName =?";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, loginName);
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                User user = new User();
-                user.setId(resultSet.getString(1));
-                user.setFirstName(resultSet.getString(2));
-                user.setLastName(resultSet.getString(3));
-                user.setEmail(resultSet.getString(4));
-                user.setLoginName(loginName);
-                user.setPartition(loadPartition(dataSource, resultSet.getString(5)));
-                user.setEnabled("y".equalsIgnoreCase(resultSet.getString(6)));
-                Timestamp creationDate = resultSet.getTimestamp(7);
-                if (creationDate != null) {
-                    user.setCreatedDate(new Date(creationDate.getTime()));
-                }
-                Timestamp expirationDate = resultSet.getTimestamp(8);
-                if (expirationDate != null) {
-                    user.setExpirationDate(new Date(expirationDate.getTime()));
-                }
-
-                // Get attributes also
-                AttributeStorageUtil attributeStorageUtil = new AttributeStorageUtil();
-                List<Attribute> attributeList = attributeStorageUtil.getAttributes(dataSource, user.getId());
-                if (attributeList.isEmpty() == false) {
-                    for (Attribute attribute : attributeList) {
-                        user.setAttribute(attribute);
-                    }
-                }
-                return user;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
-        return null;
+        return users.get(0);
     }
 
     /**
      * Store a new {@link Agent}
      *
-     * @param dataSource
-     * @param user
+     * @param session
+     * @param agent
      */
-    public void storeAgent(DataSource dataSource, Agent agent) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        String storeSql = "insert into user set loginName=?,id=?," + "createdDate=?,partitionID=?,enabled=?,expirationDate=?";
-        if (agent.getExpirationDate() == null) {
-            storeSql = "insert into user set loginName=?,id=?," + "createdDate=?,partitionID=?,enabled=?";
-        }
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        try {
-            connection = dataSource.getConnection();
-            preparedStatement = connection.prepareStatement(storeSql);
-            preparedStatement.setString(1, agent.getLoginName());
-            preparedStatement.setString(2, agent.getId());
-
-            preparedStatement.setTimestamp(3, new Timestamp(agent.getCreatedDate().getTime()));
-            preparedStatement.setString(4, agent.getPartition().getId());
-            String enabledStr = "n";
-            if (agent.isEnabled()) {
-                enabledStr = "y";
-            }
-            preparedStatement.setString(5, enabledStr);
-            if (agent.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(6, new Timestamp(agent.getExpirationDate().getTime()));
-            }
-
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Insert agent failed");
-            }
-
-            // Ensure that the Partition is also stored
-            PartitionJdbcType pj = new PartitionJdbcType("dummy");
-            pj.setDataSource(dataSource);
-            pj.persist(agent.getPartition());
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
+    public void storeAgent(StorageSession session, Agent agent) {
+        storeAgents(session, Collections.singletonList(agent));
     }
 
     /**
      * Store a new {@link User}
      *
-     * @param dataSource
+     * @param session
      * @param user
      */
-    public void storeUser(DataSource dataSource, User user) {
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-        String storeSql = "insert into user set firstName=?,lastName=?,email=?,loginName=?,id=?,"
-                + "createdDate=?,partitionID=?,enabled=?,expirationDate=?";
-        if (user.getExpirationDate() == null) {
-            storeSql = "insert into user set firstName=?,lastName=?,email=?,loginName=?,id=?,"
-                    + "createdDate=?,partitionID=?,enabled=?";
-        }
+    public void storeUser(StorageSession session, User user) {
+        storeAgents(session, Collections.singletonList(user));
+    }
 
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
+    /**
+     * Store new {@link Agent} and {@link User} instances using a single batch
+     *
+     * @param session
+     * @param agents
+     */
+    public void storeAgents(StorageSession session, List<? extends Agent> agents) {
+        checkSession(session);
         try {
-            connection = dataSource.getConnection();
-            preparedStatement = connection.prepareStatement(storeSql);
-            preparedStatement.setString(1, user.getFirstName());
-            preparedStatement.setString(2, user.getLastName());
-            preparedStatement.setString(3, user.getEmail());
-            preparedStatement.setString(4, user.getLoginName());
-            preparedStatement.setString(5, user.getId());
-
-            preparedStatement.setTimestamp(6, new Timestamp(user.getCreatedDate().getTime()));
-            preparedStatement.setString(7, user.getPartition().getId());
-            String enabledStr = "n";
-            if (user.isEnabled()) {
-                enabledStr = "y";
-            }
-            preparedStatement.setString(8, enabledStr);
-            if (user.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(9, new Timestamp(user.getExpirationDate().getTime()));
-            }
-
-            int result = preparedStatement.executeUpdate();
-            if (result == 0) {
-                throw new RuntimeException("Insert into user failed");
+            PreparedStatement preparedStatement = session.prepareStatement("insert into User (firstName,lastName,email,"
+                    + "loginName,id,createdDate,partitionID,enabled,expirationDate) values (?,?,?,?,?,?,?,?,?)");
+            for (Agent agent : agents) {
+                if (agent instanceof User) {
+                    User user = (User) agent;
+                    preparedStatement.setString(1, user.getFirstName());
+                    preparedStatement.setString(2, user.getLastName());
+                    preparedStatement.setString(3, user.getEmail());
+                } else {
+                    preparedStatement.setString(1, null);
+                    preparedStatement.setString(2, null);
+                    preparedStatement.setString(3, null);
+                }
+                preparedStatement.setString(4, agent.getLoginName());
+                preparedStatement.setString(5, agent.getId());
+                preparedStatement.setTimestamp(6, toTimestamp(agent.getCreatedDate()));
+                preparedStatement.setString(7, agent.getPartition().getId());
+                preparedStatement.setString(8, toFlag(agent.isEnabled()));
+                preparedStatement.setTimestamp(9, toTimestamp(agent.getExpirationDate()));
+                preparedStatement.addBatch();
             }
-
-            // Ensure that the Partition is also stored
-            PartitionJdbcType pj = new PartitionJdbcType("dummy");
-            pj.setDataSource(dataSource);
-            pj.persist(user.getPartition());
+            preparedStatement.executeBatch();
         } catch (SQLException e) {
             throw new RuntimeException(e);
-        } finally {
-            safeClose(preparedStatement);
-            safeClose(connection);
         }
+
+        // Ensure that the Partition is also stored
+        storePartitions(session, agents);
     }
 
     /**
      * Update the stored {@link Agent}
      *
-     * @param dataSource
-     * @param user
+     * @param session
+     * @param agent
      */
-    public void updateAgent(DataSource dataSource, Agent agent) {
-        String updateSql = "update User set loginName=?,enabled=?," + "createdDate=?,expirationDate=? where id =?";
-
-        if (agent.getExpirationDate() == null) {
-            updateSql = "update User set loginName=?,enabled=?," + "createdDate=? where id =?";
-        }
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-
-            preparedStatement = connection.prepareStatement(updateSql);
-            preparedStatement.setString(1, agent.getLoginName());
-            if (agent.isEnabled()) {
-                preparedStatement.setString(2, "y");
-            } else {
-                preparedStatement.setString(2, "n");
-            }
-            preparedStatement.setTimestamp(3, new Timestamp(agent.getCreatedDate().getTime()));
-
-            if (agent.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(4, new Timestamp(agent.getExpirationDate().getTime()));
-                preparedStatement.setString(5, agent.getId());
-            } else {
-                preparedStatement.setString(4, agent.getId());
-            }
-
-            int numberOfRows = preparedStatement.executeUpdate();
-            if (numberOfRows == 0) {
-                System.out.println("Update Agent failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
+    public void updateAgent(StorageSession session, Agent agent) {
+        checkSession(session);
+        executeUpdate(session, "update User set loginName=?,enabled=?,createdDate=?,expirationDate=? where id=?",
+                agent.getLoginName(), toFlag(agent.isEnabled()), agent.getCreatedDate(), agent.getExpirationDate(),
+                agent.getId());
     }
 
     /**
      * Update the stored {@link User}
      *
-     * @param dataSource
+     * @param session
      * @param user
      */
-    public void updateUser(DataSource dataSource, User user) {
-        String updateSql = "update User set firstName=?,lastName=?,email=?,loginName=?,enabled=?,"
-                + "createdDate=?,expirationDate=? where id =?";
-
-        if (user.getExpirationDate() == null) {
-            updateSql = "update User set firstName=?,lastName=?,email=?,loginName=?,enabled=?," + "createdDate=? where id =?";
-        }
-        if (dataSource == null) {
-            throw IDMMessages.MESSAGES.nullArgument("datasource");
-        }
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-        try {
-            connection = dataSource.getConnection();
-
-            preparedStatement = connection.prepareStatement(updateSql);
-            preparedStatement.setString(1, user.getFirstName());
-            preparedStatement.setString(2, user.getLastName());
-            preparedStatement.setString(3, user.getEmail());
-            preparedStatement.setString(4, user.getLoginName());
-            if (user.isEnabled()) {
-                preparedStatement.setString(5, "y");
-            } else {
-                preparedStatement.setString(5, "n");
-            }
-            preparedStatement.setTimestamp(6, new Timestamp(user.getCreatedDate().getTime()));
-
-            if (user.getExpirationDate() != null) {
-                preparedStatement.setTimestamp(7, new Timestamp(user.getExpirationDate().getTime()));
-                preparedStatement.setString(8, user.getId());
-            } else {
-                preparedStatement.setString(7, user.getId());
-            }
+    public void updateUser(StorageSession session, User user) {
+        checkSession(session);
+        executeUpdate(session, "update User set firstName=?,lastName=?,email=?,loginName=?,enabled=?,createdDate=?,"
+                + "expirationDate=? where id=?", user.getFirstName(), user.getLastName(), user.getEmail(),
+                user.getLoginName(), toFlag(user.isEnabled()), user.getCreatedDate(), user.getExpirationDate(),
+                user.getId());
+    }
 
-            int numberOfRows = preparedStatement.executeUpdate();
-            if (numberOfRows == 0) {
-                System.out.println("Update user failed");
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        } finally {
-            safeClose(resultSet);
-            safeClose(preparedStatement);
-            safeClose(connection);
-        }
+    private String getSelect() {
+        return "select u.id,u.firstName,u.lastName,u.email,u.loginName,u.enabled,u.createdDate,u.expirationDate,"
+                + PARTITION_COLUMNS + " from User u" + partitionJoin("u");
     }
-}
\ No newline at end of file
+}
@@ -60,17 +60,19 @@ import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.query.RelationshipQuery;
 import org.picketlink.idm.query.RelationshipQueryParameter;
-import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BatchAttributeStore;
 import org.picketlink.idm.spi.CredentialStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.PartitionStore;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
 import javax.persistence.Id;
 import javax.persistence.Query;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
@@ -80,11 +82,16 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static java.util.Map.Entry;
 import static org.picketlink.common.properties.query.TypedPropertyCriteria.MatchOption;
@@ -112,12 +119,17 @@ import static org.picketlink.idm.config.IdentityStoreConfiguration.IdentityOpera
 public class JPAIdentityStore
         extends AbstractIdentityStore<JPAIdentityStoreConfiguration>
         implements CredentialStore<JPAIdentityStoreConfiguration>, PartitionStore<JPAIdentityStoreConfiguration>,
-        AttributeStore<JPAIdentityStoreConfiguration> {
+        BatchAttributeStore<JPAIdentityStoreConfiguration> {
 
     // Invocation context parameters
     public static final String INVOCATION_CTX_ENTITY_MANAGER = "CTX_ENTITY_MANAGER";
     // Event context parameters
     public static final String EVENT_CONTEXT_IDENTITY = "IDENTITY_ENTITY";
+    // Maximum number of types whose attributes are loaded by a single query
+    private static final int ATTRIBUTES_BATCH_SIZE = 500;
+    // Number of types written before the persistence context is flushed, when adding types in bulk
+    private static final int WRITE_BATCH_SIZE = 100;
+
     private final List<EntityMapper> entityMappers = new ArrayList<EntityMapper>();
 
     @Override
@@ -139,21 +151,90 @@ public class JPAIdentityStore
     public void addAttributedType(IdentityContext context, AttributedType attributedType) {
         EntityManager entityManager = getEntityManager(context);
 
-        for (EntityMapper entityMapper : getMapperFor(attributedType.getClass())) {
-            if (entityMapper.isPersist()) {
-                entityMapper.persist(attributedType, entityManager);
-            }
+        persistAttributedType(attributedType, entityManager);
 
-            if (Relationship.class.isInstance(attributedType)) {
-                if (entityMapper.isRoot()) {
-                    storeRelationshipMembers((Relationship) attributedType, entityManager);
-                }
+        entityManager.flush();
+    }
+
+    @Override
+    protected void addAttributedTypes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        EntityManager entityManager = getEntityManager(context);
+
+        for (int i = 0; i < attributedTypes.size(); i++) {
+            persistAttributedType(attributedTypes.get(i), entityManager);
+
+            if ((i + 1) % WRITE_BATCH_SIZE == 0) {
+                entityManager.flush();
             }
         }
 
         entityManager.flush();
     }
 
+    @Override
+    public boolean supportsRetry(IdentityContext context) {
+        EntityManager entityManager = getEntityManager(context);
+        EntityTransaction transaction;
+
+        try {
+            transaction = entityManager.getTransaction();
+        } catch (IllegalStateException jta) {
+            // a failure marks the JTA transaction for rollback, nothing else can be written with it
+            return false;
+        }
+
+        return !transaction.isActive() || !transaction.getRollbackOnly();
+    }
+
+    @Override
+    public Set<Object> getStoredValues(IdentityContext context, Class<? extends IdentityType> identityType,
+                                       String propertyName, Collection<?> values) {
+        EntityMapper rootMapper = getRootMapper(identityType);
+        EntityMapper propertyMapper = getEntityMapperForProperty(identityType, propertyName);
+
+        // only properties stored by the root entity can be checked with a single query
+        if (propertyMapper == null || !propertyMapper.getEntityType().equals(rootMapper.getEntityType())) {
+            return null;
+        }
+
+        Property mappedProperty = (Property) propertyMapper.getProperty(identityType, propertyName).getValue();
+
+        if (isMappedType(mappedProperty.getJavaClass())) {
+            return null;
+        }
+
+        EntityManager entityManager = getEntityManager(context);
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        Set<Object> storedValues = new HashSet<Object>();
+        List<Object> valueList = new ArrayList<Object>(values);
+
+        for (int i = 0; i < valueList.size(); i += ATTRIBUTES_BATCH_SIZE) {
+            CriteriaQuery<Object> cq = cb.createQuery(Object.class);
+            Root<?> from = cq.from(rootMapper.getEntityType());
+            List<Predicate> predicates = new ArrayList<Predicate>();
+            Entry<Property, Property> partitionProperty = rootMapper.getProperty(OwnerReference.class);
+
+            if (partitionProperty != null) {
+                Join<Object, Object> join = from.join(partitionProperty.getValue().getName());
+                predicates.add(cb.equal(join, entityManager.find(partitionProperty.getValue().getJavaClass(),
+                        context.getPartition().getId())));
+            }
+
+            Entry<Property, Property> typeProperty = rootMapper.getProperty(identityType, IdentityClass.class);
+
+            predicates.add(cb.equal(from.get(typeProperty.getValue().getName()), identityType.getName()));
+            predicates.add(from.get(mappedProperty.getName())
+                    .in(valueList.subList(i, Math.min(i + ATTRIBUTES_BATCH_SIZE, valueList.size()))));
+
+            cq.select(from.get(mappedProperty.getName()));
+            cq.where(predicates.toArray(new Predicate[predicates.size()]));
+
+            storedValues.addAll(entityManager.createQuery(cq).getResultList());
+        }
+
+        return storedValues;
+    }
+
     @Override
     public void updateAttributedType(IdentityContext context, AttributedType attributedType) {
         EntityManager entityManager = getEntityManager(context);
@@ -379,6 +460,33 @@ public class JPAIdentityStore
         }
     }
 
+    @Override
+    public void loadAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        EntityManager entityManager = getEntityManager(context);
+        Map<EntityMapper, List<AttributedType>> typesByMapper = new LinkedHashMap<EntityMapper, List<AttributedType>>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            EntityMapper attributeMapper = getAttributeMapper(attributedType.getClass());
+            List<AttributedType> types = typesByMapper.get(attributeMapper);
+
+            if (types == null) {
+                types = new ArrayList<AttributedType>();
+                typesByMapper.put(attributeMapper, types);
+            }
+
+            types.add(attributedType);
+        }
+
+        for (Entry<EntityMapper, List<AttributedType>> entry : typesByMapper.entrySet()) {
+            List<AttributedType> types = entry.getValue();
+
+            for (int i = 0; i < types.size(); i = i + ATTRIBUTES_BATCH_SIZE) {
+                loadAttributes(entry.getKey(), types.subList(i, Math.min(i + ATTRIBUTES_BATCH_SIZE, types.size())),
+                        entityManager);
+            }
+        }
+    }
+
     @Override
     public void removeAttribute(IdentityContext context, AttributedType attributedType, String attributeName) {
         EntityManager entityManager = getEntityManager(context);
@@ -507,8 +615,13 @@ public class JPAIdentityStore
                 }
             }
 
-            Property idProperty = rootMapper.getProperty(Id.class).getValue();
-            cq.select(from.get(idProperty.getName()));
+            if (rootMapper.isJoinReferences()) {
+                for (Property referenceProperty : rootMapper.getReferenceProperties()) {
+                    from.fetch(referenceProperty.getName(), JoinType.LEFT);
+                }
+            }
+
+            cq.select(from);
 
             cq.where(predicates.toArray(new Predicate[predicates.size()]));
 
@@ -522,10 +635,7 @@ public class JPAIdentityStore
                 }
             }
 
-            for (Object entity : query.getResultList()) {
-                result.add(rootMapper.<V>createType(entityManager.find(rootMapper.getEntityType(), entity),
-                        entityManager));
-            }
+            result.addAll(rootMapper.<V>createTypes(query.getResultList(), entityManager));
         }
 
         return result;
@@ -682,7 +792,32 @@ public class JPAIdentityStore
     public void setAttribute(IdentityContext context, AttributedType attributedType, Attribute<? extends
             Serializable> attribute) {
         removeAttribute(context, attributedType, attribute.getName());
+        persistAttribute(attributedType, attribute, getEntityManager(context));
+    }
+
+    @Override
+    public void addAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+        EntityManager entityManager = getEntityManager(context);
+
+        List<Object> attributeEntities = new ArrayList<Object>();
+
+        for (int i = 0; i < attributedTypes.size(); i++) {
+            AttributedType attributedType = attributedTypes.get(i);
+
+            for (Attribute<? extends Serializable> attribute : attributedType.getAttributes()) {
+                attributeEntities.addAll(persistAttribute(attributedType, attribute, entityManager));
+            }
+
+            if ((i + 1) % WRITE_BATCH_SIZE == 0) {
+                flushAndDetach(entityManager, attributeEntities);
+            }
+        }
+
+        flushAndDetach(entityManager, attributeEntities);
+    }
 
+    private List<Object> persistAttribute(AttributedType attributedType, Attribute<? extends Serializable> attribute,
+                                          EntityManager entityManager) {
         Serializable values = attribute.getValue();
 
         if (!values.getClass().isArray()) {
@@ -699,7 +834,7 @@ public class JPAIdentityStore
         Property attributeValueProperty = attributeMapper.getProperty(Attribute.class, AttributeValue.class).getValue();
         Property ownerProperty = attributeMapper.getProperty(Attribute.class, OwnerReference.class).getValue();
 
-        EntityManager entityManager = getEntityManager(context);
+        List<Object> attributeEntities = new ArrayList<Object>();
 
         for (Serializable attributeValue : (Serializable[]) values) {
             Object attributeEntity = attributeMapper.createEntity();
@@ -715,7 +850,10 @@ public class JPAIdentityStore
             }
 
             entityManager.persist(attributeEntity);
+            attributeEntities.add(attributeEntity);
         }
+
+        return attributeEntities;
     }
 
     @Override
@@ -1149,38 +1287,119 @@ public class JPAIdentityStore
         Map<String, Attribute<Serializable>> attributes = new HashMap<String, Attribute<Serializable>>();
 
         for (Object attributeEntity : entityManager.createQuery(cq).getResultList()) {
-            String storedName = attributeNameProperty.getValue(attributeEntity).toString();
-            Serializable storedValue = (Serializable) Base64.decodeToObject(attributeValueProperty.getValue(attributeEntity).toString());
+            addAttributeValue(attributes, attributeNameProperty, attributeValueProperty, attributeEntity);
+        }
 
-            Attribute<Serializable> attribute = attributes.get(storedName);
+        return attributes;
+    }
 
-            if (attribute == null) {
-                attribute = new Attribute<Serializable>(storedName, storedValue);
+    private void loadAttributes(EntityMapper attributeMapper, List<AttributedType> attributedTypes,
+                                EntityManager entityManager) {
+        Property attributeNameProperty = attributeMapper.getProperty(Attribute.class, AttributeName.class).getValue();
+        Property attributeValueProperty = attributeMapper.getProperty(Attribute.class, AttributeValue.class).getValue();
+        Property ownerProperty = attributeMapper.getProperty(Attribute.class, OwnerReference.class).getValue();
+        Map<Object, AttributedType> typesByOwner = new HashMap<Object, AttributedType>();
+        List<Object> ownerEntities = new ArrayList<Object>();
+        List<Object> ownerIds = new ArrayList<Object>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            if (getConfig().supportsType(attributedType.getClass(), IdentityOperation.create)
+                    && !String.class.equals(ownerProperty.getJavaClass())) {
+                Object ownerEntity = getOwnerEntity(attributedType, ownerProperty, entityManager);
+
+                if (ownerEntity != null) {
+                    ownerEntities.add(ownerEntity);
+                    typesByOwner.put(getIdentifier(ownerEntity, entityManager), attributedType);
+                }
             } else {
-                // if it is a multi-valued attribute
-                if (attribute != null) {
-                    Serializable[] values = null;
+                ownerIds.add(attributedType.getId());
+                typesByOwner.put(attributedType.getId(), attributedType);
+            }
+        }
 
-                    if (attribute.getValue().getClass().isArray()) {
-                        values = (Serializable[]) attribute.getValue();
-                    } else {
-                        values = (Serializable[]) Array.newInstance(attribute.getValue().getClass(), 1);
-                        values[0] = attribute.getValue();
-                    }
+        Class<?> attributeEntityClass = attributeMapper.getEntityType();
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<?> cq = cb.createQuery(attributeEntityClass);
+        Root<?> from = cq.from(attributeEntityClass);
+        List<Predicate> predicates = new ArrayList<Predicate>();
 
-                    Serializable[] newValues = Arrays.copyOf(values, values.length + 1);
+        if (!ownerEntities.isEmpty()) {
+            predicates.add(from.get(ownerProperty.getName()).in(ownerEntities));
+        }
 
-                    newValues[newValues.length - 1] = storedValue;
+        if (!ownerIds.isEmpty()) {
+            predicates.add(from.get(ownerProperty.getName()).in(ownerIds));
+        }
+
+        if (predicates.isEmpty()) {
+            return;
+        }
 
-                    attribute.setValue(newValues);
+        cq.where(cb.or(predicates.toArray(new Predicate[predicates.size()])));
 
+        Map<AttributedType, Map<String, Attribute<Serializable>>> attributesByType =
+                new IdentityHashMap<AttributedType, Map<String, Attribute<Serializable>>>();
+
+        for (Object attributeEntity : entityManager.createQuery(cq).getResultList()) {
+            Object owner = ownerProperty.getValue(attributeEntity);
+
+            if (!String.class.isInstance(owner)) {
+                owner = getIdentifier(owner, entityManager);
+            }
+
+            AttributedType attributedType = typesByOwner.get(owner);
+
+            if (attributedType != null) {
+                Map<String, Attribute<Serializable>> attributes = attributesByType.get(attributedType);
+
+                if (attributes == null) {
+                    attributes = new HashMap<String, Attribute<Serializable>>();
+                    attributesByType.put(attributedType, attributes);
                 }
+
+                addAttributeValue(attributes, attributeNameProperty, attributeValueProperty, attributeEntity);
+            }
+        }
+
+        for (Entry<AttributedType, Map<String, Attribute<Serializable>>> entry : attributesByType.entrySet()) {
+            for (Attribute attribute : entry.getValue().values()) {
+                entry.getKey().setAttribute(attribute);
             }
+        }
+    }
+
+    private Object getIdentifier(Object entity, EntityManager entityManager) {
+        return entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+    }
+
+    private void addAttributeValue(Map<String, Attribute<Serializable>> attributes, Property attributeNameProperty,
+                                   Property attributeValueProperty, Object attributeEntity) {
+        String storedName = attributeNameProperty.getValue(attributeEntity).toString();
+        Serializable storedValue = (Serializable) Base64.decodeToObject(attributeValueProperty.getValue(attributeEntity).toString());
+
+        Attribute<Serializable> attribute = attributes.get(storedName);
+
+        if (attribute == null) {
+            attribute = new Attribute<Serializable>(storedName, storedValue);
+        } else {
+            // if it is a multi-valued attribute
+            Serializable[] values = null;
 
-            attributes.put(attribute.getName(), attribute);
+            if (attribute.getValue().getClass().isArray()) {
+                values = (Serializable[]) attribute.getValue();
+            } else {
+                values = (Serializable[]) Array.newInstance(attribute.getValue().getClass(), 1);
+                values[0] = attribute.getValue();
+            }
+
+            Serializable[] newValues = Arrays.copyOf(values, values.length + 1);
+
+            newValues[newValues.length - 1] = storedValue;
+
+            attribute.setValue(newValues);
         }
 
-        return attributes;
+        attributes.put(attribute.getName(), attribute);
     }
 
     private void addAttributeQueryPredicates(Class<? extends AttributedType> attributedType,
@@ -1344,6 +1563,38 @@ public class JPAIdentityStore
         }
     }
 
+    private void persistAttributedType(AttributedType attributedType, EntityManager entityManager) {
+        for (EntityMapper entityMapper : getMapperFor(attributedType.getClass())) {
+            if (entityMapper.isPersist()) {
+                entityMapper.persist(attributedType, entityManager);
+            }
+
+            if (Relationship.class.isInstance(attributedType)) {
+                if (entityMapper.isRoot()) {
+                    storeRelationshipMembers((Relationship) attributedType, entityManager);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Flushes the pending changes and detaches the given entities, so the persistence context does not grow
+     * with the number of attributes written in bulk. The entity manager is shared with the caller, so it is never
+     * cleared.</p>
+     *
+     * @param entityManager
+     * @param entities
+     */
+    private void flushAndDetach(EntityManager entityManager, List<Object> entities) {
+        entityManager.flush();
+
+        for (Object entity : entities) {
+            entityManager.detach(entity);
+        }
+
+        entities.clear();
+    }
+
     private EntityManager getEntityManager(IdentityContext context) {
         if (!context.isParameterSet(INVOCATION_CTX_ENTITY_MANAGER)) {
             throw MESSAGES.storeJpaCouldNotGetEntityManagerFromStoreContext();
@@ -23,6 +23,7 @@ import org.picketlink.common.properties.query.PropertyQueries;
 import org.picketlink.common.properties.query.TypedPropertyCriteria;
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.jpa.annotations.OwnerReference;
+import org.picketlink.idm.jpa.annotations.entity.FetchPlan;
 import org.picketlink.idm.jpa.annotations.entity.IdentityManaged;
 import org.picketlink.idm.jpa.annotations.entity.MappedAttribute;
 import org.picketlink.idm.jpa.internal.AttributeList;
@@ -31,12 +32,17 @@ import org.picketlink.idm.model.AttributedType;
 import org.picketlink.idm.model.Partition;
 
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.Query;
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.Map.Entry;
 import static org.picketlink.common.reflection.Reflections.newInstance;
@@ -51,6 +57,8 @@ import static org.picketlink.idm.IDMMessages.MESSAGES;
  */
 public class EntityMapper {
 
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
     private final List<EntityMapping> entityMappings;
     private final Class<?> entityType;
     private final JPAIdentityStore store;
@@ -147,68 +155,82 @@ public class EntityMapper {
     }
 
     public <P extends AttributedType> P createType(Object entityInstance, EntityManager entityManager) {
-        P attributedType = null;
-
-        if (entityInstance != null) {
-            if (!getEntityType().equals(entityInstance.getClass()) && !getEntityType().isAssignableFrom(entityInstance
-                    .getClass())) {
-                EntityMapper entityMapper = this.store.getMapperForEntity(entityInstance.getClass());
-                Entry<Property, Property> property = entityMapper.getProperty(OwnerReference.class);
-
-                if (property == null) {
-                    throw new IdentityManagementException("Entity instance is not a " + getEntityType() + " or does " +
-                            "not have a owner reference to this type.");
-                }
+        return createType(entityInstance, entityManager, true, null);
+    }
 
-                entityInstance = property.getValue().getValue(entityInstance);
+    /**
+     * <p>Creates the types for the given entity instances, usually the results of a query. The associated entities of
+     * all instances are loaded in batches, as defined by the {@link FetchPlan} of this mapper, and the types referenced
+     * by more than one instance, such as their partition, are created only once.</p>
+     *
+     * @param entityInstances
+     * @param entityManager
+     *
+     * @return
+     */
+    public <P extends AttributedType> List<P> createTypes(List<?> entityInstances, EntityManager entityManager) {
+        List<P> attributedTypes = new ArrayList<P>(entityInstances.size());
+        Map<Object, AttributedType> referencedTypes = new IdentityHashMap<Object, AttributedType>();
+        boolean batchAssociations = isRoot() && getBatchSize() > 1;
+
+        for (Object entityInstance : entityInstances) {
+            P attributedType = createType(entityInstance, entityManager, !batchAssociations, referencedTypes);
+
+            if (attributedType != null) {
+                attributedTypes.add(attributedType);
             }
+        }
 
-            try {
-                attributedType = (P) newInstance(entityInstance.getClass(), getTypeProperty().getValue(entityInstance).toString());
+        if (batchAssociations) {
+            populateAssociatedEntities(attributedTypes, entityManager);
+        }
 
-                EntityMapping entityMapping = getMappingsFor(attributedType.getClass());
+        return attributedTypes;
+    }
 
-                for (Property property : entityMapping.getProperties().keySet()) {
-                    Property mappedProperty = entityMapping.getProperties().get(property);
-                    Object mappedValue = mappedProperty.getValue(entityInstance);
-                    Object propertyValue = mappedValue;
+    /**
+     * <p>Returns the properties of the entity mapped by this instance that reference other mapped entities, such as the
+     * owner reference.</p>
+     *
+     * @return
+     */
+    public List<Property> getReferenceProperties() {
+        List<Property> properties = new ArrayList<Property>();
 
-                    if (mappedProperty.getAnnotatedElement().isAnnotationPresent(OwnerReference.class)) {
-                        if (mappedValue == null) {
-                            if (isPartitionSupported(property.getJavaClass())) {
-                                throw new IdentityManagementException("Owner does not exists or was not provided.");
-                            }
-                        } else {
-                            EntityMapper entityMapper = this.store.getMapperForEntity(mappedValue.getClass());
+        for (EntityMapping entityMapping : getEntityMappings()) {
+            for (Property mappedProperty : entityMapping.getProperties().values()) {
+                if (this.store.isMappedType(mappedProperty.getJavaClass()) && !properties.contains(mappedProperty)) {
+                    properties.add(mappedProperty);
+                }
+            }
+        }
 
-                            propertyValue = entityMapper.createType(mappedValue, entityManager);
-                        }
-                    } else {
-                        // if the property maps to a mapped type is because we have a many-to-one relationship
-                        // this is the case when a type has a hierarchy
-                        if (this.store.isMappedType(mappedProperty.getJavaClass())) {
-                            propertyValue = createType(mappedValue, entityManager);
-                        }
-                    }
+        return properties;
+    }
 
-                    property.setValue(attributedType, propertyValue);
-                }
+    /**
+     * <p>Indicates if the entities referenced by the entity mapped by this instance must be loaded using a fetch join.</p>
+     *
+     * @return
+     */
+    public boolean isJoinReferences() {
+        FetchPlan fetchPlan = getEntityType().getAnnotation(FetchPlan.class);
+        return fetchPlan == null || fetchPlan.joinReferences();
+    }
 
-                if (isRoot()) {
-                    for (EntityMapper finalMapper : this.store.getMapperFor(attributedType.getClass())) {
-                        if (!finalMapper.isRoot()) {
-                            for (Object child : getAssociatedEntities(attributedType, finalMapper, entityManager)) {
-                                finalMapper.populate(attributedType, child, entityManager);
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                throw new IdentityManagementException("Could not create [" + attributedType + " from entity [" + entityInstance + "].", e);
-            }
+    /**
+     * <p>Returns the maximum number of instances for which the associated entities are loaded with a single query.</p>
+     *
+     * @return
+     */
+    public int getBatchSize() {
+        FetchPlan fetchPlan = getEntityType().getAnnotation(FetchPlan.class);
+
+        if (fetchPlan == null) {
+            return DEFAULT_BATCH_SIZE;
         }
 
-        return attributedType;
+        return fetchPlan.batchSize();
     }
 
     public Entry<Property, Property> getProperty(Class<?> attributedType, String propertyName) {
@@ -328,6 +350,200 @@ public class EntityMapper {
         }
     }
 
+    private <P extends AttributedType> P createType(Object entityInstance, EntityManager entityManager,
+                                                   boolean loadAssociations, Map<Object, AttributedType> referencedTypes) {
+        P attributedType = null;
+
+        if (entityInstance != null) {
+            if (!getEntityType().equals(entityInstance.getClass()) && !getEntityType().isAssignableFrom(entityInstance
+                    .getClass())) {
+                EntityMapper entityMapper = this.store.getMapperForEntity(entityInstance.getClass());
+                Entry<Property, Property> property = entityMapper.getProperty(OwnerReference.class);
+
+                if (property == null) {
+                    throw new IdentityManagementException("Entity instance is not a " + getEntityType() + " or does " +
+                            "not have a owner reference to this type.");
+                }
+
+                entityInstance = property.getValue().getValue(entityInstance);
+            }
+
+            try {
+                attributedType = (P) newInstance(entityInstance.getClass(), getTypeProperty().getValue(entityInstance).toString());
+
+                EntityMapping entityMapping = getMappingsFor(attributedType.getClass());
+
+                for (Property property : entityMapping.getProperties().keySet()) {
+                    Property mappedProperty = entityMapping.getProperties().get(property);
+                    Object mappedValue = mappedProperty.getValue(entityInstance);
+                    Object propertyValue = mappedValue;
+
+                    if (mappedProperty.getAnnotatedElement().isAnnotationPresent(OwnerReference.class)) {
+                        if (mappedValue == null) {
+                            if (isPartitionSupported(property.getJavaClass())) {
+                                throw new IdentityManagementException("Owner does not exists or was not provided.");
+                            }
+                        } else {
+                            EntityMapper entityMapper = this.store.getMapperForEntity(mappedValue.getClass());
+
+                            propertyValue = createReferencedType(entityMapper, mappedValue, entityManager, referencedTypes);
+                        }
+                    } else {
+                        // if the property maps to a mapped type is because we have a many-to-one relationship
+                        // this is the case when a type has a hierarchy
+                        if (this.store.isMappedType(mappedProperty.getJavaClass())) {
+                            propertyValue = createReferencedType(this, mappedValue, entityManager, referencedTypes);
+                        }
+                    }
+
+                    property.setValue(attributedType, propertyValue);
+                }
+
+                if (isRoot() && loadAssociations) {
+                    for (EntityMapper finalMapper : this.store.getMapperFor(attributedType.getClass())) {
+                        if (!finalMapper.isRoot()) {
+                            for (Object child : getAssociatedEntities(attributedType, finalMapper, entityManager)) {
+                                finalMapper.populate(attributedType, child, entityManager);
+                            }
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                throw new IdentityManagementException("Could not create [" + attributedType + " from entity [" + entityInstance + "].", e);
+            }
+        }
+
+        return attributedType;
+    }
+
+    private AttributedType createReferencedType(EntityMapper entityMapper, Object entityInstance,
+                                                EntityManager entityManager,
+                                                Map<Object, AttributedType> referencedTypes) {
+        if (entityInstance == null || referencedTypes == null) {
+            return entityMapper.createType(entityInstance, entityManager);
+        }
+
+        AttributedType referencedType = referencedTypes.get(entityInstance);
+
+        if (referencedType == null) {
+            referencedType = entityMapper.createType(entityInstance, entityManager);
+            referencedTypes.put(entityInstance, referencedType);
+        }
+
+        return referencedType;
+    }
+
+    private void populateAssociatedEntities(List<? extends AttributedType> attributedTypes, EntityManager entityManager) {
+        Map<Class<?>, List<AttributedType>> typesByClass = new LinkedHashMap<Class<?>, List<AttributedType>>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            List<AttributedType> types = typesByClass.get(attributedType.getClass());
+
+            if (types == null) {
+                types = new ArrayList<AttributedType>();
+                typesByClass.put(attributedType.getClass(), types);
+            }
+
+            types.add(attributedType);
+        }
+
+        int batchSize = getBatchSize();
+
+        for (Entry<Class<?>, List<AttributedType>> entry : typesByClass.entrySet()) {
+            List<AttributedType> types = entry.getValue();
+
+            for (EntityMapper finalMapper : this.store.getMapperFor((Class<? extends AttributedType>) entry.getKey())) {
+                if (!finalMapper.isRoot()) {
+                    for (int i = 0; i < types.size(); i = i + batchSize) {
+                        List<AttributedType> batch = types.subList(i, Math.min(i + batchSize, types.size()));
+                        Map<AttributedType, List<Object>> associatedEntities = getAssociatedEntities(batch, finalMapper,
+                                entityManager);
+
+                        for (AttributedType attributedType : batch) {
+                            List<Object> children = associatedEntities.get(attributedType);
+
+                            if (children != null) {
+                                for (Object child : children) {
+                                    finalMapper.populate(attributedType, child, entityManager);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Map<AttributedType, List<Object>> getAssociatedEntities(List<AttributedType> attributedTypes,
+                                                                    EntityMapper entityMapper,
+                                                                    EntityManager entityManager) {
+        Map<AttributedType, List<Object>> associatedEntities = new IdentityHashMap<AttributedType, List<Object>>();
+
+        if (!entityMapper.getEntityType().isAnnotationPresent(IdentityManaged.class)) {
+            return associatedEntities;
+        }
+
+        Entry<Property, Property> ownerProperty = entityMapper.getProperty(attributedTypes.get(0).getClass(),
+                OwnerReference.class);
+
+        if (ownerProperty == null) {
+            return associatedEntities;
+        }
+
+        if (!ownerProperty.getValue().getJavaClass().isAssignableFrom(getEntityType())) {
+            // the owner is not the entity mapped by this instance, there is no way to load them all at once.
+            for (AttributedType attributedType : attributedTypes) {
+                associatedEntities.put(attributedType, getAssociatedEntities(attributedType, entityMapper, entityManager));
+            }
+
+            return associatedEntities;
+        }
+
+        PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        Map<Object, AttributedType> typesByOwnerId = new HashMap<Object, AttributedType>();
+        List<Object> owners = new ArrayList<Object>();
+
+        for (AttributedType attributedType : attributedTypes) {
+            Object ownerEntity = this.store.getOwnerEntity(attributedType, ownerProperty.getValue(), entityManager);
+
+            if (ownerEntity != null) {
+                owners.add(ownerEntity);
+                typesByOwnerId.put(persistenceUnitUtil.getIdentifier(ownerEntity), attributedType);
+            }
+        }
+
+        if (owners.isEmpty()) {
+            return associatedEntities;
+        }
+
+        StringBuilder hql = new StringBuilder();
+
+        hql.append("from ").append(entityMapper.getEntityType().getName()).append(" o where ");
+        hql.append(" o.").append(ownerProperty.getValue().getName()).append(" in (:owners)");
+
+        Query childQuery = entityManager.createQuery(hql.toString());
+
+        childQuery.setParameter("owners", owners);
+
+        for (Object child : childQuery.getResultList()) {
+            Object ownerEntity = ownerProperty.getValue().getValue(child);
+            AttributedType attributedType = typesByOwnerId.get(persistenceUnitUtil.getIdentifier(ownerEntity));
+
+            if (attributedType != null) {
+                List<Object> children = associatedEntities.get(attributedType);
+
+                if (children == null) {
+                    children = new ArrayList<Object>();
+                    associatedEntities.put(attributedType, children);
+                }
+
+                children.add(child);
+            }
+        }
+
+        return associatedEntities;
+    }
+
     private <V extends AttributedType> void populate(V attributedType, Object entityInstance, EntityManager entityManager) {
         if (getEntityType().isAnnotationPresent(MappedAttribute.class)) {
             MappedAttribute mappedAttribute = getEntityType().getAnnotation(MappedAttribute.class);
@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.picketlink.idm.ldap.internal;
+
+import org.picketlink.common.constants.LDAPConstants;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.config.LDAPConnectionPoolConfiguration;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.picketlink.idm.IDMInternalLog.LDAP_STORE_LOGGER;
+
+/**
+ * <p>
+ * A pool of {@link LdapContext} instances. Each borrowed context is used by a single thread until it is released or
+ * invalidated.
+ * </p>
+ * <p>
+ * Idle contexts older than the configured idle timeout are closed when the pool is used, as long as the pool keeps its
+ * minimum size.
+ * </p>
+ *
+ * @author agent
+ */
+public class LDAPConnectionPool {
+
+    private final String name;
+    private final ContextFactory contextFactory;
+    private final LDAPConnectionPoolConfiguration configuration;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledContext> idleContexts = new LinkedBlockingDeque<PooledContext>();
+    private volatile long lastEviction = System.currentTimeMillis();
+
+    LDAPConnectionPool(String name, ContextFactory contextFactory, LDAPConnectionPoolConfiguration configuration)
+            throws NamingException {
+        this.name = name;
+        this.contextFactory = contextFactory;
+        this.configuration = configuration;
+        this.permits = new Semaphore(configuration.getMaxSize(), true);
+
+        for (int i = 0; i < configuration.getMinSize(); i++) {
+            this.idleContexts.offerFirst(new PooledContext(contextFactory.create()));
+        }
+    }
+
+    /**
+     * <p>Borrows a context from the pool, creating a new one if there is no idle context available.</p>
+     *
+     * @return
+     *
+     * @throws NamingException if a new context could not be created
+     * @throws IdentityManagementException if no context is available after the configured max wait time
+     */
+    LdapContext borrow() throws NamingException {
+        try {
+            if (!this.permits.tryAcquire(this.configuration.getMaxWait(), TimeUnit.MILLISECONDS)) {
+                throw new IdentityManagementException("Timeout waiting for a connection from the LDAP " + this.name + " pool.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdentityManagementException("Interrupted while waiting for a connection from the LDAP " + this.name + " pool.", e);
+        }
+
+        try {
+            PooledContext pooledContext;
+
+            while ((pooledContext = this.idleContexts.pollFirst()) != null) {
+                if (!this.configuration.isValidateOnBorrow() || isValid(pooledContext.context)) {
+                    return pooledContext.context;
+                }
+
+                close(pooledContext.context);
+            }
+
+            return this.contextFactory.create();
+        } catch (NamingException e) {
+            this.permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>Returns a context to the pool.</p>
+     *
+     * @param context
+     */
+    void release(LdapContext context) {
+        this.idleContexts.offerFirst(new PooledContext(context));
+        this.permits.release();
+        evictIdleContexts();
+    }
+
+    /**
+     * <p>Closes a context that can not be used anymore, such as when the connection with the server was lost.</p>
+     *
+     * @param context
+     */
+    void invalidate(LdapContext context) {
+        close(context);
+        this.permits.release();
+    }
+
+    private void evictIdleContexts() {
+        long now = System.currentTimeMillis();
+        long idleTimeout = this.configuration.getIdleTimeout();
+
+        if (now - this.lastEviction < idleTimeout / 2) {
+            return;
+        }
+
+        this.lastEviction = now;
+
+        Iterator<PooledContext> iterator = this.idleContexts.descendingIterator();
+
+        // the oldest contexts are at the end of the deque
+        while (iterator.hasNext() && this.idleContexts.size() > this.configuration.getMinSize()) {
+            PooledContext pooledContext = iterator.next();
+
+            if (now - pooledContext.lastUsed < idleTimeout) {
+                break;
+            }
+
+            if (this.idleContexts.removeLastOccurrence(pooledContext)) {
+                close(pooledContext.context);
+            }
+        }
+    }
+
+    private boolean isValid(LdapContext context) {
+        try {
+            context.getAttributes("", new String[] {LDAPConstants.OBJECT_CLASS});
+            return true;
+        } catch (NamingException e) {
+            if (LDAP_STORE_LOGGER.isDebugEnabled()) {
+                LDAP_STORE_LOGGER.debugf(e, "Discarding invalid connection from the LDAP %s pool.", this.name);
+            }
+
+            return false;
+        }
+    }
+
+    private void close(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException ignore) {
+        }
+    }
+
+    /**
+     * <p>Creates the contexts managed by a {@link LDAPConnectionPool}.</p>
+     */
+    interface ContextFactory {
+        LdapContext create() throws NamingException;
+    }
+
+    private static class PooledContext {
+
+        private final LdapContext context;
+        private final long lastUsed = System.currentTimeMillis();
+
+        PooledContext(LdapContext context) {
+            this.context = context;
+        }
+    }
+}
@@ -210,7 +210,9 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
                 NamingEnumeration<SearchResult> search = null;
 
                 try {
-                    search = this.operationManager.search(getBaseDN(ldapEntryConfig), filter.toString(), ldapEntryConfig);
+                    search = this.operationManager.search(getBaseDN(ldapEntryConfig), filter.toString(), ldapEntryConfig,
+                            getSortAttributes(identityQuery, ldapEntryConfig), identityQuery.isSortAscending(),
+                            identityQuery.getOffset(), identityQuery.getLimit());
 
                     while (search.hasMoreElements()) {
                         V type = (V) populateAttributedType(context, search.nextElement(), null);
@@ -230,6 +232,57 @@ public class LDAPIdentityStore extends AbstractIdentityStore<LDAPIdentityStoreCo
         return results;
     }
 
+    @Override
+    public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+        if (identityQuery.getParameter(IdentityType.ID) != null || IdentityType.class.equals(identityQuery.getIdentityType())) {
+            return super.countQueryResults(context, identityQuery);
+        }
+
+        LDAPMappingConfiguration ldapEntryConfig = getMappingConfig(identityQuery.getIdentityType());
+        StringBuilder filter = createIdentityTypeSearchFilter(identityQuery, ldapEntryConfig);
+
+        if (filter.length() == 0) {
+            return 0;
+        }
+
+        try {
+            return this.operationManager.count(getBaseDN(ldapEntryConfig), filter.toString());
+        } catch (NamingException e) {
+            throw new IdentityManagementException("Could not count identity types.", e);
+        }
+    }
+
+    /**
+     * <p>Returns the LDAP attributes mapped to the sort parameters of the given query. Sort parameters not mapped to an
+     * attribute are ignored.</p>
+     *
+     * @param identityQuery
+     * @param ldapEntryConfig
+     *
+     * @return
+     */
+    private String[] getSortAttributes(IdentityQuery<?> identityQuery, LDAPMappingConfiguration ldapEntryConfig) {
+        QueryParameter[] sortParameters = identityQuery.getSortParameters();
+
+        if (sortParameters == null || sortParameters.length == 0) {
+            return null;
+        }
+
+        List<String> sortAttributes = new ArrayList<String>();
+
+        for (QueryParameter sortParameter : sortParameters) {
+            if (AttributeParameter.class.isInstance(sortParameter)) {
+                String attributeName = ldapEntryConfig.getMappedProperties().get(((AttributeParameter) sortParameter).getName());
+
+                if (attributeName != null) {
+                    sortAttributes.add(attributeName);
+                }
+            }
+        }
+
+        return sortAttributes.toArray(new String[sortAttributes.size()]);
+    }
+
     @Override
     public <V extends Relationship> List<V> fetchQueryResults(IdentityContext
                                                                       context, RelationshipQuery<V> query) {
@@ -25,9 +25,11 @@ import org.picketlink.idm.config.LDAPIdentityStoreConfiguration;
 import org.picketlink.idm.config.LDAPMappingConfiguration;
 
 import javax.naming.Binding;
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
@@ -36,17 +38,30 @@ import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static javax.naming.directory.SearchControls.SUBTREE_SCOPE;
 import static org.picketlink.common.constants.LDAPConstants.CREATE_TIMESTAMP;
 import static org.picketlink.common.constants.LDAPConstants.EQUAL;
 import static org.picketlink.common.util.LDAPUtil.convertObjectGUIToByteString;
+import static org.picketlink.common.util.StringUtil.isNullOrEmpty;
 import static org.picketlink.idm.IDMInternalLog.LDAP_STORE_LOGGER;
 import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
 
@@ -55,29 +70,66 @@ import static org.picketlink.idm.IDMInternalMessages.MESSAGES;
  * This class provides a set of operations to manage LDAP trees.
  * </p>
  * <p>
- * A different {@link LdapContext} is used to perform authentication. The reason is that while managing the ldap tree
- * information bindings are not allowed. Also, instead of creating a new {@link LdapContext} each time we reuse it.
+ * Connections are obtained from three different {@link LDAPConnectionPool}: one for searches and lookups, one for
+ * changes to the tree and one to authenticate users. Each operation borrows a connection for its whole execution, so
+ * the same connection is never used by different threads at the same time. Authentication binds a connection from its
+ * own pool using the credentials being validated, instead of changing the environment of a shared context.
+ * </p>
+ * <p>
+ * Multiple URLs, separated by spaces, can be configured. If the server can not be reached, the next URL is used.
  * </p>
- *
- * TODO: See how to handle context pools and a better fail-over support.
  *
  * @author Anil Saldhana
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
 public class LDAPOperationManager {
 
-    private List<String> managedAttributes = new ArrayList<String>();
+    private static final String SUPPORTED_CONTROL = "supportedControl";
+
+    private final List<String> managedAttributes = new CopyOnWriteArrayList<String>();
 
-    private final LdapContext context;
-    private final LdapContext authenticationContext;
     private final LDAPIdentityStoreConfiguration config;
+    private final String[] urls;
+    private final AtomicInteger currentUrl = new AtomicInteger();
+    private final LDAPConnectionPool readPool;
+    private final LDAPConnectionPool writePool;
+    private final LDAPConnectionPool bindPool;
+    private volatile Boolean serverSideSortSupported;
 
     public LDAPOperationManager(LDAPIdentityStoreConfiguration config) throws NamingException {
         this.config = config;
-        this.context = constructContext();
-        this.authenticationContext = constructContext();
+
+        String url = this.config.getLdapURL();
+
+        if (url == null) {
+            throw new RuntimeException("url");
+        }
+
+        this.urls = url.trim().split("\\s+");
+
+        LDAPConnectionPool.ContextFactory contextFactory = new LDAPConnectionPool.ContextFactory() {
+            @Override
+            public LdapContext create() throws NamingException {
+                return constructContext();
+            }
+        };
+
+        this.readPool = new LDAPConnectionPool("read", contextFactory, config.getReadConnectionPool());
+        this.writePool = new LDAPConnectionPool("write", contextFactory, config.getWriteConnectionPool());
+        // connections from this pool are bound again with the credentials being validated
+        this.bindPool = new LDAPConnectionPool("bind", contextFactory, config.getBindConnectionPool());
     }
 
+    /**
+     * <p>
+     * Creates a new {@link LdapContext}. If the server can not be reached using the current URL, all other configured
+     * URLs are tried.
+     * </p>
+     *
+     * @return
+     *
+     * @throws NamingException
+     */
     private LdapContext constructContext() throws NamingException {
         Properties env = new Properties();
         env.setProperty(Context.INITIAL_CONTEXT_FACTORY, this.config.getFactoryName());
@@ -102,14 +154,6 @@ public class LDAPOperationManager {
             env.put(Context.SECURITY_CREDENTIALS, bindCredential);
         }
 
-        String url = this.config.getLdapURL();
-
-        if (url == null) {
-            throw new RuntimeException("url");
-        }
-
-        env.setProperty(Context.PROVIDER_URL, url);
-
         // Just dump the additional properties
         Properties additionalProperties = this.config.getConnectionProperties();
 
@@ -125,11 +169,80 @@ public class LDAPOperationManager {
             env.put("java.naming.ldap.attributes.binary", LDAPConstants.OBJECT_GUID);
         }
 
-        if (LDAP_STORE_LOGGER.isDebugEnabled()) {
-            LDAP_STORE_LOGGER.debugf("Creating LdapContext using properties: [%s]", env);
+        int firstUrl = this.currentUrl.get();
+        NamingException lastFailure = null;
+
+        for (int i = 0; i < this.urls.length; i++) {
+            int urlIndex = (firstUrl + i) % this.urls.length;
+            String url = this.urls[urlIndex];
+
+            env.setProperty(Context.PROVIDER_URL, url);
+
+            if (LDAP_STORE_LOGGER.isDebugEnabled()) {
+                LDAP_STORE_LOGGER.debugf("Creating LdapContext using properties: [%s]", env);
+            }
+
+            try {
+                LdapContext context = new InitialLdapContext(env, null);
+
+                this.currentUrl.set(urlIndex);
+
+                return context;
+            } catch (CommunicationException e) {
+                LDAP_STORE_LOGGER.ldapServerUnavailable(url, e);
+                lastFailure = e;
+            } catch (ServiceUnavailableException e) {
+                LDAP_STORE_LOGGER.ldapServerUnavailable(url, e);
+                lastFailure = e;
+            }
         }
 
-        return new InitialLdapContext(env, null);
+        throw lastFailure;
+    }
+
+    /**
+     * <p>
+     * Executes the given operation using a connection from the given pool. If the connection with the server was lost,
+     * the connection is discarded and the operation is executed once more using a new connection.
+     * </p>
+     *
+     * @param pool
+     * @param operation
+     *
+     * @return
+     *
+     * @throws NamingException
+     */
+    private <R> R execute(LDAPConnectionPool pool, LdapOperation<R> operation) throws NamingException {
+        for (int attempt = 0; ; attempt++) {
+            LdapContext context = pool.borrow();
+
+            try {
+                R result = operation.execute(context);
+
+                pool.release(context);
+
+                return result;
+            } catch (CommunicationException e) {
+                pool.invalidate(context);
+
+                if (attempt > 0) {
+                    throw e;
+                }
+            } catch (ServiceUnavailableException e) {
+                pool.invalidate(context);
+
+                if (attempt > 0) {
+                    throw e;
+                }
+            } catch (NamingException e) {
+                pool.release(context);
+                throw e;
+            } catch (RuntimeException e) {
+                pool.release(context);
+                throw e;
+            }
+        }
     }
 
     /**
@@ -185,9 +298,14 @@ public class LDAPOperationManager {
      * @throws NamingException
      */
     @SuppressWarnings("unchecked")
-    public <T> T lookup(String dn) {
+    public <T> T lookup(final String dn) {
         try {
-            return (T) context.lookup(dn);
+            return execute(this.readPool, new LdapOperation<T>() {
+                @Override
+                public T execute(LdapContext context) throws NamingException {
+                    return (T) context.lookup(dn);
+                }
+            });
         } catch (NamingException e) {
             LDAP_STORE_LOGGER.errorf(e, "Could not lookup entry using DN [%s]", dn);
             return null;
@@ -204,39 +322,77 @@ public class LDAPOperationManager {
      *
      * @return
      */
-    public <T extends Object> List<T> removeEntryById(String baseDN, String id) {
+    public <T extends Object> List<T> removeEntryById(final String baseDN, final String id) {
         List<T> result = new ArrayList<T>();
 
-        NamingEnumeration<SearchResult> answer = null;
-
         try {
-            Attributes attributesToSearch = new BasicAttributes(true);
+            final Attributes attributesToSearch = new BasicAttributes(true);
 
             attributesToSearch.put(new BasicAttribute(getUniqueIdentifierAttributeName(), id));
 
-            answer = getContext().search(baseDN, attributesToSearch);
+            List<SearchResult> answer = execute(this.readPool, new LdapOperation<List<SearchResult>>() {
+                @Override
+                public List<SearchResult> execute(LdapContext context) throws NamingException {
+                    return toList(context.search(baseDN, attributesToSearch), 1);
+                }
+            });
 
-            if (answer.hasMore()) {
-                SearchResult sr = answer.next();
-                destroySubcontext(sr.getNameInNamespace());
+            if (!answer.isEmpty()) {
+                destroySubcontext(answer.get(0).getNameInNamespace());
             }
         } catch (NamingException e) {
             LDAP_STORE_LOGGER.errorf(e, "Could not remove entry from DN [%s] and id [%s]", baseDN, id);
             throw new RuntimeException(e);
-        } finally {
-            if (answer != null) {
-                try {
-                    answer.close();
-                } catch (NamingException e) {
-                }
-            }
         }
 
         return result;
     }
 
+    /**
+     * <p>
+     * Searches the LDAP tree. All results are read before the connection is returned to the pool, so callers are not
+     * required to close the returned {@link NamingEnumeration}.
+     * </p>
+     *
+     * @param baseDN
+     * @param filter
+     * @param mappingConfiguration
+     *
+     * @return
+     *
+     * @throws NamingException
+     */
     public NamingEnumeration<SearchResult> search(String baseDN, String filter, LDAPMappingConfiguration mappingConfiguration) throws NamingException {
-        SearchControls cons = new SearchControls();
+        return search(baseDN, filter, mappingConfiguration, null, true, 0, 0);
+    }
+
+    /**
+     * <p>
+     * Searches the LDAP tree using the Simple Paged Results control, so large result sets do not hit the size limits of
+     * the server. Only the entries between the given offset and limit are returned.
+     * </p>
+     * <p>
+     * If sort attributes are provided, entries are sorted by the server using the Server Side Sort control. If the
+     * server does not support it, all entries are read and sorted before applying the offset and limit.
+     * </p>
+     *
+     * @param baseDN
+     * @param filter
+     * @param mappingConfiguration
+     * @param sortAttributes the attributes used to sort the entries, or null if no sorting is required.
+     * @param ascending
+     * @param offset the number of entries to skip.
+     * @param limit the max number of entries to return. Zero means no limit.
+     *
+     * @return
+     *
+     * @throws NamingException
+     */
+    public NamingEnumeration<SearchResult> search(final String baseDN, final String filter,
+                                                  LDAPMappingConfiguration mappingConfiguration,
+                                                  final String[] sortAttributes, final boolean ascending,
+                                                  final int offset, final int limit) throws NamingException {
+        final SearchControls cons = new SearchControls();
 
         cons.setSearchScope(SUBTREE_SCOPE);
         cons.setReturningObjFlag(false);
@@ -246,13 +402,238 @@ public class LDAPOperationManager {
         cons.setReturningAttributes(returningAttributes.toArray(new String[returningAttributes.size()]));
 
         try {
-            return getContext().search(baseDN, filter, cons);
+            if (sortAttributes == null || sortAttributes.length == 0) {
+                return new ListNamingEnumeration<SearchResult>(pagedSearch(baseDN, filter, cons, null, offset, limit));
+            }
+
+            if (isServerSideSortSupported()) {
+                SortKey[] sortKeys = new SortKey[sortAttributes.length];
+
+                for (int i = 0; i < sortAttributes.length; i++) {
+                    sortKeys[i] = new SortKey(sortAttributes[i], ascending, null);
+                }
+
+                return new ListNamingEnumeration<SearchResult>(pagedSearch(baseDN, filter, cons, sortKeys, offset, limit));
+            }
+
+            List<SearchResult> result = pagedSearch(baseDN, filter, cons, null, 0, 0);
+
+            Collections.sort(result, new SearchResultComparator(sortAttributes, ascending));
+
+            if (offset >= result.size()) {
+                result = Collections.emptyList();
+            } else if (limit > 0) {
+                result = result.subList(offset, Math.min(offset + limit, result.size()));
+            } else {
+                result = result.subList(offset, result.size());
+            }
+
+            return new ListNamingEnumeration<SearchResult>(result);
+        } catch (NamingException e) {
+            LDAP_STORE_LOGGER.errorf(e, "Could not query server using DN [%s] and filter [%s]", baseDN, filter);
+            throw e;
+        }
+    }
+
+    /**
+     * <p>
+     * Counts the entries matching the given filter. Entries are read without any attribute.
+     * </p>
+     *
+     * <p>
+     * LDAP has no standard server-side count, so every matching entry is still sent back by the server, one page
+     * at a time. Entries are counted as they arrive and are not kept in memory, but the cost of this method grows
+     * with the number of matching entries just like a search without a limit.
+     * </p>
+     *
+     * @param baseDN
+     * @param filter
+     *
+     * @return
+     *
+     * @throws NamingException
+     */
+    public int count(final String baseDN, final String filter) throws NamingException {
+        final SearchControls cons = new SearchControls();
+
+        cons.setSearchScope(SUBTREE_SCOPE);
+        cons.setReturningObjFlag(false);
+        cons.setReturningAttributes(new String[0]);
+
+        try {
+            return execute(this.readPool, new LdapOperation<Integer>() {
+                @Override
+                public Integer execute(LdapContext context) throws NamingException {
+                    int count = 0;
+                    byte[] cookie = null;
+
+                    try {
+                        do {
+                            context.setRequestControls(createControls(config.getSearchPageSize(), cookie, null));
+
+                            NamingEnumeration<SearchResult> answer = context.search(baseDN, filter, cons);
+
+                            try {
+                                while (answer.hasMore()) {
+                                    answer.next();
+                                    count++;
+                                }
+                            } finally {
+                                answer.close();
+                            }
+
+                            cookie = getCookie(context.getResponseControls());
+                        } while (cookie != null && cookie.length > 0);
+                    } finally {
+                        // the context is returned to the pool
+                        context.setRequestControls(null);
+                    }
+
+                    return count;
+                }
+            });
         } catch (NamingException e) {
             LDAP_STORE_LOGGER.errorf(e, "Could not query server using DN [%s] and filter [%s]", baseDN, filter);
             throw e;
         }
     }
 
+    private List<SearchResult> pagedSearch(final String baseDN, final String filter, final SearchControls cons,
+                                           final SortKey[] sortKeys, final int offset,
+                                           final int limit) throws NamingException {
+        return execute(this.readPool, new LdapOperation<List<SearchResult>>() {
+            @Override
+            public List<SearchResult> execute(LdapContext context) throws NamingException {
+                List<SearchResult> result = new ArrayList<SearchResult>();
+                int pageSize = config.getSearchPageSize();
+                int skipped = 0;
+                byte[] cookie = null;
+
+                if (limit > 0) {
+                    pageSize = Math.min(pageSize, offset + limit);
+                }
+
+                try {
+                    boolean limitReached = false;
+
+                    do {
+                        context.setRequestControls(createControls(pageSize, cookie, sortKeys));
+
+                        NamingEnumeration<SearchResult> answer = context.search(baseDN, filter, cons);
+
+                        try {
+                            while (!limitReached && answer.hasMore()) {
+                                SearchResult searchResult = answer.next();
+
+                                if (skipped < offset) {
+                                    skipped++;
+                                } else {
+                                    result.add(searchResult);
+                                    limitReached = limit > 0 && result.size() == limit;
+                                }
+                            }
+                        } finally {
+                            answer.close();
+                        }
+
+                        byte[] responseCookie = getCookie(context.getResponseControls());
+
+                        // if the page was not read until the end there may be no new cookie yet
+                        if (responseCookie != null || !limitReached) {
+                            cookie = responseCookie;
+                        }
+                    } while (!limitReached && cookie != null && cookie.length > 0);
+
+                    if (limitReached && cookie != null && cookie.length > 0) {
+                        abandonPagedSearch(context, baseDN, filter, cons, sortKeys, cookie);
+                    }
+                } finally {
+                    // the context is returned to the pool
+                    context.setRequestControls(null);
+                }
+
+                return result;
+            }
+        });
+    }
+
+    private Control[] createControls(int pageSize, byte[] cookie, SortKey[] sortKeys) throws NamingException {
+        try {
+            // paging is not critical, servers without support for it will just return all entries at once
+            PagedResultsControl pagedResultsControl = new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL);
+
+            if (sortKeys == null) {
+                return new Control[] {pagedResultsControl};
+            }
+
+            return new Control[] {new SortControl(sortKeys, Control.CRITICAL), pagedResultsControl};
+        } catch (IOException e) {
+            NamingException namingException = new NamingException("Could not create search request controls.");
+
+            namingException.setRootCause(e);
+
+            throw namingException;
+        }
+    }
+
+    /**
+     * <p>Tells the server that no more pages will be requested, so it can release the resources held by a paged
+     * search. This is done by sending the same search with a page size of zero and the last cookie.</p>
+     */
+    private void abandonPagedSearch(LdapContext context, String baseDN, String filter, SearchControls cons,
+                                    SortKey[] sortKeys, byte[] cookie) {
+        try {
+            context.setRequestControls(createControls(0, cookie, sortKeys));
+            context.search(baseDN, filter, cons).close();
+        } catch (NamingException e) {
+            if (LDAP_STORE_LOGGER.isDebugEnabled()) {
+                LDAP_STORE_LOGGER.debugf(e, "Could not abandon paged search on [%s].", baseDN);
+            }
+        }
+    }
+
+    private byte[] getCookie(Control[] responseControls) {
+        if (responseControls != null) {
+            for (Control control : responseControls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    return ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>Checks if the server announces support for the Server Side Sort control in its root DSE.</p>
+     *
+     * @return
+     */
+    private boolean isServerSideSortSupported() {
+        Boolean supported = this.serverSideSortSupported;
+
+        if (supported == null) {
+            try {
+                supported = execute(this.readPool, new LdapOperation<Boolean>() {
+                    @Override
+                    public Boolean execute(LdapContext context) throws NamingException {
+                        Attribute supportedControls = context.getAttributes("", new String[] {SUPPORTED_CONTROL})
+                                .get(SUPPORTED_CONTROL);
+
+                        return supportedControls != null && supportedControls.contains(SortControl.OID);
+                    }
+                });
+            } catch (NamingException e) {
+                LDAP_STORE_LOGGER.debugf(e, "Could not check if server supports sorting.");
+                supported = false;
+            }
+
+            this.serverSideSortSupported = supported;
+        }
+
+        return supported;
+    }
+
     private List<String> getReturningAttributes(final LDAPMappingConfiguration mappingConfiguration) {
         List<String> returningAttributes = new ArrayList<String>();
 
@@ -281,10 +662,15 @@ public class LDAPOperationManager {
         String filter = null;
 
         if (this.config.isActiveDirectory()) {
-            String strObjectGUID = "<GUID=" + id + ">";
+            final String strObjectGUID = "<GUID=" + id + ">";
 
             try {
-                Attributes attributes = this.context.getAttributes(strObjectGUID);
+                Attributes attributes = execute(this.readPool, new LdapOperation<Attributes>() {
+                    @Override
+                    public Attributes execute(LdapContext context) throws NamingException {
+                        return context.getAttributes(strObjectGUID);
+                    }
+                });
                 byte[] objectGUID = (byte[]) attributes.get(LDAPConstants.OBJECT_GUID).get();
 
                 filter = "(&(objectClass=*)(" + getUniqueIdentifierAttributeName() + EQUAL + convertObjectGUIToByteString(objectGUID) + "))";
@@ -300,12 +686,12 @@ public class LDAPOperationManager {
         return filter;
     }
 
-    public NamingEnumeration<SearchResult> lookupById(String baseDN, String id, LDAPMappingConfiguration mappingConfiguration) {
-        String filter = getFilterById(baseDN, id);
+    public NamingEnumeration<SearchResult> lookupById(final String baseDN, String id, LDAPMappingConfiguration mappingConfiguration) {
+        final String filter = getFilterById(baseDN, id);
 
         if (filter != null) {
             try {
-                SearchControls cons = new SearchControls();
+                final SearchControls cons = new SearchControls();
 
                 cons.setSearchScope(SUBTREE_SCOPE);
                 cons.setReturningObjFlag(false);
@@ -315,14 +701,19 @@ public class LDAPOperationManager {
 
                 cons.setReturningAttributes(returningAttributes.toArray(new String[returningAttributes.size()]));
 
-                return getContext().search(baseDN, filter, cons);
+                return new ListNamingEnumeration<SearchResult>(execute(this.readPool, new LdapOperation<List<SearchResult>>() {
+                    @Override
+                    public List<SearchResult> execute(LdapContext context) throws NamingException {
+                        return toList(context.search(baseDN, filter, cons), 0);
+                    }
+                }));
             } catch (NamingException e) {
                 LDAP_STORE_LOGGER.errorf(e, "Could not query server using DN [%s] and filter [%s]", baseDN, filter);
                 throw new RuntimeException(e);
             }
         }
 
-        return createEmptyEnumeration();
+        return new ListNamingEnumeration<SearchResult>(Collections.<SearchResult>emptyList());
     }
 
     /**
@@ -332,32 +723,40 @@ public class LDAPOperationManager {
      *
      * @param dn
      */
-    public void destroySubcontext(String dn) {
+    public void destroySubcontext(final String dn) {
         try {
-            NamingEnumeration<Binding> enumeration = null;
+            execute(this.writePool, new LdapOperation<Void>() {
+                @Override
+                public Void execute(LdapContext context) throws NamingException {
+                    destroySubcontext(context, dn);
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            LDAP_STORE_LOGGER.errorf(e, "Could not unbind DN [%s]", dn);
+            throw new RuntimeException(e);
+        }
+    }
 
-            try {
-                enumeration = getContext().listBindings(dn);
+    private void destroySubcontext(LdapContext context, String dn) throws NamingException {
+        NamingEnumeration<Binding> enumeration = null;
 
-                while (enumeration.hasMore()) {
-                    Binding binding = enumeration.next();
-                    String name = binding.getNameInNamespace();
+        try {
+            enumeration = context.listBindings(dn);
 
-                    destroySubcontext(name);
-                }
+            while (enumeration.hasMore()) {
+                Binding binding = enumeration.next();
+                String name = binding.getNameInNamespace();
 
-                getContext().unbind(dn);
-            } catch (NamingException e) {
-                throw new RuntimeException(e);
-            } finally {
-                try {
-                    enumeration.close();
-                } catch (Exception e) {
-                }
+                destroySubcontext(context, name);
+            }
+
+            context.unbind(dn);
+        } finally {
+            try {
+                enumeration.close();
+            } catch (Exception e) {
             }
-        } catch (Exception e) {
-            LDAP_STORE_LOGGER.errorf(e, "Could not unbind DN [%s]", dn);
-            throw new RuntimeException(e);
         }
     }
 
@@ -394,19 +793,25 @@ public class LDAPOperationManager {
      *
      * @return
      */
-    public boolean checkAttributePresence(String attributeName) {
+    public boolean checkAttributePresence(final String attributeName) {
         try {
-            DirContext schema = context.getSchema("");
-
-            DirContext cnSchema = (DirContext) schema.lookup("AttributeDefinition/" + attributeName);
-            if (cnSchema != null) {
-                return true;
-            }
+            return execute(this.readPool, new LdapOperation<Boolean>() {
+                @Override
+                public Boolean execute(LdapContext context) throws NamingException {
+                    DirContext schema = context.getSchema("");
+
+                    try {
+                        DirContext cnSchema = (DirContext) schema.lookup("AttributeDefinition/" + attributeName);
+
+                        return cnSchema != null;
+                    } finally {
+                        schema.close();
+                    }
+                }
+            });
         } catch (Exception e) {
             return false; // Probably an unmanaged attribute
         }
-
-        return false;
     }
 
     /**
@@ -420,22 +825,70 @@ public class LDAPOperationManager {
      * @return
      */
     public boolean authenticate(String dn, String password) {
+        if (isNullOrEmpty(password)) {
+            // an empty password would result in an anonymous bind
+            return false;
+        }
+
+        LdapContext context = null;
+        Object poolPrincipal;
+        Object poolCredentials;
+
         try {
-            this.authenticationContext.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
-            this.authenticationContext.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
-            this.authenticationContext.lookup(dn);
+            context = this.bindPool.borrow();
+
+            Hashtable<?, ?> environment = context.getEnvironment();
+
+            poolPrincipal = environment.get(Context.SECURITY_PRINCIPAL);
+            poolCredentials = environment.get(Context.SECURITY_CREDENTIALS);
+        } catch (NamingException e) {
+            if (context != null) {
+                this.bindPool.invalidate(context);
+            }
+
+            LDAP_STORE_LOGGER.errorf(e, "Could not obtain connection to authenticate DN [%s]", dn);
+            return false;
+        }
+
+        try {
+            context.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+            context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+            context.reconnect(null);
         } catch (Exception e) {
             if (LDAP_STORE_LOGGER.isDebugEnabled()) {
                 LDAP_STORE_LOGGER.debugf(e, "Authentication failed for DN [%s]", dn);
             }
 
+            // the state of the connection is unknown after a failed bind
+            this.bindPool.invalidate(context);
+
             return false;
         }
 
+        try {
+            // the next user of the connection must not get the credentials just validated. The connection is bound
+            // again by the next authentication, or with the restored credentials if it needs to reconnect.
+            restoreEnvironment(context, Context.SECURITY_PRINCIPAL, poolPrincipal);
+            restoreEnvironment(context, Context.SECURITY_CREDENTIALS, poolCredentials);
+        } catch (NamingException e) {
+            this.bindPool.invalidate(context);
+            return true;
+        }
+
+        this.bindPool.release(context);
+
         return true;
     }
 
-    private void modifyAttributes(String dn, ModificationItem[] mods) {
+    private void restoreEnvironment(LdapContext context, String propertyName, Object value) throws NamingException {
+        if (value == null) {
+            context.removeFromEnvironment(propertyName);
+        } else {
+            context.addToEnvironment(propertyName, value);
+        }
+    }
+
+    private void modifyAttributes(final String dn, final ModificationItem[] mods) {
         try {
             if (LDAP_STORE_LOGGER.isDebugEnabled()) {
                 LDAP_STORE_LOGGER.debugf("Modifying attributes for entry [%s]: [", dn);
@@ -447,14 +900,20 @@ public class LDAPOperationManager {
                 LDAP_STORE_LOGGER.debugf("]");
             }
 
-            context.modifyAttributes(dn, mods);
+            execute(this.writePool, new LdapOperation<Void>() {
+                @Override
+                public Void execute(LdapContext context) throws NamingException {
+                    context.modifyAttributes(dn, mods);
+                    return null;
+                }
+            });
         } catch (NamingException e) {
             LDAP_STORE_LOGGER.errorf(e, "Could not modify attribute for DN [%s].", dn);
             throw new IdentityManagementException("Could not modify attribute for DN [" + dn + "]", e);
         }
     }
 
-    public void createSubContext(String name, Attributes attributes) {
+    public void createSubContext(final String name, final Attributes attributes) {
         try {
             if (LDAP_STORE_LOGGER.isDebugEnabled()) {
                 LDAP_STORE_LOGGER.debugf("Creating entry [%s] with attributes: [", name);
@@ -470,48 +929,45 @@ public class LDAPOperationManager {
                 LDAP_STORE_LOGGER.debugf("]");
             }
 
-            getContext().createSubcontext(name, attributes);
+            execute(this.writePool, new LdapOperation<Void>() {
+                @Override
+                public Void execute(LdapContext context) throws NamingException {
+                    context.createSubcontext(name, attributes).close();
+                    return null;
+                }
+            });
         } catch (NamingException e) {
             LDAP_STORE_LOGGER.errorf(e, "Could not create entry [%s].", name);
             throw new IdentityManagementException("Error creating subcontext [" + name + "]", e);
         }
     }
 
-    private LdapContext getContext() {
-        return this.context;
-    }
-
     private String getUniqueIdentifierAttributeName() {
         return this.config.getUniqueIdentifierAttributeName();
     }
 
-    private NamingEnumeration<SearchResult> createEmptyEnumeration() {
-        return new NamingEnumeration<SearchResult>() {
-            @Override
-            public SearchResult next() throws NamingException {
-                return null;  //To change body of implemented methods use File | Settings | File Templates.
-            }
-
-            @Override
-            public boolean hasMore() throws NamingException {
-                return false;  //To change body of implemented methods use File | Settings | File Templates.
-            }
-
-            @Override
-            public void close() throws NamingException {
-                //To change body of implemented methods use File | Settings | File Templates.
-            }
+    /**
+     * <p>Reads the given results, up to the given limit, and closes the enumeration.</p>
+     *
+     * @param enumeration
+     * @param limit the max number of results. Zero means no limit.
+     *
+     * @return
+     *
+     * @throws NamingException
+     */
+    private static List<SearchResult> toList(NamingEnumeration<SearchResult> enumeration, int limit) throws NamingException {
+        List<SearchResult> result = new ArrayList<SearchResult>();
 
-            @Override
-            public boolean hasMoreElements() {
-                return false;  //To change body of implemented methods use File | Settings | File Templates.
+        try {
+            while (enumeration.hasMore() && (limit == 0 || result.size() < limit)) {
+                result.add(enumeration.next());
             }
+        } finally {
+            enumeration.close();
+        }
 
-            @Override
-            public SearchResult nextElement() {
-                return null;  //To change body of implemented methods use File | Settings | File Templates.
-            }
-        };
+        return result;
     }
 
     public Attributes getAttributes(final String entryUUID, final String baseDN, LDAPMappingConfiguration mappingConfiguration) {
@@ -545,4 +1001,101 @@ public class LDAPOperationManager {
 
         return id;
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>An operation executed using a pooled connection.</p>
+     *
+     * @param <R>
+     */
+    private interface LdapOperation<R> {
+        R execute(LdapContext context) throws NamingException;
+    }
+
+    /**
+     * <p>Sorts search results by the string values of the given attributes. Entries without a value come last.</p>
+     */
+    private static class SearchResultComparator implements Comparator<SearchResult> {
+
+        private final String[] sortAttributes;
+        private final boolean ascending;
+
+        SearchResultComparator(String[] sortAttributes, boolean ascending) {
+            this.sortAttributes = sortAttributes;
+            this.ascending = ascending;
+        }
+
+        @Override
+        public int compare(SearchResult o1, SearchResult o2) {
+            for (String sortAttribute : this.sortAttributes) {
+                String value1 = getValue(o1, sortAttribute);
+                String value2 = getValue(o2, sortAttribute);
+                int result;
+
+                if (value1 == null) {
+                    result = value2 == null ? 0 : 1;
+                } else if (value2 == null) {
+                    result = -1;
+                } else {
+                    result = this.ascending ? value1.compareToIgnoreCase(value2) : value2.compareToIgnoreCase(value1);
+                }
+
+                if (result != 0) {
+                    return result;
+                }
+            }
+
+            return 0;
+        }
+
+        private String getValue(SearchResult searchResult, String attributeName) {
+            Attribute attribute = searchResult.getAttributes().get(attributeName);
+
+            try {
+                if (attribute != null && attribute.get() != null) {
+                    return attribute.get().toString();
+                }
+            } catch (NamingException ignore) {
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * <p>A {@link NamingEnumeration} over results already read from the server.</p>
+     *
+     * @param <T>
+     */
+    private static class ListNamingEnumeration<T> implements NamingEnumeration<T> {
+
+        private final Iterator<T> iterator;
+
+        ListNamingEnumeration(List<T> list) {
+            this.iterator = list.iterator();
+        }
+
+        @Override
+        public T next() throws NamingException {
+            return nextElement();
+        }
+
+        @Override
+        public boolean hasMore() throws NamingException {
+            return hasMoreElements();
+        }
+
+        @Override
+        public void close() throws NamingException {
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return this.iterator.hasNext();
+        }
+
+        @Override
+        public T nextElement() {
+            return this.iterator.next();
+        }
+    }
+}
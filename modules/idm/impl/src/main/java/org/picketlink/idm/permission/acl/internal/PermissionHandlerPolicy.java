@@ -46,6 +46,8 @@ public class PermissionHandlerPolicy {
             //registeredHandlers.add(new EntityPermissionHandler());
             registeredHandlers.add(new ClassPermissionHandler());
         }
+
+        this.registeredHandlers = registeredHandlers;
     }
 
     public String getGeneratedIdentifier(Object resource) {
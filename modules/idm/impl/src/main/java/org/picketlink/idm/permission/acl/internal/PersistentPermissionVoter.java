@@ -1,54 +1,171 @@
 package org.picketlink.idm.permission.acl.internal;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.picketlink.idm.PartitionManager;
 import org.picketlink.idm.PermissionManager;
-import org.picketlink.idm.RelationshipManager;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.permission.Permission;
-import org.picketlink.idm.permission.spi.PermissionVoter;
+import org.picketlink.idm.permission.acl.spi.PermissionHandler;
+import org.picketlink.idm.permission.internal.InheritedPrivileges;
+import org.picketlink.idm.permission.spi.CacheablePermissionVoter;
 
 /**
+ * Grants a permission if it is stored for the recipient, or for any identity type the recipient inherits privileges
+ * from, such as its groups and roles.
+ *
+ * The inherited identity types are resolved once per check and passed to the permission store, which only
+ * returns the permissions assigned to them.
  *
  * @author Shane Bryzak
  *
  */
-public class PersistentPermissionVoter implements PermissionVoter {
+public class PersistentPermissionVoter implements CacheablePermissionVoter {
 
     private final PartitionManager partitionManager;
 
+    private final PermissionHandlerPolicy handlerPolicy;
+
     public PersistentPermissionVoter(PartitionManager partitionManager) {
+        this(partitionManager, new PermissionHandlerPolicy(new HashSet<PermissionHandler>()));
+    }
+
+    public PersistentPermissionVoter(PartitionManager partitionManager, PermissionHandlerPolicy handlerPolicy) {
         this.partitionManager = partitionManager;
+        this.handlerPolicy = handlerPolicy;
     }
 
     public VotingResult hasPermission(IdentityType recipient, Object resource, String operation) {
+        Set<IdentityType> assignees = getAssignees(recipient);
+        PermissionManager pm = partitionManager.createPermissionManager(recipient.getPartition());
+
+        return vote(pm.listPermissions(resource, operation, assignees));
+    }
+
+    public VotingResult hasPermission(IdentityType recipient, Class<?> resourceClass, Serializable identifier, String operation) {
+        Set<IdentityType> assignees = getAssignees(recipient);
+        PermissionManager pm = partitionManager.createPermissionManager(recipient.getPartition());
+
+        return vote(pm.listPermissions(resourceClass, identifier, operation, assignees));
+    }
+
+    /**
+     * Checks the permission of the recipient to perform the specified operation on each of the specified resources,
+     * loading the permissions of all of them at once.
+     *
+     * @param recipient
+     * @param resources
+     * @param operation
+     * @return the result for each resource
+     */
+    public Map<Object, VotingResult> hasPermissions(IdentityType recipient, Set<Object> resources, String operation) {
+        Set<IdentityType> assignees = getAssignees(recipient);
+        PermissionManager pm = partitionManager.createPermissionManager(recipient.getPartition());
+        Map<Object, VotingResult> results = new HashMap<Object, VotingResult>();
+        Map<Object, List<Object>> resourcesByKey = new HashMap<Object, List<Object>>();
+
+        for (Object resource : resources) {
+            Object key = getResourceKey(resource);
+            List<Object> keyResources = resourcesByKey.get(key);
+
+            if (keyResources == null) {
+                keyResources = new ArrayList<Object>();
+                resourcesByKey.put(key, keyResources);
+            }
+
+            keyResources.add(resource);
+            results.put(resource, VotingResult.NOT_APPLICABLE);
+        }
+
+        List<Permission> permissions = pm.listPermissions(resources, operation, assignees);
+
+        if (permissions != null) {
+            for (Permission permission : permissions) {
+                // the store may return a different instance of the resource, so they are matched by their identity
+                List<Object> keyResources = resourcesByKey.get(getResourceKey(permission.getResource()));
+
+                if (keyResources != null) {
+                    for (Object resource : keyResources) {
+                        results.put(resource, VotingResult.ALLOW);
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the class and natural identifier of the given resource, or the resource itself if no
+     * {@link PermissionHandler} provides its identifier.
+     *
+     * @param resource
+     * @return
+     */
+    private Object getResourceKey(Object resource) {
+        if (resource == null) {
+            return null;
+        }
+
+        Serializable identifier = this.handlerPolicy.getNaturalIdentifier(resource);
+
+        if (identifier == null) {
+            return resource;
+        }
+
+        return new ResourceKey(resource.getClass(), identifier);
+    }
+
+    private Set<IdentityType> getAssignees(IdentityType recipient) {
         if (recipient == null) {
             throw new IllegalArgumentException("recipient must not be null");
         }
 
-        VotingResult result = VotingResult.NOT_APPLICABLE;
+        return InheritedPrivileges.getAssignees(partitionManager.createRelationshipManager(), recipient);
+    }
 
-        PermissionManager pm = partitionManager.createPermissionManager(recipient.getPartition());
-        RelationshipManager rm = partitionManager.createRelationshipManager();
-        List<Permission> permissions = pm.listPermissions(resource, operation);
-
-        for (Permission permission : permissions) {
-            if (recipient.equals(permission.getAssignee())) {
-                result = VotingResult.ALLOW;
-                break;
-            } else if (rm.inheritsPrivileges(recipient, permission.getAssignee())) {
-                result = VotingResult.ALLOW;
-                break;
-            }
+    private VotingResult vote(List<Permission> permissions) {
+        if (permissions == null || permissions.isEmpty()) {
+            return VotingResult.NOT_APPLICABLE;
         }
 
-        return result;
+        return VotingResult.ALLOW;
     }
 
-    public VotingResult hasPermission(IdentityType recipient, Class<?> resourceClass, Serializable identifier, String operation) {
-        // TODO implement
-        return null;
+    private static class ResourceKey {
+
+        private final Class<?> resourceClass;
+        private final Serializable identifier;
+
+        ResourceKey(Class<?> resourceClass, Serializable identifier) {
+            this.resourceClass = resourceClass;
+            this.identifier = identifier;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof ResourceKey)) {
+                return false;
+            }
+
+            ResourceKey other = (ResourceKey) obj;
+
+            return this.resourceClass.equals(other.resourceClass) && this.identifier.equals(other.identifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.resourceClass.hashCode() + this.identifier.hashCode();
+        }
     }
 }
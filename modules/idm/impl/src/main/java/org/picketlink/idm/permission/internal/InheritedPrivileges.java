@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.idm.permission.internal;
+
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.GroupMembership;
+import org.picketlink.idm.query.RelationshipQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the identity types whose privileges are inherited by a given identity type, so that the permissions
+ * of all of them can be loaded at once instead of checking each stored permission individually.
+ *
+ * The privileges of an identity type are inherited from:
+ *
+ * <ul>
+ *     <li>The groups it is a member of, and their parent groups.</li>
+ *     <li>The roles granted to the identity type itself or to any of these groups.</li>
+ * </ul>
+ *
+ * @author agent
+ */
+public final class InheritedPrivileges {
+
+    private InheritedPrivileges() {
+    }
+
+    /**
+     * Returns the given identity type together with all identity types it inherits privileges from.
+     *
+     * @param relationshipManager
+     * @param identityType
+     * @return
+     */
+    public static Set<IdentityType> getAssignees(RelationshipManager relationshipManager, IdentityType identityType) {
+        Set<IdentityType> assignees = new LinkedHashSet<IdentityType>();
+        List<IdentityType> grantees = new ArrayList<IdentityType>();
+
+        assignees.add(identityType);
+        grantees.add(identityType);
+
+        RelationshipQuery<GroupMembership> membershipQuery = relationshipManager.createRelationshipQuery(GroupMembership.class);
+
+        membershipQuery.setParameter(GroupMembership.MEMBER, identityType);
+
+        for (GroupMembership membership : membershipQuery.getResultList()) {
+            Group group = membership.getGroup();
+
+            while (group != null && assignees.add(group)) {
+                grantees.add(group);
+                group = group.getParentGroup();
+            }
+        }
+
+        for (IdentityType grantee : grantees) {
+            RelationshipQuery<Grant> grantQuery = relationshipManager.createRelationshipQuery(Grant.class);
+
+            grantQuery.setParameter(Grant.ASSIGNEE, grantee);
+
+            for (Grant grant : grantQuery.getResultList()) {
+                assignees.add(grant.getRole());
+            }
+        }
+
+        return Collections.unmodifiableSet(assignees);
+    }
+}
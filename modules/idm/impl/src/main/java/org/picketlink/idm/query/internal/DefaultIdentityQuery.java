@@ -18,11 +18,19 @@
 
 package org.picketlink.idm.query.internal;
 
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.PartitionManager;
 import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.model.basic.Agent;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
 import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
 import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BatchAttributeStore;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.StoreSelector;
@@ -51,16 +59,22 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
     private final IdentityContext context;
     private final Class<T> identityType;
     private final StoreSelector storeSelector;
+    private final IdentityCache identityCache;
     private int offset;
     private int limit;
     private QueryParameter[] sortParameters;
     private boolean sortAscending = true;
 
     public DefaultIdentityQuery(IdentityContext context, Class<T> identityType, StoreSelector storeSelector) {
+        this(context, identityType, storeSelector, null);
+    }
+
+    public DefaultIdentityQuery(IdentityContext context, Class<T> identityType, StoreSelector storeSelector,
+                                IdentityCache identityCache) {
         this.context = context;
         this.storeSelector = storeSelector;
         this.identityType = identityType;
-
+        this.identityCache = identityCache;
     }
 
     @Override
@@ -128,6 +142,16 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
     @Override
     public List<T> getResultList() {
         List<T> result = new ArrayList<T>();
+        String cacheKey = getCacheKey();
+
+        if (cacheKey != null) {
+            T cachedType = lookupCache(cacheKey);
+
+            if (cachedType != null) {
+                result.add(cachedType);
+                return result;
+            }
+        }
 
         try {
             Set<IdentityStore<?>> identityStores = this.storeSelector.getStoresForIdentityQuery(this.context, this.getIdentityType());
@@ -136,18 +160,27 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
             for (IdentityStore<?> store : identityStores) {
                 for (T identityType : store.fetchQueryResults(this.context, this)) {
                     configureDefaultPartition(identityType, store, getPartitionManager());
+                    result.add(identityType);
+                }
+            }
 
-                    if (attributeStore != null) {
+            if (attributeStore != null && !result.isEmpty()) {
+                if (attributeStore instanceof BatchAttributeStore) {
+                    ((BatchAttributeStore<?>) attributeStore).loadAttributes(this.context, result);
+                } else {
+                    for (T identityType : result) {
                         attributeStore.loadAttributes(this.context, identityType);
                     }
-
-                    result.add(identityType);
                 }
             }
         } catch (Exception e) {
             throw MESSAGES.queryIdentityTypeFailed(this, e);
         }
 
+        if (cacheKey != null && result.size() == 1) {
+            putCache(result.get(0));
+        }
+
         return result;
     }
 
@@ -191,6 +224,70 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
         return this;
     }
 
+    /**
+     * <p>Returns the value used to lookup the {@link IdentityCache} if this query is a simple lookup by one of the
+     * unique keys supported by the cache. Otherwise returns null.</p>
+     *
+     * @return
+     */
+    private String getCacheKey() {
+        if (this.identityCache == null || this.parameters.size() != 1 || this.offset > 0 || this.limit > 0
+                || this.context.getPartition() == null) {
+            return null;
+        }
+
+        QueryParameter keyParameter = null;
+
+        if (Agent.class.equals(this.identityType) || User.class.equals(this.identityType)) {
+            if (Realm.class.isInstance(this.context.getPartition())) {
+                keyParameter = Agent.LOGIN_NAME;
+            }
+        } else if (Role.class.equals(this.identityType)) {
+            keyParameter = Role.NAME;
+        } else if (Group.class.equals(this.identityType)) {
+            keyParameter = Group.PATH;
+        }
+
+        if (keyParameter != null) {
+            Object[] values = this.parameters.get(keyParameter);
+
+            if (values != null && values.length == 1 && String.class.isInstance(values[0])) {
+                return (String) values[0];
+            }
+        }
+
+        return null;
+    }
+
+    private T lookupCache(String key) {
+        Partition partition = this.context.getPartition();
+        IdentityType cachedType = null;
+
+        if (Agent.class.equals(this.identityType)) {
+            cachedType = this.identityCache.lookupAgent((Realm) partition, key);
+        } else if (User.class.equals(this.identityType)) {
+            cachedType = this.identityCache.lookupUser((Realm) partition, key);
+        } else if (Role.class.equals(this.identityType)) {
+            cachedType = this.identityCache.lookupRole(partition, key);
+        } else if (Group.class.equals(this.identityType)) {
+            cachedType = this.identityCache.lookupGroup(partition, key);
+        }
+
+        return this.identityType.isInstance(cachedType) ? this.identityType.cast(cachedType) : null;
+    }
+
+    private void putCache(T identityType) {
+        Partition partition = this.context.getPartition();
+
+        if (Agent.class.isInstance(identityType)) {
+            this.identityCache.putAgent((Realm) partition, (Agent) identityType);
+        } else if (Role.class.isInstance(identityType)) {
+            this.identityCache.putRole(partition, (Role) identityType);
+        } else if (Group.class.isInstance(identityType)) {
+            this.identityCache.putGroup(partition, (Group) identityType);
+        }
+    }
+
     private PartitionManager getPartitionManager() {
         return (PartitionManager) this.storeSelector;
     }
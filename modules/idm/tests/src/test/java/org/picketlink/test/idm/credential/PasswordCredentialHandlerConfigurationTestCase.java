@@ -45,6 +45,7 @@ import org.picketlink.idm.model.basic.User;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.picketlink.idm.credential.handler.PasswordCredentialHandler.*;
@@ -307,6 +308,98 @@ public class PasswordCredentialHandlerConfigurationTestCase {
         assertEquals("SHA1PRNG", ((DefaultSecureRandomProvider) MockPasswordCredentialHandler.secureRandomProvider).getAlgorithm());
     }
 
+    @Test
+    public void testVerifiedCredentialCache() throws Exception {
+        final AtomicInteger verifications = new AtomicInteger();
+
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .setCredentialHandlerProperty(VERIFIED_CREDENTIAL_CACHE_TIMEOUT, 60000)
+                        .setCredentialHandlerProperty(PASSWORD_ENCODER, new SHAPasswordEncoder(512) {
+                            @Override
+                            public boolean verify(String rawPassword, String encodedPassword) {
+                                verifications.incrementAndGet();
+                                return super.verify(rawPassword, encodedPassword);
+                            }
+                        })
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.build());
+
+        partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        User user = new User("user");
+
+        identityManager.add(user);
+
+        identityManager.updateCredential(user, new Password("123"));
+
+        UsernamePasswordCredentials credential = new UsernamePasswordCredentials(user.getLoginName(), new Password("123"));
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.VALID, credential.getStatus());
+        assertEquals(1, verifications.get());
+
+        credential = new UsernamePasswordCredentials(user.getLoginName(), new Password("123"));
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.VALID, credential.getStatus());
+        assertEquals(user.getId(), credential.getValidatedAccount().getId());
+        assertEquals(1, verifications.get());
+
+        // the cached account is never shared between validations
+        UsernamePasswordCredentials cachedCredential = new UsernamePasswordCredentials(user.getLoginName(), new Password("123"));
+
+        identityManager.validateCredentials(cachedCredential);
+
+        assertEquals(Status.VALID, cachedCredential.getStatus());
+        assertNotSame(credential.getValidatedAccount(), cachedCredential.getValidatedAccount());
+        assertEquals(1, verifications.get());
+
+        // a wrong password is never served from the cache
+        credential = new UsernamePasswordCredentials(user.getLoginName(), new Password("bad"));
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.INVALID, credential.getStatus());
+        assertEquals(2, verifications.get());
+
+        // updating the credential discards the cached validations
+        identityManager.updateCredential(user, new Password("456"));
+
+        credential = new UsernamePasswordCredentials(user.getLoginName(), new Password("123"));
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.INVALID, credential.getStatus());
+
+        credential = new UsernamePasswordCredentials(user.getLoginName(), new Password("456"));
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.VALID, credential.getStatus());
+
+        // disabling the account discards the cached validations
+        user = getUser(identityManager, user.getLoginName());
+        user.setEnabled(false);
+
+        identityManager.update(user);
+
+        credential = new UsernamePasswordCredentials(user.getLoginName(), new Password("456"));
+
+        identityManager.validateCredentials(credential);
+
+        assertEquals(Status.ACCOUNT_DISABLED, credential.getStatus());
+    }
+
     @Test (expected=IdentityManagementException.class)
     public void failInvalidEncodingAlgorithm() throws Exception {
         IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
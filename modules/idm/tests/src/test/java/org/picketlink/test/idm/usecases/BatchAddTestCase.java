@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.BatchResult;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.RelationshipQuery;
+import org.picketlink.test.idm.testers.FileStoreConfigurationTester;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for adding identity types and relationships in bulk.</p>
+ *
+ * @author agent
+ */
+public class BatchAddTestCase {
+
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onBefore() {
+        this.partitionManager = new FileStoreConfigurationTester().getPartitionManager();
+    }
+
+    @Test
+    public void testAddAllIdentityTypes() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        List<User> users = new ArrayList<User>();
+
+        for (int i = 0; i < 50; i++) {
+            User user = new User("batchUser" + i);
+
+            user.setAttribute(new Attribute<String>("index", String.valueOf(i)));
+
+            users.add(user);
+        }
+
+        BatchResult<User> result = identityManager.addAll(users);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(50, result.getSucceeded().size());
+        assertEquals(50, identityManager.createIdentityQuery(User.class).getResultCount());
+
+        User storedUser = identityManager.lookupIdentityById(User.class, users.get(10).getId());
+
+        assertNotNull(storedUser);
+        assertEquals("10", storedUser.getAttribute("index").getValue());
+    }
+
+    @Test
+    public void testFailuresDoNotAbortBatch() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("existing"));
+
+        User existing = new User("existing");
+        User duplicated = new User("john");
+        List<User> users = new ArrayList<User>();
+
+        users.add(new User("john"));
+        users.add(existing);
+        users.add(duplicated);
+        users.add(new User("mary"));
+
+        BatchResult<User> result = identityManager.addAll(users);
+
+        assertFalse(result.isSuccessful());
+        assertEquals(2, result.getSucceeded().size());
+        assertEquals(2, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey(existing));
+        assertTrue(result.getFailures().containsKey(duplicated));
+        assertEquals(3, identityManager.createIdentityQuery(User.class).getResultCount());
+    }
+
+    @Test
+    public void testAddAllChecksUniquenessAgainstStoredTypes() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new Role("admin"));
+
+        Role admin = new Role("admin");
+        List<Role> roles = new ArrayList<Role>();
+
+        roles.add(new Role("manager"));
+        roles.add(admin);
+        roles.add(new Role("user"));
+
+        BatchResult<Role> result = identityManager.addAll(roles);
+
+        assertEquals(2, result.getSucceeded().size());
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey(admin));
+        assertEquals(3, identityManager.createIdentityQuery(Role.class).getResultCount());
+    }
+
+    @Test
+    public void testAddAllRelationships() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+
+        User john = new User("john");
+        List<Role> roles = new ArrayList<Role>();
+
+        identityManager.add(john);
+
+        for (int i = 0; i < 10; i++) {
+            roles.add(new Role("role" + i));
+        }
+
+        assertTrue(identityManager.addAll(roles).isSuccessful());
+
+        List<Grant> grants = new ArrayList<Grant>();
+
+        for (Role role : roles) {
+            grants.add(new Grant(john, role));
+        }
+
+        BatchResult<Grant> result = relationshipManager.addAll(grants);
+
+        assertTrue(result.isSuccessful());
+
+        RelationshipQuery<Grant> query = relationshipManager.createRelationshipQuery(Grant.class);
+
+        query.setParameter(Grant.ASSIGNEE, john);
+
+        assertEquals(10, query.getResultList().size());
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.AbstractIdentityStoreConfiguration;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.config.IdentityStoreConfigurationBuilder;
+import org.picketlink.idm.config.IdentityStoresConfigurationBuilder;
+import org.picketlink.idm.credential.Credentials;
+import org.picketlink.idm.credential.handler.CredentialHandler;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.Account;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Relationship;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.RelationshipQuery;
+import org.picketlink.idm.spi.AttributeStore;
+import org.picketlink.idm.spi.BatchAttributeStore;
+import org.picketlink.idm.spi.ContextInitializer;
+import org.picketlink.idm.spi.IdentityContext;
+import org.picketlink.idm.spi.IdentityStore;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>Test case for the loading of the attributes of query results, either in one call to a {@link BatchAttributeStore}
+ * or one call per result to a plain {@link AttributeStore}.</p>
+ *
+ * @author agent
+ */
+public class BatchAttributeLoadingTestCase {
+
+    @Test
+    public void testBatchAttributeStoreLoadsAllResultsAtOnce() throws Exception {
+        StoreBackend backend = new StoreBackend();
+        IdentityManager identityManager = createIdentityManager(BatchAttributeStoreStub.class, backend);
+
+        addUsers(identityManager, 5);
+
+        List<User> result = identityManager.createIdentityQuery(User.class).getResultList();
+
+        assertEquals(5, result.size());
+        assertAttributesLoaded(result);
+        assertEquals(1, backend.batchLoads);
+        assertEquals(0, backend.singleLoads);
+    }
+
+    @Test
+    public void testAttributeStoreLoadsEachResult() throws Exception {
+        StoreBackend backend = new StoreBackend();
+        IdentityManager identityManager = createIdentityManager(AttributeStoreStub.class, backend);
+
+        addUsers(identityManager, 5);
+
+        List<User> result = identityManager.createIdentityQuery(User.class).getResultList();
+
+        assertEquals(5, result.size());
+        assertAttributesLoaded(result);
+        assertEquals(0, backend.batchLoads);
+        assertEquals(5, backend.singleLoads);
+    }
+
+    @Test
+    public void testEmptyResultsLoadNoAttributes() throws Exception {
+        StoreBackend backend = new StoreBackend();
+        IdentityManager identityManager = createIdentityManager(BatchAttributeStoreStub.class, backend);
+
+        assertEquals(0, identityManager.createIdentityQuery(User.class).getResultList().size());
+        assertEquals(0, backend.batchLoads);
+        assertEquals(0, backend.singleLoads);
+    }
+
+    private IdentityManager createIdentityManager(Class<? extends AttributeStoreStub> storeType, StoreBackend backend) {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .add(StubStoreConfiguration.class, StubStoreConfigurationBuilder.class)
+                        .storeType(storeType)
+                        .backend(backend)
+                        .supportType(User.class)
+                        .supportAttributes(true);
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.build());
+
+        return partitionManager.createIdentityManager();
+    }
+
+    private void addUsers(IdentityManager identityManager, int count) {
+        for (int i = 0; i < count; i++) {
+            User user = new User("user" + i);
+
+            user.setAttribute(new Attribute<String>("index", String.valueOf(i)));
+
+            identityManager.add(user);
+        }
+    }
+
+    private void assertAttributesLoaded(List<User> users) {
+        for (User user : users) {
+            assertEquals(user.getLoginName().substring("user".length()), user.getAttribute("index").getValue());
+        }
+    }
+
+    public static class StoreBackend {
+
+        private final Map<String, User> users = new LinkedHashMap<String, User>();
+        private final Map<String, Map<String, Attribute<? extends Serializable>>> attributes =
+            new HashMap<String, Map<String, Attribute<? extends Serializable>>>();
+        private int batchLoads;
+        private int singleLoads;
+    }
+
+    public static class StubStoreConfigurationBuilder extends
+            IdentityStoreConfigurationBuilder<StubStoreConfiguration, StubStoreConfigurationBuilder> {
+
+        private Class<? extends AttributeStoreStub> storeType;
+        private StoreBackend backend;
+
+        public StubStoreConfigurationBuilder(IdentityStoresConfigurationBuilder builder) {
+            super(builder);
+        }
+
+        @Override
+        public StubStoreConfiguration create() {
+            return new StubStoreConfiguration(getSupportedTypes(), getUnsupportedTypes(), getContextInitializers(),
+                getCredentialHandlerProperties(), getCredentialHandlers(), isSupportAttributes(), this.storeType,
+                this.backend);
+        }
+
+        public StubStoreConfigurationBuilder storeType(Class<? extends AttributeStoreStub> storeType) {
+            this.storeType = storeType;
+            return this;
+        }
+
+        public StubStoreConfigurationBuilder backend(StoreBackend backend) {
+            this.backend = backend;
+            return this;
+        }
+    }
+
+    public static class StubStoreConfiguration extends AbstractIdentityStoreConfiguration {
+
+        private final Class<? extends AttributeStoreStub> storeType;
+        private final StoreBackend backend;
+
+        protected StubStoreConfiguration(Map<Class<? extends AttributedType>, Set<IdentityOperation>> supportedTypes,
+                Map<Class<? extends AttributedType>, Set<IdentityOperation>> unsupportedTypes,
+                List<ContextInitializer> contextInitializers, Map<String, Object> credentialHandlerProperties,
+                Set<Class<? extends CredentialHandler>> credentialHandlers, boolean supportsAttribute,
+                Class<? extends AttributeStoreStub> storeType, StoreBackend backend) {
+            super(supportedTypes, unsupportedTypes, contextInitializers, credentialHandlerProperties,
+                    credentialHandlers, supportsAttribute, false);
+            this.storeType = storeType;
+            this.backend = backend;
+        }
+
+        @Override
+        public Class<? extends IdentityStore> getIdentityStoreType() {
+            return this.storeType;
+        }
+
+        public StoreBackend getBackend() {
+            return this.backend;
+        }
+
+        @Override
+        public boolean supportsPartition() {
+            return false;
+        }
+    }
+
+    public static class AttributeStoreStub implements AttributeStore<StubStoreConfiguration> {
+
+        private StubStoreConfiguration config;
+
+        @Override
+        public void setup(StubStoreConfiguration config) {
+            this.config = config;
+        }
+
+        @Override
+        public StubStoreConfiguration getConfig() {
+            return this.config;
+        }
+
+        protected StoreBackend getBackend() {
+            return this.config.getBackend();
+        }
+
+        @Override
+        public void add(IdentityContext context, AttributedType value) {
+            User user = (User) value;
+
+            user.setId(context.getIdGenerator().generate());
+
+            getBackend().users.put(user.getId(), new User(user.getLoginName()));
+            getBackend().users.get(user.getId()).setId(user.getId());
+        }
+
+        @Override
+        public void update(IdentityContext context, AttributedType value) {
+        }
+
+        @Override
+        public void remove(IdentityContext context, AttributedType value) {
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <V extends IdentityType> List<V> fetchQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+            List<V> result = new ArrayList<V>();
+
+            // only unfiltered queries are answered, so uniqueness checks never find a match
+            if (identityQuery.getParameters().isEmpty()) {
+                for (User stored : getBackend().users.values()) {
+                    User user = new User(stored.getLoginName());
+
+                    user.setId(stored.getId());
+
+                    result.add((V) user);
+                }
+            }
+
+            return result;
+        }
+
+        @Override
+        public <V extends IdentityType> int countQueryResults(IdentityContext context, IdentityQuery<V> identityQuery) {
+            return fetchQueryResults(context, identityQuery).size();
+        }
+
+        @Override
+        public <V extends Relationship> List<V> fetchQueryResults(IdentityContext context, RelationshipQuery<V> query) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public <V extends Relationship> int countQueryResults(IdentityContext context, RelationshipQuery<V> query) {
+            return 0;
+        }
+
+        @Override
+        public void validateCredentials(IdentityContext context, Credentials credentials) {
+        }
+
+        @Override
+        public void updateCredential(IdentityContext context, Account account, Object credential, Date effectiveDate,
+                Date expiryDate) {
+        }
+
+        @Override
+        public void setAttribute(IdentityContext context, AttributedType type, Attribute<? extends Serializable> attribute) {
+            Map<String, Attribute<? extends Serializable>> attributes = getBackend().attributes.get(type.getId());
+
+            if (attributes == null) {
+                attributes = new HashMap<String, Attribute<? extends Serializable>>();
+                getBackend().attributes.put(type.getId(), attributes);
+            }
+
+            attributes.put(attribute.getName(), attribute);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <V extends Serializable> Attribute<V> getAttribute(IdentityContext context, AttributedType type,
+                                                                  String attributeName) {
+            Map<String, Attribute<? extends Serializable>> attributes = getBackend().attributes.get(type.getId());
+
+            return attributes != null ? (Attribute<V>) attributes.get(attributeName) : null;
+        }
+
+        @Override
+        public void removeAttribute(IdentityContext context, AttributedType type, String attributeName) {
+            Map<String, Attribute<? extends Serializable>> attributes = getBackend().attributes.get(type.getId());
+
+            if (attributes != null) {
+                attributes.remove(attributeName);
+            }
+        }
+
+        @Override
+        public void loadAttributes(IdentityContext context, AttributedType attributedType) {
+            getBackend().singleLoads++;
+            copyAttributes(attributedType);
+        }
+
+        protected void copyAttributes(AttributedType attributedType) {
+            Map<String, Attribute<? extends Serializable>> attributes = getBackend().attributes.get(attributedType.getId());
+
+            if (attributes != null) {
+                for (Attribute<? extends Serializable> attribute : attributes.values()) {
+                    attributedType.setAttribute(attribute);
+                }
+            }
+        }
+    }
+
+    public static class BatchAttributeStoreStub extends AttributeStoreStub
+            implements BatchAttributeStore<StubStoreConfiguration> {
+
+        @Override
+        public void loadAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+            getBackend().batchLoads++;
+
+            for (AttributedType attributedType : attributedTypes) {
+                copyAttributes(attributedType);
+            }
+        }
+
+        @Override
+        public void addAttributes(IdentityContext context, List<? extends AttributedType> attributedTypes) {
+            for (AttributedType attributedType : attributedTypes) {
+                for (Attribute<? extends Serializable> attribute : attributedType.getAttributes()) {
+                    setAttribute(context, attributedType, attribute);
+                }
+            }
+        }
+    }
+}
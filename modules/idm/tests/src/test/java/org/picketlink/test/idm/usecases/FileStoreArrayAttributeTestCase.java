@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.AttributedType;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for primitive array attributes, such as <code>byte[]</code>, stored and indexed by the file store.</p>
+ *
+ * @author agent
+ */
+public class FileStoreArrayAttributeTestCase {
+
+    private File workingDirectory;
+
+    @Before
+    public void onSetup() {
+        this.workingDirectory = new File(System.getProperty("java.io.tmpdir"), "pl-idm-array-attributes");
+        deleteWorkingDirectory();
+    }
+
+    @After
+    public void onFinish() {
+        deleteWorkingDirectory();
+    }
+
+    @Test
+    public void testPrimitiveArrayAttribute() {
+        IdentityManager identityManager = createPartitionManager(false).createIdentityManager();
+        User john = new User("john");
+        byte[] picture = new byte[] {1, 2, 3};
+
+        john.setAttribute(new Attribute<byte[]>("picture", picture));
+        john.setAttribute(new Attribute<String>("department", "sales"));
+
+        identityManager.add(john);
+
+        IdentityQuery<User> query = identityManager.createIdentityQuery(User.class);
+
+        query.setParameter(AttributedType.QUERY_ATTRIBUTE.byName("department"), "sales");
+
+        List<User> result = query.getResultList();
+
+        assertEquals(1, result.size());
+        assertTrue(Arrays.equals(picture, result.get(0).<byte[]>getAttribute("picture").getValue()));
+
+        john.removeAttribute("picture");
+        identityManager.update(john);
+
+        assertNull(identityManager.lookupIdentityById(User.class, john.getId()).getAttribute("picture"));
+    }
+
+    @Test
+    public void testPrimitiveArrayAttributeIndexedOnStartup() {
+        IdentityManager identityManager = createPartitionManager(false).createIdentityManager();
+        User john = new User("john");
+
+        john.setAttribute(new Attribute<byte[]>("picture", new byte[] {1, 2, 3}));
+
+        identityManager.add(john);
+
+        identityManager = createPartitionManager(true).createIdentityManager();
+
+        User storedJohn = identityManager.lookupIdentityById(User.class, john.getId());
+
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, storedJohn.<byte[]>getAttribute("picture").getValue()));
+    }
+
+    private PartitionManager createPartitionManager(boolean preserveState) {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .workingDirectory(this.workingDirectory.getAbsolutePath())
+                        .preserveState(preserveState)
+                        .asyncWrite(false)
+                        .supportAllFeatures();
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        if (partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM) == null) {
+            partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        }
+
+        return partitionManager;
+    }
+
+    private void deleteWorkingDirectory() {
+        File[] files = this.workingDirectory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        this.workingDirectory.delete();
+    }
+}
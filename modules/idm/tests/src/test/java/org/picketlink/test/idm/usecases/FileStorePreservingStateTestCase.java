@@ -138,4 +138,127 @@ public class FileStorePreservingStateTestCase {
         assertEquals(storedUserC.getAttribute("userAttribute").getValue(), "3");
     }
 
+    @Test
+    public void testPreserveStateWithJournal() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("file-store-preserve-state")
+                .stores()
+                    .file()
+                        .workingDirectory("/tmp/teste")
+                        .journal(true)
+                        .supportAllFeatures();
+
+        DefaultPartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        Realm realmA = new Realm(REALM_A);
+
+        partitionManager.add(realmA);
+
+        User userA = new User("User Realm A");
+
+        partitionManager.createIdentityManager(realmA).add(userA);
+
+        userA.setAttribute(new Attribute<Serializable>("userAttribute", "1"));
+
+        partitionManager.createIdentityManager(realmA).update(userA);
+
+        partitionManager.close();
+
+        builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("file-store-preserve-state")
+                .stores()
+                    .file()
+                        .preserveState(true)
+                        .workingDirectory("/tmp/teste")
+                        .journal(true)
+                        .supportAllFeatures();
+
+        partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        Realm storedRealmA = partitionManager.getPartition(Realm.class, REALM_A);
+
+        assertEquals(realmA.getId(), storedRealmA.getId());
+
+        User storedUserA = partitionManager.createIdentityManager(storedRealmA).createIdentityQuery(User.class)
+                .setParameter(User.LOGIN_NAME, "User Realm A").getResultList().get(0);
+
+        assertEquals(userA.getId(), storedUserA.getId());
+        assertEquals(storedUserA.getAttribute("userAttribute").getValue(), "1");
+
+        partitionManager.close();
+    }
+
+    @Test
+    public void testCloseWithJournalAndAsyncWrite() throws Exception {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("file-store-preserve-state")
+                .stores()
+                    .file()
+                        .workingDirectory("/tmp/teste")
+                        .journal(true)
+                        .asyncWrite(true)
+                        .supportAllFeatures();
+
+        int compactionThreads = countCompactionThreads();
+
+        DefaultPartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        assertEquals(compactionThreads + 1, countCompactionThreads());
+
+        Realm realmA = new Realm(REALM_A);
+
+        partitionManager.add(realmA);
+
+        User userA = new User("User Realm A");
+
+        partitionManager.createIdentityManager(realmA).add(userA);
+
+        // pending asynchronous writes must be appended before the journal is closed
+        partitionManager.close();
+
+        for (int i = 0; i < 100 && countCompactionThreads() > compactionThreads; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(compactionThreads, countCompactionThreads());
+
+        builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("file-store-preserve-state")
+                .stores()
+                    .file()
+                        .preserveState(true)
+                        .workingDirectory("/tmp/teste")
+                        .journal(true)
+                        .supportAllFeatures();
+
+        partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        Realm storedRealmA = partitionManager.getPartition(Realm.class, REALM_A);
+
+        assertNotNull(storedRealmA);
+        assertEquals(1, partitionManager.createIdentityManager(storedRealmA).createIdentityQuery(User.class)
+                .setParameter(User.LOGIN_NAME, "User Realm A").getResultList().size());
+
+        partitionManager.close();
+    }
+
+    private int countCompactionThreads() {
+        int count = 0;
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("picketlink-file-store-compaction".equals(thread.getName()) && thread.isAlive()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
 }
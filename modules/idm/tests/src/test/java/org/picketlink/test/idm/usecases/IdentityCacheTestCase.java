@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * <p>Test case for the {@link DefaultIdentityCache}.</p>
+ *
+ * @author agent
+ */
+public class IdentityCacheTestCase {
+
+    private DefaultIdentityCache identityCache;
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onSetup() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .supportAllFeatures();
+
+        this.identityCache = new DefaultIdentityCache(2, 0);
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll(), null, null, this.identityCache);
+
+        if (this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM) == null) {
+            this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        }
+    }
+
+    @Test
+    public void testCacheLookups() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        User john = BasicModel.getUser(identityManager, "john");
+
+        assertNotNull(john);
+        assertEquals(0, this.identityCache.getHitCount());
+        assertEquals(1, this.identityCache.getMissCount());
+
+        User cachedJohn = BasicModel.getUser(this.partitionManager.createIdentityManager(), "john");
+
+        assertNotSame(john, cachedJohn);
+        assertEquals(john.getId(), cachedJohn.getId());
+        assertEquals(1, this.identityCache.getHitCount());
+    }
+
+    @Test
+    public void testLookupReturnsCopies() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        // the first lookup populates the cache
+        User john = BasicModel.getUser(identityManager, "john");
+
+        john.setFirstName("Changed");
+        john.setLoginName("changed");
+
+        User cachedJohn = BasicModel.getUser(identityManager, "john");
+
+        assertNotNull(cachedJohn);
+        assertEquals(1, this.identityCache.getHitCount());
+        assertEquals("john", cachedJohn.getLoginName());
+        assertNull(cachedJohn.getFirstName());
+
+        cachedJohn.setFirstName("Changed");
+
+        assertNull(BasicModel.getUser(identityManager, "john").getFirstName());
+    }
+
+    @Test
+    public void testPutReplacesEntryWithSameIdentifier() {
+        Realm defaultRealm = this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM);
+        User john = new User("john");
+
+        john.setId("john-id");
+
+        this.identityCache.putUser(defaultRealm, john);
+
+        john.setLoginName("johnny");
+
+        this.identityCache.putUser(defaultRealm, john);
+
+        assertNull(this.identityCache.lookupUser(defaultRealm, "john"));
+        assertEquals("john-id", this.identityCache.lookupUser(defaultRealm, "johnny").getId());
+
+        this.identityCache.invalidate(defaultRealm, john);
+
+        assertNull(this.identityCache.lookupUser(defaultRealm, "johnny"));
+    }
+
+    @Test
+    public void testInvalidateOnUpdateAndRemove() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new User("john"));
+
+        User john = BasicModel.getUser(identityManager, "john");
+
+        john.setLoginName("johnny");
+
+        identityManager.update(john);
+
+        assertNull(BasicModel.getUser(identityManager, "john"));
+        assertNotNull(BasicModel.getUser(identityManager, "johnny"));
+
+        identityManager.remove(BasicModel.getUser(identityManager, "johnny"));
+
+        assertNull(BasicModel.getUser(identityManager, "johnny"));
+    }
+
+    @Test
+    public void testEviction() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        identityManager.add(new Role("role1"));
+        identityManager.add(new Role("role2"));
+        identityManager.add(new Role("role3"));
+
+        BasicModel.getRole(identityManager, "role1");
+        BasicModel.getRole(identityManager, "role2");
+        BasicModel.getRole(identityManager, "role3");
+
+        assertEquals(1, this.identityCache.getEvictionCount());
+
+        Realm defaultRealm = this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM);
+
+        assertNull(this.identityCache.lookupRole(defaultRealm, "role1"));
+        assertNotNull(this.identityCache.lookupRole(defaultRealm, "role3"));
+    }
+}
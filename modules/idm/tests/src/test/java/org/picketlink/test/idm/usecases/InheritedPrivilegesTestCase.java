@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.BasicModel;
+import org.picketlink.idm.model.basic.Group;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for {@link RelationshipManager#inheritsPrivileges(org.picketlink.idm.model.IdentityType,
+ * org.picketlink.idm.model.IdentityType)}.</p>
+ *
+ * @author agent
+ */
+public class InheritedPrivilegesTestCase {
+
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onSetup() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .preserveState(false)
+                        .supportAllFeatures();
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        if (this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM) == null) {
+            this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        }
+    }
+
+    @Test
+    public void testInheritsPrivileges() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+
+        User john = new User("john");
+        User mary = new User("mary");
+        Group company = new Group("company");
+        Group sales = new Group("sales", company);
+        Group other = new Group("other");
+        Role manager = new Role("manager");
+        Role employee = new Role("employee");
+        Role admin = new Role("admin");
+
+        identityManager.add(john);
+        identityManager.add(mary);
+        identityManager.add(company);
+        identityManager.add(sales);
+        identityManager.add(other);
+        identityManager.add(manager);
+        identityManager.add(employee);
+        identityManager.add(admin);
+
+        BasicModel.addToGroup(relationshipManager, john, sales);
+        BasicModel.grantRole(relationshipManager, john, manager);
+        BasicModel.grantRole(relationshipManager, company, employee);
+        BasicModel.grantRole(relationshipManager, mary, admin);
+
+        assertTrue(relationshipManager.inheritsPrivileges(john, john));
+        assertTrue(relationshipManager.inheritsPrivileges(john, sales));
+        assertTrue(relationshipManager.inheritsPrivileges(john, company));
+        assertTrue(relationshipManager.inheritsPrivileges(john, manager));
+        assertTrue(relationshipManager.inheritsPrivileges(john, employee));
+
+        assertFalse(relationshipManager.inheritsPrivileges(john, other));
+        assertFalse(relationshipManager.inheritsPrivileges(john, admin));
+        assertFalse(relationshipManager.inheritsPrivileges(john, mary));
+        assertFalse(relationshipManager.inheritsPrivileges(mary, sales));
+    }
+}
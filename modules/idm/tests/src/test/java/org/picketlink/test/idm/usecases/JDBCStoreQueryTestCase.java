@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.RelationshipQuery;
+import org.picketlink.test.idm.testers.JDBCStoreConfigurationTester;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * <p>Test case for the queries executed by the JDBC store, such as counting and paging.</p>
+ *
+ * @author agent
+ */
+public class JDBCStoreQueryTestCase {
+
+    private final JDBCStoreConfigurationTester tester = new JDBCStoreConfigurationTester();
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onBefore() {
+        this.tester.beforeTest();
+        this.partitionManager = this.tester.getPartitionManager();
+    }
+
+    @After
+    public void onAfter() {
+        this.tester.afterTest();
+    }
+
+    @Test
+    public void testCountAndPaging() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        for (int i = 0; i < 25; i++) {
+            identityManager.add(new User("user" + (i < 10 ? "0" + i : i)));
+        }
+
+        IdentityQuery<User> query = identityManager.createIdentityQuery(User.class);
+
+        assertEquals(25, query.getResultCount());
+
+        query.setSortParameters(User.LOGIN_NAME);
+        query.setLimit(10);
+        query.setOffset(20);
+
+        List<User> result = query.getResultList();
+
+        assertEquals(5, result.size());
+        assertEquals("user20", result.get(0).getLoginName());
+        assertEquals("user24", result.get(4).getLoginName());
+    }
+
+    @Test
+    public void testOffsetWithoutLimit() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        for (int i = 0; i < 5; i++) {
+            identityManager.add(new User("user" + i));
+        }
+
+        IdentityQuery<User> query = identityManager.createIdentityQuery(User.class);
+
+        query.setSortParameters(User.LOGIN_NAME);
+        query.setOffset(3);
+
+        List<User> result = query.getResultList();
+
+        assertEquals(2, result.size());
+        assertEquals("user3", result.get(0).getLoginName());
+
+        // the statement is reused by the next query, which must not be limited anymore
+        query.setOffset(0);
+        query.setLimit(2);
+
+        assertEquals(2, query.getResultList().size());
+
+        query.setLimit(0);
+
+        assertEquals(5, query.getResultList().size());
+    }
+
+    @Test
+    public void testQueryByAttribute() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        User john = new User("john");
+
+        identityManager.add(john);
+        identityManager.add(new User("mary"));
+
+        john.setAttribute(new Attribute<String>("department", "sales"));
+        identityManager.update(john);
+
+        IdentityQuery<User> query = identityManager.createIdentityQuery(User.class);
+
+        query.setParameter(User.QUERY_ATTRIBUTE.byName("department"), "sales");
+
+        List<User> result = query.getResultList();
+
+        assertEquals(1, result.size());
+        assertEquals("john", result.get(0).getLoginName());
+        assertNotNull(result.get(0).getAttribute("department"));
+    }
+
+    @Test
+    public void testCountGrants() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+
+        User john = new User("john");
+        Role manager = new Role("manager");
+        Role admin = new Role("admin");
+
+        identityManager.add(john);
+        identityManager.add(manager);
+        identityManager.add(admin);
+
+        relationshipManager.add(new Grant(john, manager));
+        relationshipManager.add(new Grant(john, admin));
+
+        RelationshipQuery<Grant> query = relationshipManager.createRelationshipQuery(Grant.class);
+
+        query.setParameter(Grant.ASSIGNEE, john);
+
+        assertEquals(2, query.getResultCount());
+
+        List<Grant> result = query.getResultList();
+
+        assertEquals(2, result.size());
+        assertEquals("john", ((User) result.get(0).getAssignee()).getLoginName());
+    }
+}
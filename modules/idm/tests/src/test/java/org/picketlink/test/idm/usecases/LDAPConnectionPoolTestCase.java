@@ -0,0 +1,180 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.credential.Credentials.Status;
+import org.picketlink.idm.credential.Password;
+import org.picketlink.idm.credential.UsernamePasswordCredentials;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.test.idm.util.LDAPEmbeddedServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.picketlink.common.constants.LDAPConstants.CN;
+import static org.picketlink.common.constants.LDAPConstants.CREATE_TIMESTAMP;
+import static org.picketlink.common.constants.LDAPConstants.EMAIL;
+import static org.picketlink.common.constants.LDAPConstants.SN;
+import static org.picketlink.common.constants.LDAPConstants.UID;
+
+/**
+ * <p>Test case for the connection pools used by the LDAP store.</p>
+ *
+ * @author agent
+ */
+public class LDAPConnectionPoolTestCase {
+
+    private final LDAPEmbeddedServer embeddedServer = new LDAPEmbeddedServer();
+
+    @Before
+    public void onBefore() {
+        try {
+            this.embeddedServer.setup();
+            this.embeddedServer.importLDIF("ldap/users.ldif");
+        } catch (Exception e) {
+            throw new RuntimeException("Error starting Embedded LDAP server.", e);
+        }
+    }
+
+    @After
+    public void onAfter() {
+        try {
+            this.embeddedServer.tearDown();
+        } catch (Exception e) {
+            throw new RuntimeException("Error stopping Embedded LDAP server.", e);
+        }
+    }
+
+    @Test
+    public void testConcurrentAuthentication() throws Exception {
+        final PartitionManager partitionManager = createPartitionManager();
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        final int numberOfUsers = 10;
+
+        for (int i = 0; i < numberOfUsers; i++) {
+            User user = new User("pooledUser" + i);
+
+            identityManager.add(user);
+            identityManager.updateCredential(user, new Password("password" + i));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(numberOfUsers);
+        List<Future<Status>> results = new ArrayList<Future<Status>>();
+
+        try {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < numberOfUsers; i++) {
+                    final int userIndex = i;
+                    // every other login uses a wrong password, so failed binds do not affect other logins
+                    final boolean validPassword = (round + i) % 2 == 0;
+
+                    results.add(executorService.submit(new Callable<Status>() {
+                        @Override
+                        public Status call() throws Exception {
+                            String password = validPassword ? "password" + userIndex : "wrong";
+                            UsernamePasswordCredentials credentials = new UsernamePasswordCredentials("pooledUser" + userIndex,
+                                    new Password(password));
+
+                            partitionManager.createIdentityManager().validateCredentials(credentials);
+
+                            return credentials.getStatus();
+                        }
+                    }));
+                }
+            }
+
+            int index = 0;
+
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < numberOfUsers; i++) {
+                    Status expected = (round + i) % 2 == 0 ? Status.VALID : Status.INVALID;
+
+                    assertEquals(expected, results.get(index++).get());
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailoverToNextUrl() throws Exception {
+        // the first URL points to a port where no server is listening
+        PartitionManager partitionManager = createPartitionManager("ldap://localhost:1 " + this.embeddedServer.getConnectionUrl());
+        IdentityManager identityManager = partitionManager.createIdentityManager();
+
+        User john = new User("john");
+
+        identityManager.add(john);
+        identityManager.updateCredential(john, new Password("123"));
+
+        UsernamePasswordCredentials credentials = new UsernamePasswordCredentials("john", new Password("123"));
+
+        identityManager.validateCredentials(credentials);
+
+        assertEquals(Status.VALID, credentials.getStatus());
+    }
+
+    private PartitionManager createPartitionManager() {
+        return createPartitionManager(this.embeddedServer.getConnectionUrl());
+    }
+
+    private PartitionManager createPartitionManager(String url) {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .ldap()
+                        .baseDN(this.embeddedServer.getBaseDn())
+                        .bindDN(this.embeddedServer.getBindDn())
+                        .bindCredential(this.embeddedServer.getBindCredential())
+                        .url(url)
+                        .readConnectionPool(1, 2)
+                        .writeConnectionPool(1, 1)
+                        .bindConnectionPool(0, 3)
+                        .supportCredentials(true)
+                        .mapping(User.class)
+                            .baseDN(this.embeddedServer.getUserDnSuffix())
+                            .objectClasses("inetOrgPerson", "organizationalPerson")
+                            .attribute("loginName", UID, true)
+                            .attribute("firstName", CN)
+                            .attribute("lastName", SN)
+                            .attribute("email", EMAIL)
+                            .readOnlyAttribute("createdDate", CREATE_TIMESTAMP);
+
+        return new DefaultPartitionManager(builder.buildAll());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.test.idm.util.LDAPEmbeddedServer;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.picketlink.common.constants.LDAPConstants.CN;
+import static org.picketlink.common.constants.LDAPConstants.CREATE_TIMESTAMP;
+import static org.picketlink.common.constants.LDAPConstants.EMAIL;
+import static org.picketlink.common.constants.LDAPConstants.SN;
+import static org.picketlink.common.constants.LDAPConstants.UID;
+
+/**
+ * <p>Test case for paged and sorted searches performed by the LDAP store.</p>
+ *
+ * @author agent
+ */
+public class LDAPPagedSearchTestCase {
+
+    private static final String EMAIL_ADDRESS = "paged@jboss.org";
+
+    private final LDAPEmbeddedServer embeddedServer = new LDAPEmbeddedServer();
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onBefore() {
+        try {
+            this.embeddedServer.setup();
+            this.embeddedServer.importLDIF("ldap/users.ldif");
+        } catch (Exception e) {
+            throw new RuntimeException("Error starting Embedded LDAP server.", e);
+        }
+
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .ldap()
+                        .baseDN(this.embeddedServer.getBaseDn())
+                        .bindDN(this.embeddedServer.getBindDn())
+                        .bindCredential(this.embeddedServer.getBindCredential())
+                        .url(this.embeddedServer.getConnectionUrl())
+                        .searchPageSize(3)
+                        .mapping(User.class)
+                            .baseDN(this.embeddedServer.getUserDnSuffix())
+                            .objectClasses("inetOrgPerson", "organizationalPerson")
+                            .attribute("loginName", UID, true)
+                            .attribute("firstName", CN)
+                            .attribute("lastName", SN)
+                            .attribute("email", EMAIL)
+                            .readOnlyAttribute("createdDate", CREATE_TIMESTAMP);
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+
+        // created out of order, so sorting is required to get them back in order
+        for (int i = 9; i >= 0; i--) {
+            User user = new User("pagedUser" + i);
+
+            user.setFirstName("Paged");
+            user.setLastName("User " + i);
+            user.setEmail(EMAIL_ADDRESS);
+
+            identityManager.add(user);
+        }
+    }
+
+    @After
+    public void onAfter() {
+        try {
+            this.embeddedServer.tearDown();
+        } catch (Exception e) {
+            throw new RuntimeException("Error stopping Embedded LDAP server.", e);
+        }
+    }
+
+    @Test
+    public void testCountWithoutFetching() {
+        IdentityQuery<User> query = createQuery();
+
+        query.setLimit(2);
+
+        assertEquals(10, query.getResultCount());
+    }
+
+    @Test
+    public void testPaginationAndSorting() {
+        IdentityQuery<User> query = createQuery();
+
+        query.setSortParameters(User.LOGIN_NAME);
+        query.setOffset(0);
+        query.setLimit(4);
+
+        List<User> firstPage = query.getResultList();
+
+        assertEquals(4, firstPage.size());
+
+        for (int i = 0; i < firstPage.size(); i++) {
+            assertEquals("pagedUser" + i, firstPage.get(i).getLoginName());
+        }
+
+        query.setOffset(8);
+
+        List<User> lastPage = query.getResultList();
+
+        assertEquals(2, lastPage.size());
+        assertEquals("pagedUser8", lastPage.get(0).getLoginName());
+        assertEquals("pagedUser9", lastPage.get(1).getLoginName());
+
+        query.setOffset(10);
+
+        assertEquals(0, query.getResultList().size());
+
+        query.setSortAscending(false);
+        query.setOffset(0);
+        query.setLimit(1);
+
+        assertEquals("pagedUser9", query.getResultList().get(0).getLoginName());
+    }
+
+    @Test
+    public void testLimitedSearchesAreAbandoned() {
+        // each search stops in the middle of the second page, leaving the paged search to be abandoned
+        for (int i = 0; i < 20; i++) {
+            IdentityQuery<User> query = createQuery();
+
+            query.setSortParameters(User.LOGIN_NAME);
+            query.setLimit(4);
+
+            assertEquals(4, query.getResultList().size());
+        }
+
+        // the pooled connection can still perform a complete paged search
+        assertEquals(10, createQuery().getResultList().size());
+    }
+
+    private IdentityQuery<User> createQuery() {
+        IdentityQuery<User> query = this.partitionManager.createIdentityManager().createIdentityQuery(User.class);
+
+        query.setParameter(User.EMAIL, EMAIL_ADDRESS);
+
+        return query;
+    }
+}
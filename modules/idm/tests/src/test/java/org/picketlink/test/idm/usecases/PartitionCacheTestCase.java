@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.spi.ContextInitializer;
+import org.picketlink.idm.spi.IdentityContext;
+import org.picketlink.idm.spi.IdentityStore;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+/**
+ * <p>Test case for the partition cache of the {@link DefaultPartitionManager}.</p>
+ *
+ * @author agent
+ */
+public class PartitionCacheTestCase {
+
+    private final AtomicInteger storeInvocations = new AtomicInteger();
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onSetup() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .addContextInitializer(new ContextInitializer() {
+                            @Override
+                            public void initContextForStore(IdentityContext context, IdentityStore<?> store) {
+                                storeInvocations.incrementAndGet();
+                            }
+                        })
+                        .supportAllFeatures();
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        if (this.partitionManager.getPartition(Realm.class, "acme") == null) {
+            this.partitionManager.add(new Realm("acme"));
+        }
+    }
+
+    @Test
+    public void testLookupsAreCached() {
+        Realm acme = this.partitionManager.getPartition(Realm.class, "acme");
+
+        assertNotNull(acme);
+
+        int invocations = this.storeInvocations.get();
+
+        Realm cachedAcme = this.partitionManager.getPartition(Realm.class, "acme");
+        Realm cachedAcmeById = this.partitionManager.lookupById(Realm.class, acme.getId());
+
+        assertEquals(invocations, this.storeInvocations.get());
+        assertEquals(acme.getId(), cachedAcme.getId());
+        assertEquals(acme.getId(), cachedAcmeById.getId());
+    }
+
+    @Test
+    public void testLookupReturnsCopies() {
+        Realm acme = this.partitionManager.getPartition(Realm.class, "acme");
+
+        acme.setAttribute(new Attribute<String>("changed", "true"));
+
+        Realm cachedAcme = this.partitionManager.getPartition(Realm.class, "acme");
+
+        assertNotSame(acme, cachedAcme);
+        assertNull(cachedAcme.getAttribute("changed"));
+        assertNull(this.partitionManager.lookupById(Realm.class, acme.getId()).getAttribute("changed"));
+    }
+
+    @Test
+    public void testInvalidationOnUpdate() {
+        Realm acme = this.partitionManager.getPartition(Realm.class, "acme");
+
+        acme.setAttribute(new Attribute<String>("updated", "true"));
+
+        this.partitionManager.update(acme);
+
+        Attribute<String> updated = this.partitionManager.getPartition(Realm.class, "acme").getAttribute("updated");
+
+        assertNotNull(updated);
+        assertEquals("true", updated.getValue());
+        assertNotNull(this.partitionManager.lookupById(Realm.class, acme.getId()).getAttribute("updated"));
+    }
+
+    @Test
+    public void testInvalidationOnRemove() {
+        Realm acme = this.partitionManager.getPartition(Realm.class, "acme");
+
+        // populate the cache by identifier too
+        assertNotNull(this.partitionManager.lookupById(Realm.class, acme.getId()));
+
+        this.partitionManager.remove(acme);
+
+        assertNull(this.partitionManager.getPartition(Realm.class, "acme"));
+        assertNull(this.partitionManager.lookupById(Realm.class, acme.getId()));
+    }
+
+    @Test
+    public void testMissingPartitionIsNotCached() {
+        assertNull(this.partitionManager.getPartition(Realm.class, "other"));
+
+        this.partitionManager.add(new Realm("other"));
+
+        Realm other = this.partitionManager.getPartition(Realm.class, "other");
+
+        assertNotNull(other);
+
+        this.partitionManager.remove(other);
+    }
+
+    @Test
+    public void testLookupByDifferentPartitionType() {
+        Realm acme = this.partitionManager.getPartition(Realm.class, "acme");
+        Partition partition = this.partitionManager.lookupById(Partition.class, acme.getId());
+
+        assertNotNull(partition);
+        assertEquals(Realm.class, partition.getClass());
+        assertEquals(acme.getId(), partition.getId());
+    }
+
+    @Test
+    public void testWithoutPartitionConfiguration() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .supportType(IdentityType.class);
+
+        PartitionManager partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        Realm defaultRealm = partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM);
+
+        assertNotNull(defaultRealm);
+
+        defaultRealm.setAttribute(new Attribute<String>("changed", "true"));
+
+        Realm otherDefaultRealm = partitionManager.lookupById(Realm.class, Realm.DEFAULT_REALM);
+
+        assertNotSame(defaultRealm, otherDefaultRealm);
+        assertEquals(Realm.DEFAULT_REALM, otherDefaultRealm.getName());
+        assertNull(otherDefaultRealm.getAttribute("changed"));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.PermissionManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.User;
+import org.picketlink.idm.permission.Permission;
+import org.picketlink.idm.permission.acl.internal.PermissionHandlerPolicy;
+import org.picketlink.idm.permission.acl.internal.PersistentPermissionVoter;
+import org.picketlink.idm.permission.acl.spi.PermissionHandler;
+import org.picketlink.idm.permission.spi.PermissionVoter.VotingResult;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * <p>Test case for checking the permissions of several resources at once with {@link PersistentPermissionVoter}.</p>
+ *
+ * @author agent
+ */
+public class PersistentPermissionVoterTestCase {
+
+    private PartitionManager partitionManager;
+    private User john;
+
+    @Before
+    public void onSetup() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .supportAllFeatures();
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll());
+
+        if (this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM) == null) {
+            this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        }
+
+        this.john = new User("john");
+
+        this.partitionManager.createIdentityManager().add(this.john);
+    }
+
+    @Test
+    public void testResultsMatchedByResourceIdentifier() {
+        List<Permission> storedPermissions = new ArrayList<Permission>();
+
+        // the store returns other instances of the resources
+        storedPermissions.add(new Permission(new Document(1), this.john, "read"));
+        storedPermissions.add(new Permission(new Document(3), this.john, "read"));
+
+        PersistentPermissionVoter voter = createVoter(storedPermissions);
+
+        Document first = new Document(1);
+        Document firstCopy = new Document(1);
+        Document second = new Document(2);
+        Document third = new Document(3);
+        Set<Object> resources = new HashSet<Object>();
+
+        resources.add(first);
+        resources.add(firstCopy);
+        resources.add(second);
+        resources.add(third);
+
+        Map<Object, VotingResult> results = voter.hasPermissions(this.john, resources, "read");
+
+        assertEquals(4, results.size());
+        assertEquals(VotingResult.ALLOW, results.get(first));
+        assertEquals(VotingResult.ALLOW, results.get(firstCopy));
+        assertEquals(VotingResult.NOT_APPLICABLE, results.get(second));
+        assertEquals(VotingResult.ALLOW, results.get(third));
+    }
+
+    @Test
+    public void testNoStoredPermissions() {
+        PersistentPermissionVoter voter = createVoter(Collections.<Permission>emptyList());
+        Document first = new Document(1);
+        Document second = new Document(2);
+        Set<Object> resources = new HashSet<Object>();
+
+        resources.add(first);
+        resources.add(second);
+
+        Map<Object, VotingResult> results = voter.hasPermissions(this.john, resources, "read");
+
+        assertEquals(VotingResult.NOT_APPLICABLE, results.get(first));
+        assertEquals(VotingResult.NOT_APPLICABLE, results.get(second));
+    }
+
+    /**
+     * <p>Creates a voter whose permission store always returns the given permissions. Everything else is read from
+     * the file store.</p>
+     */
+    private PersistentPermissionVoter createVoter(final List<Permission> storedPermissions) {
+        final PermissionManager permissionManager = (PermissionManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] {PermissionManager.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("listPermissions")) {
+                            return storedPermissions;
+                        }
+
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        PartitionManager partitionManager = (PartitionManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] {PartitionManager.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("createPermissionManager")) {
+                            return permissionManager;
+                        }
+
+                        try {
+                            return method.invoke(PersistentPermissionVoterTestCase.this.partitionManager, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+
+        Set<PermissionHandler> handlers = new HashSet<PermissionHandler>();
+
+        handlers.add(new DocumentPermissionHandler());
+
+        return new PersistentPermissionVoter(partitionManager, new PermissionHandlerPolicy(handlers));
+    }
+
+    /**
+     * <p>A resource without equals and hashCode, identified by its id.</p>
+     */
+    public static class Document {
+
+        private final int id;
+
+        public Document(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return this.id;
+        }
+    }
+
+    public static class DocumentPermissionHandler implements PermissionHandler {
+
+        @Override
+        public boolean canHandle(Class<?> resourceClass) {
+            return Document.class.equals(resourceClass);
+        }
+
+        @Override
+        public boolean canLoadResource(String identifier) {
+            return false;
+        }
+
+        @Override
+        public String getGeneratedIdentifier(Object resource) {
+            return String.valueOf(((Document) resource).getId());
+        }
+
+        @Override
+        public Serializable getNaturalIdentifier(Object resource) {
+            return ((Document) resource).getId();
+        }
+
+        @Override
+        public Object lookupResource(String identifier) {
+            return null;
+        }
+
+        @Override
+        public Set<String> listAvailablePermissions(Class<?> resourceClass) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<String> convertResourcePermissions(Class<?> resourceClass, Object permissions) {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.usecases;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.PartitionManager;
+import org.picketlink.idm.RelationshipManager;
+import org.picketlink.idm.config.IdentityConfigurationBuilder;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.RelationshipCreatedEvent;
+import org.picketlink.idm.event.RelationshipDeletedEvent;
+import org.picketlink.idm.event.RelationshipUpdatedEvent;
+import org.picketlink.idm.internal.DefaultPartitionManager;
+import org.picketlink.idm.model.basic.Grant;
+import org.picketlink.idm.model.basic.Realm;
+import org.picketlink.idm.model.basic.Role;
+import org.picketlink.idm.model.basic.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Test case for the events raised when relationships are changed.</p>
+ *
+ * @author agent
+ */
+public class RelationshipEventTestCase {
+
+    private final List<Object> events = new ArrayList<Object>();
+    private PartitionManager partitionManager;
+
+    @Before
+    public void onSetup() {
+        IdentityConfigurationBuilder builder = new IdentityConfigurationBuilder();
+
+        builder
+            .named("default")
+                .stores()
+                    .file()
+                        .supportAllFeatures();
+
+        this.partitionManager = new DefaultPartitionManager(builder.buildAll(), new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                events.add(event);
+            }
+        });
+
+        if (this.partitionManager.getPartition(Realm.class, Realm.DEFAULT_REALM) == null) {
+            this.partitionManager.add(new Realm(Realm.DEFAULT_REALM));
+        }
+    }
+
+    @Test
+    public void testEventsRaised() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+        User john = new User("john");
+        Role admin = new Role("admin");
+
+        identityManager.add(john);
+        identityManager.add(admin);
+
+        this.events.clear();
+
+        Grant grant = new Grant(john, admin);
+
+        relationshipManager.add(grant);
+
+        assertEquals(1, this.events.size());
+        assertTrue(this.events.get(0) instanceof RelationshipCreatedEvent);
+        assertSame(grant, ((RelationshipCreatedEvent) this.events.get(0)).getRelationship());
+
+        relationshipManager.update(grant);
+
+        assertEquals(2, this.events.size());
+        assertTrue(this.events.get(1) instanceof RelationshipUpdatedEvent);
+
+        relationshipManager.remove(grant);
+
+        assertEquals(3, this.events.size());
+        assertTrue(this.events.get(2) instanceof RelationshipDeletedEvent);
+    }
+
+    @Test
+    public void testEventsRaisedForBatch() {
+        IdentityManager identityManager = this.partitionManager.createIdentityManager();
+        RelationshipManager relationshipManager = this.partitionManager.createRelationshipManager();
+        User john = new User("john");
+        List<Grant> grants = new ArrayList<Grant>();
+
+        identityManager.add(john);
+
+        for (int i = 0; i < 5; i++) {
+            Role role = new Role("role" + i);
+
+            identityManager.add(role);
+            grants.add(new Grant(john, role));
+        }
+
+        this.events.clear();
+
+        assertTrue(relationshipManager.addAll(grants).isSuccessful());
+        assertEquals(5, this.events.size());
+
+        for (Object event : this.events) {
+            assertTrue(event instanceof RelationshipCreatedEvent);
+        }
+    }
+}
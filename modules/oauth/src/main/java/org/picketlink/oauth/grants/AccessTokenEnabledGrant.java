@@ -38,6 +38,8 @@ public abstract class AccessTokenEnabledGrant extends OAuthGrant {
 
     protected long accessTokenExpiry = 3600L;
 
+    protected long refreshTokenExpiry = 1209600L;
+
     protected TokenType tokenType;
     protected String scope;
 
@@ -55,6 +57,29 @@ public abstract class AccessTokenEnabledGrant extends OAuthGrant {
         return this;
     }
 
+    /**
+     * Get the lifetime of the access token, in seconds
+     *
+     * @return
+     */
+    public long getAccessTokenExpiry() {
+        return accessTokenExpiry;
+    }
+
+    public AccessTokenEnabledGrant setRefreshTokenExpiry(long expiry) {
+        this.refreshTokenExpiry = expiry;
+        return this;
+    }
+
+    /**
+     * Get the lifetime of the refresh token, in seconds
+     *
+     * @return
+     */
+    public long getRefreshTokenExpiry() {
+        return refreshTokenExpiry;
+    }
+
     public AccessTokenEnabledGrant setAccessToken(String code) {
         this.accessToken = code;
         return this;
@@ -69,6 +94,10 @@ public abstract class AccessTokenEnabledGrant extends OAuthGrant {
         return accessToken;
     }
 
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
     public TokenType getTokenType() {
         return tokenType;
     }
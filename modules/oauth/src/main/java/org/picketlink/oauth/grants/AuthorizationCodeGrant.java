@@ -34,6 +34,8 @@ public class AuthorizationCodeGrant extends AccessTokenEnabledGrant {
 
     private String state, authorizationCode;
 
+    private long authorizationCodeExpiry = 600L;
+
     private AuthorizationRequest authorizationRequest;
 
     private AccessTokenRequest accessTokenRequest;
@@ -55,6 +57,24 @@ public class AuthorizationCodeGrant extends AccessTokenEnabledGrant {
         return this;
     }
 
+    public String getAuthorizationCode() {
+        return authorizationCode;
+    }
+
+    public AuthorizationCodeGrant setAuthorizationCodeExpiry(long expiry) {
+        this.authorizationCodeExpiry = expiry;
+        return this;
+    }
+
+    /**
+     * Get the lifetime of the authorization code, in seconds
+     *
+     * @return
+     */
+    public long getAuthorizationCodeExpiry() {
+        return authorizationCodeExpiry;
+    }
+
     public void validate() {
         if (authorizationRequest != null) {
             if (authorizationRequest.getResponseType().equals("code") == false) {
@@ -18,6 +18,7 @@
 package org.picketlink.oauth.server.endpoint;
 
 import org.picketlink.idm.IdentityManager;
+import org.picketlink.oauth.server.token.TokenStore;
 import org.picketlink.oauth.server.util.OAuthServerUtil;
 
 import javax.inject.Inject;
@@ -44,6 +45,8 @@ public class BaseEndpoint implements Serializable {
     @Context
     protected ServletContext context;
 
+    protected TokenStore tokenStore;
+
     protected void setup() {
         if (context == null) {
             throw new RuntimeException("Servlet Context has not been injected");
@@ -59,6 +62,9 @@ public class BaseEndpoint implements Serializable {
                 throw new RuntimeException("Identity Manager has not been created");
             }
         }
+        if (tokenStore == null) {
+            tokenStore = OAuthServerUtil.handleTokenStore(context);
+        }
     }
 
 }
\ No newline at end of file
@@ -50,7 +50,7 @@ public class ResourceEndpoint extends BaseEndpoint {
 
         ResourceAccessRequest resourceAccessRequest = OAuthServerUtil.parseResourceRequest(request);
         String accessToken = resourceAccessRequest.getAccessToken();
-        boolean validateAccessToken = OAuthServerUtil.validateAccessToken(accessToken, identityManager);
+        boolean validateAccessToken = OAuthServerUtil.validateAccessToken(accessToken, tokenStore);
 
         // TODO: Deal with scope
         if (validateAccessToken) {
@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.oauth.server.token;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Base class for {@link TokenStore} implementations. Token values are hashed before they reach the subclass, and
+ * expired tokens are removed by a background task every <code>sweepInterval</code> milliseconds.
+ *
+ * @author agent
+ */
+public abstract class AbstractTokenStore implements TokenStore {
+    private static Logger log = Logger.getLogger(AbstractTokenStore.class);
+
+    /**
+     * Default interval, in milliseconds, between two removals of expired tokens
+     */
+    public static final long DEFAULT_SWEEP_INTERVAL = 60000L;
+
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param sweepInterval the interval, in milliseconds, between two removals of expired tokens. Expired tokens are
+     *            only removed when they are looked up if it is not positive.
+     */
+    protected AbstractTokenStore(long sweepInterval) {
+        if (sweepInterval > 0) {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "picketlink-oauth-token-sweeper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.sweeper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int removed = removeExpired();
+                        if (removed > 0 && log.isTraceEnabled()) {
+                            log.tracef("Removed %d expired tokens", removed);
+                        }
+                    } catch (Exception e) {
+                        log.error("Error removing expired tokens", e);
+                    }
+                }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.sweeper = null;
+        }
+    }
+
+    @Override
+    public void store(String value, OAuthToken token) {
+        if (token == null) {
+            throw new IllegalArgumentException("token is null");
+        }
+        doStore(hash(value), token);
+    }
+
+    @Override
+    public OAuthToken lookup(String value) {
+        if (value == null) {
+            return null;
+        }
+        String hash = hash(value);
+        OAuthToken token = doLookup(hash);
+        if (token != null && token.isExpired(System.currentTimeMillis())) {
+            doRemove(hash);
+            return null;
+        }
+        return token;
+    }
+
+    @Override
+    public OAuthToken consume(String value) {
+        if (value == null) {
+            return null;
+        }
+        OAuthToken token = doRemove(hash(value));
+        if (token != null && token.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        return token;
+    }
+
+    @Override
+    public void revoke(String value) {
+        if (value != null) {
+            doRemove(hash(value));
+        }
+    }
+
+    @Override
+    public int removeExpired() {
+        return doRemoveExpired(System.currentTimeMillis());
+    }
+
+    @Override
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * Hash a token value. Stores only keep the hash, so the tokens can not be read back from them.
+     *
+     * @param value
+     * @return the hex encoded SHA-256 of the value
+     */
+    protected String hash(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is null");
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected abstract void doStore(String hash, OAuthToken token);
+
+    protected abstract OAuthToken doLookup(String hash);
+
+    /**
+     * Atomically remove the token with the given hash
+     *
+     * @param hash
+     * @return the removed token or null if no token was removed by this call
+     */
+    protected abstract OAuthToken doRemove(String hash);
+
+    protected abstract int doRemoveExpired(long now);
+}
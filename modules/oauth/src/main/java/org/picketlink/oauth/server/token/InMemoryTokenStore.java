@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.oauth.server.token;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link TokenStore} keeping the tokens in memory. Tokens are lost on restart and are not shared between nodes.
+ *
+ * @author agent
+ */
+public class InMemoryTokenStore extends AbstractTokenStore {
+
+    private final ConcurrentMap<String, OAuthToken> tokens = new ConcurrentHashMap<String, OAuthToken>();
+
+    public InMemoryTokenStore() {
+        this(DEFAULT_SWEEP_INTERVAL);
+    }
+
+    public InMemoryTokenStore(long sweepInterval) {
+        super(sweepInterval);
+    }
+
+    @Override
+    protected void doStore(String hash, OAuthToken token) {
+        tokens.put(hash, token);
+    }
+
+    @Override
+    protected OAuthToken doLookup(String hash) {
+        return tokens.get(hash);
+    }
+
+    @Override
+    protected OAuthToken doRemove(String hash) {
+        return tokens.remove(hash);
+    }
+
+    @Override
+    protected int doRemoveExpired(long now) {
+        int removed = 0;
+        Iterator<Map.Entry<String, OAuthToken>> iterator = tokens.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, OAuthToken> entry = iterator.next();
+            if (entry.getValue().isExpired(now) && tokens.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of tokens currently held, including expired tokens not yet removed
+     */
+    public int size() {
+        return tokens.size();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.oauth.server.token;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+/**
+ * {@link TokenStore} keeping the tokens in a database, through {@link OAuthTokenEntity}. The entity must be listed in
+ * the persistence unit.
+ *
+ * @author agent
+ */
+public class JPATokenStore extends AbstractTokenStore {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public JPATokenStore(EntityManagerFactory entityManagerFactory) {
+        this(entityManagerFactory, DEFAULT_SWEEP_INTERVAL);
+    }
+
+    public JPATokenStore(EntityManagerFactory entityManagerFactory, long sweepInterval) {
+        super(sweepInterval);
+        if (entityManagerFactory == null) {
+            throw new IllegalArgumentException("entityManagerFactory is null");
+        }
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @Override
+    protected void doStore(final String hash, final OAuthToken token) {
+        execute(new Work<Void>() {
+            @Override
+            public Void execute(EntityManager entityManager) {
+                entityManager.merge(new OAuthTokenEntity(hash, token));
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected OAuthToken doLookup(String hash) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            OAuthTokenEntity entity = entityManager.find(OAuthTokenEntity.class, hash);
+            return entity != null ? entity.toToken() : null;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Override
+    protected OAuthToken doRemove(final String hash) {
+        return execute(new Work<OAuthToken>() {
+            @Override
+            public OAuthToken execute(EntityManager entityManager) {
+                OAuthTokenEntity entity = entityManager.find(OAuthTokenEntity.class, hash);
+                if (entity == null) {
+                    return null;
+                }
+                // only the transaction that actually deletes the row gets the token
+                int deleted = entityManager
+                        .createQuery("DELETE FROM OAuthTokenEntity t WHERE t.tokenHash = :tokenHash")
+                        .setParameter("tokenHash", hash).executeUpdate();
+                return deleted == 1 ? entity.toToken() : null;
+            }
+        });
+    }
+
+    @Override
+    protected int doRemoveExpired(final long now) {
+        return execute(new Work<Integer>() {
+            @Override
+            public Integer execute(EntityManager entityManager) {
+                return entityManager.createQuery("DELETE FROM OAuthTokenEntity t WHERE t.expiration <= :now")
+                        .setParameter("now", now).executeUpdate();
+            }
+        });
+    }
+
+    private <T> T execute(Work<T> work) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            T result = work.execute(entityManager);
+            transaction.commit();
+            return result;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            entityManager.close();
+        }
+    }
+
+    private interface Work<T> {
+        T execute(EntityManager entityManager);
+    }
+}
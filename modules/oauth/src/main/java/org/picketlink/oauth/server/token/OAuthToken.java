@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.oauth.server.token;
+
+import java.io.Serializable;
+
+/**
+ * An authorization code, access token or refresh token issued to a client. The value of the token itself is not kept,
+ * stores only keep its hash.
+ *
+ * @author agent
+ */
+public class OAuthToken implements Serializable {
+    private static final long serialVersionUID = -6470813478313316512L;
+
+    public enum Type {
+        AUTHORIZATION_CODE, ACCESS_TOKEN, REFRESH_TOKEN
+    }
+
+    private final Type type;
+    private final String clientID;
+    private final String scope;
+    private final long expiration;
+
+    /**
+     * Create a token
+     *
+     * @param type the type of the token
+     * @param clientID the client the token was issued to
+     * @param scope the scope of the token, may be null
+     * @param expiration the time, in milliseconds, after which the token is no longer valid
+     */
+    public OAuthToken(Type type, String clientID, String scope, long expiration) {
+        if (type == null) {
+            throw new IllegalArgumentException("type is null");
+        }
+        this.type = type;
+        this.clientID = clientID;
+        this.scope = scope;
+        this.expiration = expiration;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getClientID() {
+        return clientID;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * Check if the token is expired at the given time
+     *
+     * @param now the current time in milliseconds
+     * @return
+     */
+    public boolean isExpired(long now) {
+        return now >= expiration;
+    }
+}
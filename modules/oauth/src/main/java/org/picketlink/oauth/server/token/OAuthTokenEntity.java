@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.oauth.server.token;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+
+/**
+ * Entity used by {@link JPATokenStore}. Tokens are keyed by the hash of their value, so a lookup is a primary key
+ * lookup.
+ *
+ * @author agent
+ */
+@Entity
+public class OAuthTokenEntity implements Serializable {
+    private static final long serialVersionUID = 2866215196539464580L;
+
+    @Id
+    @Column(length = 64)
+    private String tokenHash;
+
+    @Enumerated(EnumType.STRING)
+    private OAuthToken.Type type;
+
+    private String clientID;
+
+    private String scope;
+
+    @Column(nullable = false)
+    private long expiration;
+
+    public OAuthTokenEntity() {
+    }
+
+    public OAuthTokenEntity(String tokenHash, OAuthToken token) {
+        this.tokenHash = tokenHash;
+        this.type = token.getType();
+        this.clientID = token.getClientID();
+        this.scope = token.getScope();
+        this.expiration = token.getExpiration();
+    }
+
+    public String getTokenHash() {
+        return tokenHash;
+    }
+
+    public void setTokenHash(String tokenHash) {
+        this.tokenHash = tokenHash;
+    }
+
+    public OAuthToken.Type getType() {
+        return type;
+    }
+
+    public void setType(OAuthToken.Type type) {
+        this.type = type;
+    }
+
+    public String getClientID() {
+        return clientID;
+    }
+
+    public void setClientID(String clientID) {
+        this.clientID = clientID;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(long expiration) {
+        this.expiration = expiration;
+    }
+
+    public OAuthToken toToken() {
+        return new OAuthToken(type, clientID, scope, expiration);
+    }
+}
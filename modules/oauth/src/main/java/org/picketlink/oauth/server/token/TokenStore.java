@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.oauth.server.token;
+
+/**
+ * Stores the tokens issued by the OAuth server. Tokens are looked up by their value, which implementations only keep
+ * as a hash. Expired tokens are never returned.
+ *
+ * @author agent
+ */
+public interface TokenStore {
+
+    /**
+     * Store a token, replacing any token with the same value
+     *
+     * @param value the value of the token, as sent to the client
+     * @param token
+     */
+    void store(String value, OAuthToken token);
+
+    /**
+     * Look up a token, such as an access token, that can be used until it expires
+     *
+     * @param value the value of the token
+     * @return the token or null if it does not exist or is expired
+     */
+    OAuthToken lookup(String value);
+
+    /**
+     * Remove a single-use token, such as an authorization code or a refresh token. When called concurrently for the
+     * same value, only one of the callers gets the token.
+     *
+     * @param value the value of the token
+     * @return the token or null if it does not exist, is expired or was already consumed
+     */
+    OAuthToken consume(String value);
+
+    /**
+     * Remove a token
+     *
+     * @param value the value of the token
+     */
+    void revoke(String value);
+
+    /**
+     * Remove all expired tokens
+     *
+     * @return the number of tokens removed
+     */
+    int removeExpired();
+
+    /**
+     * Release the resources held by the store
+     */
+    void close();
+}
@@ -18,6 +18,7 @@
 package org.picketlink.oauth.server.util;
 
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -56,6 +57,7 @@ import org.picketlink.idm.spi.ContextInitializer;
 import org.picketlink.idm.spi.IdentityContext;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.oauth.common.OAuthConstants;
+import org.picketlink.oauth.grants.AccessTokenEnabledGrant;
 import org.picketlink.oauth.grants.AuthorizationCodeGrant;
 import org.picketlink.oauth.grants.ResourceOwnerPasswordCredentialsGrant;
 import org.picketlink.oauth.grants.ResourceOwnerPasswordCredentialsGrant.PasswordAccessTokenRequest;
@@ -66,6 +68,11 @@ import org.picketlink.oauth.messages.ErrorResponse.ErrorResponseCode;
 import org.picketlink.oauth.messages.OAuthResponse;
 import org.picketlink.oauth.messages.RegistrationRequest;
 import org.picketlink.oauth.messages.ResourceAccessRequest;
+import org.picketlink.oauth.server.token.AbstractTokenStore;
+import org.picketlink.oauth.server.token.InMemoryTokenStore;
+import org.picketlink.oauth.server.token.JPATokenStore;
+import org.picketlink.oauth.server.token.OAuthToken;
+import org.picketlink.oauth.server.token.TokenStore;
 
 /**
  * Utility
@@ -76,6 +83,18 @@ import org.picketlink.oauth.messages.ResourceAccessRequest;
 public class OAuthServerUtil {
     private static Logger log = Logger.getLogger(OAuthServerUtil.class);
 
+    /**
+     * Context parameter selecting the {@link TokenStore}: <code>memory</code> (default) or <code>jpa</code>. Tokens kept
+     * in memory are lost when the application is restarted and are not shared by the nodes of a cluster, so
+     * <code>jpa</code> should be used in those cases.
+     */
+    public static final String TOKEN_STORE = "org.picketlink.oauth.TOKEN_STORE";
+
+    /**
+     * Context parameter with the interval, in milliseconds, between two removals of expired tokens
+     */
+    public static final String TOKEN_STORE_SWEEP_INTERVAL = "org.picketlink.oauth.TOKEN_STORE_SWEEP_INTERVAL";
+
     private static EntityManagerFactory entityManagerFactory;
     private static ThreadLocal<EntityManager> entityManagerThreadLocal = new ThreadLocal<EntityManager>();
 
@@ -141,14 +160,65 @@ public class OAuthServerUtil {
         return identityManager;
     }
 
+    /**
+     * Centralize the {@link TokenStore} setup. Must be called after {@link #handleIdentityManager(ServletContext)} when
+     * the JPA store is used.
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized TokenStore handleTokenStore(ServletContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("context is null");
+        }
+        TokenStore tokenStore = (TokenStore) context.getAttribute("tokenStore");
+        if (tokenStore == null) {
+            long sweepInterval = AbstractTokenStore.DEFAULT_SWEEP_INTERVAL;
+            String sweepIntervalParam = context.getInitParameter(TOKEN_STORE_SWEEP_INTERVAL);
+            if (sweepIntervalParam != null) {
+                sweepInterval = Long.parseLong(sweepIntervalParam.trim());
+            }
+
+            String type = context.getInitParameter(TOKEN_STORE);
+            if (type == null || "memory".equalsIgnoreCase(type)) {
+                tokenStore = new InMemoryTokenStore(sweepInterval);
+            } else if ("jpa".equalsIgnoreCase(type)) {
+                if (entityManagerFactory == null) {
+                    throw new IllegalStateException("The JPA token store needs the identity manager to be set up first");
+                }
+                tokenStore = new JPATokenStore(entityManagerFactory, sweepInterval);
+            } else {
+                throw new IllegalArgumentException("Unknown token store:" + type);
+            }
+
+            context.setAttribute("tokenStore", tokenStore);
+        }
+        return tokenStore;
+    }
+
+    /**
+     * Close the {@link TokenStore} of the given context, if one was created.
+     *
+     * @param context
+     */
+    public static synchronized void closeTokenStore(ServletContext context) {
+        TokenStore tokenStore = (TokenStore) context.getAttribute("tokenStore");
+        if (tokenStore != null) {
+            context.removeAttribute("tokenStore");
+            tokenStore.close();
+        }
+    }
+
     /**
      * Handle an Authorization Code Grant Type Request
      *
      * @param request
      * @param identityManager
+     * @param tokenStore
      * @return
      */
-    public static OAuthResponse authorizationCodeRequest(HttpServletRequest request, IdentityManager identityManager) {
+    public static OAuthResponse authorizationCodeRequest(HttpServletRequest request, IdentityManager identityManager,
+            TokenStore tokenStore) {
 
         AuthorizationCodeGrant grant = new AuthorizationCodeGrant();
 
@@ -220,8 +290,8 @@ public class OAuthServerUtil {
             String authorizationCode = grant.getValueGenerator().value();
             grant.setAuthorizationCode(authorizationCode);
 
-            clientApp.setAttribute(new Attribute<String>("authorizationCode", authorizationCode));
-            identityManager.update(clientApp);
+            tokenStore.store(authorizationCode, new OAuthToken(OAuthToken.Type.AUTHORIZATION_CODE, clientID,
+                    authorizationRequest.getScope(), expiration(grant.getAuthorizationCodeExpiry())));
 
             oauthResponse = grant.authorizationResponse();
             oauthResponse.setStatusCode(HttpServletResponse.SC_FOUND);
@@ -245,19 +315,21 @@ public class OAuthServerUtil {
      *
      * @param request
      * @param identityManager
+     * @param tokenStore
      * @return
      */
-    public static OAuthResponse tokenRequest(HttpServletRequest request, IdentityManager identityManager) {
+    public static OAuthResponse tokenRequest(HttpServletRequest request, IdentityManager identityManager,
+            TokenStore tokenStore) {
         String grantType = request.getParameter(OAuthConstants.GRANT_TYPE);
         // Authorization Code Grant
         if (grantType.equals(AuthorizationCodeGrant.GRANT_TYPE)) {
-            return authorizationCodeGrantTypeTokenRequest(request, identityManager);
+            return authorizationCodeGrantTypeTokenRequest(request, identityManager, tokenStore);
         }
         if (grantType.equals(OAuthConstants.PASSWORD)) {
             return passwordGrantTypeTokenRequest(request, identityManager);
         }
         if (grantType.equals(OAuthConstants.REFRESH_TOKEN)) {
-            return refreshTokenRequest(request);
+            return refreshTokenRequest(request, identityManager, tokenStore);
         }
         return null;
     }
@@ -266,20 +338,12 @@ public class OAuthServerUtil {
      * Validate the access token
      *
      * @param passedAccessToken
-     * @param identityManager
+     * @param tokenStore
      * @return
      */
-    public static boolean validateAccessToken(String passedAccessToken, IdentityManager identityManager) {
-        IdentityQuery<Agent> agentQuery = identityManager.createIdentityQuery(Agent.class);
-        agentQuery.setParameter(AttributedType.QUERY_ATTRIBUTE.byName("accessToken"), passedAccessToken);
-
-        List<Agent> agents = agentQuery.getResultList();
-        int size = agents.size();
-
-        if (size == 0 || size != 1) {
-            return false;
-        }
-        return true;
+    public static boolean validateAccessToken(String passedAccessToken, TokenStore tokenStore) {
+        OAuthToken token = tokenStore.lookup(passedAccessToken);
+        return token != null && token.getType() == OAuthToken.Type.ACCESS_TOKEN;
     }
 
     /**
@@ -334,19 +398,88 @@ public class OAuthServerUtil {
     // Private Methods
 
     /**
-     * Refresh Token Request
+     * Refresh Token Request. The client must authenticate with its secret. The refresh token is single use, a new one
+     * is issued with the access token.
      *
      * @param request
      * @param identityManager
+     * @param tokenStore
      * @return
      */
-    private static OAuthResponse refreshTokenRequest(HttpServletRequest request) {
+    private static OAuthResponse refreshTokenRequest(HttpServletRequest request, IdentityManager identityManager,
+            TokenStore tokenStore) {
+        String passedClientID = request.getParameter(OAuthConstants.CLIENT_ID);
+        if (passedClientID == null) {
 
-        ErrorResponse errorResponse = new ErrorResponse();
-        errorResponse.setErrorDescription("refresh_token not supported").setError(ErrorResponseCode.invalid_client)
-                .setStatusCode(HttpServletResponse.SC_BAD_REQUEST);
+            ErrorResponse errorResponse = new ErrorResponse();
+            errorResponse.setErrorDescription("client_id is null").setError(ErrorResponseCode.invalid_client)
+                    .setStatusCode(HttpServletResponse.SC_BAD_REQUEST);
+
+            return errorResponse;
+        }
+
+        // the client is authenticated before the refresh token is consumed, so a failed attempt does not revoke it
+        if (!authenticateClient(identityManager, passedClientID, request.getParameter(OAuthConstants.CLIENT_SECRET))) {
+            log.error("client authentication failed for " + passedClientID);
+
+            ErrorResponse errorResponse = new ErrorResponse();
+            errorResponse.setErrorDescription("client authentication failed").setError(ErrorResponseCode.invalid_client)
+                    .setStatusCode(HttpServletResponse.SC_BAD_REQUEST);
+
+            return errorResponse;
+        }
 
-        return errorResponse;
+        OAuthToken refreshToken = tokenStore.consume(request.getParameter(OAuthConstants.REFRESH_TOKEN));
+        if (refreshToken == null || refreshToken.getType() != OAuthToken.Type.REFRESH_TOKEN
+                || !passedClientID.equals(refreshToken.getClientID())) {
+            log.error("refresh_token is invalid");
+
+            ErrorResponse errorResponse = new ErrorResponse();
+            errorResponse.setErrorDescription("refresh_token is invalid").setError(ErrorResponseCode.invalid_grant)
+                    .setStatusCode(HttpServletResponse.SC_BAD_REQUEST);
+
+            return errorResponse;
+        }
+
+        // refresh tokens are only issued by the authorization code grant
+        AuthorizationCodeGrant grant = new AuthorizationCodeGrant();
+        grant.setScope(refreshToken.getScope());
+        issueTokens(grant, passedClientID, tokenStore);
+
+        OAuthResponse oauthResponse = grant.accessTokenResponse();
+        oauthResponse.setStatusCode(HttpServletResponse.SC_OK);
+
+        return oauthResponse;
+    }
+
+    /**
+     * Check the secret of the client registered with the given client id
+     *
+     * @param identityManager
+     * @param clientID
+     * @param clientSecret
+     * @return
+     */
+    private static boolean authenticateClient(IdentityManager identityManager, String clientID, String clientSecret) {
+        if (clientSecret == null) {
+            return false;
+        }
+
+        IdentityQuery<Agent> agentQuery = identityManager.createIdentityQuery(Agent.class);
+        agentQuery.setParameter(AttributedType.QUERY_ATTRIBUTE.byName("clientID"), clientID);
+
+        List<Agent> agents = agentQuery.getResultList();
+        if (agents.size() != 1) {
+            return false;
+        }
+
+        Attribute<String> secretAttr = agents.get(0).getAttribute("clientSecret");
+        if (secretAttr == null || secretAttr.getValue() == null) {
+            return false;
+        }
+
+        // compared in constant time, so the secret can not be guessed from the response time
+        return MessageDigest.isEqual(secretAttr.getValue().getBytes(), clientSecret.getBytes());
     }
 
     /**
@@ -402,7 +535,7 @@ public class OAuthServerUtil {
      * @return
      */
     private static OAuthResponse authorizationCodeGrantTypeTokenRequest(HttpServletRequest request,
-            IdentityManager identityManager) {
+            IdentityManager identityManager, TokenStore tokenStore) {
         OAuthResponse oauthResponse = null;
 
         AuthorizationCodeGrant grant = new AuthorizationCodeGrant();
@@ -448,8 +581,7 @@ public class OAuthServerUtil {
         // Get the values from DB
         Attribute<String> clientIDAttr = clientApp.getAttribute("clientID");
         String clientID = clientIDAttr.getValue();
-        Attribute<String> authorizationCodeAttr = clientApp.getAttribute("authorizationCode");
-        if (authorizationCodeAttr == null) {
+        if (accessTokenRequest.getCode() == null) {
             log.error("authorization code is null");
 
             ErrorResponse errorResponse = new ErrorResponse();
@@ -458,7 +590,6 @@ public class OAuthServerUtil {
 
             return errorResponse;
         }
-        String authorizationCode = authorizationCodeAttr.getValue();
 
         // check if clientid is valid
         if (!clientID.equals(passedClientID)) {
@@ -471,23 +602,21 @@ public class OAuthServerUtil {
             return errorResponse;
         }
 
-        if (accessTokenRequest.getGrantType().equals(AuthorizationCodeGrant.GRANT_TYPE)) {
-            if (!authorizationCode.equals(accessTokenRequest.getCode())) {
+        // the code is single use, consuming it also rejects codes that were already exchanged
+        OAuthToken authorizationCode = tokenStore.consume(accessTokenRequest.getCode());
+        if (authorizationCode == null || authorizationCode.getType() != OAuthToken.Type.AUTHORIZATION_CODE
+                || !clientID.equals(authorizationCode.getClientID())) {
 
-                log.error("authorization_code does not match");
+            log.error("authorization_code does not match");
 
-                ErrorResponse errorResponse = new ErrorResponse();
-                errorResponse.setErrorDescription("authorization_code does not match")
-                        .setError(ErrorResponseCode.invalid_grant).setStatusCode(HttpServletResponse.SC_BAD_REQUEST);
-                return errorResponse;
-            }
+            ErrorResponse errorResponse = new ErrorResponse();
+            errorResponse.setErrorDescription("authorization_code does not match")
+                    .setError(ErrorResponseCode.invalid_grant).setStatusCode(HttpServletResponse.SC_BAD_REQUEST);
+            return errorResponse;
         }
 
-        String accessToken = grant.getValueGenerator().value();
-        clientApp.setAttribute(new Attribute<String>("accessToken", accessToken));
-        identityManager.update(clientApp);
-
-        grant.setAccessToken(accessToken);
+        grant.setScope(authorizationCode.getScope());
+        issueTokens(grant, clientID, tokenStore);
 
         oauthResponse = grant.accessTokenResponse();
         oauthResponse.setStatusCode(HttpServletResponse.SC_FOUND);
@@ -495,6 +624,30 @@ public class OAuthServerUtil {
         return oauthResponse;
     }
 
+    /**
+     * Generate an access token and a refresh token, and store them
+     *
+     * @param grant
+     * @param clientID
+     * @param tokenStore
+     */
+    private static void issueTokens(AccessTokenEnabledGrant grant, String clientID, TokenStore tokenStore) {
+        String accessToken = grant.getValueGenerator().value();
+        String refreshToken = grant.getValueGenerator().value();
+
+        tokenStore.store(accessToken, new OAuthToken(OAuthToken.Type.ACCESS_TOKEN, clientID, grant.getScope(),
+                expiration(grant.getAccessTokenExpiry())));
+        tokenStore.store(refreshToken, new OAuthToken(OAuthToken.Type.REFRESH_TOKEN, clientID, grant.getScope(),
+                expiration(grant.getRefreshTokenExpiry())));
+
+        grant.setAccessToken(accessToken);
+        grant.setRefreshToken(refreshToken);
+    }
+
+    private static long expiration(long expiryInSeconds) {
+        return System.currentTimeMillis() + expiryInSeconds * 1000L;
+    }
+
     private static AuthorizationRequest parseAuthorizationRequest(HttpServletRequest request) {
         AuthorizationRequest authorizationRequest = new AuthorizationRequest();
 
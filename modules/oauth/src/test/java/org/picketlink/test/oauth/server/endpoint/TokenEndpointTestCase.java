@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.oauth.server.endpoint;
+
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.PropertyNamingStrategy;
+import org.junit.Test;
+import org.picketlink.oauth.OAuthUtils;
+import org.picketlink.oauth.client.ClientOAuth;
+import org.picketlink.oauth.common.OAuthConstants;
+import org.picketlink.oauth.messages.AccessTokenResponse;
+import org.picketlink.oauth.messages.AuthorizationResponse;
+import org.picketlink.oauth.messages.RegistrationResponse;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test the {@link org.picketlink.oauth.server.endpoint.TokenEndpoint}
+ *
+ * @author agent
+ */
+public class TokenEndpointTestCase extends EndpointTestBase {
+
+    private String registrationEndpoint = "http://localhost:11080/oauth/register";
+    private String authorizationEndpoint = "http://localhost:11080/oauth/authz";
+    private String tokenEndpoint = "http://localhost:11080/oauth/token";
+    private String authzRedirectURL = "http://localhost:11080/oauth/redirect";
+
+    private ClientOAuth client = new ClientOAuth();
+
+    @Test
+    public void testAuthorizationCodeUsedOnce() throws Exception {
+        RegistrationResponse registration = register();
+        String authorizationCode = authorize(registration.getClientID());
+
+        AccessTokenResponse tokenResponse = exchange(registration, authorizationCode);
+        assertNotNull(tokenResponse.getAccessToken());
+
+        AccessTokenResponse reusedResponse = exchange(registration, authorizationCode);
+        assertNull(reusedResponse.getAccessToken());
+    }
+
+    @Test
+    public void testRefreshTokenRotation() throws Exception {
+        RegistrationResponse registration = register();
+        String clientID = registration.getClientID();
+        String clientSecret = registration.getClientSecret();
+
+        AccessTokenResponse tokenResponse = exchange(registration, authorize(clientID));
+        String refreshToken = tokenResponse.getRefreshToken();
+        assertNotNull(refreshToken);
+
+        AccessTokenResponse refreshed = refresh(clientID, clientSecret, refreshToken, HttpURLConnection.HTTP_OK);
+        assertNotNull(refreshed.getAccessToken());
+        assertNotNull(refreshed.getRefreshToken());
+        assertFalse(refreshToken.equals(refreshed.getRefreshToken()));
+        assertFalse(tokenResponse.getAccessToken().equals(refreshed.getAccessToken()));
+
+        // the refresh token was rotated, so it can not be used again
+        assertNull(refresh(clientID, clientSecret, refreshToken, HttpURLConnection.HTTP_BAD_REQUEST).getAccessToken());
+
+        // nor by a client other than the one it was issued to
+        assertNull(refresh("other", clientSecret, refreshed.getRefreshToken(), HttpURLConnection.HTTP_BAD_REQUEST)
+                .getAccessToken());
+    }
+
+    @Test
+    public void testRefreshRequiresClientSecret() throws Exception {
+        RegistrationResponse registration = register();
+        String clientID = registration.getClientID();
+
+        String refreshToken = exchange(registration, authorize(clientID)).getRefreshToken();
+        assertNotNull(refreshToken);
+
+        assertNull(refresh(clientID, null, refreshToken, HttpURLConnection.HTTP_BAD_REQUEST).getAccessToken());
+        assertNull(refresh(clientID, "wrong", refreshToken, HttpURLConnection.HTTP_BAD_REQUEST).getAccessToken());
+
+        // the failed attempts did not consume the refresh token
+        assertNotNull(refresh(clientID, registration.getClientSecret(), refreshToken, HttpURLConnection.HTTP_OK)
+                .getAccessToken());
+    }
+
+    private RegistrationResponse register() throws Exception {
+        RegistrationResponse registrationResponse = client.registrationClient().setLocation(registrationEndpoint)
+                .setAppName("Sample Application").setAppURL("http://www.example.com")
+                .setAppDescription("Description of a Sample App").setAppIcon("http://www.example.com/app.ico")
+                .setAppRedirectURL("http://www.example.com/redirect").build().registerAsJSON();
+
+        assertNotNull(registrationResponse.getClientID());
+        assertNotNull(registrationResponse.getClientSecret());
+
+        return registrationResponse;
+    }
+
+    private String authorize(String clientID) throws Exception {
+        AuthorizationResponse authorizationResponse = client.authorizationClient()
+                .setAuthorizationEndpoint(authorizationEndpoint).setClientID(clientID)
+                .setAuthCodeRedirectURL(authzRedirectURL).build().execute();
+
+        // Msg will contain something like http://localhost:11080/oauth/redirect?code=3c80bf2325fc6e9ef5b84ea4edc6a2ac
+        String msg = authorizationResponse.getResponseMessage();
+        int index = msg.indexOf("http");
+        Map<String, Object> map = OAuthUtils.decodeForm(msg.substring(index + authzRedirectURL.length() + 1));
+
+        String authorizationCode = (String) map.get(OAuthConstants.CODE);
+        assertNotNull(authorizationCode);
+
+        return authorizationCode;
+    }
+
+    private AccessTokenResponse exchange(RegistrationResponse registration, String authorizationCode) throws Exception {
+        return client.tokenClient().setTokenEndpoint(tokenEndpoint).setAuthorizationCode(authorizationCode)
+                .setAuthCodeRedirectURL(registrationEndpoint).setClientID(registration.getClientID())
+                .setClientSecret(registration.getClientSecret()).build().execute();
+    }
+
+    private AccessTokenResponse refresh(String clientID, String clientSecret, String refreshToken, int expectedStatus)
+            throws Exception {
+        String body = OAuthConstants.GRANT_TYPE + "=" + OAuthConstants.REFRESH_TOKEN + "&" + OAuthConstants.REFRESH_TOKEN
+                + "=" + URLEncoder.encode(refreshToken, "UTF-8") + "&" + OAuthConstants.CLIENT_ID + "="
+                + URLEncoder.encode(clientID, "UTF-8");
+
+        if (clientSecret != null) {
+            body += "&" + OAuthConstants.CLIENT_SECRET + "=" + URLEncoder.encode(clientSecret, "UTF-8");
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(tokenEndpoint).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+
+        OutputStream os = connection.getOutputStream();
+        PrintWriter pw = new PrintWriter(os);
+        pw.print(body);
+        pw.close();
+
+        assertEquals(expectedStatus, connection.getResponseCode());
+
+        InputStream is = expectedStatus == HttpURLConnection.HTTP_OK ? connection.getInputStream() : connection
+                .getErrorStream();
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategy.CAMEL_CASE_TO_LOWER_CASE_WITH_UNDERSCORES);
+
+        try {
+            return mapper.readValue(is, AccessTokenResponse.class);
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.oauth.server.token;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketlink.oauth.server.token.InMemoryTokenStore;
+import org.picketlink.oauth.server.token.OAuthToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test the {@link InMemoryTokenStore}
+ *
+ * @author agent
+ */
+public class InMemoryTokenStoreTestCase {
+
+    private InMemoryTokenStore tokenStore = new InMemoryTokenStore(0);
+
+    @After
+    public void onFinish() {
+        tokenStore.close();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        tokenStore.store("token", accessToken(60000L));
+
+        OAuthToken token = tokenStore.lookup("token");
+        assertNotNull(token);
+        assertEquals("client", token.getClientID());
+        assertNotNull(tokenStore.lookup("token"));
+        assertNull(tokenStore.lookup("other"));
+
+        tokenStore.revoke("token");
+        assertNull(tokenStore.lookup("token"));
+    }
+
+    @Test
+    public void testExpiredTokens() throws Exception {
+        tokenStore.store("expired", accessToken(-1L));
+        tokenStore.store("valid", accessToken(60000L));
+
+        assertNull(tokenStore.consume("expired"));
+        assertEquals(1, tokenStore.size());
+
+        tokenStore.store("expired", accessToken(-1L));
+        assertEquals(1, tokenStore.removeExpired());
+        assertEquals(1, tokenStore.size());
+        assertNotNull(tokenStore.lookup("valid"));
+    }
+
+    @Test
+    public void testConsumeOnce() throws Exception {
+        tokenStore.store("code", new OAuthToken(OAuthToken.Type.AUTHORIZATION_CODE, "client", null,
+                System.currentTimeMillis() + 60000L));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<OAuthToken>> results = new ArrayList<Future<OAuthToken>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<OAuthToken>() {
+                    @Override
+                    public OAuthToken call() throws Exception {
+                        return tokenStore.consume("code");
+                    }
+                }));
+            }
+
+            int consumed = 0;
+            for (Future<OAuthToken> result : results) {
+                if (result.get() != null) {
+                    consumed++;
+                }
+            }
+            assertEquals(1, consumed);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSweeper() throws Exception {
+        InMemoryTokenStore sweptStore = new InMemoryTokenStore(10L);
+        try {
+            sweptStore.store("expired", accessToken(-1L));
+
+            for (int i = 0; i < 100 && sweptStore.size() > 0; i++) {
+                Thread.sleep(10L);
+            }
+            assertEquals(0, sweptStore.size());
+        } finally {
+            sweptStore.close();
+        }
+    }
+
+    private OAuthToken accessToken(long expiresIn) {
+        return new OAuthToken(OAuthToken.Type.ACCESS_TOKEN, "client", null, System.currentTimeMillis() + expiresIn);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source
+ *
+ * Copyright 2013 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.picketlink.test.oauth.server.token;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.picketlink.oauth.server.token.JPATokenStore;
+import org.picketlink.oauth.server.token.OAuthToken;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test the {@link JPATokenStore} against the test persistence unit
+ *
+ * @author agent
+ */
+public class JPATokenStoreTestCase {
+
+    private static EntityManagerFactory entityManagerFactory;
+
+    private JPATokenStore tokenStore;
+
+    @BeforeClass
+    public static void onInit() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("picketlink-oauth-pu");
+    }
+
+    @AfterClass
+    public static void onDestroy() {
+        entityManagerFactory.close();
+    }
+
+    @Before
+    public void onSetup() {
+        tokenStore = new JPATokenStore(entityManagerFactory, 0);
+    }
+
+    @After
+    public void onFinish() {
+        tokenStore.close();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        tokenStore.store("jpa-token", accessToken(60000L));
+
+        OAuthToken token = tokenStore.lookup("jpa-token");
+        assertNotNull(token);
+        assertEquals(OAuthToken.Type.ACCESS_TOKEN, token.getType());
+        assertEquals("client", token.getClientID());
+        assertNotNull(tokenStore.lookup("jpa-token"));
+        assertNull(tokenStore.lookup("jpa-other"));
+
+        tokenStore.revoke("jpa-token");
+        assertNull(tokenStore.lookup("jpa-token"));
+    }
+
+    @Test
+    public void testConsumeOnce() throws Exception {
+        tokenStore.store("jpa-code", new OAuthToken(OAuthToken.Type.AUTHORIZATION_CODE, "client", null,
+                System.currentTimeMillis() + 60000L));
+
+        assertNotNull(tokenStore.consume("jpa-code"));
+        assertNull(tokenStore.consume("jpa-code"));
+        assertNull(tokenStore.lookup("jpa-code"));
+    }
+
+    @Test
+    public void testExpiredTokens() throws Exception {
+        tokenStore.store("jpa-expired", accessToken(-1L));
+        tokenStore.store("jpa-valid", accessToken(60000L));
+
+        assertNull(tokenStore.lookup("jpa-expired"));
+        assertNull(tokenStore.consume("jpa-expired"));
+
+        tokenStore.store("jpa-expired", accessToken(-1L));
+        assertEquals(1, tokenStore.removeExpired());
+        assertNull(tokenStore.consume("jpa-expired"));
+        assertNotNull(tokenStore.lookup("jpa-valid"));
+
+        tokenStore.revoke("jpa-valid");
+    }
+
+    private OAuthToken accessToken(long expiresIn) {
+        return new OAuthToken(OAuthToken.Type.ACCESS_TOKEN, "client", null, System.currentTimeMillis() + expiresIn);
+    }
+}